@@ -36,6 +36,11 @@ android {
     }
 }
 
+// El benchmark de mappers solo se ejecuta si se pide: ./gradlew testDebugUnitTest -PmapperBenchmark
+tasks.withType<Test>().configureEach {
+    systemProperty("mapperBenchmark", project.hasProperty("mapperBenchmark").toString())
+}
+
 dependencies {
     implementation("androidx.recyclerview:recyclerview:1.3.2")
     implementation("com.squareup.picasso:picasso:2.8")
@@ -76,6 +81,9 @@ dependencies {
     implementation(libs.activity)
 
     testImplementation("junit:junit:4.13.2")
+    // DocumentReference para el mapeo por reflexión de referencia y org.json real en la JVM
+    testImplementation("org.mockito:mockito-core:5.12.0")
+    testImplementation("org.json:json:20240303")
     androidTestImplementation("androidx.test.ext:junit:1.2.1")
     androidTestImplementation("androidx.test.espresso:espresso-core:3.6.1")
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 const functions = require('firebase-functions');
 const admin = require('firebase-admin');
 const crypto = require('crypto');
+const { isDeepStrictEqual } = require('util');
 admin.initializeApp();
 
 function getAesKey() {
@@ -17,19 +18,83 @@ function decryptAESBase64_ECB_PKCS5(encryptedBase64, keyStr) {
   return decrypted.toString('utf8');
 }
 
-function tryDecryptContent(content) {
-  if (!content || typeof content !== 'string') return content;
-  const key = getAesKey();
-  // Intento 1: descifrar una vez
-  try {
-    let plain = decryptAESBase64_ECB_PKCS5(content, key);
-    // Intento 2: compatibilidad por si viene doble-cifrado
+// Sobre de cifrado (mismo formato que CryptoUtils en la app):
+// "~" + Base64([versión][esquema][capas][cifrado]). '~' no existe en Base64,
+// así que el contenido antiguo sin cabecera no se confunde con un sobre.
+const ENVELOPE_PREFIX = '~';
+const ENVELOPE_VERSION = 1;
+const SCHEME_AES_ECB = 1; // AES-128/ECB/PKCS5 con la clave compartida
+const SCHEME_CHAT_KEY = 2; // AES-256-GCM con la clave del chat: el servidor no la tiene
+const ENVELOPE_HEADER_SIZE = 3;
+
+function decryptAESBytes_ECB_PKCS5(cipherBytes, keyStr) {
+  const decipher = crypto.createDecipheriv('aes-128-ecb', Buffer.from(keyStr, 'utf8'), null);
+  decipher.setAutoPadding(true);
+  return Buffer.concat([decipher.update(cipherBytes), decipher.final()]);
+}
+
+function sealEnvelope(plain, keyStr) {
+  const cipher = crypto.createCipheriv('aes-128-ecb', Buffer.from(keyStr, 'utf8'), null);
+  const encrypted = Buffer.concat([cipher.update(Buffer.from(plain, 'utf8')), cipher.final()]);
+  const header = Buffer.from([ENVELOPE_VERSION, SCHEME_AES_ECB, 1]);
+  return ENVELOPE_PREFIX + Buffer.concat([header, encrypted]).toString('base64');
+}
+
+function isEnvelope(content) {
+  return typeof content === 'string' && content.startsWith(ENVELOPE_PREFIX);
+}
+
+// Una sola pasada: el sobre dice cuántas capas hay
+function openEnvelope(content, keyStr) {
+  const envelope = Buffer.from(content.slice(ENVELOPE_PREFIX.length), 'base64');
+  if (envelope.length <= ENVELOPE_HEADER_SIZE) throw new Error('Sobre mal formado');
+  if (envelope[0] !== ENVELOPE_VERSION) throw new Error(`Versión de sobre no soportada: ${envelope[0]}`);
+  if (envelope[1] !== SCHEME_AES_ECB) throw new Error(`Esquema no soportado: ${envelope[1]}`);
+  const layers = envelope[2];
+  if (layers < 1) throw new Error(`Número de capas no válido: ${layers}`);
+
+  let data = envelope.subarray(ENVELOPE_HEADER_SIZE);
+  for (let i = 0; i < layers; i++) {
+    data = decryptAESBytes_ECB_PKCS5(data, keyStr);
+    // Las capas internas son el Base64 del cifrado anterior
+    if (i < layers - 1) data = Buffer.from(data.toString('utf8'), 'base64');
+  }
+  return data.toString('utf8');
+}
+
+// Formato antiguo sin cabecera: una o dos capas. La segunda solo se prueba si
+// el resultado parece otro cifrado (Base64 de bloques completos de AES).
+function looksEncrypted(text) {
+  if (!text || !/^[A-Za-z0-9+/=\s]+$/.test(text)) return false;
+  const decoded = Buffer.from(text, 'base64');
+  return decoded.length > 0 && decoded.length % 16 === 0;
+}
+
+function decryptLegacy(content, keyStr) {
+  let plain = decryptAESBase64_ECB_PKCS5(content, keyStr);
+  if (looksEncrypted(plain)) {
     try {
-      plain = decryptAESBase64_ECB_PKCS5(plain, key);
+      plain = decryptAESBase64_ECB_PKCS5(plain, keyStr);
     } catch (_) {
       // una pasada fue suficiente
     }
-    return plain;
+  }
+  return plain;
+}
+
+function isChatKeyEnvelope(content) {
+  if (!isEnvelope(content)) return false;
+  const header = Buffer.from(content.slice(ENVELOPE_PREFIX.length, ENVELOPE_PREFIX.length + 4), 'base64');
+  return header.length >= 2 && header[0] === ENVELOPE_VERSION && header[1] === SCHEME_CHAT_KEY;
+}
+
+// null si el contenido va cifrado de extremo a extremo
+function tryDecryptContent(content) {
+  if (!content || typeof content !== 'string') return content;
+  if (isChatKeyEnvelope(content)) return null;
+  const key = getAesKey();
+  try {
+    return isEnvelope(content) ? openEnvelope(content, key) : decryptLegacy(content, key);
   } catch (e) {
     // Fallback: devolver tal cual si no es Base64 o no está cifrado con nuestra clave
     return content;
@@ -101,7 +166,14 @@ exports.sendMessageNotification = functions.firestore
         return null;
       }
 
-      const senderName = messageData.senderName || 'Alguien';
+      // Los mensajes nuevos solo guardan senderId; senderName queda en los antiguos
+      let senderName = messageData.senderName;
+      if (!senderName && messageData.senderId) {
+        const senderSnap = await admin.firestore().collection('users').doc(messageData.senderId).get();
+        const sender = senderSnap.exists ? (senderSnap.data() || {}) : {};
+        senderName = sender.displayName || sender.email;
+      }
+      senderName = senderName || 'Alguien';
       const isImage = messageData.messageType === 1; // 1 == imagen según tu modelo
       const notificationTitle = `Mensaje de ${senderName}`;
 
@@ -111,8 +183,12 @@ exports.sendMessageNotification = functions.firestore
       } else {
         const rawContent = (messageData.content || '').toString();
         const plain = tryDecryptContent(rawContent);
-        // recortar a 100 chars para la notificación
-        notificationBody = plain.length > 100 ? plain.slice(0, 100) + '…' : plain;
+        if (plain === null) {
+          notificationBody = '🔒 Nuevo mensaje';
+        } else {
+          // recortar a 100 chars para la notificación
+          notificationBody = plain.length > 100 ? plain.slice(0, 100) + '…' : plain;
+        }
       }
 
       // Mensaje FCM v1 con configuración Android para canal y prioridad
@@ -183,3 +259,267 @@ exports.sendMessageNotification = functions.firestore
       return null;
     }
   });
+
+// Migración única: mueve los chats 1:1 con id automático al id determinista
+// direct_<uidMenor>_<uidMayor> que usa la app. Copia el chat y todas sus
+// subcolecciones, rehace las entradas de user_chats y borra el chat antiguo.
+// Solo se borra cuando todo está copiado, y el documento del chat el último:
+// si falla a medias, volver a ejecutarla retoma los chats pendientes.
+// Solo la pueden invocar cuentas con el claim personalizado "admin".
+const CHAT_SUBCOLLECTIONS = ['participants', 'keys', 'messages'];
+const MIGRATION_PAGE_SIZE = 400;
+
+function directChatId(a, b) {
+  return a < b ? `direct_${a}_${b}` : `direct_${b}_${a}`;
+}
+
+// Recorre la colección por páginas ordenadas por id
+async function forEachPage(collectionRef, callback) {
+  let last = null;
+  for (;;) {
+    let query = collectionRef.orderBy(admin.firestore.FieldPath.documentId()).limit(MIGRATION_PAGE_SIZE);
+    if (last) query = query.startAfter(last);
+    const snap = await query.get();
+    if (snap.empty) return;
+    await callback(snap.docs);
+    last = snap.docs[snap.docs.length - 1];
+  }
+}
+
+// Copia sin borrar nada. Con keepExisting no se pisan los documentos que ya
+// tenga el destino (la clave de un chat determinista creado por la app nueva).
+// transform recibe los datos de cada documento y devuelve los que se escriben
+async function copyCollection(fromRef, toRef, keepExisting, transform) {
+  const db = admin.firestore();
+  let copied = 0;
+  await forEachPage(fromRef, async docs => {
+    const targets = docs.map(doc => toRef.doc(doc.id));
+    const existing = keepExisting ? await db.getAll(...targets) : [];
+    const batch = db.batch();
+    docs.forEach((doc, i) => {
+      if (keepExisting && existing[i].exists) return;
+      batch.set(targets[i], transform(doc.data()));
+      copied++;
+    });
+    await batch.commit();
+  });
+  return copied;
+}
+
+async function deleteCollection(collectionRef) {
+  const db = admin.firestore();
+  await forEachPage(collectionRef, async docs => {
+    const batch = db.batch();
+    docs.forEach(doc => batch.delete(doc.ref));
+    await batch.commit();
+  });
+}
+
+exports.migrateDirectChatIds = functions.https.onCall(async (data, context) => {
+  if (!context.auth || !context.auth.token || context.auth.token.admin !== true) {
+    throw new functions.https.HttpsError('permission-denied', 'Solo administradores');
+  }
+
+  const db = admin.firestore();
+  const chatsSnap = await db.collection('chats').where('groupChat', '==', false).get();
+  let migrated = 0;
+
+  for (const chatDoc of chatsSnap.docs) {
+    const chat = chatDoc.data() || {};
+    const participants = chat.participantIds || [];
+    if (participants.length !== 2) continue;
+
+    const newId = directChatId(participants[0], participants[1]);
+    if (chatDoc.id === newId) continue;
+
+    const newRef = db.collection('chats').doc(newId);
+    const existing = await newRef.get();
+    // Si ya hay un chat determinista (creado por la app nueva) se conservan sus
+    // metadatos y su clave, y solo se le añade lo que falte
+    if (!existing.exists) {
+      await newRef.set(chat);
+    }
+
+    // Los mensajes pasan al chat nuevo: la app los guarda y busca por su campo
+    // chatId. La clave conserva el id con el que se cifró (boundChatId), que es
+    // el que autentica cada sobre de los mensajes ya escritos
+    const transforms = {
+      participants: data => data,
+      keys: data => Object.assign({}, data, { boundChatId: data.boundChatId || chatDoc.id }),
+      messages: data => Object.assign({}, data, { chatId: newId }),
+    };
+    const copied = {};
+    for (const name of CHAT_SUBCOLLECTIONS) {
+      copied[name] = await copyCollection(chatDoc.ref.collection(name), newRef.collection(name),
+          name !== 'messages', transforms[name]);
+    }
+
+    for (const name of CHAT_SUBCOLLECTIONS) {
+      await deleteCollection(chatDoc.ref.collection(name));
+    }
+
+    // Las entradas nuevas de user_chats las crea syncUserChats al escribir el chat
+    const batch = db.batch();
+    participants.forEach(uid => {
+      batch.delete(db.collection('user_chats').doc(uid).collection('chats').doc(chatDoc.id));
+    });
+    batch.delete(chatDoc.ref);
+    await batch.commit();
+
+    migrated++;
+    console.log(`Chat ${chatDoc.id} -> ${newId}`, copied);
+  }
+
+  return { migrated };
+});
+
+// La marca de lectura la escribe cada usuario solo en su propia entrada de
+// user_chats: no se copia del chat ni su cambio dispara la réplica
+const USER_CHAT_OWN_FIELDS = ['lastReadTimestamps'];
+
+function userChatEntry(chat) {
+  const data = Object.assign({}, chat);
+  USER_CHAT_OWN_FIELDS.forEach(field => delete data[field]);
+  return data;
+}
+
+// Sustituye los campos copiados del chat y conserva los propios de la entrada
+function setUserChatEntry(writer, ref, chat) {
+  const data = userChatEntry(chat);
+  writer.set(ref, data, { mergeFields: Object.keys(data) });
+}
+
+// Mantiene user_chats/{uid}/chats/{chatId} como copia del chat para cada
+// participante: vista previa y altas/bajas de miembros.
+// La app lee la lista de chats solo de ese índice.
+exports.syncUserChats = functions.firestore
+  .document('chats/{chatId}')
+  .onWrite(async (change, context) => {
+    const chatId = context.params.chatId;
+    const db = admin.firestore();
+    const before = change.before.exists ? (change.before.data().participantIds || []) : [];
+    const after = change.after.exists ? (change.after.data().participantIds || []) : [];
+
+    // Escrituras que solo tocan marcas de lectura (clientes antiguos): nada que replicar
+    if (change.before.exists && change.after.exists &&
+        isDeepStrictEqual(userChatEntry(change.before.data()), userChatEntry(change.after.data()))) {
+      return null;
+    }
+
+    const batch = db.batch();
+    if (change.after.exists) {
+      const data = change.after.data();
+      after.forEach(uid => {
+        setUserChatEntry(batch, db.collection('user_chats').doc(uid).collection('chats').doc(chatId), data);
+      });
+    }
+    before.filter(uid => !after.includes(uid)).forEach(uid => {
+      batch.delete(db.collection('user_chats').doc(uid).collection('chats').doc(chatId));
+    });
+
+    try {
+      await batch.commit();
+    } catch (error) {
+      console.error(`Error sincronizando user_chats de ${chatId}:`, error);
+    }
+    return null;
+  });
+
+// Rellena el índice user_chats a partir de los chats existentes (entradas
+// antiguas que solo tenían chatId y timestamp). Solo administradores.
+exports.backfillUserChats = functions.https.onCall(async (data, context) => {
+  if (!context.auth || !context.auth.token || context.auth.token.admin !== true) {
+    throw new functions.https.HttpsError('permission-denied', 'Solo administradores');
+  }
+
+  const db = admin.firestore();
+  const chatsSnap = await db.collection('chats').get();
+  let writer = db.batch();
+  let pending = 0;
+  let written = 0;
+
+  for (const chatDoc of chatsSnap.docs) {
+    const chat = chatDoc.data() || {};
+    for (const uid of (chat.participantIds || [])) {
+      setUserChatEntry(writer, db.collection('user_chats').doc(uid).collection('chats').doc(chatDoc.id), chat);
+      pending++;
+      written++;
+      if (pending === 400) {
+        await writer.commit();
+        writer = db.batch();
+        pending = 0;
+      }
+    }
+  }
+  if (pending > 0) {
+    await writer.commit();
+  }
+
+  return { written };
+});
+
+// Migración única: reescribe el contenido antiguo (Base64 sin cabecera, a veces
+// cifrado dos veces) como sobre de una sola capa, en mensajes de texto y en la
+// vista previa de cada chat. Es idempotente: lo que ya es un sobre se salta.
+// Solo administradores.
+async function migrateMessagesToEnvelope(chatRef, key) {
+  const db = admin.firestore();
+  let migrated = 0;
+  let last = null;
+
+  for (;;) {
+    let query = chatRef.collection('messages').orderBy(admin.firestore.FieldPath.documentId()).limit(300);
+    if (last) query = query.startAfter(last);
+    const snap = await query.get();
+    if (snap.empty) break;
+
+    const batch = db.batch();
+    let pending = 0;
+    snap.docs.forEach(doc => {
+      const message = doc.data() || {};
+      const content = message.content;
+      if (message.messageType === 1 || !content || typeof content !== 'string' || isEnvelope(content)) return;
+      try {
+        batch.update(doc.ref, { content: sealEnvelope(decryptLegacy(content, key), key) });
+        pending++;
+      } catch (e) {
+        console.warn(`Mensaje ${chatRef.id}/${doc.id} no descifrable; se deja igual`);
+      }
+    });
+    if (pending > 0) {
+      await batch.commit();
+      migrated += pending;
+    }
+    last = snap.docs[snap.docs.length - 1];
+  }
+  return migrated;
+}
+
+exports.migrateCiphertextEnvelope = functions.https.onCall(async (data, context) => {
+  if (!context.auth || !context.auth.token || context.auth.token.admin !== true) {
+    throw new functions.https.HttpsError('permission-denied', 'Solo administradores');
+  }
+
+  const key = getAesKey();
+  const chatsSnap = await admin.firestore().collection('chats').get();
+  let messages = 0;
+  let previews = 0;
+
+  for (const chatDoc of chatsSnap.docs) {
+    messages += await migrateMessagesToEnvelope(chatDoc.ref, key);
+
+    // La copia en user_chats la actualiza syncUserChats
+    const chat = chatDoc.data() || {};
+    const preview = chat.lastMessageContent;
+    if (chat.lastMessageType !== 1 && preview && typeof preview === 'string' && !isEnvelope(preview)) {
+      try {
+        await chatDoc.ref.update({ lastMessageContent: sealEnvelope(decryptLegacy(preview, key), key) });
+        previews++;
+      } catch (e) {
+        console.warn(`Vista previa de ${chatDoc.id} no descifrable; se deja igual`);
+      }
+    }
+  }
+
+  return { messages, previews };
+});
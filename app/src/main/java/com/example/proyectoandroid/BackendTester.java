@@ -6,6 +6,7 @@ import android.util.Log;
 
 import com.example.proyectoandroid.data.model.Chat;
 import com.example.proyectoandroid.data.model.Message;
+import com.example.proyectoandroid.data.model.MessagePage;
 import com.example.proyectoandroid.data.model.User;
 import com.example.proyectoandroid.data.remote.FirebaseAuthDataSource;
 import com.example.proyectoandroid.data.remote.FirebaseStorageDataSource;
@@ -18,6 +19,7 @@ import com.example.proyectoandroid.utils.Result;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.SetOptions;
@@ -535,6 +537,9 @@ public class BackendTester {
                 },
                 modifiedMessage -> {
                     Log.d(TAG, "Message modified: " + modifiedMessage.getMessageId());
+                },
+                deletedMessageId -> {
+                    Log.d(TAG, "Message deleted: " + deletedMessageId);
                 });
 
         activeListeners.add(listener);
@@ -596,16 +601,25 @@ public class BackendTester {
 
         Message lastMessage = page1.get(page1.size() - 1);
 
-        Result<List<Message>> page2Result = messageRepository.getChatMessagesPaginated(
-                chatId, lastMessage.getTimestamp(), 2).get(30, TimeUnit.SECONDS);
+        Result<DocumentSnapshot> cursorResult = messageRepository.getMessageCursor(
+                chatId, lastMessage.getMessageId()).get(30, TimeUnit.SECONDS);
+
+        if (cursorResult instanceof Result.Error) {
+            Log.e(TAG, "Failed to get cursor for second page: "
+                    + ((Result.Error<DocumentSnapshot>) cursorResult).getErrorMessage());
+            return false;
+        }
+
+        Result<MessagePage> page2Result = messageRepository.getOlderMessages(
+                chatId, ((Result.Success<DocumentSnapshot>) cursorResult).getData(), 2).get(30, TimeUnit.SECONDS);
 
         if (page2Result instanceof Result.Error) {
             Log.e(TAG, "Failed to get second page of messages: "
-                    + ((Result.Error<List<Message>>) page2Result).getErrorMessage());
+                    + ((Result.Error<MessagePage>) page2Result).getErrorMessage());
             return false;
         }
 
-        List<Message> page2 = ((Result.Success<List<Message>>) page2Result).getData();
+        List<Message> page2 = ((Result.Success<MessagePage>) page2Result).getData().getMessages();
 
         if (page2.isEmpty()) {
             Log.e(TAG, "Second page is empty!");
@@ -677,7 +691,7 @@ public class BackendTester {
         final CountDownLatch latch = new CountDownLatch(1);
         final AtomicBoolean listenerTriggered = new AtomicBoolean(false);
 
-        ListenerRegistration listener = chatRepository.addUserChatsListener(chats -> {
+        ListenerRegistration listener = chatRepository.addUserChatsListener(20, chats -> {
             Log.d(TAG, "Chat listener triggered with " + chats.size() + " chats");
             listenerTriggered.set(true);
             latch.countDown();
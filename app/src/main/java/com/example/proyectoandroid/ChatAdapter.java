@@ -1,37 +1,61 @@
 package com.example.proyectoandroid;
 
-import android.util.Log;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 import com.example.proyectoandroid.data.model.Chat;
-import com.example.proyectoandroid.data.model.User;
-import com.example.proyectoandroid.utils.CryptoUtils;
+import com.example.proyectoandroid.data.model.Presence;
 import com.squareup.picasso.Picasso;
 
-import java.text.SimpleDateFormat;
-import java.util.Calendar;
-import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 
-public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.ChatViewHolder> {
+/**
+ * Lista de chats sobre {@link ListAdapter}: las filas llegan ya construidas
+ * ({@link ChatListItemFactory}), el diff se hace en segundo plano y solo se
+ * repinta lo que cambió de cada fila (máscara de PAYLOAD_*).
+ */
+public class ChatAdapter extends ListAdapter<ChatListItem, ChatAdapter.ChatViewHolder> {
+
+    // Partes de una fila que se pueden repintar por separado
+    private static final int PAYLOAD_TITLE = 1;
+    private static final int PAYLOAD_AVATAR = 1 << 1;
+    private static final int PAYLOAD_PREVIEW = 1 << 2;
+    private static final int PAYLOAD_TIME = 1 << 3;
+    private static final int PAYLOAD_UNREAD = 1 << 4;
+    private static final int PAYLOAD_PRESENCE = 1 << 5;
+    private static final int PAYLOAD_ALL = ~0;
+
+    private static final DiffUtil.ItemCallback<ChatListItem> DIFF_CALLBACK = new DiffUtil.ItemCallback<ChatListItem>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull ChatListItem oldItem, @NonNull ChatListItem newItem) {
+            return TextUtils.equals(oldItem.chatId, newItem.chatId);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull ChatListItem oldItem, @NonNull ChatListItem newItem) {
+            return oldItem == newItem || changedParts(oldItem, newItem) == 0;
+        }
+
+        @Override
+        public Object getChangePayload(@NonNull ChatListItem oldItem, @NonNull ChatListItem newItem) {
+            return changedParts(oldItem, newItem);
+        }
+    };
 
-    private static final String TAG = "ChatAdapter";
-    private List<Chat> chatList;
-    private Map<String, User> userMap;
-    private String currentUserId;
-    private OnChatClickListener listener;
+    private final Map<String, Presence> presenceMap = new HashMap<>();
+    private final OnChatClickListener listener;
 
-    public ChatAdapter(List<Chat> chatList, Map<String, User> userMap, String currentUserId, OnChatClickListener listener) {
-        this.chatList = chatList;
-        this.userMap = userMap;
-        this.currentUserId = currentUserId;
+    public ChatAdapter(OnChatClickListener listener) {
+        super(DIFF_CALLBACK);
         this.listener = listener;
     }
 
@@ -39,127 +63,102 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.ChatViewHolder
     @Override
     public ChatViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         View v = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_chat, parent, false);
-        return new ChatViewHolder(v);
+        ChatViewHolder holder = new ChatViewHolder(v);
+        // Un solo listener por vista; lee la fila enlazada en el momento del clic
+        v.setOnClickListener(view -> {
+            if (listener != null && holder.item != null) listener.onChatClick(holder.item.chat);
+        });
+        return holder;
     }
 
     @Override
     public void onBindViewHolder(@NonNull ChatViewHolder holder, int position) {
-        Chat chat = chatList.get(position);
-
-        String displayName;
-        String photoUrl = null;
-
-        if (!chat.isGroupChat() && chat.getParticipantIds().size() == 2 && currentUserId != null) {
-            String otherUserId = chat.getParticipantIds().get(0).equals(currentUserId)
-                    ? chat.getParticipantIds().get(1)
-                    : chat.getParticipantIds().get(0);
-
-            User otherUser = userMap.get(otherUserId);
-            displayName = (otherUser != null && otherUser.getDisplayName() != null && !otherUser.getDisplayName().isEmpty())
-                    ? otherUser.getDisplayName()
-                    : otherUserId;
-
-            if (otherUser != null) {
-                // Priorizar photoUrl, si está vacío usar profileImageUrl como fallback
-                photoUrl = otherUser.getPhotoUrl();
-                if ((photoUrl == null || photoUrl.isEmpty()) && otherUser.getProfileImageUrl() != null) {
-                    photoUrl = otherUser.getProfileImageUrl();
-                }
-            }
-        } else {
-            displayName = chat.getChatName();
-            photoUrl = null;
-        }
-
-        holder.chatTitle.setText(displayName);
-
-        // Cargar foto de perfil
-        if (photoUrl != null && !photoUrl.isEmpty()) {
-            Picasso.get().load(photoUrl).placeholder(R.drawable.ic_profile_placeholder).into(holder.chatAvatar);
-        } else {
-            holder.chatAvatar.setImageResource(R.drawable.ic_profile_placeholder);
-        }
-
-        // Procesar mensaje según el tipo
-        String lastMsg = chat.getLastMessageContent();
-        String previewMsg = "[Sin mensaje]";
-        int msgType = chat.getLastMessageType(); // 0 = texto, 1 = imagen
-
-        // Log para debugging
-        Log.d(TAG, "Chat: " + chat.getChatId() + ", Tipo: " + msgType + ", Contenido: " + (lastMsg != null ? lastMsg : "null"));
-
-        if (msgType == 0 && lastMsg != null && !lastMsg.isEmpty()) { // TEXTO
-            // Intentar descifrar hasta 2 veces (compatibilidad con mensajes doble-cifrados)
-            try {
-                String tmp = CryptoUtils.decrypt(lastMsg);
-                try {
-                    tmp = CryptoUtils.decrypt(tmp);
-                } catch (Exception ignored) {
-                    // una pasada fue suficiente
-                }
-                previewMsg = tmp;
-            } catch (Exception e) {
-                Log.w(TAG, "No se pudo descifrar preview, mostrando crudo: " + e.getMessage());
-                previewMsg = lastMsg; // Fallback al mensaje original si falla
-            }
-            // Truncar a 15 caracteres con puntos suspensivos
-            if (previewMsg != null && previewMsg.length() > 15) {
-                previewMsg = previewMsg.substring(0, 15) + "...";
-            }
-        } else if (msgType == 1) { // IMAGEN
-            previewMsg = "[Imagen]";
-        }
-
-        holder.chatLastMessage.setText(previewMsg);
-        holder.chatTimestamp.setText(formatTimestamp(chat.getLastMessageTimestamp()));
-
-        // Mostrar remitente ("Tú:" si es el actual)
-        if (chat.getLastMessageSenderId() != null && chat.getLastMessageSenderId().equals(currentUserId)) {
-            holder.chatLastSender.setText("Tú:");
-        } else {
-            String sender = chat.getLastMessageSenderName();
-            if (sender == null || sender.isEmpty()) sender = chat.getLastMessageSenderEmail();
-            holder.chatLastSender.setText(sender != null ? sender + ":" : "");
-        }
-
-        boolean isFromOther = chat.getLastMessageSenderId() != null && !chat.getLastMessageSenderId().equals(currentUserId);
-        holder.unreadDot.setVisibility(isFromOther ? View.VISIBLE : View.GONE);
-
-        Log.d(TAG, "Chat: " + chat.getChatId() +
-                ", lastMsgRead: " + chat.isLastMessageRead() +
-                ", fromOther: " + isFromOther +
-                ", dot: " + (isFromOther ? "VISIBLE" : "GONE"));
-
-        holder.itemView.setOnClickListener(view -> {
-            if (listener != null) listener.onChatClick(chat);
-        });
+        bind(holder, getItem(position), PAYLOAD_ALL);
     }
 
     @Override
-    public int getItemCount() {
-        return chatList.size();
+    public void onBindViewHolder(@NonNull ChatViewHolder holder, int position, @NonNull List<Object> payloads) {
+        int parts = payloads.isEmpty() ? PAYLOAD_ALL : 0;
+        for (int i = 0; i < payloads.size(); i++) {
+            parts |= (Integer) payloads.get(i);
+        }
+        bind(holder, getItem(position), parts);
     }
 
-    private String formatTimestamp(Date date) {
-        if (date == null) return "";
-        Calendar today = Calendar.getInstance();
-        Calendar msgDate = Calendar.getInstance();
-        msgDate.setTime(date);
+    private void bind(ChatViewHolder holder, ChatListItem item, int parts) {
+        holder.item = item;
+        if ((parts & PAYLOAD_TITLE) != 0) {
+            holder.chatTitle.setText(item.title);
+        }
+        if ((parts & PAYLOAD_AVATAR) != 0) {
+            if (item.avatarUrl != null) {
+                Picasso.get().load(item.avatarUrl).placeholder(R.drawable.ic_profile_placeholder).into(holder.chatAvatar);
+            } else {
+                holder.chatAvatar.setImageResource(R.drawable.ic_profile_placeholder);
+            }
+        }
+        if ((parts & PAYLOAD_PREVIEW) != 0) {
+            holder.chatLastMessage.setText(item.preview);
+            holder.chatLastSender.setText(item.senderLabel);
+        }
+        if ((parts & PAYLOAD_TIME) != 0) {
+            holder.chatTimestamp.setText(item.time);
+        }
+        if ((parts & PAYLOAD_UNREAD) != 0) {
+            // No leído: el último mensaje es de otro y es posterior a mi marca de lectura
+            holder.unreadDot.setVisibility(item.unread ? View.VISIBLE : View.GONE);
+        }
+        if ((parts & PAYLOAD_PRESENCE) != 0) {
+            Presence presence = item.otherUserId != null ? presenceMap.get(item.otherUserId) : null;
+            holder.onlineIndicator.setVisibility(presence != null && presence.isOnline() ? View.VISIBLE : View.GONE);
+        }
+    }
 
-        boolean isToday = today.get(Calendar.YEAR) == msgDate.get(Calendar.YEAR)
-                && today.get(Calendar.DAY_OF_YEAR) == msgDate.get(Calendar.DAY_OF_YEAR);
+    /**
+     * Aplica un lote de cambios de presencia y repinta solo el indicador de las
+     * filas afectadas.
+     */
+    public void updatePresence(Map<String, Presence> changes) {
+        presenceMap.putAll(changes);
+        List<ChatListItem> items = getCurrentList();
+        for (int i = 0; i < items.size(); i++) {
+            String otherUserId = items.get(i).otherUserId;
+            if (otherUserId != null && changes.containsKey(otherUserId)) {
+                notifyItemChanged(i, PAYLOAD_PRESENCE);
+            }
+        }
+    }
 
-        if (isToday) {
-            return new SimpleDateFormat("HH:mm", Locale.getDefault()).format(date);
-        } else {
-            return new SimpleDateFormat("dd/MM/yyyy", Locale.getDefault()).format(date);
+    private static int changedParts(ChatListItem oldItem, ChatListItem newItem) {
+        int parts = 0;
+        if (!TextUtils.equals(oldItem.title, newItem.title)) {
+            parts |= PAYLOAD_TITLE;
+        }
+        if (!TextUtils.equals(oldItem.avatarUrl, newItem.avatarUrl)) {
+            parts |= PAYLOAD_AVATAR;
+        }
+        if (!TextUtils.equals(oldItem.preview, newItem.preview)
+                || !TextUtils.equals(oldItem.senderLabel, newItem.senderLabel)) {
+            parts |= PAYLOAD_PREVIEW;
+        }
+        if (!TextUtils.equals(oldItem.time, newItem.time)) {
+            parts |= PAYLOAD_TIME;
+        }
+        if (oldItem.unread != newItem.unread) {
+            parts |= PAYLOAD_UNREAD;
+        }
+        if (!TextUtils.equals(oldItem.otherUserId, newItem.otherUserId)) {
+            parts |= PAYLOAD_PRESENCE;
         }
+        return parts;
     }
 
     public static class ChatViewHolder extends RecyclerView.ViewHolder {
         ImageView chatAvatar;
         TextView chatTitle, chatLastMessage, chatTimestamp, chatLastSender;
         View unreadDot;
+        View onlineIndicator;
+        ChatListItem item;
 
         public ChatViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -169,10 +168,11 @@ public class ChatAdapter extends RecyclerView.Adapter<ChatAdapter.ChatViewHolder
             chatTimestamp = itemView.findViewById(R.id.chatTimestamp);
             chatLastSender = itemView.findViewById(R.id.chatLastSender);
             unreadDot = itemView.findViewById(R.id.unreadDot);
+            onlineIndicator = itemView.findViewById(R.id.chatOnlineIndicator);
         }
     }
 
     public interface OnChatClickListener {
         void onChatClick(Chat chat);
     }
-}
\ No newline at end of file
+}
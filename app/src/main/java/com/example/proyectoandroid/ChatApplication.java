@@ -10,6 +10,8 @@ import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
+import com.example.proyectoandroid.di.ServiceLocator;
+import com.example.proyectoandroid.utils.ImageLoader;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
@@ -36,6 +38,15 @@ public class ChatApplication extends Application {
             Log.e(TAG, "Error inicializando Firebase", e);
         }
 
+        // Picasso con el cargador de adjuntos cifrados, también si se entra por una notificación
+        ImageLoader.init(this);
+
+        // Reanudar el envío de mensajes que quedaron en la cola de salida
+        ServiceLocator.getInstance(this).provideOutboxDispatcher().start();
+
+        // Presencia ligada al primer/segundo plano del proceso, con latido periódico
+        ServiceLocator.getInstance(this).providePresenceService().start(this);
+
         // Crear canal de notificaciones inmediatamente
         createNotificationChannel();
 
@@ -0,0 +1,35 @@
+package com.example.proyectoandroid;
+
+import com.example.proyectoandroid.data.model.Chat;
+
+/**
+ * Fila de la lista de chats ya resuelta fuera del hilo principal: nombre y
+ * avatar del otro participante, vista previa descifrada y recortada, remitente
+ * y hora formateada. La presencia no forma parte del modelo; se pinta aparte.
+ */
+public final class ChatListItem {
+
+    final Chat chat;
+    final String chatId;
+    // null en grupos
+    final String otherUserId;
+    final String title;
+    final String avatarUrl;
+    final String preview;
+    final String senderLabel;
+    final String time;
+    final boolean unread;
+
+    ChatListItem(Chat chat, String otherUserId, String title, String avatarUrl, String preview,
+                 String senderLabel, String time, boolean unread) {
+        this.chat = chat;
+        this.chatId = chat.getChatId();
+        this.otherUserId = otherUserId;
+        this.title = title;
+        this.avatarUrl = avatarUrl;
+        this.preview = preview;
+        this.senderLabel = senderLabel;
+        this.time = time;
+        this.unread = unread;
+    }
+}
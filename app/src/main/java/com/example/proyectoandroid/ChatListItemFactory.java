@@ -0,0 +1,197 @@
+package com.example.proyectoandroid;
+
+import android.util.Log;
+
+import com.example.proyectoandroid.data.model.Chat;
+import com.example.proyectoandroid.data.model.User;
+import com.example.proyectoandroid.utils.CryptoService;
+import com.example.proyectoandroid.utils.CryptoUtils;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Construye los {@link ChatListItem} en un hilo de fondo. Cada fila se guarda
+ * por chatId y solo se recalcula si cambió el chat, alguno de los perfiles que
+ * muestra o el día (la hora se formatea distinto si no es de hoy).
+ *
+ * Todo el estado se toca solo desde {@link #EXECUTOR}.
+ */
+class ChatListItemFactory {
+
+    private static final String TAG = "ChatListItemFactory";
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final int PREVIEW_MAX_CHARS = 15;
+
+    private final String currentUserId;
+    private final Map<String, Entry> cache = new HashMap<>();
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy", Locale.getDefault());
+    private final Calendar calendar = Calendar.getInstance();
+    private volatile boolean released;
+
+    ChatListItemFactory(String currentUserId) {
+        this.currentUserId = currentUserId;
+    }
+
+    /**
+     * @param users copia de los perfiles conocidos; no se modifica después de llamar
+     * @param onBuilt se llama en el hilo de fondo con las filas en el mismo orden
+     */
+    void submit(List<Chat> chats, Map<String, User> users, Consumer<List<ChatListItem>> onBuilt) {
+        EXECUTOR.execute(() -> {
+            if (!released) {
+                onBuilt.accept(build(chats, users));
+            }
+        });
+    }
+
+    void release() {
+        released = true;
+    }
+
+    private List<ChatListItem> build(List<Chat> chats, Map<String, User> users) {
+        int today = dayKey(System.currentTimeMillis());
+        Map<String, Entry> retained = new HashMap<>(chats.size() * 2);
+        List<ChatListItem> items = new ArrayList<>(chats.size());
+
+        for (Chat chat : chats) {
+            String otherUserId = otherParticipant(chat);
+            User other = otherUserId != null ? users.get(otherUserId) : null;
+            User sender = chat.getLastMessageSenderId() != null ? users.get(chat.getLastMessageSenderId()) : null;
+
+            // La vista previa puede descifrarse más tarde sobre el mismo Chat (al llegar su clave)
+            Entry entry = cache.get(chat.getChatId());
+            if (entry == null || entry.chat != chat || entry.other != other || entry.sender != sender
+                    || entry.day != today || entry.decryptedPreview != chat.getDecryptedLastMessage()) {
+                entry = new Entry(chat, other, sender, today, buildItem(chat, otherUserId, other, sender, today));
+            }
+            retained.put(chat.getChatId(), entry);
+            items.add(entry.item);
+        }
+
+        // Solo se conserva lo que sigue en la lista
+        cache.clear();
+        cache.putAll(retained);
+        return items;
+    }
+
+    private ChatListItem buildItem(Chat chat, String otherUserId, User other, User sender, int today) {
+        String title;
+        String avatarUrl = null;
+        if (otherUserId != null) {
+            title = other != null && other.getDisplayName() != null && !other.getDisplayName().isEmpty()
+                    ? other.getDisplayName()
+                    : otherUserId;
+            if (other != null) {
+                // Priorizar photoUrl, si está vacío usar profileImageUrl como fallback
+                avatarUrl = other.getPhotoUrl();
+                if ((avatarUrl == null || avatarUrl.isEmpty()) && other.getProfileImageUrl() != null) {
+                    avatarUrl = other.getProfileImageUrl();
+                }
+            }
+        } else {
+            title = chat.getChatName();
+        }
+
+        return new ChatListItem(
+                chat,
+                otherUserId,
+                title,
+                avatarUrl != null && !avatarUrl.isEmpty() ? avatarUrl : null,
+                preview(chat),
+                senderLabel(chat, sender),
+                formatTimestamp(chat.getLastMessageTimestamp(), today),
+                chat.hasUnreadMessages(currentUserId));
+    }
+
+    private String otherParticipant(Chat chat) {
+        List<String> participants = chat.getParticipantIds();
+        if (chat.isGroupChat() || participants == null || participants.size() != 2 || currentUserId == null) {
+            return null;
+        }
+        return participants.get(0).equals(currentUserId) ? participants.get(1) : participants.get(0);
+    }
+
+    private String preview(Chat chat) {
+        String lastMsg = chat.getLastMessageContent();
+        int msgType = chat.getLastMessageType(); // 0 = texto, 1 = imagen
+
+        if (msgType == 1) {
+            return "[Imagen]";
+        }
+        if (msgType != 0 || lastMsg == null || lastMsg.isEmpty()) {
+            return "[Sin mensaje]";
+        }
+
+        // Normalmente ya viene descifrada del caso de uso; si no, se descifra aquí
+        String preview = chat.getDecryptedLastMessage();
+        if (preview == null && CryptoUtils.chatKeyId(lastMsg) >= 0) {
+            // Falta la clave del chat: se repinta cuando llegue
+            return CryptoService.MISSING_KEY_TEXT;
+        }
+        if (preview == null) {
+            try {
+                preview = CryptoUtils.decryptForDisplay(lastMsg);
+            } catch (Exception e) {
+                Log.w(TAG, "No se pudo descifrar preview, mostrando crudo: " + e.getMessage());
+                preview = lastMsg; // Fallback al mensaje original si falla
+            }
+        }
+        // Truncar con puntos suspensivos
+        if (preview != null && preview.length() > PREVIEW_MAX_CHARS) {
+            preview = preview.substring(0, PREVIEW_MAX_CHARS) + "...";
+        }
+        return preview;
+    }
+
+    // "Tú:" si el último mensaje es propio; el resto se resuelve por id y los
+    // campos copiados solo existen en chats antiguos
+    private String senderLabel(Chat chat, User sender) {
+        if (chat.getLastMessageSenderId() != null && chat.getLastMessageSenderId().equals(currentUserId)) {
+            return "Tú:";
+        }
+        String name = sender != null ? sender.getDisplayName() : null;
+        if (name == null || name.isEmpty()) name = chat.getLastMessageSenderName();
+        if ((name == null || name.isEmpty()) && sender != null) name = sender.getEmail();
+        if (name == null || name.isEmpty()) name = chat.getLastMessageSenderEmail();
+        return name != null && !name.isEmpty() ? name + ":" : "";
+    }
+
+    private String formatTimestamp(Date date, int today) {
+        if (date == null) return "";
+        return dayKey(date.getTime()) == today ? timeFormat.format(date) : dateFormat.format(date);
+    }
+
+    private int dayKey(long millis) {
+        calendar.setTimeInMillis(millis);
+        return calendar.get(Calendar.YEAR) * 1000 + calendar.get(Calendar.DAY_OF_YEAR);
+    }
+
+    private static class Entry {
+        final Chat chat;
+        final User other;
+        final User sender;
+        final int day;
+        final String decryptedPreview;
+        final ChatListItem item;
+
+        Entry(Chat chat, User other, User sender, int day, ChatListItem item) {
+            this.chat = chat;
+            this.other = other;
+            this.sender = sender;
+            this.day = day;
+            this.decryptedPreview = chat.getDecryptedLastMessage();
+            this.item = item;
+        }
+    }
+}
@@ -2,6 +2,8 @@ package com.example.proyectoandroid;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.Editable;
 import android.text.TextWatcher;
 import android.view.MenuItem;
@@ -16,7 +18,9 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.example.proyectoandroid.R;
 import com.example.proyectoandroid.chat.ChatActivity;
+import com.example.proyectoandroid.data.UserDirectory;
 import com.example.proyectoandroid.data.model.User;
+import com.example.proyectoandroid.data.remote.FirestoreDataSource;
 import com.example.proyectoandroid.di.ServiceLocator;
 import com.example.proyectoandroid.domain.usecase.CreateChatUseCase;
 import com.example.proyectoandroid.domain.usecase.GetCurrentUserUseCase;
@@ -38,6 +42,13 @@ public class CrearChatActivity extends AppCompatActivity {
     private CreateChatUseCase createChatUseCase;
     private GetCurrentUserUseCase getCurrentUserUseCase;
     private User currentUser;
+    private FirestoreDataSource firestoreDataSource;
+    private UserDirectory userDirectory;
+
+    private static final int USERS_PAGE_SIZE = 100;
+    private static final long SEARCH_DEBOUNCE_MS = 300;
+    private final Handler searchHandler = new Handler(Looper.getMainLooper());
+    private Runnable pendingSearch = () -> {};
 
     // Group UI
     private CheckBox cbGroupMode;
@@ -66,6 +77,8 @@ public class CrearChatActivity extends AppCompatActivity {
         createChatUseCase = ServiceLocator.getInstance(getApplicationContext()).provideCreateChatUseCase();
         getCurrentUserUseCase = ServiceLocator.getInstance(getApplicationContext()).provideGetCurrentUserUseCase();
         currentUser = getCurrentUserUseCase.execute();
+        firestoreDataSource = ServiceLocator.getInstance(getApplicationContext()).provideFirestoreDataSource();
+        userDirectory = ServiceLocator.getInstance(getApplicationContext()).provideUserDirectory();
 
         userAdapter = new UserAdapter(filteredList, this::startChatWithUser);
         userAdapter.setOnSelectionChangedListener(selectedCount -> updateCreateGroupEnabled());
@@ -81,6 +94,7 @@ public class CrearChatActivity extends AppCompatActivity {
             @Override
             public void onTextChanged(CharSequence s, int start, int before, int count) {
                 filterUsers(s.toString());
+                scheduleSearch(s.toString());
             }
 
             @Override
@@ -124,6 +138,12 @@ public class CrearChatActivity extends AppCompatActivity {
         btnCreateGroup.setEnabled(!name.isEmpty() && selectedCount >= 2);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        searchHandler.removeCallbacks(pendingSearch);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         if (item.getItemId() == android.R.id.home) {
@@ -136,27 +156,54 @@ public class CrearChatActivity extends AppCompatActivity {
     private void loadUsers() {
         progressBar.setVisibility(ProgressBar.VISIBLE);
 
-        ServiceLocator.getInstance(getApplicationContext()).provideFirestoreDataSource()
-                .firestore.collection("users")
-                .get()
-                .addOnSuccessListener(querySnapshot -> {
-                    userList.clear();
-                    for (com.google.firebase.firestore.QueryDocumentSnapshot doc : querySnapshot) {
-                        User user = doc.toObject(User.class);
-                        // Verificaciones null mejoradas
-                        if (currentUser != null && user != null &&
-                                user.getUid() != null && currentUser.getUid() != null &&
-                                !user.getUid().equals(currentUser.getUid())) {
-                            userList.add(user);
-                        }
-                    }
-                    filterUsers(etSearch.getText().toString());
-                    progressBar.setVisibility(ProgressBar.GONE);
-                })
-                .addOnFailureListener(e -> {
-                    Toast.makeText(this, "Error cargando usuarios: " + e.getMessage(), Toast.LENGTH_LONG).show();
+        // Primera página ordenada por nombre; el resto se busca por prefijo al escribir
+        firestoreDataSource.searchUsers("displayName", "", USERS_PAGE_SIZE)
+                .thenAccept(result -> runOnUiThread(() -> {
                     progressBar.setVisibility(ProgressBar.GONE);
+                    if (result instanceof Result.Success) {
+                        mergeUsers(((Result.Success<List<User>>) result).getData());
+                    } else {
+                        String error = ((Result.Error<?>) result).getErrorMessage();
+                        Toast.makeText(this, "Error cargando usuarios: " + error, Toast.LENGTH_LONG).show();
+                    }
+                }));
+    }
+
+    private void scheduleSearch(String query) {
+        searchHandler.removeCallbacks(pendingSearch);
+        String prefix = query != null ? query.trim() : "";
+        if (prefix.isEmpty()) {
+            return;
+        }
+        pendingSearch = () -> firestoreDataSource.searchUsers("displayName", prefix, USERS_PAGE_SIZE)
+                .thenAccept(result -> {
+                    if (result instanceof Result.Success) {
+                        List<User> found = ((Result.Success<List<User>>) result).getData();
+                        runOnUiThread(() -> mergeUsers(found));
+                    }
                 });
+        searchHandler.postDelayed(pendingSearch, SEARCH_DEBOUNCE_MS);
+    }
+
+    private void mergeUsers(List<User> users) {
+        if (isDestroyed()) {
+            return;
+        }
+        Set<String> known = new HashSet<>();
+        for (User u : userList) {
+            known.add(u.getUid());
+        }
+        for (User user : users) {
+            // Verificaciones null mejoradas
+            if (currentUser != null && user != null &&
+                    user.getUid() != null && currentUser.getUid() != null &&
+                    !user.getUid().equals(currentUser.getUid()) &&
+                    known.add(user.getUid())) {
+                userList.add(user);
+            }
+        }
+        userDirectory.putAll(users);
+        filterUsers(etSearch.getText().toString());
     }
 
     private void filterUsers(String query) {
@@ -11,6 +11,7 @@ import androidx.appcompat.app.AppCompatActivity;
 import com.example.proyectoandroid.data.model.User;
 import com.example.proyectoandroid.data.remote.FirestoreDataSource;
 import com.example.proyectoandroid.data.remote.FirebaseStorageDataSource;
+import com.example.proyectoandroid.di.ServiceLocator;
 import com.example.proyectoandroid.utils.ImageLoader;
 import com.example.proyectoandroid.utils.Result;
 import com.google.firebase.auth.FirebaseAuth;
@@ -36,7 +37,7 @@ public class EditProfileActivity extends AppCompatActivity {
         btnChangePhoto = findViewById(R.id.btnChangePhoto);
         btnSaveProfile = findViewById(R.id.btnSaveProfile);
 
-        firestoreDataSource = new FirestoreDataSource();
+        firestoreDataSource = ServiceLocator.getInstance(getApplicationContext()).provideFirestoreDataSource();
 
         // Cargar usuario actual
         String uid = FirebaseAuth.getInstance().getCurrentUser().getUid();
@@ -117,8 +118,15 @@ public class EditProfileActivity extends AppCompatActivity {
     private void updateProfile(String newName, String imageUrl) {
         currentUser.setDisplayName(newName);
         currentUser.setPhotoUrl(imageUrl != null ? imageUrl : "");
+        // Los mensajes nuevos llevan esta versión; quien tenga el perfil anterior en caché lo refresca
+        currentUser.setProfileVersion(currentUser.getProfileVersion() + 1);
         firestoreDataSource.createOrUpdateUser(currentUser)
                 .thenAccept(result -> runOnUiThread(() -> {
+                    if (result instanceof Result.Success) {
+                        ServiceLocator locator = ServiceLocator.getInstance(getApplicationContext());
+                        locator.provideUserDirectory().put(currentUser);
+                        locator.provideSessionManager().updateUserField("profileVersion", currentUser.getProfileVersion());
+                    }
                     Toast.makeText(this, "Perfil actualizado", Toast.LENGTH_SHORT).show();
                     finish();
                 }));
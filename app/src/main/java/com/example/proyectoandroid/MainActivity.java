@@ -14,33 +14,43 @@ import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 import com.google.android.material.appbar.MaterialToolbar;
+import com.example.proyectoandroid.data.UserDirectory;
 import com.example.proyectoandroid.data.model.Chat;
 import com.example.proyectoandroid.data.model.User;
+import com.example.proyectoandroid.data.presence.PresenceAggregator;
 import com.example.proyectoandroid.di.ServiceLocator;
 import com.example.proyectoandroid.domain.usecase.GetCurrentUserUseCase;
+import com.example.proyectoandroid.domain.usecase.ListenUserChatsUseCase;
 import com.example.proyectoandroid.domain.usecase.LoginUserUseCase;
 import com.example.proyectoandroid.notifications.NotificationManager;
 import com.example.proyectoandroid.utils.ImageLoader;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
-import com.google.firebase.firestore.DocumentSnapshot;
-import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.Query;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class MainActivity extends AppCompatActivity {
 
     private RecyclerView rvChats;
     private ChatAdapter chatAdapter;
-    private final List<Chat> chatList = new ArrayList<>();
+    private ChatListItemFactory chatItemFactory;
+    private List<Chat> chatList = new ArrayList<>();
     private final Map<String, User> userMap = new HashMap<>();
     private String currentUserId;
+    private ListenUserChatsUseCase listenUserChatsUseCase;
+    private UserDirectory userDirectory;
+    private PresenceAggregator.Subscription presenceSubscription;
 
     private static final int REQ_POST_NOTIFICATIONS = 1001;
+    private static final int CHATS_PAGE_SIZE = 30;
+    private static final int LOAD_MORE_THRESHOLD = 5;
+    // Filas que se asumen visibles antes de que el RecyclerView haga el primer layout
+    private static final int VISIBLE_PRESENCE_FALLBACK = 12;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -67,6 +77,8 @@ public class MainActivity extends AppCompatActivity {
 
         rvChats = findViewById(R.id.rvChats);
         rvChats.setLayoutManager(new LinearLayoutManager(this));
+        chatAdapter = new ChatAdapter(this::openChat);
+        rvChats.setAdapter(chatAdapter);
 
         GetCurrentUserUseCase getCurrentUserUseCase = ServiceLocator.getInstance(getApplicationContext()).provideGetCurrentUserUseCase();
         if (!getCurrentUserUseCase.isUserLoggedIn()) {
@@ -75,11 +87,17 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
         currentUserId = getCurrentUserUseCase.execute().getUid();
+        chatItemFactory = new ChatListItemFactory(currentUserId);
 
         requestNotificationPermissionIfNeeded();
         new NotificationManager(this).registerUserForNotifications(currentUserId);
+        // Clave pública de este dispositivo, para que los chats puedan cifrar su clave para nosotros
+        ServiceLocator.getInstance(getApplicationContext()).provideChatKeyRing().publishPublicKey();
 
-        loadAllUsersAndChats();
+        userDirectory = ServiceLocator.getInstance(getApplicationContext()).provideUserDirectory();
+        presenceSubscription = ServiceLocator.getInstance(getApplicationContext()).providePresenceAggregator()
+                .subscribe(changes -> runOnUiThread(() -> chatAdapter.updatePresence(changes)));
+        listenChatsRealtime();
     }
 
     private void requestNotificationPermissionIfNeeded() {
@@ -90,45 +108,112 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private void loadAllUsersAndChats() {
-        FirebaseFirestore db = FirebaseFirestore.getInstance();
-        db.collection("users")
-                .get()
-                .addOnSuccessListener(querySnapshot -> {
-                    userMap.clear();
-                    for (com.google.firebase.firestore.QueryDocumentSnapshot doc : querySnapshot) {
-                        User user = doc.toObject(User.class);
-                        userMap.put(user.getUid(), user);
-                    }
-                    listenChatsRealtime();
-                })
-                .addOnFailureListener(e -> Toast.makeText(this, "Error cargando usuarios: " + e.getMessage(), Toast.LENGTH_LONG).show());
+    private void listenChatsRealtime() {
+        // Pasa por el hub de listeners: comparte la consulta con otras pantallas.
+        // Solo la primera página está en vivo; el resto se pide al hacer scroll
+        listenUserChatsUseCase = ServiceLocator.getInstance(getApplicationContext()).provideListenUserChatsUseCase();
+        rvChats.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (layoutManager == null) {
+                    return;
+                }
+                if (dy > 0 && layoutManager.findLastVisibleItemPosition() >= chatAdapter.getItemCount() - LOAD_MORE_THRESHOLD) {
+                    listenUserChatsUseCase.loadMoreChats();
+                } else if (dy < 0 && layoutManager.findFirstCompletelyVisibleItemPosition() == 0) {
+                    listenUserChatsUseCase.trimToLivePage();
+                }
+            }
+
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                if (newState == RecyclerView.SCROLL_STATE_IDLE) {
+                    updateVisiblePresence();
+                }
+            }
+        });
+        listenUserChatsUseCase.listenForUserChats(CHATS_PAGE_SIZE, chats -> runOnUiThread(() -> {
+            chatList = chats;
+            resolveParticipants(chats);
+            renderChats();
+        }));
     }
 
-    private void listenChatsRealtime() {
-        FirebaseFirestore db = FirebaseFirestore.getInstance();
-        db.collection("chats")
-                .whereArrayContains("participantIds", currentUserId)
-                .orderBy("lastMessageTimestamp", Query.Direction.DESCENDING)
-                .addSnapshotListener((querySnapshot, error) -> {
-                    if (error != null) {
-                        Toast.makeText(this, "Error cargando chats: " + error.getMessage(), Toast.LENGTH_LONG).show();
-                        return;
-                    }
-                    chatList.clear();
-                    if (querySnapshot != null) {
-                        for (DocumentSnapshot doc : querySnapshot.getDocuments()) {
-                            Chat chat = doc.toObject(Chat.class);
-                            chatList.add(chat);
-                        }
-                        if (chatAdapter == null) {
-                            chatAdapter = new ChatAdapter(chatList, userMap, currentUserId, this::openChat);
-                            rvChats.setAdapter(chatAdapter);
-                        } else {
-                            chatAdapter.notifyDataSetChanged();
-                        }
+    // Las filas se construyen en segundo plano; el adapter solo repinta las que cambiaron
+    private void renderChats() {
+        chatItemFactory.submit(chatList, new HashMap<>(userMap), items -> runOnUiThread(() -> {
+            if (!isDestroyed()) {
+                chatAdapter.submitList(items, this::updateVisiblePresence);
+            }
+        }));
+    }
+
+    // Presencia solo de los contactos de las filas visibles; se recalcula al parar el scroll
+    private void updateVisiblePresence() {
+        LinearLayoutManager layoutManager = (LinearLayoutManager) rvChats.getLayoutManager();
+        if (presenceSubscription == null || layoutManager == null || chatAdapter.getItemCount() == 0) {
+            return;
+        }
+        int first = Math.max(0, layoutManager.findFirstVisibleItemPosition());
+        int last = layoutManager.findLastVisibleItemPosition();
+        if (last < first) {
+            last = Math.min(chatAdapter.getItemCount() - 1, first + VISIBLE_PRESENCE_FALLBACK);
+        }
+
+        List<ChatListItem> items = chatAdapter.getCurrentList();
+        Set<String> visibleUserIds = new HashSet<>();
+        for (int i = first; i <= last && i < items.size(); i++) {
+            String otherUserId = items.get(i).otherUserId;
+            if (otherUserId != null) {
+                visibleUserIds.add(otherUserId);
+            }
+        }
+        presenceSubscription.setUserIds(visibleUserIds);
+    }
+
+    // Solo se piden los perfiles de quienes aparecen en la lista de chats
+    private void resolveParticipants(List<Chat> chats) {
+        Set<String> missing = new HashSet<>();
+        for (Chat chat : chats) {
+            if (chat.getParticipantIds() == null) {
+                continue;
+            }
+            for (String uid : chat.getParticipantIds()) {
+                if (!uid.equals(currentUserId) && !userMap.containsKey(uid)) {
+                    User cached = userDirectory.peek(uid);
+                    if (cached != null) {
+                        userMap.put(uid, cached);
+                    } else {
+                        missing.add(uid);
                     }
-                });
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        userDirectory.getUsers(missing).thenAccept(users -> runOnUiThread(() -> {
+            if (users.isEmpty() || isDestroyed()) {
+                return;
+            }
+            userMap.putAll(users);
+            renderChats();
+        }));
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (listenUserChatsUseCase != null) {
+            listenUserChatsUseCase.cleanup();
+        }
+        if (presenceSubscription != null) {
+            presenceSubscription.remove();
+        }
+        if (chatItemFactory != null) {
+            chatItemFactory.release();
+        }
     }
 
     @Override
@@ -14,18 +14,20 @@ import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import com.example.proyectoandroid.R;
-import com.example.proyectoandroid.data.model.Message;
+import com.example.proyectoandroid.data.model.Presence;
 import com.example.proyectoandroid.data.model.User;
+import com.example.proyectoandroid.data.presence.PresenceAggregator;
 import com.example.proyectoandroid.data.remote.FirestoreDataSource;
+import com.example.proyectoandroid.data.UserDirectory;
 import com.example.proyectoandroid.di.ServiceLocator;
 import com.example.proyectoandroid.domain.usecase.ListenMessagesUseCase;
+import com.example.proyectoandroid.domain.usecase.MessagePager;
 import com.example.proyectoandroid.utils.Result;
 import com.squareup.picasso.Picasso;
 import com.google.android.material.appbar.MaterialToolbar;
-import com.google.firebase.firestore.ListenerRegistration;
 
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Locale;
@@ -38,7 +40,6 @@ public class ChatActivity extends AppCompatActivity {
     private Button btnAttachImage; // new
 
     private MessageAdapter messageAdapter;
-    private List<Message> messagesList = new ArrayList<>();
 
     private String chatId;
     private String chatTitle;
@@ -46,9 +47,15 @@ public class ChatActivity extends AppCompatActivity {
     private String otherUserId;
     private User otherUser;
 
+    private static final int MESSAGES_PAGE_SIZE = 50;
+    // Mensajes de margen antes del borde con los que se pide la siguiente página
+    private static final int PREFETCH_DISTANCE = 15;
+
     private ListenMessagesUseCase listenMessagesUseCase;
-    private ListenerRegistration messagesListener;
+    private MessagePager messagePager;
+    private boolean showingNewest = true;
     private FirestoreDataSource firestoreDataSource;
+    private PresenceAggregator.Subscription presenceSubscription;
 
     // Image picker launcher
     private ActivityResultLauncher<String> pickImageLauncher;
@@ -91,11 +98,13 @@ public class ChatActivity extends AppCompatActivity {
                 .provideGetCurrentUserUseCase().execute();
         currentUserId = currentUser != null ? currentUser.getUid() : "";
 
-        messageAdapter = new MessageAdapter(messagesList, currentUserId);
+        messageAdapter = new MessageAdapter(currentUserId,
+                ServiceLocator.getInstance(getApplicationContext()).provideUserDirectory());
+        messageAdapter.setOnRetryListener(messageId -> listenMessagesUseCase.retryMessage(chatId, messageId));
         rvMessages.setLayoutManager(new LinearLayoutManager(this));
         rvMessages.setAdapter(messageAdapter);
 
-        firestoreDataSource = new FirestoreDataSource();
+        firestoreDataSource = ServiceLocator.getInstance(getApplicationContext()).provideFirestoreDataSource();
 
         // Obtener el otro usuario (suponiendo que en chat privado hay dos participantes)
         firestoreDataSource.getChatById(chatId)
@@ -108,31 +117,68 @@ public class ChatActivity extends AppCompatActivity {
                                 break;
                             }
                         }
-                        // Escuchar el estado en línea del otro usuario
-                        firestoreDataSource.addUserStatusListener(otherUserId, user -> runOnUiThread(() -> {
-                            otherUser = user;
-                            setupChatHeader(otherUser);
+                        if (otherUserId == null) {
+                            return;
+                        }
+                        // La cabecera se pinta con el perfil del directorio mientras llega el estado en línea
+                        UserDirectory userDirectory = ServiceLocator.getInstance(getApplicationContext()).provideUserDirectory();
+                        userDirectory.getUser(otherUserId).thenAccept(cached -> runOnUiThread(() -> {
+                            if (cached != null && !isDestroyed()) {
+                                otherUser = cached;
+                                setupChatHeader(cached);
+                            }
                         }));
+                        // Estado en línea del otro usuario: comparte los listeners agrupados de presencia
+                        runOnUiThread(() -> {
+                            if (isDestroyed()) {
+                                return;
+                            }
+                            presenceSubscription = ServiceLocator.getInstance(getApplicationContext())
+                                    .providePresenceAggregator()
+                                    .subscribe(changes -> runOnUiThread(() -> {
+                                        Presence presence = changes.get(otherUserId);
+                                        if (presence != null && !isDestroyed()) {
+                                            showPresence(presence);
+                                        }
+                                    }));
+                            presenceSubscription.setUserIds(Collections.singleton(otherUserId));
+                        });
                     }
                 });
 
         listenMessagesUseCase = ServiceLocator.getInstance(getApplicationContext()).provideListenMessagesUseCase();
 
-        messagesListener = listenMessagesUseCase.listenForMessagesWithoutMarkingAsRead(
+        // Marca el chat como leído mientras está en pantalla (onStart/onStop); las
+        // escrituras se agrupan. Solo la página más reciente está en vivo; las
+        // anteriores se piden al subir
+        messagePager = listenMessagesUseCase.openPager(
                 chatId,
-                50,
-                initialMessages -> runOnUiThread(() -> {
-                    messageAdapter.setMessages(initialMessages);
-                    rvMessages.scrollToPosition(messageAdapter.getItemCount() - 1);
-                }),
-                newMessage -> runOnUiThread(() -> {
-                    messageAdapter.addMessage(newMessage);
-                    rvMessages.scrollToPosition(messageAdapter.getItemCount() - 1);
-                }),
-                updatedMessage -> runOnUiThread(() -> {
-                    // Manejar actualización si se requiere
-                })
-        );
+                MESSAGES_PAGE_SIZE,
+                window -> runOnUiThread(() -> showWindow(window)));
+        rvMessages.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                LinearLayoutManager layoutManager = (LinearLayoutManager) recyclerView.getLayoutManager();
+                if (layoutManager == null || messagePager == null) {
+                    return;
+                }
+                if (dy < 0 && layoutManager.findFirstVisibleItemPosition() <= PREFETCH_DISTANCE) {
+                    messagePager.loadOlder();
+                } else if (dy > 0 && layoutManager.findLastVisibleItemPosition()
+                        >= messageAdapter.getItemCount() - 1 - PREFETCH_DISTANCE) {
+                    messagePager.loadNewer();
+                }
+            }
+
+            @Override
+            public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                // De vuelta al último mensaje: se sueltan las páginas antiguas
+                if (newState == RecyclerView.SCROLL_STATE_IDLE && showingNewest
+                        && !recyclerView.canScrollVertically(1) && messagePager != null) {
+                    messagePager.trimToLivePage();
+                }
+            }
+        });
 
         btnSend.setOnClickListener(v -> {
             String content = etMessage.getText().toString().trim();
@@ -140,14 +186,13 @@ public class ChatActivity extends AppCompatActivity {
                 Toast.makeText(this, "Escribe un mensaje", Toast.LENGTH_SHORT).show();
                 return;
             }
-            // Enviar el mensaje; el use case cifra internamente
+            // El mensaje queda en la cola de salida antes de enviarse, así que el
+            // campo se limpia de inmediato sin esperar a Firestore. Si acaba
+            // fallando sigue en la conversación, marcado para reintentarlo
+            etMessage.setText("");
             listenMessagesUseCase.sendTextMessage(chatId, content)
                     .thenAccept(result -> runOnUiThread(() -> {
-                        if (result.isSuccess()) {
-                            etMessage.setText("");
-                            // Marcar el chat como leído únicamente después de enviar
-                            listenMessagesUseCase.markChatAsRead(chatId);
-                        } else {
+                        if (!result.isSuccess()) {
                             String error = ((com.example.proyectoandroid.utils.Result.Error<?>) result).getErrorMessage();
                             Toast.makeText(this, "Error enviando mensaje: " + error, Toast.LENGTH_LONG).show();
                         }
@@ -157,16 +202,13 @@ public class ChatActivity extends AppCompatActivity {
         // Register image picker
         pickImageLauncher = registerForActivityResult(new ActivityResultContracts.GetContent(), uri -> {
             if (uri != null) {
-                setSendingEnabled(false);
+                // La subida se reintenta desde la cola de salida; no hace falta bloquear el envío
                 Toast.makeText(this, "Subiendo imagen...", Toast.LENGTH_SHORT).show();
                 listenMessagesUseCase
                         .uploadAndSendImageMessage(getApplicationContext(), chatId, uri)
                         .thenAccept(result -> runOnUiThread(() -> {
-                            setSendingEnabled(true);
                             if (result.isSuccess()) {
                                 Toast.makeText(this, "Imagen enviada", Toast.LENGTH_SHORT).show();
-                                // Marcar el chat como leído tras enviar imagen
-                                listenMessagesUseCase.markChatAsRead(chatId);
                             } else {
                                 String error = ((Result.Error<?>) result).getErrorMessage();
                                 Toast.makeText(this, "Error enviando imagen: " + error, Toast.LENGTH_LONG).show();
@@ -184,14 +226,30 @@ public class ChatActivity extends AppCompatActivity {
         });
     }
 
-    private void setSendingEnabled(boolean enabled) {
-        btnSend.setEnabled(enabled);
-        btnAttachImage.setEnabled(enabled);
-        etMessage.setEnabled(enabled);
+    /**
+     * Pinta la ventana del pager. El adapter solo notifica lo que cambió, así
+     * que al añadir o quitar páginas por arriba la posición de lectura se
+     * mantiene; si se estaba al final se sigue al último mensaje.
+     */
+    private void showWindow(MessagePager.Window window) {
+        if (isDestroyed()) {
+            return;
+        }
+        LinearLayoutManager layoutManager = (LinearLayoutManager) rvMessages.getLayoutManager();
+        int itemCount = messageAdapter.getItemCount();
+        boolean followBottom = showingNewest && window.isShowingNewest()
+                && (itemCount == 0 || layoutManager.findLastVisibleItemPosition() >= itemCount - 2);
+        showingNewest = window.isShowingNewest();
+
+        messageAdapter.setMessages(window.getMessages(), () -> {
+            if (followBottom && messageAdapter.getItemCount() > 0) {
+                rvMessages.scrollToPosition(messageAdapter.getItemCount() - 1);
+            }
+        });
     }
 
     /**
-     * Actualiza el header del chat con el avatar y el estado en línea del otro usuario
+     * Actualiza el header del chat con el nombre y el avatar del otro usuario
      */
     private void setupChatHeader(User user) {
         if (tvChatTitle != null) {
@@ -204,7 +262,10 @@ public class ChatActivity extends AppCompatActivity {
                 imgAvatar.setImageResource(R.drawable.ic_profile_placeholder);
             }
         }
-        if (user.isOnline()) {
+    }
+
+    private void showPresence(Presence presence) {
+        if (presence.isOnline()) {
             if (onlineIndicator != null) onlineIndicator.setVisibility(android.view.View.VISIBLE);
             if (tvOnlineStatus != null) {
                 tvOnlineStatus.setVisibility(android.view.View.VISIBLE);
@@ -215,7 +276,7 @@ public class ChatActivity extends AppCompatActivity {
             if (onlineIndicator != null) onlineIndicator.setVisibility(android.view.View.GONE);
             if (tvOnlineStatus != null) {
                 tvOnlineStatus.setVisibility(android.view.View.VISIBLE);
-                tvOnlineStatus.setText("Últ. vez: " + formatLastOnline(user.getLastOnline()));
+                tvOnlineStatus.setText("Últ. vez: " + formatLastOnline(presence.getLastActive()));
                 tvOnlineStatus.setTextColor(0xFF888888); // Gris
             }
         }
@@ -242,17 +303,36 @@ public class ChatActivity extends AppCompatActivity {
         return true;
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        if (listenMessagesUseCase != null && chatId != null) {
+            listenMessagesUseCase.setChatVisible(chatId, true);
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        if (listenMessagesUseCase != null && chatId != null) {
+            listenMessagesUseCase.setChatVisible(chatId, false);
+        }
+        super.onStop();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
         if (listenMessagesUseCase != null && chatId != null) {
             listenMessagesUseCase.stopListeningForMessages(chatId);
         }
-        if (messagesListener != null) {
-            messagesListener.remove();
+        if (messagePager != null) {
+            messagePager.close();
+        }
+        if (messageAdapter != null) {
+            messageAdapter.release();
         }
-        if (firestoreDataSource != null && otherUserId != null) {
-            firestoreDataSource.removeUserStatusListener(otherUserId);
+        if (presenceSubscription != null) {
+            presenceSubscription.remove();
         }
     }
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package com.example.proyectoandroid.chat;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -7,256 +9,285 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.AsyncListDiffer;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.RecyclerView;
 import com.example.proyectoandroid.R;
+import com.example.proyectoandroid.data.UserDirectory;
 import com.example.proyectoandroid.data.model.Message;
-import com.example.proyectoandroid.utils.CryptoUtils;
 import com.squareup.picasso.Picasso;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.Collections;
-import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
-
-public class MessageAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder> {
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Adapter de mensajes sobre {@link AsyncListDiffer}. Los mensajes se
+ * convierten a {@link MessageUiModel} en segundo plano
+ * ({@link MessageUiModelFactory}) y cada lista nueva se compara también en
+ * segundo plano; solo se notifican las filas que cambiaron. Los cambios dentro
+ * de una fila llegan como payload (máscara de PAYLOAD_*) y el bind se limita a
+ * asignar los campos ya calculados.
+ */
+public class MessageAdapter extends RecyclerView.Adapter<MessageAdapter.MessageViewHolder> {
+
+    // Partes de una fila que se pueden repintar por separado
+    private static final int PAYLOAD_TEXT = 1;
+    private static final int PAYLOAD_TIMESTAMP = 1 << 1;
+    private static final int PAYLOAD_IMAGE = 1 << 2;
+    private static final int PAYLOAD_SENDER = 1 << 3;
+    private static final int PAYLOAD_DATE_HEADER = 1 << 4;
+    private static final int PAYLOAD_ALL = ~0;
+
+    private static final DiffUtil.ItemCallback<MessageUiModel> DIFF_CALLBACK = new DiffUtil.ItemCallback<MessageUiModel>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull MessageUiModel oldItem, @NonNull MessageUiModel newItem) {
+            return oldItem.messageId != null
+                    ? oldItem.messageId.equals(newItem.messageId)
+                    : oldItem == newItem;
+        }
 
-    private final List<Message> messages;
-    private final String currentUserId;
+        @Override
+        public boolean areContentsTheSame(@NonNull MessageUiModel oldItem, @NonNull MessageUiModel newItem) {
+            return oldItem == newItem
+                    || (oldItem.viewType == newItem.viewType && changedParts(oldItem, newItem) == 0);
+        }
 
-    public MessageAdapter(List<Message> messages, String currentUserId) {
-        this.messages = messages != null ? messages : new ArrayList<>();
-        this.currentUserId = currentUserId;
+        @Override
+        public Object getChangePayload(@NonNull MessageUiModel oldItem, @NonNull MessageUiModel newItem) {
+            // Con otro tipo de mensaje cambia el layout: hace falta un bind completo
+            if (oldItem.viewType != newItem.viewType) {
+                return null;
+            }
+            return changedParts(oldItem, newItem);
+        }
+    };
+
+    private final AsyncListDiffer<MessageUiModel> differ = new AsyncListDiffer<>(this, DIFF_CALLBACK);
+    private final MessageUiModelFactory modelFactory;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Última lista enviada (puede no estar aplicada aún) e índice id -> posición
+    private List<Message> latest = Collections.emptyList();
+    private Map<String, Integer> latestPositions = new HashMap<>();
+    private Consumer<String> onRetry;
+
+    public MessageAdapter(String currentUserId, UserDirectory userDirectory) {
+        this.modelFactory = new MessageUiModelFactory(currentUserId, userDirectory,
+                models -> mainHandler.post(() -> differ.submitList(models)));
+        setHasStableIds(true);
     }
 
-    // Tipos de mensaje
-    private static final int TYPE_TEXT_OUTGOING = 0;
-    private static final int TYPE_TEXT_INCOMING = 1;
-    private static final int TYPE_IMAGE_OUTGOING = 2;
-    private static final int TYPE_IMAGE_INCOMING = 3;
-
     @Override
     public int getItemViewType(int position) {
-        Message msg = messages.get(position);
-        boolean isOutgoing = msg.getSenderId() != null && msg.getSenderId().equals(currentUserId);
+        return differ.getCurrentList().get(position).viewType;
+    }
 
-        if (msg.getMessageType() == 1) {
-            return isOutgoing ? TYPE_IMAGE_OUTGOING : TYPE_IMAGE_INCOMING;
-        } else {
-            return isOutgoing ? TYPE_TEXT_OUTGOING : TYPE_TEXT_INCOMING;
-        }
+    @Override
+    public long getItemId(int position) {
+        return differ.getCurrentList().get(position).stableId;
+    }
+
+    /**
+     * Acción de reintento de los mensajes que no se pudieron enviar; recibe el messageId.
+     */
+    public void setOnRetryListener(Consumer<String> onRetry) {
+        this.onRetry = onRetry;
     }
 
     @NonNull
     @Override
-    public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+    public MessageViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         LayoutInflater inflater = LayoutInflater.from(parent.getContext());
-        if (viewType == TYPE_TEXT_OUTGOING) {
-            View v = inflater.inflate(R.layout.item_message_outgoing, parent, false);
-            return new TextMessageViewHolder(v);
-        } else if (viewType == TYPE_TEXT_INCOMING) {
-            View v = inflater.inflate(R.layout.item_message_incoming, parent, false);
-            return new TextMessageViewHolder(v);
-        } else if (viewType == TYPE_IMAGE_OUTGOING) {
-            View v = inflater.inflate(R.layout.item_message_outgoing_image, parent, false);
-            return new ImageMessageViewHolder(v);
+        MessageViewHolder holder;
+        if (viewType == MessageUiModel.TYPE_TEXT_OUTGOING) {
+            holder = new TextMessageViewHolder(inflater.inflate(R.layout.item_message_outgoing, parent, false));
+        } else if (viewType == MessageUiModel.TYPE_TEXT_INCOMING) {
+            holder = new TextMessageViewHolder(inflater.inflate(R.layout.item_message_incoming, parent, false));
+        } else if (viewType == MessageUiModel.TYPE_IMAGE_OUTGOING) {
+            holder = new ImageMessageViewHolder(inflater.inflate(R.layout.item_message_outgoing_image, parent, false));
         } else {
-            View v = inflater.inflate(R.layout.item_message_incoming_image, parent, false);
-            return new ImageMessageViewHolder(v);
+            holder = new ImageMessageViewHolder(inflater.inflate(R.layout.item_message_incoming_image, parent, false));
         }
+        holder.itemView.setOnClickListener(view -> {
+            if (holder.model != null && holder.model.failed && onRetry != null) {
+                onRetry.accept(holder.model.messageId);
+            }
+        });
+        return holder;
     }
 
     @Override
-    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
-        Message msg = messages.get(position);
-
-        // Manejo del encabezado de fecha por día
-        TextView tvDateHeader = holder.itemView.findViewById(R.id.tvDateHeader);
-        if (tvDateHeader != null) {
-            Date currentDate = msg.getTimestamp();
-            Date prevDate = position > 0 ? messages.get(position - 1).getTimestamp() : null;
-
-            if (shouldShowDateHeader(currentDate, prevDate)) {
-                tvDateHeader.setVisibility(View.VISIBLE);
-                tvDateHeader.setText(formatDayHeader(currentDate));
-            } else {
-                tvDateHeader.setVisibility(View.GONE);
-                tvDateHeader.setText("");
-            }
-        }
-
-        if (holder instanceof TextMessageViewHolder) {
-            TextMessageViewHolder h = (TextMessageViewHolder) holder;
-            // DESCIFRA EL TEXTO ANTES DE MOSTRAR (hasta 2 pasadas por compatibilidad)
-            String textToShow = msg.getContent();
-            if (textToShow != null && !textToShow.isEmpty()) {
-                try {
-                    textToShow = CryptoUtils.decrypt(textToShow);
-                    // Intentar una segunda pasada si también está cifrado doble
-                    try {
-                        textToShow = CryptoUtils.decrypt(textToShow);
-                    } catch (Exception ignored) {
-                        // Una sola pasada fue suficiente
-                    }
-                } catch (Exception e) {
-                    textToShow = "[Error al descifrar]";
-                }
-            }
-            h.tvText.setText(textToShow);
-
-            // Mostrar nombre o email del remitente
-            String senderDisplay = "";
-            if (msg.getSenderName() != null && !msg.getSenderName().isEmpty()) {
-                senderDisplay = msg.getSenderName();
-            } else if (msg.getSenderEmail() != null && !msg.getSenderEmail().isEmpty()) {
-                senderDisplay = msg.getSenderEmail();
-            }
-            h.tvSender.setText(senderDisplay);
-            h.tvTimestamp.setText(formatTimestamp(msg.getTimestamp()));
-        }
-
-        if (holder instanceof ImageMessageViewHolder) {
-            ImageMessageViewHolder h = (ImageMessageViewHolder) holder;
+    public void onBindViewHolder(@NonNull MessageViewHolder holder, int position) {
+        holder.bind(differ.getCurrentList().get(position), PAYLOAD_ALL);
+    }
 
-            // Mostrar nombre o email del remitente
-            String senderDisplay = "";
-            if (msg.getSenderName() != null && !msg.getSenderName().isEmpty()) {
-                senderDisplay = msg.getSenderName();
-            } else if (msg.getSenderEmail() != null && !msg.getSenderEmail().isEmpty()) {
-                senderDisplay = msg.getSenderEmail();
-            }
-            h.tvSender.setText(senderDisplay);
-            h.tvTimestamp.setText(formatTimestamp(msg.getTimestamp()));
-
-            if (!TextUtils.isEmpty(msg.getImageUrl())) {
-                Picasso.get().load(msg.getImageUrl()).into(h.ivImageMessage);
-
-                final String imageUrl = msg.getImageUrl();
-                final String sender = senderDisplay;
-                h.ivImageMessage.setOnClickListener(view -> {
-                    ImageViewerActivity.launch(view.getContext(), imageUrl, sender);
-                });
-            } else {
-                h.ivImageMessage.setImageDrawable(null);
-                h.ivImageMessage.setOnClickListener(null); // Quitar listener si no hay imagen
-            }
+    @Override
+    public void onBindViewHolder(@NonNull MessageViewHolder holder, int position, @NonNull List<Object> payloads) {
+        int parts = payloads.isEmpty() ? PAYLOAD_ALL : 0;
+        for (int i = 0; i < payloads.size(); i++) {
+            parts |= (Integer) payloads.get(i);
         }
+        holder.bind(differ.getCurrentList().get(position), parts);
     }
 
     @Override
     public int getItemCount() {
-        return messages.size();
+        return differ.getCurrentList().size();
+    }
+
+    /**
+     * Sustituye la lista. Llega del más reciente al más antiguo y se muestra en
+     * orden cronológico; {@code onCommitted} corre cuando la lista ya está aplicada.
+     */
+    public void setMessages(List<Message> newestFirst, Runnable onCommitted) {
+        List<Message> chronological = new ArrayList<>(newestFirst);
+        Collections.reverse(chronological);
+        submit(chronological, onCommitted);
     }
 
-    // Métodos para actualizar la lista con prevención de duplicados
-    public void setMessages(List<Message> msgs) {
-        messages.clear();
-        // Ordenar mensajes por timestamp (más antiguos primero) si vienen al revés
-        List<Message> sortedMessages = new ArrayList<>(msgs);
-        Collections.reverse(sortedMessages);
-        messages.addAll(sortedMessages);
-        notifyDataSetChanged();
+    public void setMessages(List<Message> newestFirst) {
+        setMessages(newestFirst, null);
     }
 
     public void addMessage(Message msg) {
-        // Verificar si el mensaje ya existe
-        boolean exists = false;
-        for (Message existingMsg : messages) {
-            if (existingMsg.getMessageId() != null &&
-                    existingMsg.getMessageId().equals(msg.getMessageId())) {
-                exists = true;
-                break;
+        if (msg.getMessageId() != null && latestPositions.containsKey(msg.getMessageId())) {
+            updateMessage(msg);
+            return;
+        }
+        List<Message> updated = new ArrayList<>(latest);
+        updated.add(msg);
+        submit(updated, null);
+    }
+
+    public void updateMessage(Message msg) {
+        Integer position = msg.getMessageId() != null ? latestPositions.get(msg.getMessageId()) : null;
+        if (position == null) {
+            return;
+        }
+        List<Message> updated = new ArrayList<>(latest);
+        updated.set(position, msg);
+        submit(updated, null);
+    }
+
+    /**
+     * Deja de construir modelos; se llama al destruir la pantalla.
+     */
+    public void release() {
+        modelFactory.release();
+    }
+
+    // Las operaciones parten de la última lista enviada, no de la aplicada, para
+    // no perder cambios si llegan varios mientras se construyen los modelos
+    private void submit(List<Message> chronological, Runnable onCommitted) {
+        latest = chronological;
+        latestPositions = indexById(chronological);
+        modelFactory.submit(chronological,
+                models -> mainHandler.post(() -> differ.submitList(models, onCommitted)));
+    }
+
+    private static Map<String, Integer> indexById(List<Message> list) {
+        Map<String, Integer> positions = new HashMap<>(list.size() * 2);
+        for (int i = 0; i < list.size(); i++) {
+            String messageId = list.get(i).getMessageId();
+            if (messageId != null) {
+                positions.put(messageId, i);
             }
         }
+        return positions;
+    }
 
-        // Solo agregar si no existe
-        if (!exists) {
-            messages.add(msg);
-            int position = messages.size() - 1;
-            notifyItemInserted(position);
+    private static int changedParts(MessageUiModel oldItem, MessageUiModel newItem) {
+        int parts = 0;
+        if (!TextUtils.equals(oldItem.text, newItem.text)) {
+            parts |= PAYLOAD_TEXT;
+        }
+        if (!TextUtils.equals(oldItem.time, newItem.time)) {
+            parts |= PAYLOAD_TIMESTAMP;
+        }
+        if (!TextUtils.equals(oldItem.imageUrl, newItem.imageUrl)) {
+            parts |= PAYLOAD_IMAGE;
+        }
+        if (!TextUtils.equals(oldItem.senderLabel, newItem.senderLabel)) {
+            parts |= PAYLOAD_SENDER;
         }
+        if (!TextUtils.equals(oldItem.dateHeader, newItem.dateHeader)) {
+            parts |= PAYLOAD_DATE_HEADER;
+        }
+        return parts;
     }
 
     // ViewHolders
-    static class TextMessageViewHolder extends RecyclerView.ViewHolder {
-        TextView tvText, tvSender, tvTimestamp;
-        public TextMessageViewHolder(@NonNull View itemView) {
+    abstract static class MessageViewHolder extends RecyclerView.ViewHolder {
+        final TextView tvSender, tvTimestamp, tvDateHeader;
+        MessageUiModel model;
+
+        MessageViewHolder(@NonNull View itemView) {
             super(itemView);
-            tvText = itemView.findViewById(R.id.tvText);
             tvSender = itemView.findViewById(R.id.tvSender);
             tvTimestamp = itemView.findViewById(R.id.tvTimestamp);
+            tvDateHeader = itemView.findViewById(R.id.tvDateHeader);
         }
-    }
 
-    static class ImageMessageViewHolder extends RecyclerView.ViewHolder {
-        ImageView ivImageMessage;
-        TextView tvSender, tvTimestamp;
-        public ImageMessageViewHolder(@NonNull View itemView) {
-            super(itemView);
-            ivImageMessage = itemView.findViewById(R.id.ivImageMessage);
-            tvSender = itemView.findViewById(R.id.tvSender);
-            tvTimestamp = itemView.findViewById(R.id.tvTimestamp);
+        void bind(MessageUiModel model, int parts) {
+            this.model = model;
+            if ((parts & PAYLOAD_DATE_HEADER) != 0 && tvDateHeader != null) {
+                tvDateHeader.setVisibility(model.dateHeader != null ? View.VISIBLE : View.GONE);
+                tvDateHeader.setText(model.dateHeader);
+            }
+            if ((parts & PAYLOAD_SENDER) != 0) {
+                tvSender.setText(model.senderLabel);
+            }
+            if ((parts & PAYLOAD_TIMESTAMP) != 0) {
+                tvTimestamp.setText(model.time);
+            }
         }
     }
 
-    private String formatTimestamp(java.util.Date date) {
-        if (date == null) return "";
-        SimpleDateFormat sdf = new SimpleDateFormat("HH:mm", Locale.getDefault());
-        return sdf.format(date);
-    }
+    static class TextMessageViewHolder extends MessageViewHolder {
+        final TextView tvText;
 
-    private boolean shouldShowDateHeader(Date current, Date previous) {
-        if (current == null) return false; // Si aún no hay timestamp del servidor, no mostrar
-        if (previous == null) return true;  // Primer mensaje siempre muestra fecha
-        return !isSameDay(current, previous);
-    }
+        TextMessageViewHolder(@NonNull View itemView) {
+            super(itemView);
+            tvText = itemView.findViewById(R.id.tvText);
+        }
 
-    private boolean isSameDay(Date d1, Date d2) {
-        if (d1 == null || d2 == null) return false;
-        Calendar c1 = Calendar.getInstance();
-        c1.setTime(d1);
-        Calendar c2 = Calendar.getInstance();
-        c2.setTime(d2);
-        return c1.get(Calendar.ERA) == c2.get(Calendar.ERA)
-                && c1.get(Calendar.YEAR) == c2.get(Calendar.YEAR)
-                && c1.get(Calendar.DAY_OF_YEAR) == c2.get(Calendar.DAY_OF_YEAR);
+        @Override
+        void bind(MessageUiModel model, int parts) {
+            super.bind(model, parts);
+            if ((parts & PAYLOAD_TEXT) != 0) {
+                tvText.setText(model.text);
+            }
+        }
     }
 
-    private String formatDayHeader(Date date) {
-        if (date == null) return "";
-        Calendar today = Calendar.getInstance();
-        Calendar target = Calendar.getInstance();
-        target.setTime(date);
+    static class ImageMessageViewHolder extends MessageViewHolder {
+        final ImageView ivImageMessage;
 
-        // Normalizar horas para comparación
-        zeroTime(today);
-        zeroTime(target);
-
-        Calendar yesterday = (Calendar) today.clone();
-        yesterday.add(Calendar.DAY_OF_YEAR, -1);
-
-        if (isSameDay(target.getTime(), today.getTime())) {
-            return "Hoy";
-        } else if (isSameDay(target.getTime(), yesterday.getTime())) {
-            return "Ayer";
-        } else {
-            // Ej: lun, 7 oct 2025
-            SimpleDateFormat sdf = new SimpleDateFormat("EEE, d MMM yyyy", Locale.getDefault());
-            return capitalizeFirst(sdf.format(date));
+        ImageMessageViewHolder(@NonNull View itemView) {
+            super(itemView);
+            ivImageMessage = itemView.findViewById(R.id.ivImageMessage);
+            // Un solo listener por vista; lee el modelo enlazado en el momento del clic
+            ivImageMessage.setOnClickListener(view -> {
+                if (model != null && !TextUtils.isEmpty(model.imageUrl)) {
+                    ImageViewerActivity.launch(view.getContext(), model.imageUrl, model.senderLabel);
+                }
+            });
         }
-    }
-
-    private void zeroTime(Calendar cal) {
-        cal.set(Calendar.HOUR_OF_DAY, 0);
-        cal.set(Calendar.MINUTE, 0);
-        cal.set(Calendar.SECOND, 0);
-        cal.set(Calendar.MILLISECOND, 0);
-    }
 
-    private String capitalizeFirst(String s) {
-        if (s == null || s.isEmpty()) return s;
-        return s.substring(0, 1).toUpperCase(Locale.getDefault()) + s.substring(1);
+        @Override
+        void bind(MessageUiModel model, int parts) {
+            super.bind(model, parts);
+            if ((parts & PAYLOAD_IMAGE) != 0) {
+                if (!TextUtils.isEmpty(model.imageUrl)) {
+                    // Con tamaño: se decodifica reducido y los adjuntos cifrados guardan miniatura
+                    Picasso.get().load(model.imageUrl).fit().centerCrop().into(ivImageMessage);
+                } else {
+                    ivImageMessage.setImageDrawable(null);
+                }
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,46 @@
+package com.example.proyectoandroid.chat;
+
+/**
+ * Lo que se pinta de un mensaje, ya calculado fuera del hilo principal: texto
+ * descifrado, hora, remitente y encabezado de día. El bind solo asigna campos.
+ */
+public final class MessageUiModel {
+
+    static final int TYPE_TEXT_OUTGOING = 0;
+    static final int TYPE_TEXT_INCOMING = 1;
+    static final int TYPE_IMAGE_OUTGOING = 2;
+    static final int TYPE_IMAGE_INCOMING = 3;
+
+    final String messageId;
+    final long stableId;
+    final int viewType;
+    final String text;
+    final String time;
+    final String senderLabel;
+    final String imageUrl;
+    // null si la fila no lleva encabezado de día
+    final String dateHeader;
+    // No se pudo enviar: al tocar la fila se reintenta
+    final boolean failed;
+
+    MessageUiModel(String messageId, long stableId, int viewType, String text, String time,
+                   String senderLabel, String imageUrl, String dateHeader, boolean failed) {
+        this.messageId = messageId;
+        this.stableId = stableId;
+        this.viewType = viewType;
+        this.text = text;
+        this.time = time;
+        this.senderLabel = senderLabel;
+        this.imageUrl = imageUrl;
+        this.dateHeader = dateHeader;
+        this.failed = failed;
+    }
+
+    MessageUiModel withDateHeader(String header) {
+        return new MessageUiModel(messageId, stableId, viewType, text, time, senderLabel, imageUrl, header, failed);
+    }
+
+    boolean isImage() {
+        return viewType == TYPE_IMAGE_OUTGOING || viewType == TYPE_IMAGE_INCOMING;
+    }
+}
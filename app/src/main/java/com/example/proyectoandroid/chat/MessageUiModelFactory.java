@@ -0,0 +1,243 @@
+package com.example.proyectoandroid.chat;
+
+import android.text.TextUtils;
+
+import com.example.proyectoandroid.data.UserDirectory;
+import com.example.proyectoandroid.data.model.Message;
+import com.example.proyectoandroid.data.model.User;
+import com.example.proyectoandroid.utils.CryptoUtils;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Construye los {@link MessageUiModel} en un hilo de fondo. Lo que depende solo
+ * del mensaje (texto, hora, remitente) se calcula una vez y se guarda por
+ * messageId mientras el mensaje siga en la lista; el encabezado de día depende
+ * del vecino y se resuelve en cada pasada comparando claves de día.
+ *
+ * Todo el estado se toca solo desde {@link #EXECUTOR}.
+ */
+class MessageUiModelFactory {
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final String DECRYPT_ERROR_TEXT = "[Error al descifrar]";
+    private static final String FAILED_TEXT = "No enviado · Toca para reintentar";
+    private static final int NO_DAY = -1;
+
+    private final String currentUserId;
+    private final UserDirectory userDirectory;
+    private final Consumer<List<MessageUiModel>> onRebuilt;
+
+    private final Map<String, Entry> cache = new HashMap<>();
+    // Versión de perfil ya pedida por remitente, para no repetir la consulta
+    private final Map<String, Long> requestedSenders = new HashMap<>();
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm", Locale.getDefault());
+    // Ej: lun, 7 oct 2025
+    private final SimpleDateFormat dayFormat = new SimpleDateFormat("EEE, d MMM yyyy", Locale.getDefault());
+    private final Calendar calendar = Calendar.getInstance();
+    private List<Message> source = Collections.emptyList();
+    private long nextStableId = 1;
+    private volatile boolean released;
+
+    /**
+     * @param onRebuilt recibe la lista reconstruida cuando cambia algo que no
+     *                  viene de {@link #submit} (p. ej. llega el perfil de un remitente)
+     */
+    MessageUiModelFactory(String currentUserId, UserDirectory userDirectory, Consumer<List<MessageUiModel>> onRebuilt) {
+        this.currentUserId = currentUserId;
+        this.userDirectory = userDirectory;
+        this.onRebuilt = onRebuilt;
+    }
+
+    /**
+     * @param chronological mensajes del más antiguo al más reciente
+     * @param onBuilt       se llama en el hilo de fondo con los modelos en el mismo orden
+     */
+    void submit(List<Message> chronological, Consumer<List<MessageUiModel>> onBuilt) {
+        EXECUTOR.execute(() -> {
+            if (released) {
+                return;
+            }
+            source = chronological;
+            onBuilt.accept(build(chronological));
+        });
+    }
+
+    void release() {
+        released = true;
+    }
+
+    private List<MessageUiModel> build(List<Message> messages) {
+        long now = System.currentTimeMillis();
+        int today = dayKey(now);
+        calendar.add(Calendar.DAY_OF_YEAR, -1);
+        int yesterday = dayKey(calendar);
+
+        Map<String, Entry> retained = new HashMap<>(messages.size() * 2);
+        List<MessageUiModel> models = new ArrayList<>(messages.size());
+        int previousDay = NO_DAY;
+
+        for (Message message : messages) {
+            String messageId = message.getMessageId();
+            Entry entry = messageId != null ? cache.get(messageId) : null;
+            if (entry == null || entry.source != message) {
+                entry = compute(message, entry);
+            }
+            if (messageId != null) {
+                retained.put(messageId, entry);
+            }
+
+            // Sin timestamp del servidor no hay encabezado; el siguiente sí lo lleva
+            String header = null;
+            if (entry.day != NO_DAY && entry.day != previousDay) {
+                header = entry.day == today ? "Hoy"
+                        : entry.day == yesterday ? "Ayer"
+                        : capitalizeFirst(dayFormat.format(message.getTimestamp()));
+            }
+            previousDay = entry.day;
+
+            if (!TextUtils.equals(header, entry.model.dateHeader)) {
+                entry.model = entry.model.withDateHeader(header);
+            }
+            models.add(entry.model);
+        }
+
+        // Solo se conserva lo que sigue en la ventana
+        cache.clear();
+        cache.putAll(retained);
+        return models;
+    }
+
+    private Entry compute(Message message, Entry previous) {
+        Entry entry = new Entry();
+        entry.source = message;
+        entry.senderId = message.getSenderId();
+        Date timestamp = message.getTimestamp();
+        entry.day = timestamp != null ? dayKey(timestamp.getTime()) : NO_DAY;
+
+        boolean outgoing = message.getSenderId() != null && message.getSenderId().equals(currentUserId);
+        int viewType = message.getMessageType() == 1
+                ? (outgoing ? MessageUiModel.TYPE_IMAGE_OUTGOING : MessageUiModel.TYPE_IMAGE_INCOMING)
+                : (outgoing ? MessageUiModel.TYPE_TEXT_OUTGOING : MessageUiModel.TYPE_TEXT_INCOMING);
+        long stableId = previous != null ? previous.model.stableId : nextStableId++;
+
+        entry.model = new MessageUiModel(
+                message.getMessageId(),
+                stableId,
+                viewType,
+                message.getMessageType() == 1 ? null : displayText(message),
+                message.isSendFailed() ? FAILED_TEXT : timestamp != null ? timeFormat.format(timestamp) : "",
+                senderLabel(message),
+                message.getImageUrl(),
+                previous != null ? previous.model.dateHeader : null,
+                message.isSendFailed());
+        return entry;
+    }
+
+    private String displayText(Message message) {
+        // Normalmente ya viene descifrado del caso de uso; si no, se descifra aquí
+        String text = message.getDecryptedContent();
+        if (text != null) {
+            return text;
+        }
+        text = message.getContent();
+        if (text == null || text.isEmpty()) {
+            return text;
+        }
+        try {
+            return CryptoUtils.decryptForDisplay(text);
+        } catch (Exception e) {
+            return DECRYPT_ERROR_TEXT;
+        }
+    }
+
+    /**
+     * Nombre del remitente desde el directorio de usuarios. Si el perfil en
+     * caché es anterior a la versión con la que se envió el mensaje se pide de
+     * nuevo y mientras tanto se muestra lo que haya (perfil antiguo o los
+     * campos copiados en los mensajes del esquema anterior).
+     */
+    private String senderLabel(Message message) {
+        String senderId = message.getSenderId();
+        User sender = null;
+        if (userDirectory != null && senderId != null) {
+            sender = userDirectory.peek(senderId, message.getSenderProfileVersion());
+            if (sender == null) {
+                requestSender(senderId, message.getSenderProfileVersion());
+                sender = userDirectory.peek(senderId);
+            }
+        }
+        if (sender != null && !TextUtils.isEmpty(sender.getDisplayName())) {
+            return sender.getDisplayName();
+        }
+        if (!TextUtils.isEmpty(message.getSenderName())) {
+            return message.getSenderName();
+        }
+        if (sender != null && !TextUtils.isEmpty(sender.getEmail())) {
+            return sender.getEmail();
+        }
+        return message.getSenderEmail() != null ? message.getSenderEmail() : "";
+    }
+
+    private void requestSender(String senderId, long minProfileVersion) {
+        Long requested = requestedSenders.get(senderId);
+        if (requested != null && requested >= minProfileVersion) {
+            return;
+        }
+        requestedSenders.put(senderId, minProfileVersion);
+        userDirectory.getUser(senderId, minProfileVersion).thenAccept(user -> {
+            if (user != null) {
+                EXECUTOR.execute(() -> onSenderResolved(senderId));
+            }
+        });
+    }
+
+    private void onSenderResolved(String senderId) {
+        if (released) {
+            return;
+        }
+        boolean affected = false;
+        for (Entry entry : cache.values()) {
+            // Se fuerza el recálculo conservando la entrada (y su id estable)
+            if (senderId.equals(entry.senderId)) {
+                entry.source = null;
+                affected = true;
+            }
+        }
+        if (affected) {
+            onRebuilt.accept(build(source));
+        }
+    }
+
+    private int dayKey(long millis) {
+        calendar.setTimeInMillis(millis);
+        return dayKey(calendar);
+    }
+
+    private static int dayKey(Calendar calendar) {
+        return calendar.get(Calendar.YEAR) * 1000 + calendar.get(Calendar.DAY_OF_YEAR);
+    }
+
+    private static String capitalizeFirst(String s) {
+        if (s == null || s.isEmpty()) return s;
+        return s.substring(0, 1).toUpperCase(Locale.getDefault()) + s.substring(1);
+    }
+
+    private static class Entry {
+        Message source;
+        String senderId;
+        int day;
+        MessageUiModel model;
+    }
+}
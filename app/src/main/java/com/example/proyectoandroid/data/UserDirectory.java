@@ -0,0 +1,233 @@
+package com.example.proyectoandroid.data;
+
+import android.util.Log;
+import android.util.LruCache;
+
+import com.example.proyectoandroid.data.local.UserLocalDataSource;
+import com.example.proyectoandroid.data.model.User;
+import com.example.proyectoandroid.data.remote.FirestoreDataSource;
+import com.example.proyectoandroid.utils.Result;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Directorio de perfiles de usuario compartido por toda la app.
+ *
+ * Solo se resuelven los ids que alguien pide: primero la memoria (LRU), luego
+ * el disco (si la entrada no superó {@link #TTL_MS}) y lo que falte se pide a
+ * Firestore en lotes {@code whereIn}. Las peticiones simultáneas del mismo id
+ * comparten la misma consulta.
+ *
+ * Los mensajes solo guardan el {@code senderId} y la versión de perfil con la
+ * que se enviaron: si esa versión es más nueva que la cacheada, la entrada se
+ * considera caducada aunque no haya vencido el TTL.
+ */
+public class UserDirectory {
+
+    private static final String TAG = "UserDirectory";
+    private static final int MEMORY_CACHE_SIZE = 500;
+    private static final long TTL_MS = TimeUnit.HOURS.toMillis(24);
+
+    private final FirestoreDataSource firestoreDataSource;
+    private final UserLocalDataSource localDataSource;
+    private final LruCache<String, CachedUser> memoryCache = new LruCache<>(MEMORY_CACHE_SIZE);
+    private final Map<String, CompletableFuture<User>> inFlight = new ConcurrentHashMap<>();
+
+    public UserDirectory(FirestoreDataSource firestoreDataSource, UserLocalDataSource localDataSource) {
+        this.firestoreDataSource = firestoreDataSource;
+        this.localDataSource = localDataSource;
+    }
+
+    /**
+     * Perfil en memoria, sin tocar disco ni red. Útil al pintar una fila.
+     */
+    public User peek(String uid) {
+        if (uid == null) {
+            return null;
+        }
+        CachedUser cached = memoryCache.get(uid);
+        return cached != null ? cached.user : null;
+    }
+
+    /**
+     * Igual que {@link #peek(String)}, pero descarta el perfil si es anterior a
+     * {@code minProfileVersion}.
+     */
+    public User peek(String uid, long minProfileVersion) {
+        User user = peek(uid);
+        return user != null && user.getProfileVersion() >= minProfileVersion ? user : null;
+    }
+
+    public CompletableFuture<User> getUser(String uid) {
+        return getUser(uid, 0);
+    }
+
+    public CompletableFuture<User> getUser(String uid, long minProfileVersion) {
+        return resolve(Collections.singletonMap(uid, minProfileVersion))
+                .thenApply(users -> users.get(uid));
+    }
+
+    /**
+     * Resuelve los ids pedidos. El mapa resultante no incluye los usuarios que
+     * no existen o no se pudieron descargar.
+     */
+    public CompletableFuture<Map<String, User>> getUsers(Collection<String> uids) {
+        Map<String, Long> requested = new LinkedHashMap<>();
+        for (String uid : uids) {
+            requested.put(uid, 0L);
+        }
+        return resolve(requested);
+    }
+
+    // uid -> versión mínima de perfil aceptable
+    private CompletableFuture<Map<String, User>> resolve(Map<String, Long> minVersions) {
+        Map<String, Long> requested = new LinkedHashMap<>();
+        for (Map.Entry<String, Long> entry : minVersions.entrySet()) {
+            if (entry.getKey() != null && !entry.getKey().isEmpty()) {
+                requested.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        Map<String, User> found = new HashMap<>();
+        Map<String, CompletableFuture<User>> pending = new HashMap<>();
+        List<String> toLoad = new ArrayList<>();
+        long now = System.currentTimeMillis();
+
+        synchronized (this) {
+            for (String uid : requested.keySet()) {
+                CachedUser cached = memoryCache.get(uid);
+                if (cached != null && now - cached.cachedAt < TTL_MS
+                        && cached.user.getProfileVersion() >= requested.get(uid)) {
+                    found.put(uid, cached.user);
+                    continue;
+                }
+
+                CompletableFuture<User> existing = inFlight.get(uid);
+                if (existing != null) {
+                    pending.put(uid, existing);
+                } else {
+                    CompletableFuture<User> future = new CompletableFuture<>();
+                    inFlight.put(uid, future);
+                    pending.put(uid, future);
+                    toLoad.add(uid);
+                }
+            }
+        }
+
+        if (!toLoad.isEmpty()) {
+            Map<String, Long> toLoadVersions = new HashMap<>();
+            for (String uid : toLoad) {
+                toLoadVersions.put(uid, requested.get(uid));
+            }
+            load(toLoadVersions);
+        }
+
+        if (pending.isEmpty()) {
+            return CompletableFuture.completedFuture(found);
+        }
+
+        return CompletableFuture.allOf(pending.values().toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> {
+                    for (Map.Entry<String, CompletableFuture<User>> entry : pending.entrySet()) {
+                        User user = entry.getValue().join();
+                        if (user != null) {
+                            found.put(entry.getKey(), user);
+                        }
+                    }
+                    return found;
+                });
+    }
+
+    /**
+     * Actualiza el directorio con un perfil recibido por otra vía (listener de
+     * estado, búsqueda de contactos...) para no tener que volver a pedirlo.
+     */
+    public void put(User user) {
+        if (user == null || user.getUid() == null) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        memoryCache.put(user.getUid(), new CachedUser(user, now));
+        localDataSource.saveUsers(Collections.singletonList(user), now);
+    }
+
+    public void putAll(Collection<User> users) {
+        long now = System.currentTimeMillis();
+        List<User> valid = new ArrayList<>();
+        for (User user : users) {
+            if (user != null && user.getUid() != null) {
+                memoryCache.put(user.getUid(), new CachedUser(user, now));
+                valid.add(user);
+            }
+        }
+        localDataSource.saveUsers(valid, now);
+    }
+
+    private void load(Map<String, Long> minVersions) {
+        List<String> uids = new ArrayList<>(minVersions.keySet());
+        localDataSource.getUsers(uids, System.currentTimeMillis() - TTL_MS).thenAccept(localResult -> {
+            Map<String, User> fromDisk = localResult instanceof Result.Success
+                    ? ((Result.Success<Map<String, User>>) localResult).getData()
+                    : Collections.emptyMap();
+
+            List<String> missing = new ArrayList<>();
+            for (String uid : uids) {
+                User user = fromDisk.get(uid);
+                if (user != null && user.getProfileVersion() >= minVersions.get(uid)) {
+                    // La marca de tiempo de disco no se conoce aquí; se trata como recién leída
+                    memoryCache.put(uid, new CachedUser(user, System.currentTimeMillis()));
+                    complete(uid, user);
+                } else {
+                    missing.add(uid);
+                }
+            }
+
+            if (missing.isEmpty()) {
+                return;
+            }
+
+            firestoreDataSource.getUsersByIds(missing).thenAccept(remoteResult -> {
+                if (remoteResult instanceof Result.Success) {
+                    List<User> users = ((Result.Success<List<User>>) remoteResult).getData();
+                    putAll(users);
+                    for (User user : users) {
+                        complete(user.getUid(), user);
+                    }
+                } else {
+                    Log.w(TAG, "No se pudieron cargar usuarios: "
+                            + ((Result.Error<List<User>>) remoteResult).getErrorMessage());
+                }
+                // Los que no llegaron (no existen o hubo error) se resuelven a null
+                for (String uid : missing) {
+                    complete(uid, null);
+                }
+            });
+        });
+    }
+
+    private void complete(String uid, User user) {
+        CompletableFuture<User> future = inFlight.remove(uid);
+        if (future != null) {
+            future.complete(user);
+        }
+    }
+
+    private static class CachedUser {
+        final User user;
+        final long cachedAt;
+
+        CachedUser(User user, long cachedAt) {
+            this.user = user;
+            this.cachedAt = cachedAt;
+        }
+    }
+}
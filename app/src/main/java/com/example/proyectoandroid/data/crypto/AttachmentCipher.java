@@ -0,0 +1,251 @@
+package com.example.proyectoandroid.data.crypto;
+
+import android.net.Uri;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Cifrado por bloques de los adjuntos con la clave del chat, como flujo: en
+ * memoria solo hay un bloque a la vez, sea cual sea el tamaño del archivo.
+ *
+ * Formato: [versión (1)][keyId (4)][tamaño de bloque (4)][sal (16)] y después
+ * bloques AES-GCM de hasta {@link #CHUNK_SIZE} bytes en claro con su etiqueta.
+ * La clave de cada archivo se deriva de la del chat y la sal (HMAC-SHA256).
+ * El IV de cada bloque es su número más una marca de último bloque, y la
+ * cabecera va como datos asociados: no se pueden reordenar ni truncar bloques.
+ */
+public final class AttachmentCipher {
+
+    // Sufijo del archivo en Storage: así se reconoce un adjunto cifrado por su URL
+    public static final String FILE_EXTENSION = "enc";
+    public static final String CONTENT_TYPE = "application/octet-stream";
+
+    public static final int CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNK_SIZE = 1024 * 1024;
+    private static final byte VERSION = 1;
+    private static final int SALT_SIZE = 16;
+    private static final int HEADER_SIZE = 1 + 4 + 4 + SALT_SIZE;
+    private static final int IV_SIZE = 12;
+    private static final int TAG_SIZE = 16;
+    private static final byte[] KDF_LABEL = "chat-attachment".getBytes(StandardCharsets.UTF_8);
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private AttachmentCipher() {
+    }
+
+    /**
+     * Flujo cifrado (cabecera incluida) de {@code plain}. Cerrarlo cierra el original.
+     */
+    public static InputStream encrypt(InputStream plain, ChatKey chatKey) throws GeneralSecurityException {
+        byte[] salt = new byte[SALT_SIZE];
+        RANDOM.nextBytes(salt);
+        byte[] header = ByteBuffer.allocate(HEADER_SIZE)
+                .put(VERSION)
+                .putInt(chatKey.getKeyId())
+                .putInt(CHUNK_SIZE)
+                .put(salt)
+                .array();
+        return new ChunkStream(plain, Cipher.ENCRYPT_MODE, header, CHUNK_SIZE,
+                fileKey(chatKey.getSecretKey(), salt));
+    }
+
+    /**
+     * Lee la cabecera de un adjunto cifrado; el resto del flujo se descifra con
+     * {@link #decrypt} y la clave del chat de {@link Header#getKeyId()}.
+     */
+    public static Header readHeader(InputStream in) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        if (readFully(in, header, HEADER_SIZE) < HEADER_SIZE) {
+            throw new EOFException("Cabecera de adjunto incompleta");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header);
+        if (buffer.get() != VERSION) {
+            throw new IOException("Versión de adjunto no soportada: " + header[0]);
+        }
+        int keyId = buffer.getInt();
+        int chunkSize = buffer.getInt();
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK_SIZE) {
+            throw new IOException("Tamaño de bloque no válido: " + chunkSize);
+        }
+        return new Header(header, keyId, chunkSize);
+    }
+
+    public static InputStream decrypt(InputStream in, Header header, ChatKey chatKey) throws GeneralSecurityException {
+        byte[] salt = new byte[SALT_SIZE];
+        System.arraycopy(header.bytes, HEADER_SIZE - SALT_SIZE, salt, 0, SALT_SIZE);
+        return new ChunkStream(in, Cipher.DECRYPT_MODE, header.bytes, header.chunkSize + TAG_SIZE,
+                fileKey(chatKey.getSecretKey(), salt));
+    }
+
+    public static boolean isEncryptedUrl(Uri uri) {
+        String path = storagePath(uri);
+        return path != null && path.endsWith("." + FILE_EXTENSION);
+    }
+
+    /**
+     * chatId de la ruta en Storage (images/{chatId}/{archivo}), o null.
+     */
+    public static String chatIdFromUrl(Uri uri) {
+        String path = storagePath(uri);
+        String[] parts = path != null ? path.split("/") : new String[0];
+        return parts.length == 3 ? parts[1] : null;
+    }
+
+    // En las URLs de descarga la ruta del objeto va codificada en el último segmento
+    private static String storagePath(Uri uri) {
+        return uri != null ? uri.getLastPathSegment() : null;
+    }
+
+    private static SecretKey fileKey(SecretKey chatKey, byte[] salt) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(chatKey.getEncoded(), "HmacSHA256"));
+        mac.update(KDF_LABEL);
+        return new SecretKeySpec(mac.doFinal(salt), "AES");
+    }
+
+    private static int readFully(InputStream in, byte[] buffer, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = in.read(buffer, total, length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    public static final class Header {
+        private final byte[] bytes;
+        private final int keyId;
+        private final int chunkSize;
+
+        Header(byte[] bytes, int keyId, int chunkSize) {
+            this.bytes = bytes;
+            this.keyId = keyId;
+            this.chunkSize = chunkSize;
+        }
+
+        public int getKeyId() { return keyId; }
+    }
+
+    /**
+     * Cifra o descifra de bloque en bloque a medida que se lee. Al cifrar,
+     * antes del primer bloque entrega la cabecera.
+     */
+    private static final class ChunkStream extends InputStream {
+        private final PushbackInputStream source;
+        private final int mode;
+        private final byte[] header;
+        private final SecretKey fileKey;
+        private final Cipher cipher;
+        private final byte[] in;
+        private byte[] out;
+        private int outPos;
+        private int outLen;
+        private int index;
+        private boolean finished;
+
+        ChunkStream(InputStream source, int mode, byte[] header, int inChunkSize, SecretKey fileKey)
+                throws GeneralSecurityException {
+            this.source = new PushbackInputStream(source, 1);
+            this.mode = mode;
+            this.header = header;
+            this.fileKey = fileKey;
+            this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            this.in = new byte[inChunkSize];
+            if (mode == Cipher.ENCRYPT_MODE) {
+                out = new byte[inChunkSize + TAG_SIZE];
+                System.arraycopy(header, 0, out, 0, header.length);
+                outLen = header.length;
+            } else {
+                out = new byte[inChunkSize];
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            int read = read(single, 0, 1);
+            return read < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (outPos == outLen) {
+                if (finished) {
+                    return -1;
+                }
+                nextChunk();
+            }
+            int count = Math.min(length, outLen - outPos);
+            System.arraycopy(out, outPos, buffer, offset, count);
+            outPos += count;
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return outLen - outPos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+
+        private void nextChunk() throws IOException {
+            int read = readFully(source, in, in.length);
+            boolean last = read < in.length || isAtEnd();
+            if (mode == Cipher.DECRYPT_MODE && read < TAG_SIZE) {
+                throw new EOFException("Adjunto truncado");
+            }
+            try {
+                cipher.init(mode, fileKey, new GCMParameterSpec(TAG_SIZE * 8, iv(index, last)));
+                cipher.updateAAD(header);
+                outLen = cipher.doFinal(in, 0, read, out, 0);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Bloque " + index + " no válido", e);
+            }
+            outPos = 0;
+            index++;
+            finished = last;
+        }
+
+        private boolean isAtEnd() throws IOException {
+            int next = source.read();
+            if (next < 0) {
+                return true;
+            }
+            source.unread(next);
+            return false;
+        }
+
+        // [0 x 7][número de bloque (4)][1 si es el último]
+        private static byte[] iv(int index, boolean last) {
+            byte[] iv = new byte[IV_SIZE];
+            iv[7] = (byte) (index >>> 24);
+            iv[8] = (byte) (index >>> 16);
+            iv[9] = (byte) (index >>> 8);
+            iv[10] = (byte) index;
+            iv[11] = (byte) (last ? 1 : 0);
+            return iv;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.proyectoandroid.data.crypto;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Clave AES-256 de un chat ya descifrada. {@code keyId} va en cada sobre
+ * cifrado con ella, así que una rotación no deja ilegibles los mensajes viejos.
+ * {@code boundChatId} es el chat que se autentica en cada sobre: el de la
+ * clave salvo en chats migrados, que conservan el id con el que se creó.
+ */
+public class ChatKey {
+
+    private final String chatId;
+    private final String boundChatId;
+    private final int keyId;
+    private final SecretKey secretKey;
+
+    public ChatKey(String chatId, String boundChatId, int keyId, SecretKey secretKey) {
+        this.chatId = chatId;
+        this.boundChatId = boundChatId != null ? boundChatId : chatId;
+        this.keyId = keyId;
+        this.secretKey = secretKey;
+    }
+
+    public String getChatId() { return chatId; }
+
+    public String getBoundChatId() { return boundChatId; }
+
+    public int getKeyId() { return keyId; }
+
+    public SecretKey getSecretKey() { return secretKey; }
+}
@@ -0,0 +1,428 @@
+package com.example.proyectoandroid.data.crypto;
+
+import android.text.TextUtils;
+import android.util.Base64;
+import android.util.Log;
+
+import com.example.proyectoandroid.data.local.ChatKeyEntry;
+import com.example.proyectoandroid.data.local.ChatKeyLocalDataSource;
+import com.example.proyectoandroid.data.local.SessionManager;
+import com.example.proyectoandroid.data.model.Chat;
+import com.example.proyectoandroid.data.model.ChatKeyRecord;
+import com.example.proyectoandroid.data.model.User;
+import com.example.proyectoandroid.data.remote.FirestoreDataSource;
+import com.example.proyectoandroid.data.repository.AuthRepository;
+import com.example.proyectoandroid.utils.Result;
+
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Claves AES de cada chat. Se buscan en memoria → disco → Firestore, igual que
+ * los perfiles en {@link com.example.proyectoandroid.data.UserDirectory}:
+ * la operación RSA de descifrar la clave se hace una vez por chat e
+ * instalación; después cifrar o descifrar un mensaje es una sola operación
+ * AES-GCM con la clave en memoria.
+ *
+ * Si algún participante aún no ha publicado su clave pública el chat no recibe
+ * clave propia y sigue con el esquema compartido anterior. Un chat que ya
+ * tiene clave no vuelve nunca a ese esquema ({@link #getSendKey}).
+ */
+public class ChatKeyRing {
+
+    private static final String TAG = "ChatKeyRing";
+    private static final int FIRST_KEY_ID = 1;
+    private static final int KEY_SIZE_BYTES = 32;
+    // Tras ver que un chat no tiene clave para nosotros no se vuelve a preguntar enseguida
+    private static final long MISSING_RETRY_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final FirestoreDataSource firestoreDataSource;
+    private final ChatKeyLocalDataSource localDataSource;
+    private final DeviceKeyStore deviceKeyStore;
+    private final AuthRepository authRepository;
+    private final SessionManager sessionManager;
+    // Las operaciones del Keystore (RSA, generar claves) no van al hilo de decodificación
+    private final ExecutorService cryptoExecutor = Executors.newSingleThreadExecutor();
+    private final SecureRandom random = new SecureRandom();
+
+    // chatId/keyId -> clave; chatId -> clave actual (la de keyId más alto)
+    private final Map<String, ChatKey> keys = new ConcurrentHashMap<>();
+    private final Map<String, ChatKey> currentKeys = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<ChatKey>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, Long> missingSince = new ConcurrentHashMap<>();
+    // Chats cuyos participantes ya se comprobaron en esta sesión
+    private final Set<String> sharedChats = ConcurrentHashMap.newKeySet();
+    private volatile String ownerUid;
+
+    public ChatKeyRing(FirestoreDataSource firestoreDataSource,
+                       ChatKeyLocalDataSource localDataSource,
+                       DeviceKeyStore deviceKeyStore,
+                       AuthRepository authRepository,
+                       SessionManager sessionManager) {
+        this.firestoreDataSource = firestoreDataSource;
+        this.localDataSource = localDataSource;
+        this.deviceKeyStore = deviceKeyStore;
+        this.authRepository = authRepository;
+        this.sessionManager = sessionManager;
+    }
+
+    /**
+     * Clave en memoria, sin tocar disco ni red. Útil al descifrar en el hilo de
+     * los listeners; no comprueba el usuario en sesión (eso lo hace
+     * {@link #getKey}, que siempre se llama antes al abrir un chat).
+     */
+    public ChatKey peek(String chatId, int keyId) {
+        return keys.get(keyName(chatId, keyId));
+    }
+
+    /**
+     * Clave actual del chat, o null si no tiene clave propia o no se ha
+     * compartido con este usuario.
+     */
+    public CompletableFuture<ChatKey> getKey(String chatId) {
+        String uid = currentOwner();
+        if (uid == null || chatId == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        ChatKey current = currentKeys.get(chatId);
+        if (current != null) {
+            return CompletableFuture.completedFuture(current);
+        }
+        Long missing = missingSince.get(chatId);
+        if (missing != null && System.currentTimeMillis() - missing < MISSING_RETRY_MS) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<ChatKey> future;
+        synchronized (this) {
+            future = inFlight.get(chatId);
+            if (future != null) {
+                return future;
+            }
+            future = new CompletableFuture<>();
+            inFlight.put(chatId, future);
+        }
+        CompletableFuture<ChatKey> pending = future;
+        load(uid, chatId).whenComplete((key, error) -> {
+            inFlight.remove(chatId);
+            pending.complete(error == null ? key : null);
+        });
+        return pending;
+    }
+
+    /**
+     * Clave para enviar: la actual o, si el chat nunca ha tenido, una nueva
+     * cifrada para todos los participantes. Success(null) solo cuando el chat no
+     * tiene clave y aún no puede tenerla (algún participante sin clave pública):
+     * entonces se usa el esquema compartido. Si el chat ya tiene clave pero no
+     * se puede obtener (sin red, no cifrada para este dispositivo...) es un
+     * Error y quien envía reintenta más tarde.
+     */
+    public CompletableFuture<Result<ChatKey>> getSendKey(String chatId) {
+        String uid = currentOwner();
+        if (uid == null || chatId == null) {
+            return CompletableFuture.completedFuture(new Result.Error<>("Sin sesión para obtener la clave del chat"));
+        }
+        return getKey(chatId).thenCompose(key -> {
+            if (key != null) {
+                shareWithParticipants(chatId, key);
+                return CompletableFuture.completedFuture(new Result.Success<>(key));
+            }
+            // Nada en memoria ni en disco: el servidor dice si el chat ya tiene clave
+            return firestoreDataSource.getChatKey(chatId).thenCompose(remote -> {
+                if (!(remote instanceof Result.Success)) {
+                    return CompletableFuture.completedFuture(new Result.Error<ChatKey>(
+                            "No se pudo comprobar la clave del chat: " + ((Result.Error<ChatKeyRecord>) remote).getErrorMessage()));
+                }
+                ChatKeyRecord record = ((Result.Success<ChatKeyRecord>) remote).getData();
+                if (record == null) {
+                    return createKey(uid, chatId);
+                }
+                return CompletableFuture.supplyAsync(() -> adoptForSending(uid, chatId, record, null), cryptoExecutor);
+            });
+        });
+    }
+
+    /**
+     * Publica la clave pública de este dispositivo si no es la que tiene el perfil.
+     */
+    public CompletableFuture<Void> publishPublicKey() {
+        User user = authRepository.getCurrentUser();
+        if (user == null || user.getUid() == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String uid = user.getUid();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return deviceKeyStore.getPublicKey(uid);
+            } catch (GeneralSecurityException e) {
+                Log.e(TAG, "No se pudo generar la clave del dispositivo", e);
+                return null;
+            }
+        }, cryptoExecutor).thenCompose(publicKey -> {
+            if (publicKey == null || publicKey.equals(user.getPublicKey())) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return firestoreDataSource.updateUserPublicKey(uid, publicKey).thenAccept(result -> {
+                if (result instanceof Result.Success) {
+                    sessionManager.updateUserField("publicKey", publicKey);
+                } else {
+                    Log.w(TAG, "No se pudo publicar la clave pública: " + ((Result.Error<?>) result).getErrorMessage());
+                }
+            });
+        });
+    }
+
+    private CompletableFuture<ChatKey> load(String uid, String chatId) {
+        return localDataSource.getKeys(uid, chatId).thenComposeAsync(result -> {
+            ChatKey latest = null;
+            if (result instanceof Result.Success) {
+                for (ChatKeyEntry entry : ((Result.Success<List<ChatKeyEntry>>) result).getData()) {
+                    try {
+                        ChatKey key = toChatKey(chatId, entry.getBoundChatId(), entry.getKeyId(),
+                                deviceKeyStore.openFromDisk(uid, entry.getSealedKey()));
+                        remember(key);
+                        if (latest == null || key.getKeyId() > latest.getKeyId()) {
+                            latest = key;
+                        }
+                    } catch (GeneralSecurityException e) {
+                        Log.w(TAG, "Clave local ilegible para " + chatId + ": " + e.getMessage());
+                    }
+                }
+            }
+            if (latest != null) {
+                return CompletableFuture.completedFuture(latest);
+            }
+            return firestoreDataSource.getChatKey(chatId)
+                    .thenApplyAsync(remote -> remote instanceof Result.Success
+                            ? adopt(uid, chatId, ((Result.Success<ChatKeyRecord>) remote).getData(), null)
+                            : null, cryptoExecutor);
+        }, cryptoExecutor);
+    }
+
+    private CompletableFuture<Result<ChatKey>> createKey(String uid, String chatId) {
+        return firestoreDataSource.getChatById(chatId).thenCompose(chatResult -> {
+            if (!(chatResult instanceof Result.Success)) {
+                return CompletableFuture.completedFuture(new Result.Error<ChatKey>(
+                        ((Result.Error<Chat>) chatResult).getErrorMessage()));
+            }
+            Chat chat = ((Result.Success<Chat>) chatResult).getData();
+            return publicKeys(uid, chat.getParticipantIds()).thenComposeAsync(keysResult -> {
+                if (!(keysResult instanceof Result.Success)) {
+                    return CompletableFuture.completedFuture(new Result.Error<ChatKey>(
+                            ((Result.Error<Map<String, String>>) keysResult).getErrorMessage()));
+                }
+                Map<String, String> publicKeys = ((Result.Success<Map<String, String>>) keysResult).getData();
+                if (publicKeys == null) {
+                    // El chat aún no puede tener clave propia: esquema compartido
+                    return CompletableFuture.completedFuture(new Result.Success<ChatKey>(null));
+                }
+                byte[] rawKey = new byte[KEY_SIZE_BYTES];
+                random.nextBytes(rawKey);
+                ChatKeyRecord record;
+                try {
+                    Map<String, String> wrapped = new HashMap<>();
+                    Map<String, String> fingerprints = new HashMap<>();
+                    wrapFor(rawKey, publicKeys, wrapped, fingerprints);
+                    record = new ChatKeyRecord(FIRST_KEY_ID, wrapped, fingerprints, uid, null);
+                } catch (GeneralSecurityException e) {
+                    Log.e(TAG, "No se pudo cifrar la clave del chat " + chatId, e);
+                    return CompletableFuture.completedFuture(new Result.Error<ChatKey>(e.getMessage()));
+                }
+                return firestoreDataSource.createChatKeyIfAbsent(chatId, record).thenApplyAsync(result -> {
+                    if (!(result instanceof Result.Success)) {
+                        return new Result.Error<ChatKey>(((Result.Error<ChatKeyRecord>) result).getErrorMessage());
+                    }
+                    ChatKeyRecord stored = ((Result.Success<ChatKeyRecord>) result).getData();
+                    // Si otro participante se adelantó se usa la suya
+                    return adoptForSending(uid, chatId, stored, stored == record ? rawKey : null);
+                }, cryptoExecutor);
+            }, cryptoExecutor);
+        });
+    }
+
+    private Result<ChatKey> adoptForSending(String uid, String chatId, ChatKeyRecord record, byte[] rawKey) {
+        ChatKey key = adopt(uid, chatId, record, rawKey);
+        return key != null
+                ? new Result.Success<>(key)
+                : new Result.Error<>("El chat " + chatId + " tiene clave pero este dispositivo aún no puede usarla");
+    }
+
+    /**
+     * Guarda la clave del documento remoto. {@code rawKey} se pasa cuando la
+     * acabamos de generar y no hace falta descifrarla.
+     */
+    private ChatKey adopt(String uid, String chatId, ChatKeyRecord record, byte[] rawKey) {
+        String wrapped = record != null ? record.getWrappedKeys().get(uid) : null;
+        if (rawKey == null && wrapped == null) {
+            missingSince.put(chatId, System.currentTimeMillis());
+            return null;
+        }
+        try {
+            if (rawKey == null) {
+                rawKey = deviceKeyStore.unwrap(uid, Base64.decode(wrapped, Base64.NO_WRAP));
+            }
+            ChatKey key = toChatKey(chatId, record.getBoundChatId(), record.getKeyId(), rawKey);
+            remember(key);
+            missingSince.remove(chatId);
+            localDataSource.saveKey(uid, new ChatKeyEntry(chatId, record.getBoundChatId(), key.getKeyId(),
+                    deviceKeyStore.sealForDisk(uid, rawKey)));
+            return key;
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            Log.w(TAG, "No se pudo descifrar la clave del chat " + chatId + ": " + e.getMessage());
+            missingSince.put(chatId, System.currentTimeMillis());
+            dropStaleWrap(uid, chatId, record);
+            return null;
+        }
+    }
+
+    /**
+     * Si la copia propia se cifró para otra clave pública (reinstalación) se
+     * retira: solo así otro miembro puede volver a cifrarla, porque las reglas
+     * no le dejan sustituirla.
+     */
+    private void dropStaleWrap(String uid, String chatId, ChatKeyRecord record) {
+        try {
+            String current = DeviceKeyStore.fingerprint(deviceKeyStore.getPublicKey(uid));
+            if (!current.equals(record.getPublicKeyIds().get(uid))) {
+                firestoreDataSource.removeOwnChatKeyWrap(chatId, uid);
+            }
+        } catch (GeneralSecurityException e) {
+            Log.w(TAG, "Sin clave del dispositivo para comprobar la copia de " + chatId);
+        }
+    }
+
+    /**
+     * Una vez por sesión y chat: cifra la clave para los participantes que no
+     * la tienen (miembros nuevos, o quien retiró su copia al reinstalar).
+     */
+    private void shareWithParticipants(String chatId, ChatKey key) {
+        String uid = currentOwner();
+        if (uid == null || !sharedChats.add(chatId)) {
+            return;
+        }
+        firestoreDataSource.getChatById(chatId).thenCombine(firestoreDataSource.getChatKey(chatId), (chatResult, keyResult) -> {
+            if (!(chatResult instanceof Result.Success) || !(keyResult instanceof Result.Success)) {
+                sharedChats.remove(chatId);
+                return null;
+            }
+            ChatKeyRecord record = ((Result.Success<ChatKeyRecord>) keyResult).getData();
+            if (record == null || record.getKeyId() != key.getKeyId()) {
+                return null;
+            }
+            List<String> participants = ((Result.Success<Chat>) chatResult).getData().getParticipantIds();
+            publicKeys(uid, participants).thenAcceptAsync(keysResult -> {
+                if (!(keysResult instanceof Result.Success)
+                        || ((Result.Success<Map<String, String>>) keysResult).getData() == null) {
+                    return;
+                }
+                Map<String, String> publicKeys = ((Result.Success<Map<String, String>>) keysResult).getData();
+                Map<String, String> pending = new HashMap<>();
+                for (Map.Entry<String, String> entry : publicKeys.entrySet()) {
+                    if (!record.getWrappedKeys().containsKey(entry.getKey())) {
+                        pending.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                try {
+                    Map<String, String> wrapped = new HashMap<>();
+                    Map<String, String> fingerprints = new HashMap<>();
+                    wrapFor(key.getSecretKey().getEncoded(), pending, wrapped, fingerprints);
+                    firestoreDataSource.addChatKeyWraps(chatId, wrapped, fingerprints);
+                } catch (GeneralSecurityException e) {
+                    Log.w(TAG, "No se pudo compartir la clave del chat " + chatId, e);
+                }
+            }, cryptoExecutor);
+            return null;
+        }).exceptionally(e -> {
+            sharedChats.remove(chatId);
+            return null;
+        });
+    }
+
+    /**
+     * Clave pública de cada participante, leída de Firestore (no de la caché de
+     * perfiles, que puede tener una clave antigua). La propia sale del Keystore.
+     * Success(null) si a alguno le falta; Error si no se pudieron leer.
+     */
+    private CompletableFuture<Result<Map<String, String>>> publicKeys(String uid, List<String> participants) {
+        List<String> others = new ArrayList<>(participants);
+        others.remove(uid);
+        return firestoreDataSource.getUsersByIds(others).thenApplyAsync(result -> {
+            if (!(result instanceof Result.Success)) {
+                return new Result.Error<>(((Result.Error<List<User>>) result).getErrorMessage());
+            }
+            Map<String, String> publicKeys = new HashMap<>();
+            for (User user : ((Result.Success<List<User>>) result).getData()) {
+                if (!TextUtils.isEmpty(user.getPublicKey())) {
+                    publicKeys.put(user.getUid(), user.getPublicKey());
+                }
+            }
+            if (publicKeys.size() != others.size()) {
+                Log.i(TAG, "Hay participantes sin clave pública; se mantiene el esquema compartido");
+                return new Result.Success<>(null);
+            }
+            try {
+                publicKeys.put(uid, deviceKeyStore.getPublicKey(uid));
+            } catch (GeneralSecurityException e) {
+                Log.e(TAG, "Sin clave del dispositivo", e);
+                return new Result.Error<>(e.getMessage());
+            }
+            return new Result.Success<>(publicKeys);
+        }, cryptoExecutor);
+    }
+
+    private static void wrapFor(byte[] rawKey, Map<String, String> publicKeys,
+                                Map<String, String> wrappedOut, Map<String, String> fingerprintsOut)
+            throws GeneralSecurityException {
+        for (Map.Entry<String, String> entry : publicKeys.entrySet()) {
+            wrappedOut.put(entry.getKey(), Base64.encodeToString(DeviceKeyStore.wrap(rawKey, entry.getValue()), Base64.NO_WRAP));
+            fingerprintsOut.put(entry.getKey(), DeviceKeyStore.fingerprint(entry.getValue()));
+        }
+    }
+
+    private void remember(ChatKey key) {
+        keys.put(keyName(key.getChatId(), key.getKeyId()), key);
+        currentKeys.merge(key.getChatId(), key, (old, added) -> added.getKeyId() > old.getKeyId() ? added : old);
+    }
+
+    // Al cambiar de usuario se olvidan las claves del anterior
+    private String currentOwner() {
+        User user = authRepository.getCurrentUser();
+        String uid = user != null ? user.getUid() : null;
+        if (!TextUtils.equals(uid, ownerUid)) {
+            synchronized (this) {
+                if (!TextUtils.equals(uid, ownerUid)) {
+                    keys.clear();
+                    currentKeys.clear();
+                    missingSince.clear();
+                    sharedChats.clear();
+                    ownerUid = uid;
+                }
+            }
+        }
+        return uid;
+    }
+
+    private static ChatKey toChatKey(String chatId, String boundChatId, int keyId, byte[] rawKey) {
+        return new ChatKey(chatId, boundChatId, keyId, new SecretKeySpec(rawKey, "AES"));
+    }
+
+    private static String keyName(String chatId, int keyId) {
+        return chatId + "/" + keyId;
+    }
+}
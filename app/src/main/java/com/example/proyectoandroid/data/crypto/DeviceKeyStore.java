@@ -0,0 +1,153 @@
+package com.example.proyectoandroid.data.crypto;
+
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Base64;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+
+/**
+ * Claves del dispositivo en el Android Keystore (no exportables), una pareja
+ * por usuario que inicia sesión en él:
+ * <ul>
+ *   <li>RSA: la pública se publica en users/{uid}.publicKey y con ella los
+ *   demás cifran la clave de cada chat; la privada solo descifra.</li>
+ *   <li>AES-GCM: cifra la caché en disco de las claves de chat ya descifradas,
+ *   para no repetir la operación RSA en cada arranque.</li>
+ * </ul>
+ */
+public class DeviceKeyStore {
+
+    private static final String ANDROID_KEY_STORE = "AndroidKeyStore";
+    private static final String IDENTITY_ALIAS_PREFIX = "chat_identity_";
+    private static final String DISK_CACHE_ALIAS_PREFIX = "chat_key_cache_";
+    private static final int RSA_KEY_SIZE = 2048;
+
+    private static final String WRAP_TRANSFORMATION = "RSA/ECB/OAEPWithSHA-256AndMGF1Padding";
+    // El Keystore solo admite MGF1 con SHA-1: se fija igual al cifrar y al descifrar
+    private static final OAEPParameterSpec OAEP_SPEC = new OAEPParameterSpec(
+            "SHA-256", "MGF1", MGF1ParameterSpec.SHA1, PSource.PSpecified.DEFAULT);
+
+    private static final String DISK_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int GCM_IV_SIZE = 12;
+    private static final int GCM_TAG_BITS = 128;
+    private static final int FINGERPRINT_SIZE = 12;
+
+    private final KeyStore keyStore;
+
+    public DeviceKeyStore() {
+        try {
+            keyStore = KeyStore.getInstance(ANDROID_KEY_STORE);
+            keyStore.load(null);
+        } catch (GeneralSecurityException | IOException e) {
+            throw new IllegalStateException("Android Keystore no disponible", e);
+        }
+    }
+
+    /**
+     * Clave pública del usuario en este dispositivo (X.509, Base64). La pareja
+     * se genera la primera vez.
+     */
+    public synchronized String getPublicKey(String uid) throws GeneralSecurityException {
+        String alias = IDENTITY_ALIAS_PREFIX + uid;
+        if (!keyStore.containsAlias(alias)) {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance(KeyProperties.KEY_ALGORITHM_RSA, ANDROID_KEY_STORE);
+            generator.initialize(new KeyGenParameterSpec.Builder(alias,
+                    KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                    .setKeySize(RSA_KEY_SIZE)
+                    .setDigests(KeyProperties.DIGEST_SHA256)
+                    .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_RSA_OAEP)
+                    .build());
+            generator.generateKeyPair();
+        }
+        PublicKey publicKey = keyStore.getCertificate(alias).getPublicKey();
+        return Base64.encodeToString(publicKey.getEncoded(), Base64.NO_WRAP);
+    }
+
+    /**
+     * Descifra la clave de un chat cifrada para este usuario.
+     */
+    public byte[] unwrap(String uid, byte[] wrappedKey) throws GeneralSecurityException {
+        PrivateKey privateKey = (PrivateKey) keyStore.getKey(IDENTITY_ALIAS_PREFIX + uid, null);
+        if (privateKey == null) {
+            throw new GeneralSecurityException("Sin clave privada para " + uid);
+        }
+        Cipher cipher = Cipher.getInstance(WRAP_TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, privateKey, OAEP_SPEC);
+        return cipher.doFinal(wrappedKey);
+    }
+
+    /**
+     * Cifra la clave de un chat para la clave pública (Base64) de un participante.
+     */
+    public static byte[] wrap(byte[] rawKey, String publicKeyBase64) throws GeneralSecurityException {
+        PublicKey publicKey = KeyFactory.getInstance(KeyProperties.KEY_ALGORITHM_RSA)
+                .generatePublic(new X509EncodedKeySpec(Base64.decode(publicKeyBase64, Base64.NO_WRAP)));
+        Cipher cipher = Cipher.getInstance(WRAP_TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, publicKey, OAEP_SPEC);
+        return cipher.doFinal(rawKey);
+    }
+
+    /**
+     * Huella corta de una clave pública, para saber con cuál se cifró cada copia.
+     */
+    public static String fingerprint(String publicKeyBase64) throws GeneralSecurityException {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(Base64.decode(publicKeyBase64, Base64.NO_WRAP));
+        return Base64.encodeToString(Arrays.copyOf(digest, FINGERPRINT_SIZE), Base64.NO_WRAP);
+    }
+
+    /** IV + cifrado, con la clave de caché del usuario. */
+    public byte[] sealForDisk(String uid, byte[] data) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(DISK_TRANSFORMATION);
+        // El Keystore genera el IV; no admite uno elegido por la app
+        cipher.init(Cipher.ENCRYPT_MODE, diskCacheKey(uid));
+        byte[] iv = cipher.getIV();
+        byte[] encrypted = cipher.doFinal(data);
+        byte[] sealed = new byte[iv.length + encrypted.length];
+        System.arraycopy(iv, 0, sealed, 0, iv.length);
+        System.arraycopy(encrypted, 0, sealed, iv.length, encrypted.length);
+        return sealed;
+    }
+
+    public byte[] openFromDisk(String uid, byte[] sealed) throws GeneralSecurityException {
+        if (sealed == null || sealed.length <= GCM_IV_SIZE) {
+            throw new GeneralSecurityException("Entrada de caché mal formada");
+        }
+        Cipher cipher = Cipher.getInstance(DISK_TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, diskCacheKey(uid), new GCMParameterSpec(GCM_TAG_BITS, sealed, 0, GCM_IV_SIZE));
+        return cipher.doFinal(sealed, GCM_IV_SIZE, sealed.length - GCM_IV_SIZE);
+    }
+
+    private synchronized SecretKey diskCacheKey(String uid) throws GeneralSecurityException {
+        String alias = DISK_CACHE_ALIAS_PREFIX + uid;
+        SecretKey key = (SecretKey) keyStore.getKey(alias, null);
+        if (key != null) {
+            return key;
+        }
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, ANDROID_KEY_STORE);
+        generator.init(new KeyGenParameterSpec.Builder(alias,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build());
+        return generator.generateKey();
+    }
+}
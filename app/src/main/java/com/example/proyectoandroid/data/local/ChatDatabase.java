@@ -0,0 +1,169 @@
+package com.example.proyectoandroid.data.local;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+/**
+ * Base de datos local (SQLite) usada como caché persistente de los chats.
+ * Las actualizaciones de esquema son incrementales ({@link #onUpgrade}).
+ */
+public class ChatDatabase extends SQLiteOpenHelper {
+
+    private static final String DATABASE_NAME = "chat_local.db";
+    private static final int DATABASE_VERSION = 9;
+
+    public static final String TABLE_MESSAGES = "messages";
+    public static final String COLUMN_MESSAGE_ID = "message_id";
+    public static final String COLUMN_CHAT_ID = "chat_id";
+    public static final String COLUMN_SENDER_ID = "sender_id";
+    public static final String COLUMN_SENDER_NAME = "sender_name";
+    public static final String COLUMN_SENDER_EMAIL = "sender_email";
+    public static final String COLUMN_SENDER_PROFILE_VERSION = "sender_profile_version";
+    public static final String COLUMN_CONTENT = "content";
+    public static final String COLUMN_MESSAGE_TYPE = "message_type";
+    public static final String COLUMN_IMAGE_URL = "image_url";
+    public static final String COLUMN_TIMESTAMP = "timestamp";
+    public static final String COLUMN_IS_READ = "is_read";
+
+    // Marca de agua por chat: timestamp del mensaje más nuevo ya sincronizado
+    public static final String TABLE_SYNC_STATE = "sync_state";
+    public static final String COLUMN_LAST_TIMESTAMP = "last_timestamp";
+
+    // Cola persistente de mensajes salientes (write-ahead log)
+    public static final String TABLE_OUTBOX = "outbox";
+    public static final String COLUMN_LOCAL_IMAGE_PATH = "local_image_path";
+    public static final String COLUMN_ATTEMPTS = "attempts";
+    public static final String COLUMN_NEXT_ATTEMPT_AT = "next_attempt_at";
+    public static final String COLUMN_CREATED_AT = "created_at";
+    // 1 = reintentos agotados; espera a que el usuario lo reintente
+    public static final String COLUMN_FAILED = "failed";
+    // Texto en claro sellado con la clave del dispositivo; se cifra para el chat al enviarlo
+    public static final String COLUMN_SEALED_CONTENT = "sealed_content";
+
+    // Directorio de usuarios (solo datos de perfil; la presencia no se cachea)
+    public static final String TABLE_USERS = "users";
+    public static final String COLUMN_UID = "uid";
+    public static final String COLUMN_EMAIL = "email";
+    public static final String COLUMN_DISPLAY_NAME = "display_name";
+    public static final String COLUMN_PHOTO_URL = "photo_url";
+    public static final String COLUMN_PROFILE_IMAGE_URL = "profile_image_url";
+    public static final String COLUMN_PUBLIC_KEY = "public_key";
+    public static final String COLUMN_PROFILE_VERSION = "profile_version";
+    public static final String COLUMN_CACHED_AT = "cached_at";
+
+    // Claves de chat descifradas y vueltas a cifrar con una clave del Keystore
+    public static final String TABLE_CHAT_KEYS = "chat_keys";
+    public static final String COLUMN_OWNER_UID = "owner_uid";
+    public static final String COLUMN_KEY_ID = "key_id";
+    public static final String COLUMN_SEALED_KEY = "sealed_key";
+    // Chat autenticado en los sobres de la clave; null si es el mismo chat
+    public static final String COLUMN_BOUND_CHAT_ID = "bound_chat_id";
+
+    private static final String CREATE_TABLE_MESSAGES =
+            "CREATE TABLE " + TABLE_MESSAGES + " (" +
+                    COLUMN_MESSAGE_ID + " TEXT PRIMARY KEY, " +
+                    COLUMN_CHAT_ID + " TEXT NOT NULL, " +
+                    COLUMN_SENDER_ID + " TEXT, " +
+                    COLUMN_SENDER_NAME + " TEXT, " +
+                    COLUMN_SENDER_EMAIL + " TEXT, " +
+                    COLUMN_CONTENT + " TEXT, " +
+                    COLUMN_MESSAGE_TYPE + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_IMAGE_URL + " TEXT, " +
+                    COLUMN_TIMESTAMP + " INTEGER NOT NULL, " +
+                    COLUMN_IS_READ + " INTEGER NOT NULL DEFAULT 0)";
+
+    // Índice para leer los últimos N mensajes de un chat con una sola búsqueda
+    private static final String CREATE_INDEX_MESSAGES_CHAT_TIMESTAMP =
+            "CREATE INDEX idx_messages_chat_timestamp ON " + TABLE_MESSAGES +
+                    " (" + COLUMN_CHAT_ID + ", " + COLUMN_TIMESTAMP + ")";
+
+    private static final String CREATE_TABLE_SYNC_STATE =
+            "CREATE TABLE " + TABLE_SYNC_STATE + " (" +
+                    COLUMN_CHAT_ID + " TEXT PRIMARY KEY, " +
+                    COLUMN_LAST_TIMESTAMP + " INTEGER NOT NULL)";
+
+    private static final String CREATE_TABLE_OUTBOX =
+            "CREATE TABLE " + TABLE_OUTBOX + " (" +
+                    COLUMN_MESSAGE_ID + " TEXT PRIMARY KEY, " +
+                    COLUMN_CHAT_ID + " TEXT NOT NULL, " +
+                    COLUMN_SENDER_ID + " TEXT, " +
+                    COLUMN_SENDER_NAME + " TEXT, " +
+                    COLUMN_SENDER_EMAIL + " TEXT, " +
+                    COLUMN_CONTENT + " TEXT, " +
+                    COLUMN_MESSAGE_TYPE + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_IMAGE_URL + " TEXT, " +
+                    COLUMN_SENDER_PROFILE_VERSION + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_LOCAL_IMAGE_PATH + " TEXT, " +
+                    COLUMN_ATTEMPTS + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_NEXT_ATTEMPT_AT + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_FAILED + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_SEALED_CONTENT + " BLOB, " +
+                    COLUMN_CREATED_AT + " INTEGER NOT NULL)";
+
+    private static final String CREATE_TABLE_USERS =
+            "CREATE TABLE " + TABLE_USERS + " (" +
+                    COLUMN_UID + " TEXT PRIMARY KEY, " +
+                    COLUMN_EMAIL + " TEXT, " +
+                    COLUMN_DISPLAY_NAME + " TEXT, " +
+                    COLUMN_PHOTO_URL + " TEXT, " +
+                    COLUMN_PROFILE_IMAGE_URL + " TEXT, " +
+                    COLUMN_PUBLIC_KEY + " TEXT, " +
+                    COLUMN_PROFILE_VERSION + " INTEGER NOT NULL DEFAULT 0, " +
+                    COLUMN_CACHED_AT + " INTEGER NOT NULL)";
+
+    private static final String CREATE_TABLE_CHAT_KEYS =
+            "CREATE TABLE " + TABLE_CHAT_KEYS + " (" +
+                    COLUMN_OWNER_UID + " TEXT NOT NULL, " +
+                    COLUMN_CHAT_ID + " TEXT NOT NULL, " +
+                    COLUMN_KEY_ID + " INTEGER NOT NULL, " +
+                    COLUMN_SEALED_KEY + " BLOB NOT NULL, " +
+                    COLUMN_BOUND_CHAT_ID + " TEXT, " +
+                    "PRIMARY KEY (" + COLUMN_OWNER_UID + ", " + COLUMN_CHAT_ID + ", " + COLUMN_KEY_ID + "))";
+
+    public ChatDatabase(Context context) {
+        super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL(CREATE_TABLE_MESSAGES);
+        db.execSQL(CREATE_INDEX_MESSAGES_CHAT_TIMESTAMP);
+        db.execSQL(CREATE_TABLE_SYNC_STATE);
+        db.execSQL(CREATE_TABLE_OUTBOX);
+        db.execSQL(CREATE_TABLE_USERS);
+        db.execSQL(CREATE_TABLE_CHAT_KEYS);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            db.execSQL(CREATE_TABLE_SYNC_STATE);
+        }
+        if (oldVersion < 3) {
+            db.execSQL(CREATE_TABLE_OUTBOX);
+        } else if (oldVersion < 5) {
+            db.execSQL("ALTER TABLE " + TABLE_OUTBOX + " ADD COLUMN "
+                    + COLUMN_SENDER_PROFILE_VERSION + " INTEGER NOT NULL DEFAULT 0");
+        }
+        if (oldVersion < 4) {
+            db.execSQL(CREATE_TABLE_USERS);
+        } else if (oldVersion < 5) {
+            db.execSQL("ALTER TABLE " + TABLE_USERS + " ADD COLUMN "
+                    + COLUMN_PROFILE_VERSION + " INTEGER NOT NULL DEFAULT 0");
+        }
+        if (oldVersion < 6) {
+            db.execSQL(CREATE_TABLE_CHAT_KEYS);
+        }
+        if (oldVersion >= 3 && oldVersion < 7) {
+            db.execSQL("ALTER TABLE " + TABLE_OUTBOX + " ADD COLUMN "
+                    + COLUMN_FAILED + " INTEGER NOT NULL DEFAULT 0");
+        }
+        if (oldVersion >= 3 && oldVersion < 8) {
+            db.execSQL("ALTER TABLE " + TABLE_OUTBOX + " ADD COLUMN " + COLUMN_SEALED_CONTENT + " BLOB");
+        }
+        if (oldVersion >= 6 && oldVersion < 9) {
+            db.execSQL("ALTER TABLE " + TABLE_CHAT_KEYS + " ADD COLUMN " + COLUMN_BOUND_CHAT_ID + " TEXT");
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.proyectoandroid.data.local;
+
+/**
+ * Clave de chat guardada en disco, cifrada con la clave de caché del Keystore.
+ */
+public class ChatKeyEntry {
+    private final String chatId;
+    private final String boundChatId;
+    private final int keyId;
+    private final byte[] sealedKey;
+
+    public ChatKeyEntry(String chatId, String boundChatId, int keyId, byte[] sealedKey) {
+        this.chatId = chatId;
+        this.boundChatId = boundChatId;
+        this.keyId = keyId;
+        this.sealedKey = sealedKey;
+    }
+
+    public String getChatId() { return chatId; }
+
+    public String getBoundChatId() { return boundChatId; }
+
+    public int getKeyId() { return keyId; }
+
+    public byte[] getSealedKey() { return sealedKey; }
+}
@@ -0,0 +1,73 @@
+package com.example.proyectoandroid.data.local;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.proyectoandroid.utils.Result;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Caché en disco de las claves de chat. Solo guarda claves ya cifradas (ver
+ * {@link com.example.proyectoandroid.data.crypto.DeviceKeyStore#sealForDisk});
+ * cada fila es de un usuario del dispositivo.
+ */
+public class ChatKeyLocalDataSource {
+
+    private static final String TAG = "ChatKeyLocalDataSource";
+
+    private final ChatDatabase database;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+
+    public ChatKeyLocalDataSource(ChatDatabase database) {
+        this.database = database;
+    }
+
+    public CompletableFuture<Result<List<ChatKeyEntry>>> getKeys(String ownerUid, String chatId) {
+        CompletableFuture<Result<List<ChatKeyEntry>>> resultFuture = new CompletableFuture<>();
+
+        diskExecutor.execute(() -> {
+            List<ChatKeyEntry> entries = new ArrayList<>();
+            try (Cursor cursor = database.getReadableDatabase().query(
+                    ChatDatabase.TABLE_CHAT_KEYS,
+                    new String[]{ChatDatabase.COLUMN_KEY_ID, ChatDatabase.COLUMN_SEALED_KEY, ChatDatabase.COLUMN_BOUND_CHAT_ID},
+                    ChatDatabase.COLUMN_OWNER_UID + " = ? AND " + ChatDatabase.COLUMN_CHAT_ID + " = ?",
+                    new String[]{ownerUid, chatId},
+                    null, null, null)) {
+
+                while (cursor.moveToNext()) {
+                    entries.add(new ChatKeyEntry(chatId, cursor.getString(2), cursor.getInt(0), cursor.getBlob(1)));
+                }
+                resultFuture.complete(new Result.Success<>(entries));
+            } catch (Exception e) {
+                Log.e(TAG, "Error leyendo claves locales", e);
+                resultFuture.complete(new Result.Error<>(e.getMessage()));
+            }
+        });
+
+        return resultFuture;
+    }
+
+    public void saveKey(String ownerUid, ChatKeyEntry entry) {
+        diskExecutor.execute(() -> {
+            try {
+                ContentValues values = new ContentValues();
+                values.put(ChatDatabase.COLUMN_OWNER_UID, ownerUid);
+                values.put(ChatDatabase.COLUMN_CHAT_ID, entry.getChatId());
+                values.put(ChatDatabase.COLUMN_KEY_ID, entry.getKeyId());
+                values.put(ChatDatabase.COLUMN_SEALED_KEY, entry.getSealedKey());
+                values.put(ChatDatabase.COLUMN_BOUND_CHAT_ID, entry.getBoundChatId());
+                database.getWritableDatabase().insertWithOnConflict(ChatDatabase.TABLE_CHAT_KEYS, null,
+                        values, SQLiteDatabase.CONFLICT_REPLACE);
+            } catch (Exception e) {
+                Log.e(TAG, "Error guardando clave local", e);
+            }
+        });
+    }
+}
@@ -0,0 +1,220 @@
+package com.example.proyectoandroid.data.local;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.proyectoandroid.data.model.Message;
+import com.example.proyectoandroid.utils.Result;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Almacén local de mensajes. Todas las operaciones de disco se ejecutan en un
+ * único hilo de fondo, así las escrituras quedan serializadas y nunca se toca
+ * SQLite desde el hilo principal.
+ */
+public class MessageLocalDataSource {
+
+    private static final String TAG = "MessageLocalDataSource";
+
+    private final ChatDatabase database;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+
+    public MessageLocalDataSource(ChatDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Devuelve los últimos {@code limit} mensajes guardados del chat, del más
+     * reciente al más antiguo (mismo orden que la consulta de Firestore).
+     */
+    public CompletableFuture<Result<List<Message>>> getLatestMessages(String chatId, int limit) {
+        CompletableFuture<Result<List<Message>>> resultFuture = new CompletableFuture<>();
+
+        diskExecutor.execute(() -> {
+            try {
+                resultFuture.complete(new Result.Success<>(queryLatestMessages(chatId, limit)));
+            } catch (Exception e) {
+                Log.e(TAG, "Error leyendo mensajes locales", e);
+                resultFuture.complete(new Result.Error<>(e.getMessage()));
+            }
+        });
+
+        return resultFuture;
+    }
+
+    public void saveMessages(List<Message> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return;
+        }
+        List<Message> copy = new ArrayList<>(messages);
+
+        diskExecutor.execute(() -> {
+            SQLiteDatabase db = database.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (Message message : copy) {
+                    insertOrReplace(db, message);
+                }
+                db.setTransactionSuccessful();
+            } catch (Exception e) {
+                Log.e(TAG, "Error guardando mensajes locales", e);
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    public void saveMessage(Message message) {
+        if (message == null) {
+            return;
+        }
+        saveMessages(Collections.singletonList(message));
+    }
+
+    /**
+     * Devuelve la marca de agua del chat (timestamp en ms del mensaje más nuevo
+     * sincronizado) o {@code null} si el chat nunca se ha sincronizado.
+     */
+    public CompletableFuture<Result<Long>> getWatermark(String chatId) {
+        CompletableFuture<Result<Long>> resultFuture = new CompletableFuture<>();
+
+        diskExecutor.execute(() -> {
+            try (Cursor cursor = database.getReadableDatabase().query(
+                    ChatDatabase.TABLE_SYNC_STATE,
+                    new String[]{ChatDatabase.COLUMN_LAST_TIMESTAMP},
+                    ChatDatabase.COLUMN_CHAT_ID + " = ?",
+                    new String[]{chatId},
+                    null, null, null)) {
+
+                Long watermark = cursor.moveToFirst() ? cursor.getLong(0) : null;
+                resultFuture.complete(new Result.Success<>(watermark));
+            } catch (Exception e) {
+                Log.e(TAG, "Error leyendo marca de agua", e);
+                resultFuture.complete(new Result.Error<>(e.getMessage()));
+            }
+        });
+
+        return resultFuture;
+    }
+
+    /**
+     * Avanza la marca de agua del chat; nunca la retrocede.
+     */
+    public void advanceWatermark(String chatId, long timestampMillis) {
+        diskExecutor.execute(() -> {
+            try {
+                database.getWritableDatabase().execSQL(
+                        "INSERT OR REPLACE INTO " + ChatDatabase.TABLE_SYNC_STATE +
+                                " (" + ChatDatabase.COLUMN_CHAT_ID + ", " + ChatDatabase.COLUMN_LAST_TIMESTAMP + ")" +
+                                " VALUES (?, MAX(?, IFNULL((SELECT " + ChatDatabase.COLUMN_LAST_TIMESTAMP +
+                                " FROM " + ChatDatabase.TABLE_SYNC_STATE +
+                                " WHERE " + ChatDatabase.COLUMN_CHAT_ID + " = ?), 0)))",
+                        new Object[]{chatId, timestampMillis, chatId});
+            } catch (Exception e) {
+                Log.e(TAG, "Error actualizando marca de agua", e);
+            }
+        });
+    }
+
+    /**
+     * Borra los mensajes del chat anteriores a {@code timestampMillis}. Se usa
+     * cuando esa parte del caché deja de ser contigua con el servidor.
+     */
+    public void deleteMessagesBefore(String chatId, long timestampMillis) {
+        diskExecutor.execute(() -> {
+            try {
+                database.getWritableDatabase().delete(
+                        ChatDatabase.TABLE_MESSAGES,
+                        ChatDatabase.COLUMN_CHAT_ID + " = ? AND " + ChatDatabase.COLUMN_TIMESTAMP + " < ?",
+                        new String[]{chatId, String.valueOf(timestampMillis)});
+            } catch (Exception e) {
+                Log.e(TAG, "Error recortando chat local", e);
+            }
+        });
+    }
+
+    public void deleteMessage(String messageId) {
+        if (messageId == null) {
+            return;
+        }
+
+        diskExecutor.execute(() -> {
+            try {
+                database.getWritableDatabase().delete(
+                        ChatDatabase.TABLE_MESSAGES,
+                        ChatDatabase.COLUMN_MESSAGE_ID + " = ?",
+                        new String[]{messageId});
+            } catch (Exception e) {
+                Log.e(TAG, "Error eliminando mensaje local", e);
+            }
+        });
+    }
+
+    private List<Message> queryLatestMessages(String chatId, int limit) {
+        List<Message> messages = new ArrayList<>();
+
+        try (Cursor cursor = database.getReadableDatabase().query(
+                ChatDatabase.TABLE_MESSAGES,
+                null,
+                ChatDatabase.COLUMN_CHAT_ID + " = ?",
+                new String[]{chatId},
+                null,
+                null,
+                ChatDatabase.COLUMN_TIMESTAMP + " DESC",
+                String.valueOf(limit))) {
+
+            while (cursor.moveToNext()) {
+                messages.add(fromCursor(cursor));
+            }
+        }
+
+        return messages;
+    }
+
+    private void insertOrReplace(SQLiteDatabase db, Message message) {
+        // Los mensajes sin id o aún sin timestamp del servidor son escrituras
+        // pendientes; se guardarán cuando Firestore los confirme.
+        if (message.getMessageId() == null || message.getChatId() == null
+                || message.getTimestamp() == null) {
+            return;
+        }
+
+        ContentValues values = new ContentValues();
+        values.put(ChatDatabase.COLUMN_MESSAGE_ID, message.getMessageId());
+        values.put(ChatDatabase.COLUMN_CHAT_ID, message.getChatId());
+        values.put(ChatDatabase.COLUMN_SENDER_ID, message.getSenderId());
+        values.put(ChatDatabase.COLUMN_SENDER_NAME, message.getSenderName());
+        values.put(ChatDatabase.COLUMN_SENDER_EMAIL, message.getSenderEmail());
+        values.put(ChatDatabase.COLUMN_CONTENT, message.getContent());
+        values.put(ChatDatabase.COLUMN_MESSAGE_TYPE, message.getMessageType());
+        values.put(ChatDatabase.COLUMN_IMAGE_URL, message.getImageUrl());
+        values.put(ChatDatabase.COLUMN_TIMESTAMP, message.getTimestamp().getTime());
+        values.put(ChatDatabase.COLUMN_IS_READ, message.isRead() ? 1 : 0);
+
+        db.insertWithOnConflict(ChatDatabase.TABLE_MESSAGES, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private Message fromCursor(Cursor cursor) {
+        Message message = new Message();
+        message.setMessageId(cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_MESSAGE_ID)));
+        message.setChatId(cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_CHAT_ID)));
+        message.setSenderId(cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_SENDER_ID)));
+        message.setSenderName(cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_SENDER_NAME)));
+        message.setSenderEmail(cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_SENDER_EMAIL)));
+        message.setContent(cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_CONTENT)));
+        message.setMessageType(cursor.getInt(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_MESSAGE_TYPE)));
+        message.setImageUrl(cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_IMAGE_URL)));
+        message.setTimestamp(new Date(cursor.getLong(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_TIMESTAMP))));
+        message.setRead(cursor.getInt(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_IS_READ)) == 1);
+        return message;
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.proyectoandroid.data.local;
+
+import com.example.proyectoandroid.data.model.Message;
+
+/**
+ * Mensaje saliente guardado en la cola local a la espera de ser enviado.
+ */
+public class OutboxEntry {
+    private final Message message;
+    private String localImagePath; // Imagen copiada al almacenamiento privado, pendiente de subir
+    private int attempts;
+    private long nextAttemptAt;
+    private final long createdAt;
+    private boolean failed;
+    private byte[] sealedContent;
+
+    public OutboxEntry(Message message, String localImagePath, int attempts, long nextAttemptAt, long createdAt) {
+        this(message, localImagePath, attempts, nextAttemptAt, createdAt, false);
+    }
+
+    public OutboxEntry(Message message, String localImagePath, int attempts, long nextAttemptAt, long createdAt,
+                       boolean failed) {
+        this.message = message;
+        this.localImagePath = localImagePath;
+        this.attempts = attempts;
+        this.nextAttemptAt = nextAttemptAt;
+        this.createdAt = createdAt;
+        this.failed = failed;
+    }
+
+    public Message getMessage() { return message; }
+
+    public String getLocalImagePath() { return localImagePath; }
+    public void setLocalImagePath(String localImagePath) { this.localImagePath = localImagePath; }
+
+    public int getAttempts() { return attempts; }
+    public void setAttempts(int attempts) { this.attempts = attempts; }
+
+    public long getNextAttemptAt() { return nextAttemptAt; }
+    public void setNextAttemptAt(long nextAttemptAt) { this.nextAttemptAt = nextAttemptAt; }
+
+    public long getCreatedAt() { return createdAt; }
+
+    /** Agotó los reintentos automáticos; solo vuelve a enviarse si el usuario lo pide. */
+    public boolean isFailed() { return failed; }
+    public void setFailed(boolean failed) { this.failed = failed; }
+
+    /**
+     * Texto aún sin cifrar para el chat, sellado con la clave del dispositivo
+     * ({@code DeviceKeyStore#sealForDisk}); null si el contenido ya va cifrado.
+     */
+    public byte[] getSealedContent() { return sealedContent; }
+    public void setSealedContent(byte[] sealedContent) { this.sealedContent = sealedContent; }
+
+    public boolean needsImageUpload() {
+        return message.getMessageType() == 1
+                && (message.getImageUrl() == null || message.getImageUrl().isEmpty())
+                && localImagePath != null;
+    }
+}
@@ -0,0 +1,284 @@
+package com.example.proyectoandroid.data.local;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.example.proyectoandroid.data.model.Message;
+import com.example.proyectoandroid.utils.Result;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Cola persistente de mensajes salientes. Cada mensaje se escribe aquí antes
+ * de intentar enviarlo y solo se borra cuando Firestore confirma el envío, de
+ * modo que sobrevive a la muerte del proceso.
+ */
+public class OutboxLocalDataSource {
+
+    private static final String TAG = "OutboxLocalDataSource";
+
+    private final ChatDatabase database;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+
+    public OutboxLocalDataSource(ChatDatabase database) {
+        this.database = database;
+    }
+
+    public CompletableFuture<Result<OutboxEntry>> enqueue(OutboxEntry entry) {
+        CompletableFuture<Result<OutboxEntry>> resultFuture = new CompletableFuture<>();
+
+        diskExecutor.execute(() -> {
+            try {
+                database.getWritableDatabase().insertOrThrow(ChatDatabase.TABLE_OUTBOX, null, toContentValues(entry));
+                resultFuture.complete(new Result.Success<>(entry));
+            } catch (Exception e) {
+                Log.e(TAG, "Error encolando mensaje", e);
+                resultFuture.complete(new Result.Error<>(e.getMessage()));
+            }
+        });
+
+        return resultFuture;
+    }
+
+    /**
+     * Entradas cuyo próximo intento ya venció, en orden de creación. Las que
+     * agotaron los reintentos no se devuelven.
+     */
+    public CompletableFuture<Result<List<OutboxEntry>>> getDueEntries(long now, int limit, Set<String> excludedIds) {
+        CompletableFuture<Result<List<OutboxEntry>>> resultFuture = new CompletableFuture<>();
+        Set<String> excluded = new HashSet<>(excludedIds);
+
+        diskExecutor.execute(() -> {
+            List<OutboxEntry> entries = new ArrayList<>();
+            try (Cursor cursor = database.getReadableDatabase().query(
+                    ChatDatabase.TABLE_OUTBOX,
+                    null,
+                    ChatDatabase.COLUMN_NEXT_ATTEMPT_AT + " <= ? AND " + ChatDatabase.COLUMN_FAILED + " = 0",
+                    new String[]{String.valueOf(now)},
+                    null,
+                    null,
+                    ChatDatabase.COLUMN_CREATED_AT + " ASC")) {
+
+                while (cursor.moveToNext() && entries.size() < limit) {
+                    OutboxEntry entry = fromCursor(cursor);
+                    if (!excluded.contains(entry.getMessage().getMessageId())) {
+                        entries.add(entry);
+                    }
+                }
+                resultFuture.complete(new Result.Success<>(entries));
+            } catch (Exception e) {
+                Log.e(TAG, "Error leyendo la cola de salida", e);
+                resultFuture.complete(new Result.Error<>(e.getMessage()));
+            }
+        });
+
+        return resultFuture;
+    }
+
+    /**
+     * Entradas del chat que agotaron los reintentos, en orden de creación.
+     */
+    public CompletableFuture<Result<List<OutboxEntry>>> getFailedEntries(String chatId) {
+        CompletableFuture<Result<List<OutboxEntry>>> resultFuture = new CompletableFuture<>();
+
+        diskExecutor.execute(() -> {
+            List<OutboxEntry> entries = new ArrayList<>();
+            try (Cursor cursor = database.getReadableDatabase().query(
+                    ChatDatabase.TABLE_OUTBOX,
+                    null,
+                    ChatDatabase.COLUMN_CHAT_ID + " = ? AND " + ChatDatabase.COLUMN_FAILED + " = 1",
+                    new String[]{chatId},
+                    null,
+                    null,
+                    ChatDatabase.COLUMN_CREATED_AT + " ASC")) {
+
+                while (cursor.moveToNext()) {
+                    entries.add(fromCursor(cursor));
+                }
+                resultFuture.complete(new Result.Success<>(entries));
+            } catch (Exception e) {
+                Log.e(TAG, "Error leyendo la cola de salida", e);
+                resultFuture.complete(new Result.Error<>(e.getMessage()));
+            }
+        });
+
+        return resultFuture;
+    }
+
+    /**
+     * Momento (ms) del próximo intento pendiente o {@code null} si no queda
+     * nada por reintentar.
+     */
+    public CompletableFuture<Result<Long>> getNextAttemptAt() {
+        CompletableFuture<Result<Long>> resultFuture = new CompletableFuture<>();
+
+        diskExecutor.execute(() -> {
+            try (Cursor cursor = database.getReadableDatabase().rawQuery(
+                    "SELECT MIN(" + ChatDatabase.COLUMN_NEXT_ATTEMPT_AT + ") FROM " + ChatDatabase.TABLE_OUTBOX
+                            + " WHERE " + ChatDatabase.COLUMN_FAILED + " = 0",
+                    null)) {
+
+                Long next = cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : null;
+                resultFuture.complete(new Result.Success<>(next));
+            } catch (Exception e) {
+                Log.e(TAG, "Error leyendo la cola de salida", e);
+                resultFuture.complete(new Result.Error<>(e.getMessage()));
+            }
+        });
+
+        return resultFuture;
+    }
+
+    public void updateAttempt(String messageId, int attempts, long nextAttemptAt) {
+        ContentValues values = new ContentValues();
+        values.put(ChatDatabase.COLUMN_ATTEMPTS, attempts);
+        values.put(ChatDatabase.COLUMN_NEXT_ATTEMPT_AT, nextAttemptAt);
+        update(messageId, values);
+    }
+
+    /**
+     * Deja la entrada a la espera de que el usuario la reintente.
+     */
+    public void markFailed(String messageId, int attempts) {
+        ContentValues values = new ContentValues();
+        values.put(ChatDatabase.COLUMN_ATTEMPTS, attempts);
+        values.put(ChatDatabase.COLUMN_FAILED, 1);
+        update(messageId, values);
+    }
+
+    /**
+     * Vuelve a poner en cola una entrada fallida, con los intentos a cero.
+     */
+    public void retry(String messageId) {
+        ContentValues values = new ContentValues();
+        values.put(ChatDatabase.COLUMN_ATTEMPTS, 0);
+        values.put(ChatDatabase.COLUMN_NEXT_ATTEMPT_AT, 0);
+        values.put(ChatDatabase.COLUMN_FAILED, 0);
+        update(messageId, values);
+    }
+
+    /**
+     * Guarda la URL de la imagen ya subida para no repetir la subida en un
+     * reintento. El future se completa cuando la URL ya está en disco.
+     */
+    public CompletableFuture<Result<Void>> updateImageUrl(String messageId, String imageUrl) {
+        CompletableFuture<Result<Void>> resultFuture = new CompletableFuture<>();
+        ContentValues values = new ContentValues();
+        values.put(ChatDatabase.COLUMN_IMAGE_URL, imageUrl);
+
+        diskExecutor.execute(() -> {
+            try {
+                database.getWritableDatabase().update(
+                        ChatDatabase.TABLE_OUTBOX,
+                        values,
+                        ChatDatabase.COLUMN_MESSAGE_ID + " = ?",
+                        new String[]{messageId});
+                resultFuture.complete(new Result.Success<>(null));
+            } catch (Exception e) {
+                Log.e(TAG, "Error guardando la URL de la imagen", e);
+                resultFuture.complete(new Result.Error<>(e.getMessage()));
+            }
+        });
+
+        return resultFuture;
+    }
+
+    /**
+     * Hace que las entradas pendientes sean elegibles de inmediato y con los
+     * intentos a cero (p. ej. al recuperar la red): el tiempo sin conexión no
+     * cuenta para agotar los reintentos. Las fallidas siguen esperando al usuario.
+     */
+    public void resetBackoff() {
+        ContentValues values = new ContentValues();
+        values.put(ChatDatabase.COLUMN_ATTEMPTS, 0);
+        values.put(ChatDatabase.COLUMN_NEXT_ATTEMPT_AT, 0);
+
+        diskExecutor.execute(() -> {
+            try {
+                database.getWritableDatabase().update(ChatDatabase.TABLE_OUTBOX, values,
+                        ChatDatabase.COLUMN_FAILED + " = 0", null);
+            } catch (Exception e) {
+                Log.e(TAG, "Error reiniciando reintentos", e);
+            }
+        });
+    }
+
+    public void remove(String messageId) {
+        diskExecutor.execute(() -> {
+            try {
+                database.getWritableDatabase().delete(
+                        ChatDatabase.TABLE_OUTBOX,
+                        ChatDatabase.COLUMN_MESSAGE_ID + " = ?",
+                        new String[]{messageId});
+            } catch (Exception e) {
+                Log.e(TAG, "Error eliminando de la cola de salida", e);
+            }
+        });
+    }
+
+    private void update(String messageId, ContentValues values) {
+        diskExecutor.execute(() -> {
+            try {
+                database.getWritableDatabase().update(
+                        ChatDatabase.TABLE_OUTBOX,
+                        values,
+                        ChatDatabase.COLUMN_MESSAGE_ID + " = ?",
+                        new String[]{messageId});
+            } catch (Exception e) {
+                Log.e(TAG, "Error actualizando la cola de salida", e);
+            }
+        });
+    }
+
+    private ContentValues toContentValues(OutboxEntry entry) {
+        Message message = entry.getMessage();
+        ContentValues values = new ContentValues();
+        values.put(ChatDatabase.COLUMN_MESSAGE_ID, message.getMessageId());
+        values.put(ChatDatabase.COLUMN_CHAT_ID, message.getChatId());
+        values.put(ChatDatabase.COLUMN_SENDER_ID, message.getSenderId());
+        values.put(ChatDatabase.COLUMN_SENDER_NAME, message.getSenderName());
+        values.put(ChatDatabase.COLUMN_SENDER_EMAIL, message.getSenderEmail());
+        values.put(ChatDatabase.COLUMN_SENDER_PROFILE_VERSION, message.getSenderProfileVersion());
+        // Con el texto sellado, el contenido en claro no se escribe en disco
+        values.put(ChatDatabase.COLUMN_CONTENT, entry.getSealedContent() == null ? message.getContent() : null);
+        values.put(ChatDatabase.COLUMN_SEALED_CONTENT, entry.getSealedContent());
+        values.put(ChatDatabase.COLUMN_MESSAGE_TYPE, message.getMessageType());
+        values.put(ChatDatabase.COLUMN_IMAGE_URL, message.getImageUrl());
+        values.put(ChatDatabase.COLUMN_LOCAL_IMAGE_PATH, entry.getLocalImagePath());
+        values.put(ChatDatabase.COLUMN_ATTEMPTS, entry.getAttempts());
+        values.put(ChatDatabase.COLUMN_NEXT_ATTEMPT_AT, entry.getNextAttemptAt());
+        values.put(ChatDatabase.COLUMN_FAILED, entry.isFailed() ? 1 : 0);
+        values.put(ChatDatabase.COLUMN_CREATED_AT, entry.getCreatedAt());
+        return values;
+    }
+
+    private OutboxEntry fromCursor(Cursor cursor) {
+        Message message = new Message();
+        message.setMessageId(cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_MESSAGE_ID)));
+        message.setChatId(cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_CHAT_ID)));
+        message.setSenderId(cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_SENDER_ID)));
+        message.setSenderName(cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_SENDER_NAME)));
+        message.setSenderEmail(cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_SENDER_EMAIL)));
+        message.setSenderProfileVersion(cursor.getLong(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_SENDER_PROFILE_VERSION)));
+        message.setContent(cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_CONTENT)));
+        message.setMessageType(cursor.getInt(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_MESSAGE_TYPE)));
+        message.setImageUrl(cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_IMAGE_URL)));
+
+        OutboxEntry entry = new OutboxEntry(
+                message,
+                cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_LOCAL_IMAGE_PATH)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_ATTEMPTS)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_NEXT_ATTEMPT_AT)),
+                cursor.getLong(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_CREATED_AT)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_FAILED)) != 0);
+        entry.setSealedContent(cursor.getBlob(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_SEALED_CONTENT)));
+        return entry;
+    }
+}
@@ -3,8 +3,8 @@ package com.example.proyectoandroid.data.local;
 import android.content.Context;
 import android.content.SharedPreferences;
 
+import com.example.proyectoandroid.data.mapper.UserMapper;
 import com.example.proyectoandroid.data.model.User;
-import com.google.gson.Gson;
 
 public class SessionManager {
     private static final String PREFS_NAME = "ChatAppPreferences";
@@ -13,18 +13,17 @@ public class SessionManager {
 
     private final SharedPreferences preferences;
     private final SharedPreferences.Editor editor;
-    private final Gson gson;
     private final Context context;
 
     public SessionManager(Context context) {
         this.context = context.getApplicationContext();
         preferences = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
         editor = preferences.edit();
-        gson = new Gson();
     }
 
     public void saveUserSession(User user) {
-        String userJson = gson.toJson(user);
+        // Mismo formato JSON que guardaba Gson, pero sin reflexión
+        String userJson = UserMapper.toJson(user);
         editor.putString(KEY_USER, userJson);
         editor.putBoolean(KEY_IS_LOGGED_IN, true);
         editor.apply();
@@ -33,7 +32,7 @@ public class SessionManager {
     public User getUserData() {
         String userJson = preferences.getString(KEY_USER, null);
         if (userJson != null) {
-            return gson.fromJson(userJson, User.class);
+            return UserMapper.fromJson(userJson);
         }
         return null;
     }
@@ -57,6 +56,10 @@ public class SessionManager {
             user.setLastOnline((Long) value);
         } else if (key.equals("fcmToken")) {
             user.setFcmToken((String) value);
+        } else if (key.equals("profileVersion")) {
+            user.setProfileVersion((Long) value);
+        } else if (key.equals("publicKey")) {
+            user.setPublicKey((String) value);
         }
 
         saveUserSession(user);
@@ -0,0 +1,98 @@
+package com.example.proyectoandroid.data.local;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import com.example.proyectoandroid.data.crypto.DeviceKeyStore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Miniaturas de adjuntos cifrados ya descifradas, en disco y selladas con la
+ * clave de caché del usuario en el Keystore ({@link DeviceKeyStore#sealForDisk}).
+ * Volver a pintar una miniatura no descarga ni descifra el adjunto entero.
+ *
+ * Se llama desde los hilos de carga de imágenes, nunca desde el hilo principal.
+ */
+public class ThumbnailCache {
+
+    private static final String TAG = "ThumbnailCache";
+    private static final String FOLDER = "attachment_thumbs";
+    private static final int MAX_FILES = 500;
+    private static final int JPEG_QUALITY = 85;
+
+    private final File directory;
+    private final DeviceKeyStore deviceKeyStore;
+
+    public ThumbnailCache(Context context, DeviceKeyStore deviceKeyStore) {
+        this.directory = new File(context.getCacheDir(), FOLDER);
+        this.deviceKeyStore = deviceKeyStore;
+    }
+
+    public Bitmap get(String ownerUid, String key) {
+        File file = fileFor(ownerUid, key);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            byte[] jpeg = deviceKeyStore.openFromDisk(ownerUid, Files.readAllBytes(file.toPath()));
+            // Marca de uso para el recorte por antigüedad
+            file.setLastModified(System.currentTimeMillis());
+            return BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length);
+        } catch (Exception e) {
+            Log.w(TAG, "Miniatura ilegible, se descarta", e);
+            file.delete();
+            return null;
+        }
+    }
+
+    public void put(String ownerUid, String key, Bitmap bitmap) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            return;
+        }
+        ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, jpeg);
+        try (FileOutputStream out = new FileOutputStream(fileFor(ownerUid, key))) {
+            out.write(deviceKeyStore.sealForDisk(ownerUid, jpeg.toByteArray()));
+        } catch (Exception e) {
+            Log.w(TAG, "No se pudo guardar la miniatura", e);
+        }
+        trim();
+    }
+
+    private void trim() {
+        File[] files = directory.listFiles();
+        if (files == null || files.length <= MAX_FILES) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length - MAX_FILES; i++) {
+            files[i].delete();
+        }
+    }
+
+    // El nombre no revela la URL ni el usuario
+    private File fileFor(String ownerUid, String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest((ownerUid + "\n" + key).getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return new File(directory, name.toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.proyectoandroid.data.local;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.proyectoandroid.data.model.User;
+import com.example.proyectoandroid.utils.Result;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Caché en disco de perfiles de usuario. Cada fila guarda cuándo se descargó
+ * para que {@link com.example.proyectoandroid.data.UserDirectory} decida si
+ * sigue vigente.
+ */
+public class UserLocalDataSource {
+
+    private static final String TAG = "UserLocalDataSource";
+    // Límite de parámetros por consulta IN de SQLite en versiones antiguas
+    private static final int MAX_QUERY_ARGS = 500;
+
+    private final ChatDatabase database;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+
+    public UserLocalDataSource(ChatDatabase database) {
+        this.database = database;
+    }
+
+    /**
+     * Devuelve los usuarios guardados cuyo {@code cached_at} es posterior a
+     * {@code freshAfter}, indexados por uid.
+     */
+    public CompletableFuture<Result<Map<String, User>>> getUsers(Collection<String> uids, long freshAfter) {
+        CompletableFuture<Result<Map<String, User>>> resultFuture = new CompletableFuture<>();
+        List<String> ids = new ArrayList<>(uids);
+
+        diskExecutor.execute(() -> {
+            Map<String, User> users = new HashMap<>();
+            try {
+                for (int start = 0; start < ids.size(); start += MAX_QUERY_ARGS) {
+                    List<String> chunk = ids.subList(start, Math.min(ids.size(), start + MAX_QUERY_ARGS));
+                    queryChunk(chunk, freshAfter, users);
+                }
+                resultFuture.complete(new Result.Success<>(users));
+            } catch (Exception e) {
+                Log.e(TAG, "Error leyendo usuarios locales", e);
+                resultFuture.complete(new Result.Error<>(e.getMessage()));
+            }
+        });
+
+        return resultFuture;
+    }
+
+    public void saveUsers(Collection<User> users, long cachedAt) {
+        if (users == null || users.isEmpty()) {
+            return;
+        }
+        List<User> copy = new ArrayList<>(users);
+
+        diskExecutor.execute(() -> {
+            SQLiteDatabase db = database.getWritableDatabase();
+            db.beginTransaction();
+            try {
+                for (User user : copy) {
+                    if (user.getUid() == null) {
+                        continue;
+                    }
+                    db.insertWithOnConflict(ChatDatabase.TABLE_USERS, null,
+                            toContentValues(user, cachedAt), SQLiteDatabase.CONFLICT_REPLACE);
+                }
+                db.setTransactionSuccessful();
+            } catch (Exception e) {
+                Log.e(TAG, "Error guardando usuarios locales", e);
+            } finally {
+                db.endTransaction();
+            }
+        });
+    }
+
+    private void queryChunk(List<String> uids, long freshAfter, Map<String, User> out) {
+        StringBuilder placeholders = new StringBuilder();
+        String[] args = new String[uids.size() + 1];
+        for (int i = 0; i < uids.size(); i++) {
+            placeholders.append(i == 0 ? "?" : ", ?");
+            args[i] = uids.get(i);
+        }
+        args[uids.size()] = String.valueOf(freshAfter);
+
+        try (Cursor cursor = database.getReadableDatabase().query(
+                ChatDatabase.TABLE_USERS,
+                null,
+                ChatDatabase.COLUMN_UID + " IN (" + placeholders + ") AND "
+                        + ChatDatabase.COLUMN_CACHED_AT + " > ?",
+                args,
+                null, null, null)) {
+
+            while (cursor.moveToNext()) {
+                User user = fromCursor(cursor);
+                out.put(user.getUid(), user);
+            }
+        }
+    }
+
+    private ContentValues toContentValues(User user, long cachedAt) {
+        ContentValues values = new ContentValues();
+        values.put(ChatDatabase.COLUMN_UID, user.getUid());
+        values.put(ChatDatabase.COLUMN_EMAIL, user.getEmail());
+        values.put(ChatDatabase.COLUMN_DISPLAY_NAME, user.getDisplayName());
+        values.put(ChatDatabase.COLUMN_PHOTO_URL, user.getPhotoUrl());
+        values.put(ChatDatabase.COLUMN_PROFILE_IMAGE_URL, user.getProfileImageUrl());
+        values.put(ChatDatabase.COLUMN_PUBLIC_KEY, user.getPublicKey());
+        values.put(ChatDatabase.COLUMN_PROFILE_VERSION, user.getProfileVersion());
+        values.put(ChatDatabase.COLUMN_CACHED_AT, cachedAt);
+        return values;
+    }
+
+    private User fromCursor(Cursor cursor) {
+        User user = new User();
+        user.setUid(cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_UID)));
+        user.setDocumentId(user.getUid());
+        user.setEmail(cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_EMAIL)));
+        user.setDisplayName(cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_DISPLAY_NAME)));
+        user.setPhotoUrl(cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_PHOTO_URL)));
+        user.setProfileImageUrl(cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_PROFILE_IMAGE_URL)));
+        user.setPublicKey(cursor.getString(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_PUBLIC_KEY)));
+        user.setProfileVersion(cursor.getLong(cursor.getColumnIndexOrThrow(ChatDatabase.COLUMN_PROFILE_VERSION)));
+        return user;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.proyectoandroid.data.mapper;
+
+import com.example.proyectoandroid.data.model.ChatKeyRecord;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Conversión del documento de clave de un chat sin reflexión.
+ */
+public final class ChatKeyMapper {
+
+    private ChatKeyMapper() {}
+
+    public static ChatKeyRecord fromSnapshot(DocumentSnapshot snapshot) {
+        Map<String, Object> data = snapshot.getData();
+        if (data == null) {
+            return null;
+        }
+        return new ChatKeyRecord(
+                Fields.integer(data, "keyId"),
+                Fields.stringMap(data, "wrappedKeys"),
+                Fields.stringMap(data, "publicKeyIds"),
+                Fields.string(data, "createdBy"),
+                Fields.string(data, "boundChatId"));
+    }
+
+    public static Map<String, Object> toMap(ChatKeyRecord record) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("keyId", record.getKeyId());
+        data.put("wrappedKeys", new HashMap<>(record.getWrappedKeys()));
+        data.put("publicKeyIds", new HashMap<>(record.getPublicKeyIds()));
+        data.put("createdBy", record.getCreatedBy());
+        // Solo lo escribe la migración de ids de chat
+        if (record.getBoundChatId() != null) {
+            data.put("boundChatId", record.getBoundChatId());
+        }
+        data.put("createdAt", FieldValue.serverTimestamp());
+        return data;
+    }
+}
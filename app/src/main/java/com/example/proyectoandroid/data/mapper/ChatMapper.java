@@ -0,0 +1,58 @@
+package com.example.proyectoandroid.data.mapper;
+
+import com.example.proyectoandroid.data.model.Chat;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Conversión de chats (y de sus copias en user_chats) sin reflexión.
+ * {@code isGroupChat} se guarda como {@code groupChat}, como hacía el mapeo
+ * por reflexión a partir del getter. Los campos
+ * {@code lastMessageSenderName}/{@code lastMessageSenderEmail} solo se leen
+ * (chats antiguos); el remitente se resuelve por {@code lastMessageSenderId}.
+ */
+public final class ChatMapper {
+
+    private ChatMapper() {}
+
+    public static Chat fromSnapshot(DocumentSnapshot snapshot) {
+        Map<String, Object> data = snapshot.getData();
+        return data != null ? fromMap(snapshot.getId(), data) : null;
+    }
+
+    public static Chat fromMap(String chatId, Map<String, Object> data) {
+        Chat chat = new Chat();
+        chat.setChatId(chatId);
+        chat.setParticipantIds(Fields.stringList(data, "participantIds"));
+        chat.setLastMessageContent(Fields.string(data, "lastMessageContent"));
+        chat.setLastMessageSenderId(Fields.string(data, "lastMessageSenderId"));
+        chat.setLastMessageSenderName(Fields.string(data, "lastMessageSenderName"));
+        chat.setLastMessageSenderEmail(Fields.string(data, "lastMessageSenderEmail"));
+        chat.setLastMessageTimestamp(Fields.date(data, "lastMessageTimestamp"));
+        chat.setGroupChat(Fields.bool(data, "groupChat", false));
+        chat.setChatName(Fields.string(data, "chatName"));
+        chat.setChatImageUrl(Fields.string(data, "chatImageUrl"));
+        chat.setLastMessageType(Fields.integer(data, "lastMessageType"));
+        chat.setLastReadTimestamps(Fields.dateMap(data, Chat.LAST_READ_TIMESTAMPS));
+        return chat;
+    }
+
+    public static Map<String, Object> toMap(Chat chat) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("participantIds", chat.getParticipantIds());
+        data.put("lastMessageContent", chat.getLastMessageContent());
+        data.put("lastMessageSenderId", chat.getLastMessageSenderId());
+        data.put("lastMessageTimestamp", chat.getLastMessageTimestamp() != null
+                ? chat.getLastMessageTimestamp()
+                : FieldValue.serverTimestamp());
+        data.put("groupChat", chat.isGroupChat());
+        data.put("chatName", chat.getChatName());
+        data.put("chatImageUrl", chat.getChatImageUrl());
+        data.put("lastMessageType", chat.getLastMessageType());
+        data.put(Chat.LAST_READ_TIMESTAMPS, new HashMap<>(chat.getLastReadTimestamps()));
+        return data;
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.proyectoandroid.data.mapper;
+
+import com.google.firebase.Timestamp;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lectura tolerante de los valores que devuelve Firestore en
+ * {@code DocumentSnapshot.getData()}: los números llegan como Long/Double y
+ * las fechas como {@link Timestamp}. Un campo ausente o de otro tipo da el
+ * valor por defecto, igual que hacía {@code toObject()} con los primitivos.
+ */
+final class Fields {
+
+    private Fields() {}
+
+    static String string(Map<String, Object> data, String key) {
+        Object value = data.get(key);
+        return value instanceof String ? (String) value : null;
+    }
+
+    static int integer(Map<String, Object> data, String key) {
+        Object value = data.get(key);
+        return value instanceof Number ? ((Number) value).intValue() : 0;
+    }
+
+    static long longValue(Map<String, Object> data, String key) {
+        Object value = data.get(key);
+        return value instanceof Number ? ((Number) value).longValue() : 0L;
+    }
+
+    // Milisegundos guardados como número (antiguo) o como Timestamp del servidor
+    static long millis(Map<String, Object> data, String key) {
+        return toMillis(data.get(key));
+    }
+
+    static long toMillis(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        Date date = toDate(value);
+        return date != null ? date.getTime() : 0L;
+    }
+
+    static boolean bool(Map<String, Object> data, String key, boolean defaultValue) {
+        Object value = data.get(key);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+
+    static Date date(Map<String, Object> data, String key) {
+        return toDate(data.get(key));
+    }
+
+    static List<String> stringList(Map<String, Object> data, String key) {
+        Object value = data.get(key);
+        List<String> result = new ArrayList<>();
+        if (value instanceof List) {
+            for (Object item : (List<?>) value) {
+                if (item instanceof String) {
+                    result.add((String) item);
+                }
+            }
+        }
+        return result;
+    }
+
+    static Map<String, String> stringMap(Map<String, Object> data, String key) {
+        Object value = data.get(key);
+        Map<String, String> result = new HashMap<>();
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (entry.getKey() instanceof String && entry.getValue() instanceof String) {
+                    result.put((String) entry.getKey(), (String) entry.getValue());
+                }
+            }
+        }
+        return result;
+    }
+
+    static Map<String, Date> dateMap(Map<String, Object> data, String key) {
+        Object value = data.get(key);
+        Map<String, Date> result = new HashMap<>();
+        if (value instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                // Una marca de servidor aún pendiente llega como null: se omite
+                Date date = toDate(entry.getValue());
+                if (entry.getKey() instanceof String && date != null) {
+                    result.put((String) entry.getKey(), date);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Date toDate(Object value) {
+        if (value instanceof Timestamp) {
+            return ((Timestamp) value).toDate();
+        }
+        return value instanceof Date ? (Date) value : null;
+    }
+}
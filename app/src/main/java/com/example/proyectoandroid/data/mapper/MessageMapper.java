@@ -0,0 +1,59 @@
+package com.example.proyectoandroid.data.mapper;
+
+import com.example.proyectoandroid.data.model.Message;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Conversión de mensajes sin reflexión. Mismos nombres de campo que generaba
+ * {@code toObject()}/{@code set(message)}: {@code isRead} se guarda como
+ * {@code read} y {@code messageId} es el id del documento.
+ *
+ * Esquema compacto: se escribe solo {@code senderId} y
+ * {@code senderProfileVersion}. {@code senderName}/{@code senderEmail} se
+ * siguen leyendo para los documentos antiguos.
+ */
+public final class MessageMapper {
+
+    private MessageMapper() {}
+
+    public static Message fromSnapshot(DocumentSnapshot snapshot) {
+        Map<String, Object> data = snapshot.getData();
+        return data != null ? fromMap(snapshot.getId(), data) : null;
+    }
+
+    public static Message fromMap(String messageId, Map<String, Object> data) {
+        Message message = new Message();
+        message.setMessageId(messageId);
+        message.setChatId(Fields.string(data, "chatId"));
+        message.setSenderId(Fields.string(data, "senderId"));
+        message.setSenderName(Fields.string(data, "senderName"));
+        message.setSenderEmail(Fields.string(data, "senderEmail"));
+        message.setSenderProfileVersion(Fields.longValue(data, "senderProfileVersion"));
+        message.setContent(Fields.string(data, "content"));
+        message.setMessageType(Fields.integer(data, "messageType"));
+        message.setImageUrl(Fields.string(data, "imageUrl"));
+        message.setTimestamp(Fields.date(data, "timestamp"));
+        message.setRead(Fields.bool(data, "read", false));
+        return message;
+    }
+
+    public static Map<String, Object> toMap(Message message) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("chatId", message.getChatId());
+        data.put("senderId", message.getSenderId());
+        data.put("senderProfileVersion", message.getSenderProfileVersion());
+        data.put("content", message.getContent());
+        data.put("messageType", message.getMessageType());
+        data.put("imageUrl", message.getImageUrl());
+        // Equivale a @ServerTimestamp: sin fecha, la pone el servidor
+        data.put("timestamp", message.getTimestamp() != null
+                ? message.getTimestamp()
+                : FieldValue.serverTimestamp());
+        // "read" ya no se escribe: la lectura va por las marcas del chat; solo se lee en documentos antiguos
+        return data;
+    }
+}
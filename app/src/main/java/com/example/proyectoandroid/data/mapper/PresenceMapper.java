@@ -0,0 +1,22 @@
+package com.example.proyectoandroid.data.mapper;
+
+import com.example.proyectoandroid.data.model.Presence;
+import com.google.firebase.firestore.DocumentSnapshot;
+
+/**
+ * Solo los campos de presencia del documento de usuario, sin deserializar el
+ * perfil. {@code lastSeen}/{@code lastOnline} son timestamps del servidor; los
+ * documentos antiguos los tienen en milisegundos del reloj del cliente.
+ */
+public final class PresenceMapper {
+
+    private PresenceMapper() {}
+
+    public static Presence fromSnapshot(DocumentSnapshot snapshot) {
+        Boolean online = snapshot.getBoolean("online");
+        return new Presence(snapshot.getId(),
+                online != null && online,
+                Fields.toMillis(snapshot.get("lastOnline")),
+                Fields.toMillis(snapshot.get("lastSeen")));
+    }
+}
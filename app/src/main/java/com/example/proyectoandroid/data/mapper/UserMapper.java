@@ -0,0 +1,90 @@
+package com.example.proyectoandroid.data.mapper;
+
+import com.example.proyectoandroid.data.model.User;
+import com.google.firebase.firestore.DocumentSnapshot;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Conversión de usuarios sin reflexión, tanto para Firestore como para la
+ * sesión guardada en SharedPreferences (JSON).
+ */
+public final class UserMapper {
+
+    private UserMapper() {}
+
+    public static User fromSnapshot(DocumentSnapshot snapshot) {
+        Map<String, Object> data = snapshot.getData();
+        return data != null ? fromMap(snapshot.getId(), data) : null;
+    }
+
+    public static User fromMap(String documentId, Map<String, Object> data) {
+        User user = new User();
+        user.setDocumentId(documentId);
+        user.setUid(Fields.string(data, "uid"));
+        user.setEmail(Fields.string(data, "email"));
+        user.setDisplayName(Fields.string(data, "displayName"));
+        user.setPhotoUrl(Fields.string(data, "photoUrl"));
+        user.setProfileImageUrl(Fields.string(data, "profileImageUrl"));
+        user.setOnline(Fields.bool(data, "online", false));
+        user.setLastOnline(Fields.millis(data, "lastOnline"));
+        user.setLastSeen(Fields.millis(data, "lastSeen"));
+        user.setFcmToken(Fields.string(data, "fcmToken"));
+        user.setTokenUpdatedAt(Fields.longValue(data, "tokenUpdatedAt"));
+        user.setPublicKey(Fields.string(data, "publicKey"));
+        user.setProfileVersion(Fields.longValue(data, "profileVersion"));
+        return user;
+    }
+
+    public static Map<String, Object> toMap(User user) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("uid", user.getUid());
+        data.put("email", user.getEmail());
+        data.put("displayName", user.getDisplayName());
+        data.put("photoUrl", user.getPhotoUrl());
+        data.put("profileImageUrl", user.getProfileImageUrl());
+        data.put("online", user.isOnline());
+        data.put("lastOnline", user.getLastOnline());
+        data.put("lastSeen", user.getLastSeen());
+        data.put("fcmToken", user.getFcmToken());
+        data.put("tokenUpdatedAt", user.getTokenUpdatedAt());
+        data.put("publicKey", user.getPublicKey());
+        data.put("profileVersion", user.getProfileVersion());
+        return data;
+    }
+
+    public static String toJson(User user) {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("documentId", user.getDocumentId());
+            for (Map.Entry<String, Object> entry : toMap(user).entrySet()) {
+                json.put(entry.getKey(), entry.getValue());
+            }
+            return json.toString();
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+
+    public static User fromJson(String jsonString) {
+        try {
+            JSONObject json = new JSONObject(jsonString);
+            Map<String, Object> data = new HashMap<>();
+            for (Iterator<String> keys = json.keys(); keys.hasNext(); ) {
+                String key = keys.next();
+                Object value = json.opt(key);
+                if (value != null && value != JSONObject.NULL) {
+                    data.put(key, value);
+                }
+            }
+            return fromMap(Fields.string(data, "documentId"), data);
+        } catch (JSONException e) {
+            return null;
+        }
+    }
+}
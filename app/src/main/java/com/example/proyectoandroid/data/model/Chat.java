@@ -1,12 +1,20 @@
 package com.example.proyectoandroid.data.model;
 
 import com.google.firebase.firestore.DocumentId;
+import com.google.firebase.firestore.Exclude;
 import com.google.firebase.firestore.ServerTimestamp;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class Chat {
+    // Campo con la marca de lectura de cada participante (uid -> timestamp)
+    public static final String LAST_READ_TIMESTAMPS = "lastReadTimestamps";
+    // Prefijo de los ids de chats 1:1, derivados del par de participantes
+    public static final String DIRECT_CHAT_PREFIX = "direct_";
+
     @DocumentId
     private String chatId;
     private List<String> participantIds;
@@ -19,12 +27,13 @@ public class Chat {
     private boolean isGroupChat;
     private String chatName;
     private String chatImageUrl;
-    private boolean lastMessageRead;
     private int lastMessageType; // 0 = texto, 1 = imagen
+    private Map<String, Date> lastReadTimestamps = new HashMap<>();
+    // Vista previa ya descifrada (fuera del hilo principal); no se guarda en Firestore
+    private String decryptedLastMessage;
 
     public Chat() {
         participantIds = new ArrayList<>();
-        lastMessageRead = true;
         lastMessageType = 0;
     }
 
@@ -36,7 +45,6 @@ public class Chat {
         this.lastMessageContent = "";
         this.lastMessageSenderName = "";
         this.lastMessageSenderEmail = "";
-        this.lastMessageRead = true;
         this.lastMessageType = 0;
     }
 
@@ -48,10 +56,19 @@ public class Chat {
         this.chatImageUrl = "";
         this.lastMessageSenderName = "";
         this.lastMessageSenderEmail = "";
-        this.lastMessageRead = true;
         this.lastMessageType = 0;
     }
 
+    /**
+     * Id del chat 1:1 entre dos usuarios. No depende del orden de los argumentos,
+     * así que ambos llegan siempre al mismo documento.
+     */
+    public static String directChatId(String userId, String otherUserId) {
+        return userId.compareTo(otherUserId) < 0
+                ? DIRECT_CHAT_PREFIX + userId + "_" + otherUserId
+                : DIRECT_CHAT_PREFIX + otherUserId + "_" + userId;
+    }
+
     // Getters y setters
     public String getChatId() { return chatId; }
     public void setChatId(String chatId) { this.chatId = chatId; }
@@ -83,9 +100,36 @@ public class Chat {
     public String getLastMessageSenderEmail() { return lastMessageSenderEmail; }
     public void setLastMessageSenderEmail(String lastMessageSenderEmail) { this.lastMessageSenderEmail = lastMessageSenderEmail; }
 
-    public boolean isLastMessageRead() { return lastMessageRead; }
-    public void setLastMessageRead(boolean lastMessageRead) { this.lastMessageRead = lastMessageRead; }
-
     public int getLastMessageType() { return lastMessageType; }
     public void setLastMessageType(int lastMessageType) { this.lastMessageType = lastMessageType; }
-}
\ No newline at end of file
+
+    @Exclude
+    public String getDecryptedLastMessage() { return decryptedLastMessage; }
+    @Exclude
+    public void setDecryptedLastMessage(String decryptedLastMessage) { this.decryptedLastMessage = decryptedLastMessage; }
+
+    public Map<String, Date> getLastReadTimestamps() { return lastReadTimestamps; }
+    public void setLastReadTimestamps(Map<String, Date> lastReadTimestamps) {
+        this.lastReadTimestamps = lastReadTimestamps != null ? lastReadTimestamps : new HashMap<>();
+    }
+
+    public Date getLastReadTimestamp(String userId) {
+        return userId != null ? lastReadTimestamps.get(userId) : null;
+    }
+
+    /**
+     * Un mensaje está leído por {@code userId} si su timestamp no supera la
+     * marca de lectura de ese participante.
+     */
+    public boolean isReadBy(String userId, Date messageTimestamp) {
+        Date lastRead = getLastReadTimestamp(userId);
+        return lastRead != null && messageTimestamp != null && !messageTimestamp.after(lastRead);
+    }
+
+    public boolean hasUnreadMessages(String userId) {
+        if (lastMessageSenderId == null || lastMessageSenderId.equals(userId)) {
+            return false;
+        }
+        return !isReadBy(userId, lastMessageTimestamp);
+    }
+}
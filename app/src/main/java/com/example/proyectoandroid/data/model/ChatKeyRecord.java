@@ -0,0 +1,40 @@
+package com.example.proyectoandroid.data.model;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Documento chats/{chatId}/keys/current: la clave AES del chat cifrada
+ * (RSA-OAEP) con la clave pública de cada participante. El servidor nunca ve
+ * la clave en claro.
+ */
+public class ChatKeyRecord {
+
+    private final int keyId;
+    // uid -> clave del chat cifrada para ese usuario (Base64)
+    private final Map<String, String> wrappedKeys;
+    // uid -> huella de la clave pública usada; si el usuario cambia de clave se vuelve a cifrar
+    private final Map<String, String> publicKeyIds;
+    private final String createdBy;
+    // Id original del chat si se migró a otro id; null en el resto
+    private final String boundChatId;
+
+    public ChatKeyRecord(int keyId, Map<String, String> wrappedKeys, Map<String, String> publicKeyIds,
+                         String createdBy, String boundChatId) {
+        this.keyId = keyId;
+        this.wrappedKeys = Collections.unmodifiableMap(wrappedKeys);
+        this.publicKeyIds = Collections.unmodifiableMap(publicKeyIds);
+        this.createdBy = createdBy;
+        this.boundChatId = boundChatId;
+    }
+
+    public int getKeyId() { return keyId; }
+
+    public Map<String, String> getWrappedKeys() { return wrappedKeys; }
+
+    public Map<String, String> getPublicKeyIds() { return publicKeyIds; }
+
+    public String getCreatedBy() { return createdBy; }
+
+    public String getBoundChatId() { return boundChatId; }
+}
@@ -1,6 +1,7 @@
 package com.example.proyectoandroid.data.model;
 
 import com.google.firebase.firestore.DocumentId;
+import com.google.firebase.firestore.Exclude;
 import com.google.firebase.firestore.ServerTimestamp;
 import java.util.Date;
 
@@ -9,14 +10,20 @@ public class Message {
     private String messageId;
     private String chatId;
     private String senderId;
+    // Solo en documentos antiguos; ahora el nombre se resuelve con UserDirectory
     private String senderName;
     private String senderEmail;
+    private long senderProfileVersion;
     private String content; // Cifrado con clave única por chat
     private int messageType; // 0 = texto, 1 = imagen
     private String imageUrl;
     @ServerTimestamp
     private Date timestamp;
     private boolean isRead;
+    // Texto ya descifrado (fuera del hilo principal); no se guarda en Firestore
+    private String decryptedContent;
+    // Se quedó en la cola de salida tras agotar los reintentos; tampoco va a Firestore
+    private boolean sendFailed;
 
     public Message() {}
 
@@ -47,6 +54,9 @@ public class Message {
     public String getSenderEmail() { return senderEmail; }
     public void setSenderEmail(String senderEmail) { this.senderEmail = senderEmail; }
 
+    public long getSenderProfileVersion() { return senderProfileVersion; }
+    public void setSenderProfileVersion(long senderProfileVersion) { this.senderProfileVersion = senderProfileVersion; }
+
     public String getContent() { return content; }
     public void setContent(String content) { this.content = content; }
 
@@ -61,4 +71,14 @@ public class Message {
 
     public boolean isRead() { return isRead; }
     public void setRead(boolean read) { isRead = read; }
+
+    @Exclude
+    public String getDecryptedContent() { return decryptedContent; }
+    @Exclude
+    public void setDecryptedContent(String decryptedContent) { this.decryptedContent = decryptedContent; }
+
+    @Exclude
+    public boolean isSendFailed() { return sendFailed; }
+    @Exclude
+    public void setSendFailed(boolean sendFailed) { this.sendFailed = sendFailed; }
 }
\ No newline at end of file
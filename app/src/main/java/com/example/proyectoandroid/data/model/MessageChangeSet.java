@@ -0,0 +1,64 @@
+package com.example.proyectoandroid.data.model;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * Cambios de un snapshot de mensajes respecto al anterior. {@link #getWindow()}
+ * es la ventana completa ya actualizada (del más reciente al más antiguo), útil
+ * para quien se suscribe tarde; el resto son solo los documentos que cambiaron.
+ */
+public class MessageChangeSet {
+
+    private final long version;
+    private final Supplier<List<Message>> window;
+    private final List<Message> added;
+    private final List<Message> modified;
+    private final List<String> removedIds;
+    private final List<String> deletedIds;
+    private final boolean fromCache;
+
+    public MessageChangeSet(long version, Supplier<List<Message>> window, List<Message> added,
+                            List<Message> modified, List<String> removedIds, List<String> deletedIds,
+                            boolean fromCache) {
+        this.version = version;
+        this.window = window;
+        this.added = Collections.unmodifiableList(added);
+        this.modified = Collections.unmodifiableList(modified);
+        this.removedIds = Collections.unmodifiableList(removedIds);
+        this.deletedIds = Collections.unmodifiableList(deletedIds);
+        this.fromCache = fromCache;
+    }
+
+    /** Crece en cada snapshot; permite descartar cambios repetidos o atrasados. */
+    public long getVersion() { return version; }
+
+    /**
+     * Copia de la ventana en esta versión. Se construye al pedirla: si la
+     * ventana ya pasó a otra versión (change-set atrasado) devuelve null y el
+     * change-set se descarta; el de la versión nueva llega después.
+     */
+    public List<Message> getWindow() { return window.get(); }
+
+    /** Mensajes que entraron en la ventana, en el orden de la consulta (más reciente primero). */
+    public List<Message> getAdded() { return added; }
+
+    public List<Message> getModified() { return modified; }
+
+    /**
+     * Ids que salieron de la ventana. Puede ser un borrado o simplemente que
+     * mensajes más nuevos lo empujaron fuera del límite.
+     */
+    public List<String> getRemovedIds() { return removedIds; }
+
+    /** Parte de {@link #getRemovedIds()} que salió por borrado y no por el límite. */
+    public List<String> getDeletedIds() { return deletedIds; }
+
+    /** El snapshot salió de la caché local y el servidor aún no lo ha confirmado. */
+    public boolean isFromCache() { return fromCache; }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && modified.isEmpty() && removedIds.isEmpty();
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.proyectoandroid.data.model;
+
+import com.google.firebase.firestore.DocumentSnapshot;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Página de mensajes leída con cursores {@link DocumentSnapshot}. Firestore
+ * desempata por id de documento, así que mensajes con el mismo timestamp no se
+ * pierden ni se repiten entre páginas (lo que sí pasaba con un cursor Date).
+ */
+public class MessagePage {
+
+    private final List<Message> messages;
+    private final DocumentSnapshot newest;
+    private final DocumentSnapshot oldest;
+    private final boolean endReached;
+
+    public MessagePage(List<Message> messages, DocumentSnapshot newest, DocumentSnapshot oldest, boolean endReached) {
+        this.messages = Collections.unmodifiableList(messages);
+        this.newest = newest;
+        this.oldest = oldest;
+        this.endReached = endReached;
+    }
+
+    /** Del más reciente al más antiguo. */
+    public List<Message> getMessages() { return messages; }
+
+    /** Cursor para pedir la página siguiente hacia los mensajes nuevos. */
+    public DocumentSnapshot getNewest() { return newest; }
+
+    /** Cursor para pedir la página siguiente hacia los mensajes antiguos. */
+    public DocumentSnapshot getOldest() { return oldest; }
+
+    /** La consulta devolvió menos de lo pedido: no hay más en esa dirección. */
+    public boolean isEndReached() { return endReached; }
+
+    public boolean isEmpty() { return messages.isEmpty(); }
+}
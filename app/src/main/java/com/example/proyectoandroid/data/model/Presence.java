@@ -0,0 +1,55 @@
+package com.example.proyectoandroid.data.model;
+
+import com.example.proyectoandroid.data.remote.ServerClock;
+
+/**
+ * Estado en línea de un usuario: solo los campos de presencia del documento
+ * de usuario, para comparar cambios sin arrastrar el perfil completo.
+ *
+ * El campo {@code online} no basta: si la app muere no llega a escribir
+ * "desconectado". Por eso un usuario solo cuenta como en línea mientras su
+ * último latido ({@code lastSeen}) tenga menos de {@link #STALE_AFTER_MS}.
+ * Los latidos llevan la hora del servidor y se comparan con
+ * {@link ServerClock#now()}, no con el reloj del dispositivo.
+ */
+public class Presence {
+
+    // Frecuencia del latido mientras la app está en primer plano
+    public static final long HEARTBEAT_MS = 60_000;
+    // Margen para latidos perdidos y para el error al estimar la hora del servidor
+    public static final long STALE_AFTER_MS = 3 * HEARTBEAT_MS;
+
+    private final String uid;
+    private final boolean online;
+    private final long lastOnline;
+    private final long lastSeen;
+
+    public Presence(String uid, boolean online, long lastOnline, long lastSeen) {
+        this.uid = uid;
+        this.online = online;
+        this.lastOnline = lastOnline;
+        this.lastSeen = lastSeen;
+    }
+
+    public String getUid() { return uid; }
+
+    /** En línea según el documento y con un latido reciente. */
+    public boolean isOnline() {
+        return online && ServerClock.now() - lastSeen < STALE_AFTER_MS;
+    }
+
+    /** Última vez que se supo de él: desconexión explícita o último latido. */
+    public long getLastActive() { return Math.max(lastOnline, lastSeen); }
+
+    /**
+     * Igual a efectos de pantalla: mismo estado efectivo y, si está
+     * desconectado, la misma "última vez". Los latidos de alguien en línea no
+     * cuentan como cambio.
+     */
+    public boolean displaysSameAs(Presence other) {
+        if (other == null || isOnline() != other.isOnline()) {
+            return false;
+        }
+        return isOnline() || getLastActive() == other.getLastActive();
+    }
+}
@@ -21,6 +21,8 @@ public class User {
     // Nuevos campos para compatibilidad Firestore
     private long lastSeen;
     private long tokenUpdatedAt;
+    // Se incrementa con cada edición de perfil; los mensajes guardan la versión con la que se enviaron
+    private long profileVersion;
 
     public User() {}
 
@@ -73,4 +75,7 @@ public class User {
 
     public String getPublicKey() { return publicKey; }
     public void setPublicKey(String publicKey) { this.publicKey = publicKey; }
+
+    public long getProfileVersion() { return profileVersion; }
+    public void setProfileVersion(long profileVersion) { this.profileVersion = profileVersion; }
 }
\ No newline at end of file
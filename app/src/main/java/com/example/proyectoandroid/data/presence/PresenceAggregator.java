@@ -0,0 +1,232 @@
+package com.example.proyectoandroid.data.presence;
+
+import com.example.proyectoandroid.data.model.Presence;
+import com.example.proyectoandroid.data.remote.FirestoreDataSource;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Presencia de los usuarios que hay en pantalla. Cada pantalla declara sus ids
+ * con una {@link Subscription}; el agregador escucha la unión de todos en
+ * consultas {@code whereIn} de hasta {@link FirestoreDataSource#MAX_IN_QUERY_SIZE}
+ * ids y reparte los cambios agrupados cada {@link #COALESCE_MS}.
+ *
+ * Todo el estado se toca solo en {@link #scheduler}; los callbacks llegan en
+ * ese hilo.
+ */
+public class PresenceAggregator {
+
+    private static final long COALESCE_MS = 250;
+    // Un latido caduca sin que cambie el documento: se revisa periódicamente
+    private static final long STALE_SWEEP_MS = 30_000;
+    private static final int CHUNK_SIZE = FirestoreDataSource.MAX_IN_QUERY_SIZE;
+
+    private final FirestoreDataSource firestoreDataSource;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final Map<String, Presence> known = new HashMap<>();
+    private final Map<String, Presence> pending = new HashMap<>();
+    // Estado en línea efectivo entregado por última vez a cada uid
+    private final Map<String, Boolean> delivered = new HashMap<>();
+    // Desde cuándo nadie mira cada uid conocido; se olvida en el barrido, no al
+    // salir de pantalla, para que quien vuelva enseguida reciba lo conocido
+    private final Map<String, Long> unwantedSince = new HashMap<>();
+    private ScheduledFuture<?> pendingFlush;
+
+    public PresenceAggregator(FirestoreDataSource firestoreDataSource) {
+        this.firestoreDataSource = firestoreDataSource;
+        scheduler.scheduleWithFixedDelay(this::sweepStale, STALE_SWEEP_MS, STALE_SWEEP_MS, TimeUnit.MILLISECONDS);
+    }
+
+    public Subscription subscribe(Consumer<Map<String, Presence>> onPresenceChanged) {
+        Subscription subscription = new Subscription(onPresenceChanged);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    public class Subscription {
+        private final Consumer<Map<String, Presence>> callback;
+        private volatile Set<String> userIds = new HashSet<>();
+
+        private Subscription(Consumer<Map<String, Presence>> callback) {
+            this.callback = callback;
+        }
+
+        /**
+         * Sustituye los ids que le interesan a esta pantalla (p. ej. las filas
+         * visibles). Lo que ya se conoce de los ids nuevos se entrega enseguida.
+         */
+        public void setUserIds(Collection<String> ids) {
+            Set<String> copy = new HashSet<>(ids);
+            scheduler.execute(() -> {
+                Set<String> added = new HashSet<>(copy);
+                added.removeAll(userIds);
+                userIds = copy;
+                rechunk();
+
+                Map<String, Presence> replay = new HashMap<>();
+                for (String uid : added) {
+                    Presence presence = known.get(uid);
+                    if (presence != null) {
+                        replay.put(uid, presence);
+                    }
+                }
+                if (!replay.isEmpty() && subscriptions.contains(this)) {
+                    callback.accept(replay);
+                }
+            });
+        }
+
+        public void remove() {
+            subscriptions.remove(this);
+            scheduler.execute(PresenceAggregator.this::rechunk);
+        }
+    }
+
+    /**
+     * Ajusta los listeners a la unión de ids: se quitan los grupos que ya no
+     * tienen ningún id visible y los ids nuevos se reparten en grupos nuevos.
+     * Si los grupos acumulan demasiados ids que ya no se miran, se rehacen todos.
+     */
+    private void rechunk() {
+        Set<String> wanted = wantedIds();
+
+        Set<String> covered = new HashSet<>();
+        Iterator<Chunk> iterator = chunks.iterator();
+        while (iterator.hasNext()) {
+            Chunk chunk = iterator.next();
+            if (Collections.disjoint(chunk.userIds, wanted)) {
+                chunk.registration.remove();
+                iterator.remove();
+            } else {
+                covered.addAll(chunk.userIds);
+            }
+        }
+
+        Set<String> stale = new HashSet<>(covered);
+        stale.removeAll(wanted);
+        if (stale.size() > wanted.size()) {
+            for (Chunk chunk : chunks) {
+                chunk.registration.remove();
+            }
+            chunks.clear();
+            covered.clear();
+        }
+
+        List<String> missing = new ArrayList<>();
+        for (String uid : wanted) {
+            if (!covered.contains(uid)) {
+                missing.add(uid);
+            }
+        }
+        for (int start = 0; start < missing.size(); start += CHUNK_SIZE) {
+            List<String> ids = new ArrayList<>(missing.subList(start, Math.min(missing.size(), start + CHUNK_SIZE)));
+            ListenerRegistration registration = firestoreDataSource.addPresenceListener(ids,
+                    presences -> scheduler.execute(() -> onPresences(presences)));
+            chunks.add(new Chunk(ids, registration));
+        }
+
+        unwantedSince.keySet().removeAll(wanted);
+    }
+
+    private Set<String> wantedIds() {
+        Set<String> wanted = new HashSet<>();
+        for (Subscription subscription : subscriptions) {
+            wanted.addAll(subscription.userIds);
+        }
+        return wanted;
+    }
+
+    private void onPresences(List<Presence> presences) {
+        for (Presence presence : presences) {
+            Presence previous = known.put(presence.getUid(), presence);
+            if (!presence.displaysSameAs(previous)) {
+                pending.put(presence.getUid(), presence);
+            }
+        }
+        if (!pending.isEmpty() && pendingFlush == null) {
+            pendingFlush = scheduler.schedule(this::flush, COALESCE_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void sweepStale() {
+        // Lo que lleva un barrido entero sin mirarse ya no tiene listener: se olvida
+        long now = System.currentTimeMillis();
+        Set<String> wanted = wantedIds();
+        for (String uid : known.keySet()) {
+            if (!wanted.contains(uid)) {
+                unwantedSince.putIfAbsent(uid, now);
+            }
+        }
+        long evictBefore = now - STALE_SWEEP_MS;
+        Iterator<Map.Entry<String, Long>> unwanted = unwantedSince.entrySet().iterator();
+        while (unwanted.hasNext()) {
+            Map.Entry<String, Long> entry = unwanted.next();
+            if (entry.getValue() <= evictBefore) {
+                known.remove(entry.getKey());
+                delivered.remove(entry.getKey());
+                pending.remove(entry.getKey());
+                unwanted.remove();
+            }
+        }
+
+        for (Presence presence : known.values()) {
+            Boolean last = delivered.get(presence.getUid());
+            if (last != null && last != presence.isOnline()) {
+                pending.put(presence.getUid(), presence);
+            }
+        }
+        if (!pending.isEmpty() && pendingFlush == null) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        pendingFlush = null;
+        Map<String, Presence> changes = new HashMap<>(pending);
+        pending.clear();
+        for (Presence presence : changes.values()) {
+            delivered.put(presence.getUid(), presence.isOnline());
+        }
+
+        for (Subscription subscription : subscriptions) {
+            Map<String, Presence> relevant = new HashMap<>();
+            for (String uid : subscription.userIds) {
+                Presence presence = changes.get(uid);
+                if (presence != null) {
+                    relevant.put(uid, presence);
+                }
+            }
+            if (!relevant.isEmpty()) {
+                subscription.callback.accept(relevant);
+            }
+        }
+    }
+
+    private static class Chunk {
+        final List<String> userIds;
+        final ListenerRegistration registration;
+
+        Chunk(List<String> userIds, ListenerRegistration registration) {
+            this.userIds = userIds;
+            this.registration = registration;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.proyectoandroid.data.presence;
+
+import android.app.Activity;
+import android.app.Application;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.proyectoandroid.data.model.Presence;
+import com.example.proyectoandroid.data.remote.FirebaseAuthDataSource;
+import com.example.proyectoandroid.data.remote.FirestoreDataSource;
+import com.example.proyectoandroid.utils.Result;
+import com.google.firebase.auth.FirebaseUser;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publica la presencia del usuario actual según el ciclo de vida del proceso.
+ *
+ * Con alguna actividad visible marca "en línea" y renueva {@code lastSeen}
+ * cada {@link Presence#HEARTBEAT_MS}; al pasar a segundo plano espera
+ * {@link #BACKGROUND_DEBOUNCE_MS} antes de marcar "desconectado", así que
+ * rotar la pantalla o abrir el selector de imágenes no genera escrituras. Si
+ * el proceso muere sin avisar, los lectores dan por desconectado a quien lleva
+ * más de {@link Presence#STALE_AFTER_MS} sin latido.
+ *
+ * El estado solo se toca en {@link #scheduler}.
+ */
+public class PresenceService implements Application.ActivityLifecycleCallbacks {
+
+    private static final String TAG = "PresenceService";
+    private static final long BACKGROUND_DEBOUNCE_MS = 5000;
+
+    private final FirestoreDataSource firestoreDataSource;
+    private final FirebaseAuthDataSource authDataSource;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    private int startedActivities;
+    // Último estado escrito: uid con el que se marcó en línea (null = desconectado)
+    private String onlineUid;
+    private ScheduledFuture<?> pendingOffline;
+    private ScheduledFuture<?> heartbeat;
+
+    public PresenceService(FirestoreDataSource firestoreDataSource, FirebaseAuthDataSource authDataSource) {
+        this.firestoreDataSource = firestoreDataSource;
+        this.authDataSource = authDataSource;
+    }
+
+    public void start(Application application) {
+        application.registerActivityLifecycleCallbacks(this);
+    }
+
+    /**
+     * Tras iniciar sesión la app ya está en primer plano y no habrá transición:
+     * se publica la presencia del nuevo usuario directamente.
+     */
+    public void onSignedIn() {
+        scheduler.execute(this::ensureOnline);
+    }
+
+    /**
+     * Antes de cerrar sesión (mientras aún hay credenciales) se marca
+     * desconectado y se detiene el latido.
+     */
+    public CompletableFuture<Result<Void>> onSigningOut(String uid) {
+        CompletableFuture<Result<Void>> resultFuture = new CompletableFuture<>();
+        scheduler.execute(() -> {
+            cancelPendingOffline();
+            stopHeartbeat();
+            onlineUid = null;
+            firestoreDataSource.updateUserOnlineStatus(uid, false).thenAccept(resultFuture::complete);
+        });
+        return resultFuture;
+    }
+
+    @Override
+    public void onActivityStarted(Activity activity) {
+        scheduler.execute(() -> {
+            startedActivities++;
+            if (startedActivities == 1) {
+                cancelPendingOffline();
+                ensureOnline();
+            }
+        });
+    }
+
+    @Override
+    public void onActivityStopped(Activity activity) {
+        scheduler.execute(() -> {
+            startedActivities = Math.max(0, startedActivities - 1);
+            if (startedActivities == 0) {
+                cancelPendingOffline();
+                pendingOffline = scheduler.schedule(this::goOffline, BACKGROUND_DEBOUNCE_MS, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    private void ensureOnline() {
+        String uid = currentUid();
+        if (uid == null) {
+            return;
+        }
+        // Ya en línea con latido activo: nada que escribir
+        if (uid.equals(onlineUid) && heartbeat != null) {
+            return;
+        }
+        onlineUid = uid;
+        writeOnline();
+        stopHeartbeat();
+        heartbeat = scheduler.scheduleWithFixedDelay(this::beat,
+                Presence.HEARTBEAT_MS, Presence.HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void beat() {
+        if (startedActivities == 0 || onlineUid == null || !onlineUid.equals(currentUid())) {
+            // Sesión cerrada o cambiada sin pasar por onSigningOut
+            stopHeartbeat();
+            onlineUid = null;
+            return;
+        }
+        writeOnline();
+    }
+
+    private void goOffline() {
+        pendingOffline = null;
+        stopHeartbeat();
+        if (onlineUid == null) {
+            return;
+        }
+        String uid = onlineUid;
+        onlineUid = null;
+        firestoreDataSource.updateUserOnlineStatus(uid, false).thenAccept(result -> {
+            if (!(result instanceof Result.Success)) {
+                Log.w(TAG, "No se pudo marcar desconectado: " + ((Result.Error<Void>) result).getErrorMessage());
+            }
+        });
+    }
+
+    private void writeOnline() {
+        firestoreDataSource.updateUserOnlineStatus(onlineUid, true).thenAccept(result -> {
+            if (!(result instanceof Result.Success)) {
+                Log.w(TAG, "No se pudo publicar presencia: " + ((Result.Error<Void>) result).getErrorMessage());
+            }
+        });
+    }
+
+    private String currentUid() {
+        FirebaseUser user = authDataSource.getCurrentUser();
+        return user != null ? user.getUid() : null;
+    }
+
+    private void cancelPendingOffline() {
+        if (pendingOffline != null) {
+            pendingOffline.cancel(false);
+            pendingOffline = null;
+        }
+    }
+
+    private void stopHeartbeat() {
+        if (heartbeat != null) {
+            heartbeat.cancel(false);
+            heartbeat = null;
+        }
+    }
+
+    @Override
+    public void onActivityCreated(Activity activity, Bundle savedInstanceState) {}
+
+    @Override
+    public void onActivityResumed(Activity activity) {}
+
+    @Override
+    public void onActivityPaused(Activity activity) {}
+
+    @Override
+    public void onActivitySaveInstanceState(Activity activity, Bundle outState) {}
+
+    @Override
+    public void onActivityDestroyed(Activity activity) {}
+}
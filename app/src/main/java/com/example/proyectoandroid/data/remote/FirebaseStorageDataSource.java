@@ -7,13 +7,17 @@ import android.net.Uri;
 import android.util.Log;
 import android.webkit.MimeTypeMap;
 
+import com.example.proyectoandroid.data.crypto.AttachmentCipher;
+import com.example.proyectoandroid.data.crypto.ChatKey;
 import com.example.proyectoandroid.utils.Result;
 import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageMetadata;
 import com.google.firebase.storage.StorageReference;
 import com.google.firebase.storage.UploadTask;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
@@ -65,6 +69,60 @@ public class FirebaseStorageDataSource {
         return resultFuture;
     }
 
+    /**
+     * Como {@link #uploadImage}, pero el archivo sube cifrado con la clave del
+     * chat ({@link AttachmentCipher}) y se cifra por bloques mientras se envía.
+     */
+    public CompletableFuture<Result<String>> uploadEncryptedImage(Context context, Uri imageUri, String chatId,
+                                                                  ChatKey chatKey) {
+        CompletableFuture<Result<String>> resultFuture = new CompletableFuture<>();
+
+        if (imageUri == null) {
+            resultFuture.complete(new Result.Error<>("URI de imagen no válida"));
+            return resultFuture;
+        }
+
+        try {
+            String fileName = UUID.randomUUID().toString() + "." + AttachmentCipher.FILE_EXTENSION;
+            StorageReference storageRef = storage.getReference()
+                    .child(IMAGES_FOLDER)
+                    .child(chatId)
+                    .child(fileName);
+
+            File compressedImageFile = compressImage(context, imageUri);
+            InputStream plain = compressedImageFile != null
+                    ? new FileInputStream(compressedImageFile)
+                    : context.getContentResolver().openInputStream(imageUri);
+            if (plain == null) {
+                resultFuture.complete(new Result.Error<>("No se pudo abrir la imagen"));
+                return resultFuture;
+            }
+
+            InputStream encrypted = AttachmentCipher.encrypt(plain, chatKey);
+            StorageMetadata metadata = new StorageMetadata.Builder()
+                    .setContentType(AttachmentCipher.CONTENT_TYPE)
+                    .build();
+            UploadTask uploadTask = storageRef.putStream(encrypted, metadata);
+            uploadTask.addOnCompleteListener(task -> {
+                try {
+                    encrypted.close();
+                } catch (IOException e) {
+                    Log.w(TAG, "Error cerrando la imagen", e);
+                }
+                if (compressedImageFile != null) {
+                    compressedImageFile.delete();
+                }
+            });
+            completeWithDownloadUrl(storageRef, uploadTask, resultFuture);
+
+        } catch (Exception e) {
+            Log.e(TAG, "Error al subir imagen cifrada", e);
+            resultFuture.complete(new Result.Error<>(e.getMessage()));
+        }
+
+        return resultFuture;
+    }
+
     public CompletableFuture<Result<Void>> deleteImage(String imageUrl) {
         CompletableFuture<Result<Void>> resultFuture = new CompletableFuture<>();
 
@@ -97,7 +155,11 @@ public class FirebaseStorageDataSource {
     private void uploadImageFile(StorageReference storageRef, Uri fileUri,
             CompletableFuture<Result<String>> resultFuture) {
 
-        UploadTask uploadTask = storageRef.putFile(fileUri);
+        completeWithDownloadUrl(storageRef, storageRef.putFile(fileUri), resultFuture);
+    }
+
+    private void completeWithDownloadUrl(StorageReference storageRef, UploadTask uploadTask,
+            CompletableFuture<Result<String>> resultFuture) {
 
         uploadTask.continueWithTask(task -> {
             if (!task.isSuccessful() && task.getException() != null) {
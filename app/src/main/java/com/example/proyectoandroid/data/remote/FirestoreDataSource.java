@@ -1,35 +1,76 @@
 package com.example.proyectoandroid.data.remote;
 
+import android.text.TextUtils;
+
+import com.example.proyectoandroid.data.mapper.ChatKeyMapper;
+import com.example.proyectoandroid.data.mapper.ChatMapper;
+import com.example.proyectoandroid.data.mapper.MessageMapper;
+import com.example.proyectoandroid.data.mapper.PresenceMapper;
+import com.example.proyectoandroid.data.mapper.UserMapper;
 import com.example.proyectoandroid.data.model.Chat;
+import com.example.proyectoandroid.data.model.ChatKeyRecord;
 import com.example.proyectoandroid.data.model.Message;
+import com.example.proyectoandroid.data.model.MessageChangeSet;
+import com.example.proyectoandroid.data.model.MessagePage;
+import com.example.proyectoandroid.data.model.Presence;
 import com.example.proyectoandroid.data.model.User;
 import com.example.proyectoandroid.utils.FirebaseCollections;
 import com.example.proyectoandroid.utils.Result;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.CollectionReference;
 import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FieldPath;
 import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Source;
+import com.google.firebase.firestore.WriteBatch;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 
 public class FirestoreDataSource {
 
+    // Máximo de valores que admite un filtro whereIn de Firestore
+    public static final int MAX_IN_QUERY_SIZE = 30;
+
     public final FirebaseFirestore firestore;
-    private final Map<String, ListenerRegistration> messageListeners = new HashMap<>();
-    private final Map<String, ListenerRegistration> chatListeners = new HashMap<>();
-    private final Map<String, ListenerRegistration> userStatusListeners = new HashMap<>();
+    // Todos los listeners pasan por el hub; aquí solo se guardan las suscripciones
+    // propias, agrupadas por clave, para poder quitarlas con removeXListener()
+    private final ListenerHub listenerHub;
+    // Hilo de fondo donde llegan los snapshots y se deserializan; nada de esto toca el hilo principal
+    private final ScheduledExecutorService decodeExecutor = Executors.newSingleThreadScheduledExecutor();
+    private final Map<String, List<ListenerRegistration>> subscriptions = new HashMap<>();
 
     public FirestoreDataSource() {
         this.firestore = FirebaseFirestore.getInstance();
+        this.listenerHub = new ListenerHub(decodeExecutor);
+    }
+
+    /**
+     * Hilo único donde llegan todos los callbacks de los listeners. Quien mezcle
+     * otras emisiones con las de un listener las publica aquí para que no se
+     * adelanten ni se crucen.
+     */
+    public Executor listenerExecutor() {
+        return decodeExecutor;
     }
 
     public CompletableFuture<Result<User>> createOrUpdateUser(User user) {
@@ -37,7 +78,7 @@ public class FirestoreDataSource {
 
         DocumentReference userRef = firestore.collection(FirebaseCollections.USERS).document(user.getUid());
 
-        userRef.set(user)
+        userRef.set(UserMapper.toMap(user))
             .addOnSuccessListener(aVoid -> resultFuture.complete(new Result.Success<>(user)))
             .addOnFailureListener(e -> resultFuture.complete(new Result.Error<>(e.getMessage())));
 
@@ -52,7 +93,7 @@ public class FirestoreDataSource {
         userRef.get()
             .addOnSuccessListener(documentSnapshot -> {
                 if (documentSnapshot.exists()) {
-                    User user = documentSnapshot.toObject(User.class);
+                    User user = UserMapper.fromSnapshot(documentSnapshot);
                     resultFuture.complete(new Result.Success<>(user));
                 } else {
                     resultFuture.complete(new Result.Error<>("User not found"));
@@ -63,6 +104,79 @@ public class FirestoreDataSource {
         return resultFuture;
     }
 
+    /**
+     * Trae varios usuarios por id con consultas {@code whereIn(documentId)} de
+     * hasta {@link #MAX_IN_QUERY_SIZE} ids, lanzadas en paralelo. Los ids que no
+     * existen simplemente no aparecen en el resultado.
+     */
+    public CompletableFuture<Result<List<User>>> getUsersByIds(List<String> userIds) {
+        List<CompletableFuture<List<User>>> chunks = new ArrayList<>();
+
+        for (int start = 0; start < userIds.size(); start += MAX_IN_QUERY_SIZE) {
+            List<String> chunk = new ArrayList<>(
+                    userIds.subList(start, Math.min(userIds.size(), start + MAX_IN_QUERY_SIZE)));
+            CompletableFuture<List<User>> chunkFuture = new CompletableFuture<>();
+            chunks.add(chunkFuture);
+
+            firestore.collection(FirebaseCollections.USERS)
+                .whereIn(FieldPath.documentId(), chunk)
+                .get()
+                .addOnSuccessListener(decodeExecutor, querySnapshot -> {
+                    List<User> users = new ArrayList<>();
+                    for (QueryDocumentSnapshot doc : querySnapshot) {
+                        users.add(toUser(doc));
+                    }
+                    chunkFuture.complete(users);
+                })
+                .addOnFailureListener(chunkFuture::completeExceptionally);
+        }
+
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0]))
+            .<Result<List<User>>>thenApply(ignored -> {
+                List<User> users = new ArrayList<>();
+                for (CompletableFuture<List<User>> chunk : chunks) {
+                    users.addAll(chunk.join());
+                }
+                return new Result.Success<>(users);
+            })
+            .exceptionally(e -> new Result.Error<>(e.getMessage()));
+    }
+
+    /**
+     * Primera página de usuarios ordenados por nombre, o los que empiezan por
+     * {@code prefix} si no es vacío. Sustituye a descargar la colección entera.
+     */
+    public CompletableFuture<Result<List<User>>> searchUsers(String field, String prefix, int limit) {
+        CompletableFuture<Result<List<User>>> resultFuture = new CompletableFuture<>();
+
+        Query query = firestore.collection(FirebaseCollections.USERS).orderBy(field);
+        if (prefix != null && !prefix.isEmpty()) {
+            query = query.startAt(prefix).endAt(prefix + "\uf8ff");
+        }
+
+        query.limit(limit)
+            .get()
+            .addOnSuccessListener(decodeExecutor, querySnapshot -> {
+                List<User> users = new ArrayList<>();
+                for (QueryDocumentSnapshot doc : querySnapshot) {
+                    users.add(toUser(doc));
+                }
+                resultFuture.complete(new Result.Success<>(users));
+            })
+            .addOnFailureListener(e -> resultFuture.complete(new Result.Error<>(e.getMessage())));
+
+        return resultFuture;
+    }
+
+    // Documentos antiguos no siempre tienen el campo uid; el id del documento es el uid
+    private User toUser(DocumentSnapshot doc) {
+        User user = UserMapper.fromSnapshot(doc);
+        if (user != null && user.getUid() == null) {
+            user.setUid(doc.getId());
+        }
+        return user;
+    }
+
     public CompletableFuture<Result<Void>> updateUserOnlineStatus(String userId, boolean isOnline) {
         CompletableFuture<Result<Void>> resultFuture = new CompletableFuture<>();
 
@@ -70,11 +184,40 @@ public class FirestoreDataSource {
 
         Map<String, Object> updates = new HashMap<>();
         updates.put("online", isOnline);
+        // Latido: los lectores dan por desconectado a quien no lo renueva. Hora
+        // del servidor, para que no dependa del reloj de quien escribe
+        updates.put("lastSeen", FieldValue.serverTimestamp());
         if (!isOnline) {
-            updates.put("lastOnline", System.currentTimeMillis());
+            updates.put("lastOnline", FieldValue.serverTimestamp());
         }
 
+        long sentAt = System.currentTimeMillis();
         userRef.update(updates)
+            .addOnSuccessListener(aVoid -> {
+                observeServerClock(userRef, sentAt);
+                resultFuture.complete(new Result.Success<>(null));
+            })
+            .addOnFailureListener(e -> resultFuture.complete(new Result.Error<>(e.getMessage())));
+
+        return resultFuture;
+    }
+
+    // Confirmada la escritura, la caché ya tiene el lastSeen que puso el servidor: sin lectura facturada
+    private void observeServerClock(DocumentReference userRef, long sentAt) {
+        long ackedAt = System.currentTimeMillis();
+        userRef.get(Source.CACHE).addOnSuccessListener(snapshot -> {
+            Timestamp lastSeen = snapshot.getTimestamp("lastSeen");
+            if (lastSeen != null) {
+                ServerClock.observe(lastSeen.toDate().getTime(), sentAt, ackedAt);
+            }
+        });
+    }
+
+    public CompletableFuture<Result<Void>> updateUserPublicKey(String userId, String publicKey) {
+        CompletableFuture<Result<Void>> resultFuture = new CompletableFuture<>();
+
+        firestore.collection(FirebaseCollections.USERS).document(userId)
+            .update("publicKey", publicKey)
             .addOnSuccessListener(aVoid -> resultFuture.complete(new Result.Success<>(null)))
             .addOnFailureListener(e -> resultFuture.complete(new Result.Error<>(e.getMessage())));
 
@@ -83,30 +226,58 @@ public class FirestoreDataSource {
 
     public ListenerRegistration addUserStatusListener(String userId, Consumer<User> onUserStatusChanged) {
         DocumentReference userRef = firestore.collection(FirebaseCollections.USERS).document(userId);
+        String key = userStatusKey(userId);
+
+        ListenerRegistration registration = listenerHub.<DocumentSnapshot>subscribe(
+                key,
+                dispatcher -> userRef.addSnapshotListener(decodeExecutor, dispatcher),
+                (snapshot, error) -> {
+                    if (error != null) {
+                        return;
+                    }
 
-        ListenerRegistration registration = userRef.addSnapshotListener((snapshot, error) -> {
-            if (error != null) {
-                return;
-            }
-
-            if (snapshot != null && snapshot.exists()) {
-                User user = snapshot.toObject(User.class);
-                if (user != null) {
-                    onUserStatusChanged.accept(user);
-                }
-            }
-        });
+                    if (snapshot != null && snapshot.exists()) {
+                        User user = UserMapper.fromSnapshot(snapshot);
+                        if (user != null) {
+                            onUserStatusChanged.accept(user);
+                        }
+                    }
+                });
 
-        userStatusListeners.put(userId, registration);
-        return registration;
+        return track(key, registration);
     }
 
     public void removeUserStatusListener(String userId) {
-        ListenerRegistration registration = userStatusListeners.get(userId);
-        if (registration != null) {
-            registration.remove();
-            userStatusListeners.remove(userId);
-        }
+        removeSubscriptions(userStatusKey(userId));
+    }
+
+    /**
+     * Presencia de un grupo de usuarios (como mucho {@link #MAX_IN_QUERY_SIZE})
+     * con un único listener {@code whereIn}. Cada snapshot entrega el estado de
+     * todo el grupo; quien escucha se queda solo con lo que cambió.
+     */
+    public ListenerRegistration addPresenceListener(List<String> userIds, Consumer<List<Presence>> onPresenceChanged) {
+        List<String> sorted = new ArrayList<>(userIds);
+        Collections.sort(sorted);
+        Query query = firestore.collection(FirebaseCollections.USERS)
+                .whereIn(FieldPath.documentId(), sorted);
+        String key = "presence/" + TextUtils.join(",", sorted);
+
+        ListenerRegistration registration = listenerHub.<QuerySnapshot>subscribe(
+                key,
+                dispatcher -> query.addSnapshotListener(decodeExecutor, dispatcher),
+                (querySnapshots, error) -> {
+                    if (error != null || querySnapshots == null) {
+                        return;
+                    }
+                    List<Presence> presences = new ArrayList<>();
+                    for (QueryDocumentSnapshot doc : querySnapshots) {
+                        presences.add(PresenceMapper.fromSnapshot(doc));
+                    }
+                    onPresenceChanged.accept(presences);
+                });
+
+        return track(key, registration);
     }
 
     public CompletableFuture<Result<Chat>> createChat(Chat chat) {
@@ -116,48 +287,107 @@ public class FirestoreDataSource {
         String chatId = chatRef.getId();
         chat.setChatId(chatId);
 
-        chatRef.set(chat)
-            .addOnSuccessListener(aVoid -> {
-                List<CompletableFuture<Void>> futures = new ArrayList<>();
+        // El chat y la copia en el índice de cada participante se crean juntos
+        Map<String, Object> chatData = ChatMapper.toMap(chat);
+        WriteBatch batch = firestore.batch();
+        batch.set(chatRef, chatData);
+        for (String userId : chat.getParticipantIds()) {
+            batch.set(userChatRef(userId, chatId), chatData);
+        }
+
+        batch.commit()
+            .addOnSuccessListener(aVoid -> resultFuture.complete(new Result.Success<>(chat)))
+            .addOnFailureListener(e -> resultFuture.complete(new Result.Error<>(e.getMessage())));
+
+        return resultFuture;
+    }
+
+    /**
+     * Crea el chat con el id que ya trae (p. ej. {@link Chat#directChatId}) solo si
+     * no existe. Si otro dispositivo lo creó antes, devuelve ese. El chat y las
+     * entradas de user_chats se escriben en la misma transacción.
+     */
+    public CompletableFuture<Result<Chat>> createChatIfAbsent(Chat chat) {
+        CompletableFuture<Result<Chat>> resultFuture = new CompletableFuture<>();
+        DocumentReference chatRef = firestore.collection(FirebaseCollections.CHATS).document(chat.getChatId());
+
+        Map<String, Object> chatData = ChatMapper.toMap(chat);
 
+        firestore.runTransaction(transaction -> {
+                DocumentSnapshot existing = transaction.get(chatRef);
+                if (existing.exists()) {
+                    return ChatMapper.fromSnapshot(existing);
+                }
+
+                transaction.set(chatRef, chatData);
                 for (String userId : chat.getParticipantIds()) {
-                    CompletableFuture<Void> future = new CompletableFuture<>();
-                    futures.add(future);
-
-                    DocumentReference userChatRef = firestore
-                            .collection(FirebaseCollections.USER_CHATS)
-                            .document(userId)
-                            .collection("chats")
-                            .document(chatId);
-
-                    Map<String, Object> userChatData = new HashMap<>();
-                    userChatData.put("chatId", chatId);
-                    userChatData.put("timestamp", System.currentTimeMillis());
-
-                    userChatRef.set(userChatData)
-                        .addOnSuccessListener(aVoid2 -> future.complete(null))
-                        .addOnFailureListener(future::completeExceptionally);
+                    transaction.set(userChatRef(userId, chat.getChatId()), chatData);
                 }
+                return chat;
+            })
+            .addOnSuccessListener(result -> resultFuture.complete(new Result.Success<>(result)))
+            .addOnFailureListener(e -> resultFuture.complete(new Result.Error<>(e.getMessage())));
 
-                CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
-                    .thenRun(() -> resultFuture.complete(new Result.Success<>(chat)))
-                    .exceptionally(e -> {
-                        resultFuture.complete(new Result.Error<>(e.getMessage()));
-                        return null;
-                    });
+        return resultFuture;
+    }
+
+    /**
+     * Busca un chat 1:1 creado antes de los ids deterministas (id automático).
+     * Es una igualdad exacta sobre participantIds en ambos órdenes, no un recorrido
+     * de todos los chats del usuario. Sobra cuando se haya ejecutado la migración
+     * migrateDirectChatIds de las functions.
+     */
+    public CompletableFuture<Result<Chat>> findLegacyDirectChat(String userId, String otherUserId) {
+        CompletableFuture<Result<Chat>> resultFuture = new CompletableFuture<>();
+
+        firestore.collection(FirebaseCollections.CHATS)
+            .whereIn("participantIds", Arrays.asList(
+                    Arrays.asList(userId, otherUserId),
+                    Arrays.asList(otherUserId, userId)))
+            .get()
+            .addOnSuccessListener(queryDocumentSnapshots -> {
+                for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
+                    Chat chat = ChatMapper.fromSnapshot(document);
+                    if (!chat.isGroupChat()) {
+                        resultFuture.complete(new Result.Success<>(chat));
+                        return;
+                    }
+                }
+                resultFuture.complete(new Result.Error<>("Chat not found"));
             })
             .addOnFailureListener(e -> resultFuture.complete(new Result.Error<>(e.getMessage())));
 
         return resultFuture;
     }
 
+    /**
+     * Entrada del chat en el índice del usuario: user_chats/{uid}/chats/{chatId}.
+     * Guarda una copia de los campos del chat (participantes y vista previa) para
+     * que la lista de chats se lea solo de aquí. La function syncUserChats la
+     * mantiene al día con cada escritura del chat.
+     */
+    private DocumentReference userChatRef(String userId, String chatId) {
+        return firestore.collection(FirebaseCollections.USER_CHATS)
+                .document(userId)
+                .collection(FirebaseCollections.USER_CHAT_ENTRIES)
+                .document(chatId);
+    }
+
+    private Query userChatsQuery(String userId) {
+        return firestore.collection(FirebaseCollections.USER_CHATS)
+                .document(userId)
+                .collection(FirebaseCollections.USER_CHAT_ENTRIES)
+                .orderBy("lastMessageTimestamp", Query.Direction.DESCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.DESCENDING);
+    }
+
     public CompletableFuture<Result<Chat>> getChatById(String chatId) {
         CompletableFuture<Result<Chat>> resultFuture = new CompletableFuture<>();
 
         firestore.collection(FirebaseCollections.CHATS).document(chatId).get()
             .addOnSuccessListener(documentSnapshot -> {
                 if (documentSnapshot.exists()) {
-                    Chat chat = documentSnapshot.toObject(Chat.class);
+                    Chat chat = ChatMapper.fromSnapshot(documentSnapshot);
                     resultFuture.complete(new Result.Success<>(chat));
                 } else {
                     resultFuture.complete(new Result.Error<>("Chat not found"));
@@ -168,17 +398,98 @@ public class FirestoreDataSource {
         return resultFuture;
     }
 
+    /**
+     * Clave del chat cifrada para cada participante. {@code Success(null)} si el
+     * chat todavía no tiene clave propia (sigue con el esquema compartido).
+     */
+    public CompletableFuture<Result<ChatKeyRecord>> getChatKey(String chatId) {
+        CompletableFuture<Result<ChatKeyRecord>> resultFuture = new CompletableFuture<>();
+
+        chatKeyRef(chatId).get()
+            .addOnSuccessListener(decodeExecutor, snapshot -> resultFuture.complete(
+                    new Result.Success<>(snapshot.exists() ? ChatKeyMapper.fromSnapshot(snapshot) : null)))
+            .addOnFailureListener(decodeExecutor, e -> resultFuture.complete(new Result.Error<>(e.getMessage())));
+
+        return resultFuture;
+    }
+
+    /**
+     * Guarda la clave del chat si aún no existe. Si dos participantes la crean a
+     * la vez gana el primero: el resultado es {@code record} (la misma instancia)
+     * o la que ya estaba guardada.
+     */
+    public CompletableFuture<Result<ChatKeyRecord>> createChatKeyIfAbsent(String chatId, ChatKeyRecord record) {
+        CompletableFuture<Result<ChatKeyRecord>> resultFuture = new CompletableFuture<>();
+        DocumentReference keyRef = chatKeyRef(chatId);
+        Map<String, Object> keyData = ChatKeyMapper.toMap(record);
+
+        firestore.runTransaction(transaction -> {
+                DocumentSnapshot existing = transaction.get(keyRef);
+                if (existing.exists()) {
+                    return ChatKeyMapper.fromSnapshot(existing);
+                }
+                transaction.set(keyRef, keyData);
+                return record;
+            })
+            .addOnSuccessListener(decodeExecutor, result -> resultFuture.complete(new Result.Success<>(result)))
+            .addOnFailureListener(decodeExecutor, e -> resultFuture.complete(new Result.Error<>(e.getMessage())));
+
+        return resultFuture;
+    }
+
+    /**
+     * Añade la clave cifrada de participantes que aún no la tienen. Las reglas
+     * no dejan sustituir la copia de otro miembro.
+     */
+    public CompletableFuture<Result<Void>> addChatKeyWraps(String chatId, Map<String, String> wrappedKeys,
+                                                           Map<String, String> publicKeyIds) {
+        CompletableFuture<Result<Void>> resultFuture = new CompletableFuture<>();
+
+        Map<String, Object> updates = new HashMap<>();
+        for (Map.Entry<String, String> entry : wrappedKeys.entrySet()) {
+            updates.put("wrappedKeys." + entry.getKey(), entry.getValue());
+            updates.put("publicKeyIds." + entry.getKey(), publicKeyIds.get(entry.getKey()));
+        }
+
+        chatKeyRef(chatId).update(updates)
+            .addOnSuccessListener(aVoid -> resultFuture.complete(new Result.Success<>(null)))
+            .addOnFailureListener(e -> resultFuture.complete(new Result.Error<>(e.getMessage())));
+
+        return resultFuture;
+    }
+
+    /**
+     * Retira la copia propia de la clave, cifrada para una clave pública que
+     * este usuario ya no tiene; otro miembro la vuelve a cifrar después.
+     */
+    public CompletableFuture<Result<Void>> removeOwnChatKeyWrap(String chatId, String userId) {
+        CompletableFuture<Result<Void>> resultFuture = new CompletableFuture<>();
+
+        chatKeyRef(chatId)
+            .update("wrappedKeys." + userId, FieldValue.delete(),
+                    "publicKeyIds." + userId, FieldValue.delete())
+            .addOnSuccessListener(aVoid -> resultFuture.complete(new Result.Success<>(null)))
+            .addOnFailureListener(e -> resultFuture.complete(new Result.Error<>(e.getMessage())));
+
+        return resultFuture;
+    }
+
+    private DocumentReference chatKeyRef(String chatId) {
+        return firestore.collection(FirebaseCollections.CHATS)
+                .document(chatId)
+                .collection(FirebaseCollections.CHAT_KEYS)
+                .document(FirebaseCollections.CURRENT_CHAT_KEY);
+    }
+
     public CompletableFuture<Result<List<Chat>>> getUserChats(String userId) {
         CompletableFuture<Result<List<Chat>>> resultFuture = new CompletableFuture<>();
 
-        firestore.collection(FirebaseCollections.CHATS)
-            .whereArrayContains("participantIds", userId)
-            .orderBy("lastMessageTimestamp", Query.Direction.DESCENDING)
+        userChatsQuery(userId)
             .get()
             .addOnSuccessListener(queryDocumentSnapshots -> {
                 List<Chat> chats = new ArrayList<>();
                 for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
-                    Chat chat = document.toObject(Chat.class);
+                    Chat chat = ChatMapper.fromSnapshot(document);
                     chats.add(chat);
                 }
                 resultFuture.complete(new Result.Success<>(chats));
@@ -193,100 +504,174 @@ public class FirestoreDataSource {
 
         DocumentReference chatRef = firestore.collection(FirebaseCollections.CHATS).document(chatId);
 
+        chatRef.update(buildLastMessageUpdates(message))
+            .addOnSuccessListener(aVoid -> resultFuture.complete(new Result.Success<>(null)))
+            .addOnFailureListener(e -> resultFuture.complete(new Result.Error<>(e.getMessage())));
+
+        return resultFuture;
+    }
+
+    private Map<String, Object> buildLastMessageUpdates(Message message) {
         Map<String, Object> updates = new HashMap<>();
         updates.put("lastMessageContent", message.getMessageType() == 1 ? "" : message.getContent());
         updates.put("lastMessageSenderId", message.getSenderId());
-        updates.put("lastMessageSenderName", message.getSenderName() != null ? message.getSenderName() : "");
-        updates.put("lastMessageSenderEmail", message.getSenderEmail() != null ? message.getSenderEmail() : "");
+        // Se borran los campos duplicados del esquema antiguo en cuanto el chat recibe un mensaje
+        updates.put("lastMessageSenderName", FieldValue.delete());
+        updates.put("lastMessageSenderEmail", FieldValue.delete());
         updates.put("lastMessageTimestamp", FieldValue.serverTimestamp());
-        updates.put("lastMessageRead", false);
+        // Leído o no se deduce de lastReadTimestamps; el indicador antiguo también se borra
+        updates.put("lastMessageRead", FieldValue.delete());
         updates.put("lastMessageType", message.getMessageType());
+        return updates;
+    }
 
-        chatRef.update(updates)
-            .addOnSuccessListener(aVoid -> resultFuture.complete(new Result.Success<>(null)))
-            .addOnFailureListener(e -> resultFuture.complete(new Result.Error<>(e.getMessage())));
+    /**
+     * Escucha solo los {@code limit} chats más recientes del usuario; los más
+     * antiguos se piden por páginas con {@link #getUserChatsPage}. Cada snapshot
+     * deserializa únicamente los documentos que cambiaron y reutiliza el resto.
+     */
+    public ListenerRegistration addUserChatsListener(String userId, int limit, Consumer<List<Chat>> onChatsChanged) {
+        Query query = userChatsQuery(userId).limit(limit);
+        String key = userChatsKey(userId);
+
+        ListenerRegistration registration = listenerHub.<List<Chat>>subscribe(
+                key + "?limit=" + limit,
+                dispatcher -> {
+                    Map<String, Chat> decoded = new HashMap<>();
+                    return query.addSnapshotListener(decodeExecutor, (querySnapshots, error) -> {
+                        if (error != null) {
+                            dispatcher.onEvent(null, error);
+                        } else if (querySnapshots != null) {
+                            dispatcher.onEvent(decodeChats(querySnapshots, decoded), null);
+                        }
+                    });
+                },
+                (chats, error) -> {
+                    if (error == null && chats != null) {
+                        onChatsChanged.accept(chats);
+                    }
+                });
 
-        return resultFuture;
+        return track(key, registration);
     }
 
-    public ListenerRegistration addUserChatsListener(String userId, Consumer<List<Chat>> onChatsChanged) {
-        Query query = firestore.collection(FirebaseCollections.CHATS)
-                .whereArrayContains("participantIds", userId)
-                .orderBy("lastMessageTimestamp", Query.Direction.DESCENDING);
+    private List<Chat> decodeChats(QuerySnapshot snapshot, Map<String, Chat> decoded) {
+        for (DocumentChange change : snapshot.getDocumentChanges()) {
+            String chatId = change.getDocument().getId();
+            if (change.getType() == DocumentChange.Type.REMOVED) {
+                decoded.remove(chatId);
+            } else {
+                decoded.put(chatId, ChatMapper.fromSnapshot(change.getDocument()));
+            }
+        }
 
-        ListenerRegistration registration = query.addSnapshotListener((querySnapshots, error) -> {
-            if (error != null) {
-                return;
+        List<Chat> chats = new ArrayList<>(snapshot.size());
+        for (QueryDocumentSnapshot doc : snapshot) {
+            Chat chat = decoded.get(doc.getId());
+            if (chat == null) {
+                chat = ChatMapper.fromSnapshot(doc);
+                decoded.put(doc.getId(), chat);
             }
+            chats.add(chat);
+        }
+        return chats;
+    }
+
+    /**
+     * Página de chats posteriores en la lista al último ya cargado
+     * ({@code before}, {@code beforeChatId}). El id desempata: los chats con la
+     * misma marca en el borde de la página no se saltan.
+     */
+    public CompletableFuture<Result<List<Chat>>> getUserChatsPage(String userId, Date before, String beforeChatId,
+                                                                 int pageSize) {
+        CompletableFuture<Result<List<Chat>>> resultFuture = new CompletableFuture<>();
+
+        Query query = userChatsQuery(userId);
+        if (before != null && beforeChatId != null) {
+            query = query.startAfter(before, beforeChatId);
+        }
 
-            if (querySnapshots != null && !querySnapshots.isEmpty()) {
+        query.limit(pageSize)
+            .get()
+            .addOnSuccessListener(decodeExecutor, queryDocumentSnapshots -> {
                 List<Chat> chats = new ArrayList<>();
-                for (QueryDocumentSnapshot doc : querySnapshots) {
-                    Chat chat = doc.toObject(Chat.class);
-                    chats.add(chat);
+                for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
+                    chats.add(ChatMapper.fromSnapshot(document));
                 }
-                onChatsChanged.accept(chats);
-            } else {
-                onChatsChanged.accept(new ArrayList<>());
-            }
-        });
+                resultFuture.complete(new Result.Success<>(chats));
+            })
+            .addOnFailureListener(e -> resultFuture.complete(new Result.Error<>(e.getMessage())));
 
-        String listenerKey = "userChats_" + userId;
-        chatListeners.put(listenerKey, registration);
-        return registration;
+        return resultFuture;
     }
 
     public void removeUserChatsListener(String userId) {
-        String listenerKey = "userChats_" + userId;
-        ListenerRegistration registration = chatListeners.get(listenerKey);
-        if (registration != null) {
-            registration.remove();
-            chatListeners.remove(listenerKey);
-        }
+        removeSubscriptions(userChatsKey(userId));
+    }
+
+    /**
+     * Genera en local (sin red) el id que tendrá un nuevo mensaje del chat.
+     */
+    public String newMessageId(String chatId) {
+        return firestore.collection(FirebaseCollections.CHATS)
+                .document(chatId)
+                .collection(FirebaseCollections.MESSAGES)
+                .document()
+                .getId();
     }
 
     public CompletableFuture<Result<Message>> sendMessage(Message message) {
         CompletableFuture<Result<Message>> resultFuture = new CompletableFuture<>();
 
-        DocumentReference messageRef = firestore
+        CollectionReference messagesRef = firestore
                 .collection(FirebaseCollections.CHATS)
                 .document(message.getChatId())
-                .collection(FirebaseCollections.MESSAGES)
-                .document();
+                .collection(FirebaseCollections.MESSAGES);
+
+        // Un id asignado de antemano (cola de salida) hace que reintentar sea idempotente
+        DocumentReference messageRef = message.getMessageId() != null
+                ? messagesRef.document(message.getMessageId())
+                : messagesRef.document();
 
         String messageId = messageRef.getId();
         message.setMessageId(messageId);
 
-        messageRef.set(message)
-            .addOnSuccessListener(aVoid -> {
-                updateChatLastMessage(message.getChatId(), message)
-                    .thenAccept(result -> {
-                        if (result instanceof Result.Success) {
-                            resultFuture.complete(new Result.Success<>(message));
-                        } else {
-                            String errorMessage = ((Result.Error<Void>) result).getErrorMessage();
-                            resultFuture.complete(new Result.Error<>(errorMessage));
-                        }
-                    });
-            })
+        DocumentReference chatRef = firestore
+                .collection(FirebaseCollections.CHATS)
+                .document(message.getChatId());
+
+        // Mensaje y resumen del chat en un único commit atómico (un solo viaje).
+        // Las entradas de user_chats (también la del remitente) las replica
+        // syncUserChats a partir del chat, siempre completas
+        WriteBatch batch = firestore.batch();
+        batch.set(messageRef, MessageMapper.toMap(message));
+        batch.update(chatRef, buildLastMessageUpdates(message));
+
+        batch.commit()
+            .addOnSuccessListener(aVoid -> resultFuture.complete(new Result.Success<>(message)))
             .addOnFailureListener(e -> resultFuture.complete(new Result.Error<>(e.getMessage())));
 
         return resultFuture;
     }
 
     public CompletableFuture<Result<List<Message>>> getChatMessages(String chatId, int limit) {
+        return getChatMessages(chatId, limit, null);
+    }
+
+    /**
+     * Igual que {@link #getChatMessages(String, int)} pero, si {@code after} no es
+     * null, solo trae los mensajes desde ese timestamp, incluido (sincronización
+     * delta). El mensaje de la marca vuelve a llegar: quien llama deduplica por id.
+     */
+    public CompletableFuture<Result<List<Message>>> getChatMessages(String chatId, int limit, Date after) {
         CompletableFuture<Result<List<Message>>> resultFuture = new CompletableFuture<>();
 
-        firestore.collection(FirebaseCollections.CHATS)
-            .document(chatId)
-            .collection(FirebaseCollections.MESSAGES)
-            .orderBy("timestamp", Query.Direction.DESCENDING)
-            .limit(limit)
+        buildChatMessagesQuery(chatId, limit, after)
             .get()
-            .addOnSuccessListener(queryDocumentSnapshots -> {
+            .addOnSuccessListener(decodeExecutor, queryDocumentSnapshots -> {
                 List<Message> messages = new ArrayList<>();
                 for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
-                    Message message = document.toObject(Message.class);
+                    Message message = MessageMapper.fromSnapshot(document);
                     messages.add(message);
                 }
                 resultFuture.complete(new Result.Success<>(messages));
@@ -296,104 +681,306 @@ public class FirestoreDataSource {
         return resultFuture;
     }
 
+    /**
+     * Mensajes entre dos timestamps, ambos incluidos, del más reciente al más
+     * antiguo y como mucho {@code limit}.
+     */
+    public CompletableFuture<Result<List<Message>>> getChatMessagesBetween(
+            String chatId, Date newest, Date oldest, int limit) {
+        CompletableFuture<Result<List<Message>>> resultFuture = new CompletableFuture<>();
+
+        buildChatMessagesRangeQuery(chatId, newest, oldest)
+            .limit(limit)
+            .get()
+            .addOnSuccessListener(decodeExecutor, queryDocumentSnapshots -> {
+                List<Message> messages = new ArrayList<>();
+                for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
+                    messages.add(MessageMapper.fromSnapshot(document));
+                }
+                resultFuture.complete(new Result.Success<>(messages));
+            })
+            .addOnFailureListener(e -> resultFuture.complete(new Result.Error<>(e.getMessage())));
+
+        return resultFuture;
+    }
+
     public ListenerRegistration addChatMessagesListener(
             String chatId,
             int limit,
             Consumer<List<Message>> onInitialMessages,
             Consumer<Message> onNewMessages,
-            Consumer<Message> onModifiedMessages) {
+            Consumer<Message> onModifiedMessages,
+            Consumer<String> onDeletedMessages) {
+        return addChatMessagesListener(chatId, limit, null, onInitialMessages, onNewMessages,
+                onModifiedMessages, onDeletedMessages);
+    }
 
-        Query query = firestore.collection(FirebaseCollections.CHATS)
-                .document(chatId)
-                .collection(FirebaseCollections.MESSAGES)
-                .orderBy("timestamp", Query.Direction.DESCENDING)
-                .limit(limit);
+    public ListenerRegistration addChatMessagesListener(
+            String chatId,
+            int limit,
+            Date after,
+            Consumer<List<Message>> onInitialMessages,
+            Consumer<Message> onNewMessages,
+            Consumer<Message> onModifiedMessages,
+            Consumer<String> onDeletedMessages) {
 
-        ListenerRegistration registration = query.addSnapshotListener((querySnapshots, error) -> {
-            if (error != null) {
+        // Cada suscriptor arranca con la ventana completa y luego recibe solo los cambios.
+        // Se descartan change-sets repetidos o atrasados (p. ej. el que se repite al suscribirse).
+        AtomicLong lastVersion = new AtomicLong(0);
+
+        return addChatMessagesChangeListener(chatId, limit, after, changeSet -> {
+            long previous = lastVersion.get();
+            if (changeSet.getVersion() <= previous) {
+                return;
+            }
+            List<Message> window = null;
+            if (previous == 0) {
+                window = changeSet.getWindow();
+                // Repetición atrasada del hub: la ventana ya avanzó y su change-set llegará después
+                if (window == null) {
+                    return;
+                }
+            }
+            if (!lastVersion.compareAndSet(previous, changeSet.getVersion())) {
                 return;
             }
 
-            if (querySnapshots != null) {
-                if (onInitialMessages != null && !querySnapshots.isEmpty()) {
-                    List<Message> messages = new ArrayList<>();
-                    for (QueryDocumentSnapshot doc : querySnapshots) {
-                        messages.add(doc.toObject(Message.class));
-                    }
-                    onInitialMessages.accept(messages);
+            if (previous == 0) {
+                if (onInitialMessages != null) {
+                    onInitialMessages.accept(window);
                 }
+                return;
+            }
 
-                for (DocumentChange change : querySnapshots.getDocumentChanges()) {
-                    Message message = change.getDocument().toObject(Message.class);
-
-                    switch (change.getType()) {
-                        case ADDED:
-                            if (onNewMessages != null && change.getNewIndex() == 0) {
-                                onNewMessages.accept(message);
-                            }
-                            break;
-                        case MODIFIED:
-                            if (onModifiedMessages != null) {
-                                onModifiedMessages.accept(message);
-                            }
-                            break;
-                    }
+            // Los añadidos llegan del más reciente al más antiguo; se emiten en orden cronológico
+            if (onNewMessages != null) {
+                List<Message> added = changeSet.getAdded();
+                for (int i = added.size() - 1; i >= 0; i--) {
+                    onNewMessages.accept(added.get(i));
+                }
+            }
+            if (onModifiedMessages != null) {
+                for (Message message : changeSet.getModified()) {
+                    onModifiedMessages.accept(message);
+                }
+            }
+            // Los que solo salieron por el límite siguen existiendo: no se avisan
+            if (onDeletedMessages != null) {
+                for (String messageId : changeSet.getDeletedIds()) {
+                    onDeletedMessages.accept(messageId);
                 }
             }
         });
+    }
 
-        messageListeners.put(chatId, registration);
-        return registration;
+    /**
+     * Listener de mensajes que entrega {@link MessageChangeSet}: la ventana se
+     * mantiene una sola vez por consulta (compartida entre suscriptores) y cada
+     * snapshot solo deserializa los documentos que cambiaron.
+     */
+    public ListenerRegistration addChatMessagesChangeListener(
+            String chatId,
+            int limit,
+            Date after,
+            Consumer<MessageChangeSet> onChanges) {
+
+        Query query = buildChatMessagesQuery(chatId, limit, after);
+        // Misma consulta (chat, límite y marca) => mismo listener compartido
+        String queryKey = chatMessagesKey(chatId) + "?limit=" + limit
+                + "&after=" + (after != null ? after.getTime() : "");
+
+        ListenerRegistration registration = listenerHub.<MessageChangeSet>subscribe(
+                queryKey,
+                dispatcher -> {
+                    MessageWindow window = new MessageWindow(limit);
+                    return query.addSnapshotListener(decodeExecutor, (querySnapshots, error) -> {
+                        if (error != null) {
+                            dispatcher.onEvent(null, error);
+                        } else if (querySnapshots != null) {
+                            dispatcher.onEvent(window.apply(querySnapshots), null);
+                        }
+                    });
+                },
+                (changeSet, error) -> {
+                    if (error == null && changeSet != null) {
+                        onChanges.accept(changeSet);
+                    }
+                });
+
+        return track(chatMessagesKey(chatId), registration);
     }
 
-    public void removeChatMessagesListener(String chatId) {
-        ListenerRegistration registration = messageListeners.get(chatId);
-        if (registration != null) {
-            registration.remove();
-            messageListeners.remove(chatId);
+    private Query buildChatMessagesRangeQuery(String chatId, Date newest, Date oldest) {
+        return firestore.collection(FirebaseCollections.CHATS)
+                .document(chatId)
+                .collection(FirebaseCollections.MESSAGES)
+                .orderBy("timestamp", Query.Direction.DESCENDING)
+                .startAt(newest)
+                .endAt(oldest);
+    }
+
+    private Query buildChatMessagesQuery(String chatId, int limit, Date after) {
+        Query query = firestore.collection(FirebaseCollections.CHATS)
+                .document(chatId)
+                .collection(FirebaseCollections.MESSAGES)
+                .orderBy("timestamp", Query.Direction.DESCENDING);
+
+        // En orden descendente los mensajes más nuevos que la marca quedan antes
+        // del cursor. Se usa cursor y no whereGreaterThan para no perder las
+        // escrituras locales pendientes (timestamp de servidor aún sin resolver).
+        // El cursor incluye la marca: otro mensaje con el mismo timestamp que aún
+        // no se había guardado no se pierde, y el repetido se deduplica por id.
+        if (after != null) {
+            query = query.endAt(after);
         }
+
+        return query.limit(limit);
+    }
+
+    public void removeChatMessagesListener(String chatId) {
+        removeSubscriptions(chatMessagesKey(chatId));
     }
 
     public void removeAllListeners() {
-        for (ListenerRegistration registration : messageListeners.values()) {
-            registration.remove();
+        List<ListenerRegistration> all = new ArrayList<>();
+        synchronized (subscriptions) {
+            for (List<ListenerRegistration> registrations : subscriptions.values()) {
+                all.addAll(registrations);
+            }
+            subscriptions.clear();
         }
-        messageListeners.clear();
-
-        for (ListenerRegistration registration : chatListeners.values()) {
+        for (ListenerRegistration registration : all) {
             registration.remove();
         }
-        chatListeners.clear();
+    }
 
-        for (ListenerRegistration registration : userStatusListeners.values()) {
+    private ListenerRegistration track(String key, ListenerRegistration registration) {
+        synchronized (subscriptions) {
+            List<ListenerRegistration> registrations = subscriptions.get(key);
+            if (registrations == null) {
+                registrations = new ArrayList<>();
+                subscriptions.put(key, registrations);
+            }
+            registrations.add(registration);
+        }
+        // Quitar la suscripción por la vía normal también la saca del registro
+        return () -> {
+            synchronized (subscriptions) {
+                List<ListenerRegistration> registrations = subscriptions.get(key);
+                if (registrations != null) {
+                    registrations.remove(registration);
+                    if (registrations.isEmpty()) {
+                        subscriptions.remove(key);
+                    }
+                }
+            }
             registration.remove();
+        };
+    }
+
+    private void removeSubscriptions(String key) {
+        List<ListenerRegistration> registrations;
+        synchronized (subscriptions) {
+            registrations = subscriptions.remove(key);
+        }
+        if (registrations != null) {
+            for (ListenerRegistration registration : registrations) {
+                registration.remove();
+            }
         }
-        userStatusListeners.clear();
     }
 
-    public CompletableFuture<Result<List<Message>>> getChatMessagesPaginated(
-            String chatId, Date timestampCursor, int pageSize) {
+    private static String userStatusKey(String userId) {
+        return "users/" + userId;
+    }
 
-        CompletableFuture<Result<List<Message>>> resultFuture = new CompletableFuture<>();
+    private static String userChatsKey(String userId) {
+        return "userChats/" + userId;
+    }
 
-        Query query = firestore.collection(FirebaseCollections.CHATS)
-                .document(chatId)
-                .collection(FirebaseCollections.MESSAGES)
-                .orderBy("timestamp", Query.Direction.DESCENDING);
+    private static String chatMessagesKey(String chatId) {
+        return "chats/" + chatId + "/messages";
+    }
 
-        if (timestampCursor != null) {
-            query = query.startAfter(timestampCursor);
-        }
+    /**
+     * Página de mensajes anteriores a {@code cursor}, del más reciente al más
+     * antiguo.
+     */
+    public CompletableFuture<Result<MessagePage>> getMessagesBefore(
+            String chatId, DocumentSnapshot cursor, int pageSize) {
+        Query query = messagesCollection(chatId)
+                .orderBy("timestamp", Query.Direction.DESCENDING)
+                .startAfter(cursor)
+                .limit(pageSize);
+        return getMessagePage(query, pageSize, false);
+    }
+
+    /**
+     * Página de mensajes posteriores a {@code cursor}; se usa para volver a
+     * cargar páginas descartadas al bajar por la conversación.
+     */
+    public CompletableFuture<Result<MessagePage>> getMessagesAfter(
+            String chatId, DocumentSnapshot cursor, int pageSize) {
+        Query query = messagesCollection(chatId)
+                .orderBy("timestamp", Query.Direction.ASCENDING)
+                .startAfter(cursor)
+                .limit(pageSize);
+        return getMessagePage(query, pageSize, true);
+    }
 
-        query = query.limit(pageSize);
+    /**
+     * Snapshot de un mensaje para usarlo como cursor. El mensaje suele venir
+     * del listener en vivo, así que casi siempre está en la caché de Firestore.
+     */
+    public CompletableFuture<Result<DocumentSnapshot>> getMessageSnapshot(String chatId, String messageId) {
+        CompletableFuture<Result<DocumentSnapshot>> resultFuture = new CompletableFuture<>();
+        DocumentReference messageRef = messagesCollection(chatId).document(messageId);
+
+        messageRef.get(Source.CACHE)
+            .addOnSuccessListener(decodeExecutor, snapshot -> {
+                if (snapshot.exists()) {
+                    resultFuture.complete(new Result.Success<>(snapshot));
+                } else {
+                    getMessageSnapshotFromServer(messageRef, resultFuture);
+                }
+            })
+            .addOnFailureListener(decodeExecutor, e -> getMessageSnapshotFromServer(messageRef, resultFuture));
 
-        query.get().addOnSuccessListener(queryDocumentSnapshots -> {
-            List<Message> messages = new ArrayList<>();
-            for (QueryDocumentSnapshot document : queryDocumentSnapshots) {
-                Message message = document.toObject(Message.class);
-                messages.add(message);
+        return resultFuture;
+    }
+
+    private void getMessageSnapshotFromServer(
+            DocumentReference messageRef, CompletableFuture<Result<DocumentSnapshot>> resultFuture) {
+        messageRef.get(Source.SERVER)
+            .addOnSuccessListener(decodeExecutor, snapshot -> {
+                if (snapshot.exists()) {
+                    resultFuture.complete(new Result.Success<>(snapshot));
+                } else {
+                    resultFuture.complete(new Result.Error<>("Message not found"));
+                }
+            })
+            .addOnFailureListener(e -> resultFuture.complete(new Result.Error<>(e.getMessage())));
+    }
+
+    private CompletableFuture<Result<MessagePage>> getMessagePage(Query query, int pageSize, boolean ascending) {
+        CompletableFuture<Result<MessagePage>> resultFuture = new CompletableFuture<>();
+
+        query.get().addOnSuccessListener(decodeExecutor, queryDocumentSnapshots -> {
+            List<DocumentSnapshot> documents = queryDocumentSnapshots.getDocuments();
+            List<Message> messages = new ArrayList<>(documents.size());
+            for (DocumentSnapshot document : documents) {
+                messages.add(MessageMapper.fromSnapshot(document));
+            }
+            DocumentSnapshot first = documents.isEmpty() ? null : documents.get(0);
+            DocumentSnapshot last = documents.isEmpty() ? null : documents.get(documents.size() - 1);
+            if (ascending) {
+                Collections.reverse(messages);
             }
-            resultFuture.complete(new Result.Success<>(messages));
+            resultFuture.complete(new Result.Success<>(new MessagePage(
+                    messages,
+                    ascending ? last : first,
+                    ascending ? first : last,
+                    documents.size() < pageSize)));
         }).addOnFailureListener(e ->
             resultFuture.complete(new Result.Error<>(e.getMessage()))
         );
@@ -401,44 +988,33 @@ public class FirestoreDataSource {
         return resultFuture;
     }
 
+    private CollectionReference messagesCollection(String chatId) {
+        return firestore.collection(FirebaseCollections.CHATS)
+                .document(chatId)
+                .collection(FirebaseCollections.MESSAGES);
+    }
+
+    /**
+     * Marca el chat como leído para {@code userId} moviendo su marca de lectura
+     * ({@code lastReadTimestamps.<uid>}) al momento actual del servidor. Es una
+     * sola escritura sin importar cuántos mensajes haya sin leer; los mensajes
+     * con timestamp posterior a la marca son los no leídos. Solo se escribe la
+     * entrada propia de user_chats: el chat no cambia y syncUserChats no tiene
+     * que reescribir la de cada participante.
+     */
     public CompletableFuture<Result<Void>> markMessagesAsRead(String chatId, String userId) {
         CompletableFuture<Result<Void>> resultFuture = new CompletableFuture<>();
 
-        firestore.collection(FirebaseCollections.CHATS)
-            .document(chatId)
-            .update("lastMessageRead", true)
-            .addOnSuccessListener(aVoid -> {
-                firestore.collection(FirebaseCollections.CHATS)
-                    .document(chatId)
-                    .collection(FirebaseCollections.MESSAGES)
-                    .whereEqualTo("read", false)
-                    .whereNotEqualTo("senderId", userId)
-                    .get()
-                    .addOnSuccessListener(querySnapshots -> {
-                        if (querySnapshots.isEmpty()) {
-                            resultFuture.complete(new Result.Success<>(null));
-                            return;
-                        }
-
-                        List<CompletableFuture<Void>> futures = new ArrayList<>();
-                        for (QueryDocumentSnapshot doc : querySnapshots) {
-                            CompletableFuture<Void> future = new CompletableFuture<>();
-                            futures.add(future);
-
-                            doc.getReference().update("read", true)
-                                .addOnSuccessListener(a -> future.complete(null))
-                                .addOnFailureListener(future::completeExceptionally);
-                        }
+        // merge y no update: la entrada puede no existir aún (syncUserChats no ha
+        // llegado a un chat nuevo o migrado) y el update fallaría con NOT_FOUND
+        Map<String, Object> lastRead = new HashMap<>();
+        lastRead.put(userId, FieldValue.serverTimestamp());
+        Map<String, Object> updates = new HashMap<>();
+        updates.put(Chat.LAST_READ_TIMESTAMPS, lastRead);
 
-                        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
-                            .thenRun(() -> resultFuture.complete(new Result.Success<>(null)))
-                            .exceptionally(e -> {
-                                resultFuture.complete(new Result.Error<>(e.getMessage()));
-                                return null;
-                            });
-                    })
-                    .addOnFailureListener(e -> resultFuture.complete(new Result.Error<>(e.getMessage())));
-            })
+        userChatRef(userId, chatId)
+            .set(updates, SetOptions.merge())
+            .addOnSuccessListener(aVoid -> resultFuture.complete(new Result.Success<>(null)))
             .addOnFailureListener(e -> resultFuture.complete(new Result.Error<>(e.getMessage())));
 
         return resultFuture;
@@ -0,0 +1,141 @@
+package com.example.proyectoandroid.data.remote;
+
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Comparte listeners de Firestore entre pantallas. Dos suscripciones con la
+ * misma clave (misma consulta o documento) usan un único listener de red; cada
+ * snapshot se reparte a todos los suscriptores y el último se repite a los que
+ * llegan tarde. Cuando se va el último suscriptor el listener sigue vivo
+ * {@link #GRACE_PERIOD_MS} por si otra pantalla vuelve a pedirlo (rotación,
+ * navegar atrás y adelante).
+ *
+ * Los listeners reales se registran sobre {@link #executor}, así que los
+ * snapshots, la repetición y la desconexión corren en ese mismo hilo de fondo.
+ */
+class ListenerHub {
+
+    private static final long GRACE_PERIOD_MS = 5000;
+
+    private final ScheduledExecutorService executor;
+    private final Map<String, SharedListener<?>> listeners = new HashMap<>();
+
+    ListenerHub(ScheduledExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @param key    identifica la consulta; claves iguales comparten listener
+     * @param attach adjunta el listener real a Firestore (solo se llama si no hay uno activo)
+     */
+    @SuppressWarnings("unchecked")
+    synchronized <T> ListenerRegistration subscribe(
+            String key,
+            Function<EventListener<T>, ListenerRegistration> attach,
+            EventListener<T> subscriber) {
+
+        SharedListener<T> shared = (SharedListener<T>) listeners.get(key);
+        if (shared == null) {
+            SharedListener<T> created = new SharedListener<>(key);
+            listeners.put(key, created);
+            created.subscribers.add(subscriber);
+            created.registration = attach.apply(created::dispatch);
+            shared = created;
+        } else {
+            shared.cancelDetach();
+            shared.subscribers.add(subscriber);
+            shared.replayTo(subscriber);
+        }
+
+        SharedListener<T> target = shared;
+        AtomicBoolean removed = new AtomicBoolean(false);
+        return () -> {
+            if (removed.compareAndSet(false, true)) {
+                unsubscribe(target, subscriber);
+            }
+        };
+    }
+
+    private synchronized <T> void unsubscribe(SharedListener<T> shared, EventListener<T> subscriber) {
+        shared.subscribers.remove(subscriber);
+        if (shared.subscribers.isEmpty()) {
+            shared.scheduleDetach();
+        }
+    }
+
+    private synchronized void detach(SharedListener<?> shared) {
+        if (!shared.subscribers.isEmpty() || listeners.get(shared.key) != shared) {
+            return;
+        }
+        listeners.remove(shared.key);
+        if (shared.registration != null) {
+            shared.registration.remove();
+        }
+    }
+
+    // Tras un error Firestore cierra el listener: se olvida para que el próximo suscriptor lo recree
+    private synchronized void forget(SharedListener<?> shared) {
+        if (listeners.get(shared.key) == shared) {
+            listeners.remove(shared.key);
+        }
+    }
+
+    private class SharedListener<T> {
+        final String key;
+        final List<EventListener<T>> subscribers = new CopyOnWriteArrayList<>();
+        ListenerRegistration registration;
+        private volatile T lastValue;
+        private ScheduledFuture<?> pendingDetach;
+
+        SharedListener(String key) {
+            this.key = key;
+        }
+
+        void dispatch(T value, FirebaseFirestoreException error) {
+            if (error != null) {
+                forget(this);
+            } else {
+                lastValue = value;
+            }
+            for (EventListener<T> subscriber : subscribers) {
+                subscriber.onEvent(value, error);
+            }
+        }
+
+        void replayTo(EventListener<T> subscriber) {
+            T value = lastValue;
+            if (value != null) {
+                executor.execute(() -> {
+                    if (subscribers.contains(subscriber)) {
+                        subscriber.onEvent(value, null);
+                    }
+                });
+            }
+        }
+
+        // Siempre se llama con el lock del hub tomado
+        void scheduleDetach() {
+            cancelDetach();
+            pendingDetach = executor.schedule(() -> detach(this), GRACE_PERIOD_MS, TimeUnit.MILLISECONDS);
+        }
+
+        void cancelDetach() {
+            if (pendingDetach != null) {
+                pendingDetach.cancel(false);
+                pendingDetach = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.proyectoandroid.data.remote;
+
+import com.example.proyectoandroid.data.mapper.MessageMapper;
+import com.example.proyectoandroid.data.model.Message;
+import com.example.proyectoandroid.data.model.MessageChangeSet;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Ventana de mensajes de un listener, mantenida aplicando solo los
+ * {@link DocumentChange} de cada snapshot. Solo se deserializan los documentos
+ * que cambiaron; los demás se reutilizan del snapshot anterior.
+ *
+ * Los índices de los cambios son relativos a la ventana tras aplicar los
+ * cambios anteriores, por eso se aplican en el orden en que llegan. Cada
+ * snapshot publica solo lo que cambió: la ventana completa se copia únicamente
+ * cuando alguien la pide ({@link MessageChangeSet#getWindow()}).
+ */
+class MessageWindow {
+
+    private final int limit;
+    // Indexada por la posición que da Firestore en cada DocumentChange
+    private final List<Message> messages = new ArrayList<>();
+    private long version;
+
+    MessageWindow(int limit) {
+        this.limit = limit;
+    }
+
+    synchronized MessageChangeSet apply(QuerySnapshot snapshot) {
+        List<Message> added = new ArrayList<>();
+        List<Message> modified = new ArrayList<>();
+        List<Message> removed = new ArrayList<>();
+
+        for (DocumentChange change : snapshot.getDocumentChanges()) {
+            switch (change.getType()) {
+                case ADDED: {
+                    Message message = MessageMapper.fromSnapshot(change.getDocument());
+                    messages.add(change.getNewIndex(), message);
+                    added.add(message);
+                    break;
+                }
+                case MODIFIED: {
+                    Message message = MessageMapper.fromSnapshot(change.getDocument());
+                    if (change.getOldIndex() == change.getNewIndex()) {
+                        messages.set(change.getNewIndex(), message);
+                    } else {
+                        messages.remove(change.getOldIndex());
+                        messages.add(change.getNewIndex(), message);
+                    }
+                    modified.add(message);
+                    break;
+                }
+                case REMOVED: {
+                    Message message = messages.remove(change.getOldIndex());
+                    removed.add(message);
+                    break;
+                }
+            }
+        }
+
+        List<String> removedIds = new ArrayList<>(removed.size());
+        List<String> deletedIds = new ArrayList<>();
+        for (Message message : removed) {
+            removedIds.add(message.getMessageId());
+            if (!pushedOut(message)) {
+                deletedIds.add(message.getMessageId());
+            }
+        }
+
+        version++;
+        long snapshotVersion = version;
+        return new MessageChangeSet(snapshotVersion, () -> copy(snapshotVersion),
+                added, modified, removedIds, deletedIds, snapshot.getMetadata().isFromCache());
+    }
+
+    // Con la ventana llena, lo que sale por el final (no más nuevo que el más
+    // antiguo que queda) lo empujaron mensajes nuevos; cualquier otra salida es
+    // un borrado, porque Firestore rellena el hueco con el siguiente más antiguo
+    private boolean pushedOut(Message message) {
+        if (messages.size() < limit || messages.isEmpty()) {
+            return false;
+        }
+        Date oldest = messages.get(messages.size() - 1).getTimestamp();
+        Date timestamp = message.getTimestamp();
+        return oldest != null && timestamp != null && !timestamp.after(oldest);
+    }
+
+    // Null si la ventana ya avanzó: p. ej. la repetición atrasada de un change-set viejo
+    private synchronized List<Message> copy(long expectedVersion) {
+        if (expectedVersion != version) {
+            return null;
+        }
+        return Collections.unmodifiableList(new ArrayList<>(messages));
+    }
+}
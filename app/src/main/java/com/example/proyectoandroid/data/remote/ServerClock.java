@@ -0,0 +1,25 @@
+package com.example.proyectoandroid.data.remote;
+
+/**
+ * Hora estimada del servidor de Firestore. Los latidos de presencia se
+ * escriben con la hora del servidor, así que el lector tiene que compararlos
+ * con esa misma hora y no con su propio reloj, que puede ir desfasado.
+ *
+ * El desfase se mide con las propias escrituras de presencia: al confirmarse,
+ * la caché local ya tiene el timestamp que resolvió el servidor y se compara
+ * con la hora local a mitad del viaje de ida y vuelta.
+ */
+public final class ServerClock {
+
+    private static volatile long offsetMs;
+
+    private ServerClock() {}
+
+    public static long now() {
+        return System.currentTimeMillis() + offsetMs;
+    }
+
+    static void observe(long serverMillis, long sentAtMs, long ackedAtMs) {
+        offsetMs = serverMillis - (sentAtMs + ackedAtMs) / 2;
+    }
+}
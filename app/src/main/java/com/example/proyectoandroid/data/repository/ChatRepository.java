@@ -5,6 +5,7 @@ import com.example.proyectoandroid.data.model.User;
 import com.example.proyectoandroid.utils.Result;
 import com.google.firebase.firestore.ListenerRegistration;
 
+import java.util.Date;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
@@ -19,9 +20,11 @@ public interface ChatRepository {
 
     CompletableFuture<Result<List<Chat>>> getCurrentUserChats();
 
+    CompletableFuture<Result<List<Chat>>> getCurrentUserChatsPage(Date before, String beforeChatId, int pageSize);
+
     CompletableFuture<Result<Chat>> findDirectChat(String otherUserId);
 
-    ListenerRegistration addUserChatsListener(Consumer<List<Chat>> onChatsChanged);
+    ListenerRegistration addUserChatsListener(int limit, Consumer<List<Chat>> onChatsChanged);
 
     void removeUserChatsListener();
 
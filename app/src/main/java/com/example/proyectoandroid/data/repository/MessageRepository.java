@@ -3,10 +3,11 @@ package com.example.proyectoandroid.data.repository;
 import android.content.Context;
 import android.net.Uri;
 import com.example.proyectoandroid.data.model.Message;
+import com.example.proyectoandroid.data.model.MessagePage;
 import com.example.proyectoandroid.utils.Result;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.ListenerRegistration;
 
-import java.util.Date;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
@@ -21,7 +22,11 @@ public interface MessageRepository {
 
     CompletableFuture<Result<List<Message>>> getChatMessages(String chatId, int limit);
 
-    CompletableFuture<Result<List<Message>>> getChatMessagesPaginated(String chatId, Date lastMessageTimestamp, int pageSize);
+    CompletableFuture<Result<MessagePage>> getOlderMessages(String chatId, DocumentSnapshot cursor, int pageSize);
+
+    CompletableFuture<Result<MessagePage>> getNewerMessages(String chatId, DocumentSnapshot cursor, int pageSize);
+
+    CompletableFuture<Result<DocumentSnapshot>> getMessageCursor(String chatId, String messageId);
 
     CompletableFuture<Result<Void>> markMessagesAsRead(String chatId);
 
@@ -30,7 +35,16 @@ public interface MessageRepository {
             int limit,
             Consumer<List<Message>> onInitialMessages,
             Consumer<Message> onNewMessage,
-            Consumer<Message> onModifiedMessage);
+            Consumer<Message> onModifiedMessage,
+            Consumer<String> onDeletedMessage);
+
+    /**
+     * Mensajes propios del chat que no se pudieron enviar; se vuelve a llamar
+     * cada vez que la lista cambia.
+     */
+    ListenerRegistration addFailedMessagesListener(String chatId, Consumer<List<Message>> onFailedMessages);
+
+    void retryMessage(String chatId, String messageId);
 
     void removeChatMessagesListener(String chatId);
 
@@ -4,6 +4,7 @@ import android.content.Context;
 import android.util.Log;
 import com.example.proyectoandroid.data.local.SessionManager;
 import com.example.proyectoandroid.data.model.User;
+import com.example.proyectoandroid.data.presence.PresenceService;
 import com.example.proyectoandroid.data.remote.FirebaseAuthDataSource;
 import com.example.proyectoandroid.data.remote.FirestoreDataSource;
 import com.example.proyectoandroid.data.repository.AuthRepository;
@@ -17,14 +18,17 @@ public class AuthRepositoryImpl implements AuthRepository {
     private final FirebaseAuthDataSource authDataSource;
     private final FirestoreDataSource firestoreDataSource;
     private final SessionManager sessionManager;
+    private final PresenceService presenceService;
     private Context context;
 
     public AuthRepositoryImpl(FirebaseAuthDataSource authDataSource,
                               FirestoreDataSource firestoreDataSource,
-                              SessionManager sessionManager) {
+                              SessionManager sessionManager,
+                              PresenceService presenceService) {
         this.authDataSource = authDataSource;
         this.firestoreDataSource = firestoreDataSource;
         this.sessionManager = sessionManager;
+        this.presenceService = presenceService;
         this.context = sessionManager.getContext();
     }
 
@@ -72,15 +76,10 @@ public class AuthRepositoryImpl implements AuthRepository {
                         NotificationManager notificationManager = new NotificationManager(context);
                         notificationManager.registerUserForNotifications(user.getUid());
 
-                        firestoreDataSource.updateUserOnlineStatus(user.getUid(), true)
-                                .thenRun(() -> {
-                                    user.setOnline(true);
-                                    sessionManager.saveUserSession(user);
-                                })
-                                .exceptionally(throwable -> {
-                                    Log.w(TAG, "No se pudo actualizar estado online: " + throwable.getMessage());
-                                    return null;
-                                });
+                        // La presencia (en línea + latido) la gestiona el servicio de presencia
+                        presenceService.onSignedIn();
+                        user.setOnline(true);
+                        sessionManager.saveUserSession(user);
 
                         resultFuture.complete(result);
                     } else {
@@ -116,7 +115,7 @@ public class AuthRepositoryImpl implements AuthRepository {
             NotificationManager notificationManager = new NotificationManager(context);
             notificationManager.unregisterUserFromNotifications(currentUser.getUid());
 
-            firestoreDataSource.updateUserOnlineStatus(currentUser.getUid(), false)
+            presenceService.onSigningOut(currentUser.getUid())
                     .exceptionally(throwable -> {
                         Log.w(TAG, "Error al actualizar estado offline: " + throwable.getMessage());
                         return null;
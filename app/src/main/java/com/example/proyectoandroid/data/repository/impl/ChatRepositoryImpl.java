@@ -8,6 +8,7 @@ import com.example.proyectoandroid.data.repository.ChatRepository;
 import com.example.proyectoandroid.utils.Result;
 import com.google.firebase.firestore.ListenerRegistration;
 
+import java.util.Date;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
@@ -16,7 +17,6 @@ public class ChatRepositoryImpl implements ChatRepository {
 
     private final FirestoreDataSource firestoreDataSource;
     private final AuthRepository authRepository;
-    private ListenerRegistration userChatsListener;
 
     public ChatRepositoryImpl(FirestoreDataSource firestoreDataSource, AuthRepository authRepository) {
         this.firestoreDataSource = firestoreDataSource;
@@ -37,8 +37,11 @@ public class ChatRepositoryImpl implements ChatRepository {
                     return;
                 }
 
+                // Id determinista + transacción: dos toques simultáneos (o los dos
+                // usuarios a la vez) acaban en el mismo chat
                 Chat newChat = new Chat(currentUser.getUid(), otherUserId);
-                firestoreDataSource.createChat(newChat).thenAccept(resultFuture::complete);
+                newChat.setChatId(Chat.directChatId(currentUser.getUid(), otherUserId));
+                firestoreDataSource.createChatIfAbsent(newChat).thenAccept(resultFuture::complete);
             }
         });
 
@@ -76,57 +79,48 @@ public class ChatRepositoryImpl implements ChatRepository {
     }
 
     @Override
-    public CompletableFuture<Result<Chat>> findDirectChat(String otherUserId) {
-        CompletableFuture<Result<Chat>> resultFuture = new CompletableFuture<>();
-
+    public CompletableFuture<Result<List<Chat>>> getCurrentUserChatsPage(Date before, String beforeChatId, int pageSize) {
         User currentUser = authRepository.getCurrentUser();
         if (currentUser == null) {
-            resultFuture.complete(new Result.Error<>("User not logged in"));
-            return resultFuture;
+            return CompletableFuture.completedFuture(new Result.Error<>("User not logged in"));
         }
 
-        firestoreDataSource.getUserChats(currentUser.getUid())
-            .thenAccept(result -> {
-                if (result instanceof Result.Success) {
-                    List<Chat> chats = ((Result.Success<List<Chat>>) result).getData();
-
-                    for (Chat chat : chats) {
-                        if (!chat.isGroupChat() && chat.getParticipantIds().size() == 2
-                                && chat.getParticipantIds().contains(otherUserId)
-                                && chat.getParticipantIds().contains(currentUser.getUid())) {
-                            resultFuture.complete(new Result.Success<>(chat));
-                            return;
-                        }
-                    }
-
-                    resultFuture.complete(new Result.Error<>("Chat not found"));
-                } else {
-                    String errorMsg = ((Result.Error<List<Chat>>) result).getErrorMessage();
-                    resultFuture.complete(new Result.Error<>(errorMsg));
-                }
-            });
+        return firestoreDataSource.getUserChatsPage(currentUser.getUid(), before, beforeChatId, pageSize);
+    }
 
-        return resultFuture;
+    @Override
+    public CompletableFuture<Result<Chat>> findDirectChat(String otherUserId) {
+        User currentUser = authRepository.getCurrentUser();
+        if (currentUser == null) {
+            return CompletableFuture.completedFuture(new Result.Error<>("User not logged in"));
+        }
+
+        String directChatId = Chat.directChatId(currentUser.getUid(), otherUserId);
+        return firestoreDataSource.getChatById(directChatId).thenCompose(result -> {
+            if (result instanceof Result.Success) {
+                return CompletableFuture.completedFuture(result);
+            }
+            // Chats 1:1 anteriores a los ids deterministas
+            return firestoreDataSource.findLegacyDirectChat(currentUser.getUid(), otherUserId);
+        });
     }
 
     @Override
-    public ListenerRegistration addUserChatsListener(Consumer<List<Chat>> onChatsChanged) {
+    public ListenerRegistration addUserChatsListener(int limit, Consumer<List<Chat>> onChatsChanged) {
         User currentUser = authRepository.getCurrentUser();
         if (currentUser == null) {
             return null;
         }
 
-        removeUserChatsListener();
-
-        userChatsListener = firestoreDataSource.addUserChatsListener(currentUser.getUid(), onChatsChanged);
-        return userChatsListener;
+        // Varias pantallas pueden escuchar a la vez; comparten el mismo listener de red
+        return firestoreDataSource.addUserChatsListener(currentUser.getUid(), limit, onChatsChanged);
     }
 
     @Override
     public void removeUserChatsListener() {
-        if (userChatsListener != null) {
-            userChatsListener.remove();
-            userChatsListener = null;
+        User currentUser = authRepository.getCurrentUser();
+        if (currentUser != null) {
+            firestoreDataSource.removeUserChatsListener(currentUser.getUid());
         }
     }
 
@@ -5,15 +5,18 @@ import android.net.Uri;
 import android.util.Log;
 
 import com.example.proyectoandroid.data.model.Message;
+import com.example.proyectoandroid.data.model.MessagePage;
 import com.example.proyectoandroid.data.model.User;
 import com.example.proyectoandroid.data.remote.FirebaseStorageDataSource;
 import com.example.proyectoandroid.data.remote.FirestoreDataSource;
 import com.example.proyectoandroid.data.repository.AuthRepository;
 import com.example.proyectoandroid.data.repository.MessageRepository;
+import com.example.proyectoandroid.data.sync.MessageSyncEngine;
+import com.example.proyectoandroid.data.sync.OutboxDispatcher;
 import com.example.proyectoandroid.utils.Result;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.ListenerRegistration;
 
-import java.util.Date;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
@@ -23,14 +26,20 @@ public class MessageRepositoryImpl implements MessageRepository {
     private static final String TAG = "MessageRepositoryImpl";
     private final FirestoreDataSource firestoreDataSource;
     private final FirebaseStorageDataSource storageDataSource;
+    private final MessageSyncEngine syncEngine;
+    private final OutboxDispatcher outboxDispatcher;
     private final AuthRepository authRepository;
 
     public MessageRepositoryImpl(
             FirestoreDataSource firestoreDataSource,
             FirebaseStorageDataSource storageDataSource,
+            MessageSyncEngine syncEngine,
+            OutboxDispatcher outboxDispatcher,
             AuthRepository authRepository) {
         this.firestoreDataSource = firestoreDataSource;
         this.storageDataSource = storageDataSource;
+        this.syncEngine = syncEngine;
+        this.outboxDispatcher = outboxDispatcher;
         this.authRepository = authRepository;
     }
 
@@ -50,8 +59,11 @@ public class MessageRepositoryImpl implements MessageRepository {
                 0,         // messageType: 0 para texto
                 null       // imageUrl: null para texto
         );
+        // En Firestore solo viajan senderId y la versión de perfil; el nombre se resuelve al pintar
+        message.setSenderProfileVersion(currentUser.getProfileVersion());
 
-        return firestoreDataSource.sendMessage(message);
+        // Se persiste en la cola de salida antes de enviarse; sobrevive a cortes de red
+        return outboxDispatcher.enqueue(message);
     }
 
     @Override
@@ -70,8 +82,9 @@ public class MessageRepositoryImpl implements MessageRepository {
                 1,         // messageType: 1 para imagen
                 imageUrl   // imageUrl para imagen
         );
+        message.setSenderProfileVersion(currentUser.getProfileVersion());
 
-        return firestoreDataSource.sendMessage(message);
+        return outboxDispatcher.enqueue(message);
     }
 
     @Override
@@ -89,25 +102,20 @@ public class MessageRepositoryImpl implements MessageRepository {
             return resultFuture;
         }
 
-        storageDataSource.uploadImage(context, imageUri, chatId)
-                .thenApply(result -> {
-                    if (result instanceof Result.Success) {
-                        String imageUrl = ((Result.Success<String>) result).getData();
-                        Log.d(TAG, "Image uploaded successfully: " + imageUrl);
-
-                        return sendImageMessage(chatId, imageUrl);
-                    } else {
-                        String errorMessage = ((Result.Error<String>) result).getErrorMessage();
-                        Log.e(TAG, "Failed to upload image: " + errorMessage);
-                        resultFuture.complete(new Result.Error<>(errorMessage));
-                        return null;
-                    }
-                })
-                .thenAccept(messageFuture -> {
-                    if (messageFuture != null) {
-                        messageFuture.thenAccept(resultFuture::complete);
-                    }
-                })
+        Message message = new Message(
+                chatId,
+                currentUser.getUid(),
+                currentUser.getDisplayName(),
+                currentUser.getEmail(),
+                "",        // content vacío para imágenes
+                1,         // messageType: 1 para imagen
+                null       // imageUrl: se rellena tras la subida
+        );
+        message.setSenderProfileVersion(currentUser.getProfileVersion());
+
+        // La imagen se copia a la cola de salida; la subida y el envío se reintentan desde ahí
+        outboxDispatcher.enqueueImage(message, imageUri)
+                .thenAccept(resultFuture::complete)
                 .exceptionally(e -> {
                     Log.e(TAG, "Error uploading and sending image", e);
                     resultFuture.complete(new Result.Error<>(e.getMessage()));
@@ -119,12 +127,22 @@ public class MessageRepositoryImpl implements MessageRepository {
 
     @Override
     public CompletableFuture<Result<List<Message>>> getChatMessages(String chatId, int limit) {
-        return firestoreDataSource.getChatMessages(chatId, limit);
+        return syncEngine.fetch(chatId, limit);
     }
 
     @Override
-    public CompletableFuture<Result<List<Message>>> getChatMessagesPaginated(String chatId, Date lastMessageTimestamp, int pageSize) {
-        return firestoreDataSource.getChatMessagesPaginated(chatId, lastMessageTimestamp, pageSize);
+    public CompletableFuture<Result<MessagePage>> getOlderMessages(String chatId, DocumentSnapshot cursor, int pageSize) {
+        return firestoreDataSource.getMessagesBefore(chatId, cursor, pageSize);
+    }
+
+    @Override
+    public CompletableFuture<Result<MessagePage>> getNewerMessages(String chatId, DocumentSnapshot cursor, int pageSize) {
+        return firestoreDataSource.getMessagesAfter(chatId, cursor, pageSize);
+    }
+
+    @Override
+    public CompletableFuture<Result<DocumentSnapshot>> getMessageCursor(String chatId, String messageId) {
+        return firestoreDataSource.getMessageSnapshot(chatId, messageId);
     }
 
     @Override
@@ -143,17 +161,30 @@ public class MessageRepositoryImpl implements MessageRepository {
             int limit,
             Consumer<List<Message>> onInitialMessages,
             Consumer<Message> onNewMessage,
-            Consumer<Message> onModifiedMessage) {
+            Consumer<Message> onModifiedMessage,
+            Consumer<String> onDeletedMessage) {
 
-        return firestoreDataSource.addChatMessagesListener(
+        // Pinta el caché local y solo pide a Firestore lo posterior a la marca de agua
+        return syncEngine.listen(
                 chatId,
                 limit,
                 onInitialMessages,
                 onNewMessage,
-                onModifiedMessage
+                onModifiedMessage,
+                onDeletedMessage
         );
     }
 
+    @Override
+    public ListenerRegistration addFailedMessagesListener(String chatId, Consumer<List<Message>> onFailedMessages) {
+        return outboxDispatcher.addFailedMessagesListener(chatId, onFailedMessages);
+    }
+
+    @Override
+    public void retryMessage(String chatId, String messageId) {
+        outboxDispatcher.retry(chatId, messageId);
+    }
+
     @Override
     public void removeChatMessagesListener(String chatId) {
         firestoreDataSource.removeChatMessagesListener(chatId);
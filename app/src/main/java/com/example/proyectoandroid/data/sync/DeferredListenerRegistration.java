@@ -0,0 +1,42 @@
+package com.example.proyectoandroid.data.sync;
+
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ListenerRegistration que se devuelve de inmediato aunque los listeners reales
+ * de Firestore se adjunten más tarde (por ejemplo, tras leer el estado local).
+ * Se pueden adjuntar varios; {@link #remove()} los quita todos, y si se llama
+ * antes de adjuntarlos, se descartan en cuanto lleguen.
+ */
+public class DeferredListenerRegistration implements ListenerRegistration {
+
+    private final List<ListenerRegistration> delegates = new ArrayList<>();
+    private boolean removed;
+
+    public synchronized void attach(ListenerRegistration registration) {
+        if (registration == null) {
+            return;
+        }
+        if (removed) {
+            registration.remove();
+        } else {
+            delegates.add(registration);
+        }
+    }
+
+    public synchronized boolean isRemoved() {
+        return removed;
+    }
+
+    @Override
+    public synchronized void remove() {
+        removed = true;
+        for (ListenerRegistration delegate : delegates) {
+            delegate.remove();
+        }
+        delegates.clear();
+    }
+}
@@ -0,0 +1,338 @@
+package com.example.proyectoandroid.data.sync;
+
+import android.util.Log;
+
+import com.example.proyectoandroid.data.local.MessageLocalDataSource;
+import com.example.proyectoandroid.data.model.Message;
+import com.example.proyectoandroid.data.remote.FirestoreDataSource;
+import com.example.proyectoandroid.utils.Result;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Sincroniza los mensajes de un chat entre el almacén local y Firestore.
+ *
+ * Por cada chat se guarda una marca de agua (timestamp del mensaje más nuevo ya
+ * almacenado). Al reabrir el chat se pinta el caché local y a Firestore solo se
+ * le piden los mensajes desde la marca (incluida); el listener en vivo se
+ * adjunta desde ese mismo punto. Lo ya guardado no se vuelve a leer: los
+ * mensajes no se editan ni se borran, y el listener en vivo ve los cambios de
+ * su propio tramo.
+ *
+ * Todas las emisiones de {@link #listen} salen del hilo de los listeners
+ * ({@link FirestoreDataSource#listenerExecutor()}), en orden.
+ */
+public class MessageSyncEngine {
+
+    private static final String TAG = "MessageSyncEngine";
+    // Páginas que se piden para cerrar un hueco antes de dar por perdida la parte antigua
+    private static final int MAX_BACKFILL_PAGES = 4;
+
+    private final FirestoreDataSource firestoreDataSource;
+    private final MessageLocalDataSource localDataSource;
+
+    public MessageSyncEngine(FirestoreDataSource firestoreDataSource, MessageLocalDataSource localDataSource) {
+        this.firestoreDataSource = firestoreDataSource;
+        this.localDataSource = localDataSource;
+    }
+
+    /**
+     * Consulta puntual: caché local + delta remoto desde la marca de agua.
+     * Si Firestore falla se devuelve solo lo que hay en disco.
+     */
+    public CompletableFuture<Result<List<Message>>> fetch(String chatId, int limit) {
+        return loadLocalState(chatId, limit).thenCompose(state ->
+                firestoreDataSource.getChatMessages(chatId, limit, state.after())
+                        .<Result<List<Message>>>thenApply(result -> {
+                            if (result instanceof Result.Success) {
+                                List<Message> delta = ((Result.Success<List<Message>>) result).getData();
+                                return new Result.Success<>(state.apply(delta, true));
+                            }
+
+                            Log.w(TAG, "Delta remoto falló, usando caché: "
+                                    + ((Result.Error<List<Message>>) result).getErrorMessage());
+                            return new Result.Success<>(state.snapshot());
+                        }));
+    }
+
+    /**
+     * Emite primero el caché local y después adjunta el listener en vivo desde
+     * la marca de agua. Los callbacks mantienen el contrato de
+     * {@link FirestoreDataSource#addChatMessagesListener}.
+     */
+    public ListenerRegistration listen(
+            String chatId,
+            int limit,
+            Consumer<List<Message>> onInitialMessages,
+            Consumer<Message> onNewMessage,
+            Consumer<Message> onModifiedMessage,
+            Consumer<String> onDeletedMessage) {
+
+        DeferredListenerRegistration registration = new DeferredListenerRegistration();
+
+        // El caché se emite en el mismo hilo que los listeners: nada de lo remoto
+        // puede adelantarse a él ni cruzarse con él
+        loadLocalState(chatId, limit).thenAcceptAsync(state -> {
+            if (registration.isRemoved()) {
+                return;
+            }
+
+            List<Message> cached = state.snapshot();
+            if (!cached.isEmpty() && onInitialMessages != null) {
+                onInitialMessages.accept(cached);
+            }
+
+            ListenerRegistration remote = firestoreDataSource.addChatMessagesListener(
+                    chatId,
+                    limit,
+                    state.after(),
+                    window -> {
+                        List<Message> merged = state.apply(window, false);
+                        if (onInitialMessages != null) {
+                            onInitialMessages.accept(merged);
+                        }
+                    },
+                    message -> {
+                        state.store(message);
+                        if (onNewMessage != null) {
+                            onNewMessage.accept(message);
+                        }
+                    },
+                    message -> {
+                        state.store(message);
+                        if (onModifiedMessage != null) {
+                            onModifiedMessage.accept(message);
+                        }
+                    },
+                    messageId -> {
+                        state.remove(messageId);
+                        if (onDeletedMessage != null) {
+                            onDeletedMessage.accept(messageId);
+                        }
+                    });
+
+            registration.attach(remote);
+        }, firestoreDataSource.listenerExecutor());
+
+        return registration;
+    }
+
+    private CompletableFuture<SyncState> loadLocalState(String chatId, int limit) {
+        CompletableFuture<Result<List<Message>>> cachedFuture = localDataSource.getLatestMessages(chatId, limit);
+        CompletableFuture<Result<Long>> watermarkFuture = localDataSource.getWatermark(chatId);
+
+        return cachedFuture.thenCombine(watermarkFuture, (cachedResult, watermarkResult) -> {
+            List<Message> cached = cachedResult instanceof Result.Success
+                    ? ((Result.Success<List<Message>>) cachedResult).getData()
+                    : new ArrayList<>();
+            Long watermark = watermarkResult instanceof Result.Success
+                    ? ((Result.Success<Long>) watermarkResult).getData()
+                    : null;
+
+            // Sin mensajes en disco la marca no sirve: se sincroniza desde cero
+            if (cached.isEmpty()) {
+                watermark = null;
+            }
+            return new SyncState(chatId, limit, cached, watermark);
+        });
+    }
+
+    private static Date oldestTimestamp(List<Message> messages) {
+        Date oldest = null;
+        for (Message message : messages) {
+            Date timestamp = message.getTimestamp();
+            if (timestamp != null && (oldest == null || timestamp.before(oldest))) {
+                oldest = timestamp;
+            }
+        }
+        return oldest;
+    }
+
+    private static Date newestTimestamp(List<Message> messages) {
+        Date newest = null;
+        for (Message message : messages) {
+            Date timestamp = message.getTimestamp();
+            if (timestamp != null && (newest == null || timestamp.after(newest))) {
+                newest = timestamp;
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Estado de una sincronización: ventana de mensajes ya conocida y marca de
+     * agua con la que se consultó el servidor.
+     */
+    private class SyncState {
+        private final String chatId;
+        private final int limit;
+        private final Long watermark;
+        // Como mucho 2 * limit: al pasarse se recorta a los limit más recientes
+        private final Map<String, Message> window = new LinkedHashMap<>();
+        private boolean firstDelta = true;
+        // Mientras hay un hueco sin cerrar la marca no avanza: si la app muere a
+        // medias, la próxima apertura vuelve a pedir desde la marca antigua
+        private boolean gapPending;
+        private long heldWatermark = -1;
+
+        SyncState(String chatId, int limit, List<Message> cached, Long watermark) {
+            this.chatId = chatId;
+            this.limit = limit;
+            this.watermark = watermark;
+            for (Message message : cached) {
+                window.put(message.getMessageId(), message);
+            }
+        }
+
+        Date after() {
+            return watermark != null ? new Date(watermark) : null;
+        }
+
+        synchronized List<Message> snapshot() {
+            return sortedWindow();
+        }
+
+        /**
+         * Aplica un lote recibido del servidor y devuelve la ventana fusionada,
+         * del más reciente al más antiguo. El cursor incluye la marca, así que
+         * los repetidos se funden por id.
+         */
+        synchronized List<Message> apply(List<Message> delta, boolean oneShot) {
+            boolean gap = (firstDelta || oneShot) && watermark != null && !reachesWatermark(delta);
+            firstDelta = false;
+
+            for (Message message : delta) {
+                put(message);
+            }
+            if (gap) {
+                // Entre la marca y lo recibido puede faltar algo: se rellena desde
+                // el servidor en lugar de tirar el caché
+                Log.d(TAG, "Hueco detectado en " + chatId + ", rellenando desde la marca");
+                gapPending = true;
+            }
+            persist(delta);
+            if (gap) {
+                backfill(oldestTimestamp(delta), 0);
+            }
+            return sortedWindow();
+        }
+
+        synchronized void store(Message message) {
+            put(message);
+            persist(Collections.singletonList(message));
+        }
+
+        synchronized void remove(String messageId) {
+            window.remove(messageId);
+            localDataSource.deleteMessage(messageId);
+        }
+
+        // Con la página llena solo es contigua si llegó hasta la marca (incluida)
+        private boolean reachesWatermark(List<Message> delta) {
+            if (delta.size() < limit) {
+                return true;
+            }
+            // Sin ningún timestamp (todo pendiente) no hay desde dónde rellenar
+            Date oldest = oldestTimestamp(delta);
+            return oldest == null || oldest.getTime() <= watermark;
+        }
+
+        /**
+         * Pide hacia atrás, desde {@code from} hasta la marca, como mucho
+         * {@link #MAX_BACKFILL_PAGES} páginas. Si no se llega, lo guardado más
+         * antiguo que lo recibido deja de ser contiguo y se borra; si falla la
+         * red se deja todo como estaba para reintentarlo en la próxima apertura.
+         */
+        private void backfill(Date from, int page) {
+            firestoreDataSource.getChatMessagesBetween(chatId, from, new Date(watermark), limit)
+                    .thenAccept(result -> {
+                        if (!(result instanceof Result.Success)) {
+                            Log.w(TAG, "No se pudo rellenar el hueco de " + chatId + ": "
+                                    + ((Result.Error<List<Message>>) result).getErrorMessage());
+                            return;
+                        }
+                        List<Message> messages = ((Result.Success<List<Message>>) result).getData();
+                        // Quedan fuera de la ventana visible: solo se guardan
+                        localDataSource.saveMessages(messages);
+
+                        Date oldest = oldestTimestamp(messages);
+                        Date reached = oldest != null && oldest.before(from) ? oldest : from;
+                        if (messages.size() < limit || reached.getTime() <= watermark) {
+                            closeGap(null);
+                        } else if (page + 1 >= MAX_BACKFILL_PAGES || !reached.before(from)) {
+                            // Sin avance (página entera con el mismo timestamp) o demasiado lejos
+                            closeGap(reached);
+                        } else {
+                            backfill(reached, page + 1);
+                        }
+                    });
+        }
+
+        private synchronized void closeGap(Date pruneBefore) {
+            if (pruneBefore != null) {
+                Log.d(TAG, "Hueco sin cerrar en " + chatId + ", se descarta el caché anterior");
+                localDataSource.deleteMessagesBefore(chatId, pruneBefore.getTime());
+            }
+            gapPending = false;
+            if (heldWatermark >= 0) {
+                localDataSource.advanceWatermark(chatId, heldWatermark);
+                heldWatermark = -1;
+            }
+        }
+
+        private void put(Message message) {
+            if (message.getMessageId() == null) {
+                return;
+            }
+            window.put(message.getMessageId(), message);
+            if (window.size() > 2 * limit) {
+                List<Message> kept = sortedWindow();
+                window.clear();
+                for (Message keptMessage : kept) {
+                    window.put(keptMessage.getMessageId(), keptMessage);
+                }
+            }
+        }
+
+        // Los mensajes se escriben antes que la marca (mismo hilo de disco), así
+        // la marca nunca apunta por delante de lo que hay guardado.
+        private void persist(List<Message> messages) {
+            localDataSource.saveMessages(messages);
+
+            Date newest = newestTimestamp(messages);
+            if (newest == null) {
+                return;
+            }
+            if (gapPending) {
+                heldWatermark = Math.max(heldWatermark, newest.getTime());
+            } else {
+                localDataSource.advanceWatermark(chatId, newest.getTime());
+            }
+        }
+
+        private List<Message> sortedWindow() {
+            List<Message> sorted = new ArrayList<>(window.values());
+            // Más reciente primero; los pendientes (sin timestamp) van arriba
+            sorted.sort((a, b) -> {
+                Date ta = a.getTimestamp();
+                Date tb = b.getTimestamp();
+                if (ta == null && tb == null) return 0;
+                if (ta == null) return -1;
+                if (tb == null) return 1;
+                return tb.compareTo(ta);
+            });
+            if (sorted.size() > limit) {
+                sorted = new ArrayList<>(sorted.subList(0, limit));
+            }
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,468 @@
+package com.example.proyectoandroid.data.sync;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.proyectoandroid.data.crypto.ChatKey;
+import com.example.proyectoandroid.data.crypto.ChatKeyRing;
+import com.example.proyectoandroid.data.crypto.DeviceKeyStore;
+import com.example.proyectoandroid.data.local.OutboxEntry;
+import com.example.proyectoandroid.data.local.OutboxLocalDataSource;
+import com.example.proyectoandroid.data.model.Message;
+import com.example.proyectoandroid.data.remote.FirebaseStorageDataSource;
+import com.example.proyectoandroid.data.remote.FirestoreDataSource;
+import com.example.proyectoandroid.utils.CryptoUtils;
+import com.example.proyectoandroid.utils.Result;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Vacía la cola de salida ({@link OutboxLocalDataSource}) hacia Firestore.
+ *
+ * Cada mensaje se persiste antes de enviarse. Se mantienen hasta
+ * {@link #MAX_IN_FLIGHT} envíos en paralelo (Firestore los encadena por el
+ * mismo stream de escritura) y los fallos se reintentan con backoff
+ * exponencial. Al recuperar la red se reintenta todo de inmediato y los
+ * intentos vuelven a cero. Un mensaje que agota {@link #MAX_ATTEMPTS} no se
+ * borra: queda marcado como fallido hasta que el usuario lo reintenta
+ * ({@link #retry}), y la pantalla del chat lo muestra con
+ * {@link #addFailedMessagesListener}.
+ *
+ * El texto se guarda sellado con la clave del dispositivo y se cifra para el
+ * chat justo antes de enviarlo ({@link ChatKeyRing#getSendKey}). Si el chat
+ * tiene clave pero no está disponible, el mensaje espera en la cola como
+ * cualquier otro fallo: nunca se envía con el esquema compartido.
+ *
+ * El estado interno solo se toca desde el hilo {@link #scheduler}.
+ */
+public class OutboxDispatcher {
+
+    private static final String TAG = "OutboxDispatcher";
+    private static final String OUTBOX_IMAGES_FOLDER = "outbox";
+    private static final int MAX_IN_FLIGHT = 4;
+    private static final int MAX_ATTEMPTS = 10;
+    private static final long BASE_BACKOFF_MS = 2000;
+    private static final long MAX_BACKOFF_MS = 5 * 60 * 1000;
+
+    private final Context context;
+    private final FirestoreDataSource firestoreDataSource;
+    private final FirebaseStorageDataSource storageDataSource;
+    private final OutboxLocalDataSource outbox;
+    private final ChatKeyRing keyRing;
+    private final DeviceKeyStore deviceKeyStore;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Set<String> inFlight = new HashSet<>();
+    private final Map<String, CompletableFuture<Result<Message>>> pendingResults = new ConcurrentHashMap<>();
+    private final Map<String, List<Consumer<List<Message>>>> failedListeners = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> scheduledDrain;
+    private boolean readingQueue;
+    private boolean drainRequested;
+    private boolean started;
+
+    public OutboxDispatcher(Context context,
+                            FirestoreDataSource firestoreDataSource,
+                            FirebaseStorageDataSource storageDataSource,
+                            OutboxLocalDataSource outbox,
+                            ChatKeyRing keyRing,
+                            DeviceKeyStore deviceKeyStore) {
+        this.context = context.getApplicationContext();
+        this.firestoreDataSource = firestoreDataSource;
+        this.storageDataSource = storageDataSource;
+        this.outbox = outbox;
+        this.keyRing = keyRing;
+        this.deviceKeyStore = deviceKeyStore;
+    }
+
+    /**
+     * Empieza a vaciar lo que haya quedado pendiente de sesiones anteriores y
+     * escucha los cambios de conectividad.
+     */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+
+        ConnectivityManager connectivityManager = context.getSystemService(ConnectivityManager.class);
+        if (connectivityManager != null) {
+            try {
+                connectivityManager.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                    @Override
+                    public void onAvailable(Network network) {
+                        Log.d(TAG, "Red disponible, reintentando la cola de salida");
+                        outbox.resetBackoff();
+                        drain();
+                    }
+                });
+            } catch (Exception e) {
+                Log.w(TAG, "No se pudo registrar el callback de red", e);
+            }
+        }
+
+        drain();
+    }
+
+    /**
+     * Guarda el mensaje en la cola y lo envía en cuanto sea posible. El future se
+     * completa cuando Firestore confirma el envío o cuando se agotan los
+     * reintentos; en ese caso el mensaje sigue en la cola como fallido.
+     * El contenido de un mensaje de texto llega en claro.
+     */
+    public CompletableFuture<Result<Message>> enqueue(Message message) {
+        if (message.getMessageType() != 0) {
+            return enqueue(message, null, null);
+        }
+        assignId(message);
+        CompletableFuture<Result<Message>> resultFuture = new CompletableFuture<>();
+
+        // Sellar usa el Keystore: fuera del hilo que llama
+        scheduler.execute(() -> {
+            try {
+                byte[] sealed = deviceKeyStore.sealForDisk(message.getSenderId(),
+                        message.getContent().getBytes(StandardCharsets.UTF_8));
+                enqueue(message, null, sealed).thenAccept(resultFuture::complete);
+            } catch (Exception e) {
+                Log.e(TAG, "No se pudo guardar el mensaje en la cola de salida", e);
+                resultFuture.complete(new Result.Error<>(e.getMessage()));
+            }
+        });
+
+        return resultFuture;
+    }
+
+    /**
+     * Copia la imagen al almacenamiento privado (el permiso sobre la URI del
+     * selector no sobrevive al proceso) y encola el mensaje para subirla y enviarlo.
+     */
+    public CompletableFuture<Result<Message>> enqueueImage(Message message, Uri imageUri) {
+        assignId(message);
+        CompletableFuture<Result<Message>> resultFuture = new CompletableFuture<>();
+
+        scheduler.execute(() -> {
+            try {
+                File file = copyToOutbox(imageUri, message.getMessageId());
+                enqueue(message, file.getAbsolutePath(), null).thenAccept(resultFuture::complete);
+            } catch (Exception e) {
+                Log.e(TAG, "No se pudo copiar la imagen a la cola de salida", e);
+                resultFuture.complete(new Result.Error<>(e.getMessage()));
+            }
+        });
+
+        return resultFuture;
+    }
+
+    public void drain() {
+        scheduler.execute(this::drainInternal);
+    }
+
+    /**
+     * Vuelve a poner en cola un mensaje fallido.
+     */
+    public void retry(String chatId, String messageId) {
+        outbox.retry(messageId);
+        publishFailed(chatId);
+        drain();
+    }
+
+    /**
+     * Mensajes del chat que agotaron los reintentos (con
+     * {@link Message#isSendFailed()}), del más antiguo al más reciente. Se
+     * entrega la lista actual y otra cada vez que cambia.
+     */
+    public ListenerRegistration addFailedMessagesListener(String chatId, Consumer<List<Message>> onFailedMessages) {
+        List<Consumer<List<Message>>> listeners =
+                failedListeners.computeIfAbsent(chatId, id -> new CopyOnWriteArrayList<>());
+        listeners.add(onFailedMessages);
+        loadFailed(chatId).thenAccept(messages -> {
+            if (listeners.contains(onFailedMessages)) {
+                onFailedMessages.accept(messages);
+            }
+        });
+        return () -> listeners.remove(onFailedMessages);
+    }
+
+    private CompletableFuture<Result<Message>> enqueue(Message message, String localImagePath, byte[] sealedContent) {
+        assignId(message);
+        CompletableFuture<Result<Message>> resultFuture = new CompletableFuture<>();
+        pendingResults.put(message.getMessageId(), resultFuture);
+
+        OutboxEntry entry = new OutboxEntry(message, localImagePath, 0, 0, System.currentTimeMillis());
+        entry.setSealedContent(sealedContent);
+        outbox.enqueue(entry).thenAccept(result -> {
+            if (result instanceof Result.Success) {
+                drain();
+            } else {
+                pendingResults.remove(message.getMessageId());
+                resultFuture.complete(new Result.Error<>(((Result.Error<OutboxEntry>) result).getErrorMessage()));
+            }
+        });
+
+        return resultFuture;
+    }
+
+    private void assignId(Message message) {
+        if (message.getMessageId() == null) {
+            message.setMessageId(firestoreDataSource.newMessageId(message.getChatId()));
+        }
+    }
+
+    private void drainInternal() {
+        if (readingQueue) {
+            drainRequested = true;
+            return;
+        }
+
+        int capacity = MAX_IN_FLIGHT - inFlight.size();
+        if (capacity <= 0) {
+            return;
+        }
+
+        readingQueue = true;
+        outbox.getDueEntries(System.currentTimeMillis(), capacity, inFlight)
+                .thenAccept(result -> scheduler.execute(() -> {
+                    readingQueue = false;
+
+                    if (result instanceof Result.Success) {
+                        List<OutboxEntry> entries = ((Result.Success<List<OutboxEntry>>) result).getData();
+                        for (OutboxEntry entry : entries) {
+                            if (inFlight.add(entry.getMessage().getMessageId())) {
+                                dispatch(entry);
+                            }
+                        }
+                        if (entries.size() < capacity) {
+                            scheduleNextDrain();
+                        }
+                    }
+
+                    if (drainRequested) {
+                        drainRequested = false;
+                        drainInternal();
+                    }
+                }));
+    }
+
+    private void dispatch(OutboxEntry entry) {
+        CompletableFuture<Result<Message>> sendFuture;
+        if (entry.needsImageUpload()) {
+            sendFuture = uploadAndSend(entry);
+        } else if (entry.getSealedContent() != null) {
+            sendFuture = encryptAndSend(entry);
+        } else {
+            sendFuture = firestoreDataSource.sendMessage(entry.getMessage());
+        }
+
+        sendFuture
+                .exceptionally(e -> new Result.Error<>(e.getMessage()))
+                .thenAccept(result -> scheduler.execute(() -> onDispatched(entry, result)));
+    }
+
+    private CompletableFuture<Result<Message>> uploadAndSend(OutboxEntry entry) {
+        Message message = entry.getMessage();
+        Uri fileUri = Uri.fromFile(new File(entry.getLocalImagePath()));
+
+        // Con clave de chat la imagen sube cifrada; sin ella solo si el chat nunca ha tenido
+        return keyRing.getSendKey(message.getChatId())
+                .thenComposeAsync(keyResult -> {
+                    if (!(keyResult instanceof Result.Success)) {
+                        return CompletableFuture.completedFuture(new Result.Error<String>(
+                                ((Result.Error<ChatKey>) keyResult).getErrorMessage()));
+                    }
+                    ChatKey key = ((Result.Success<ChatKey>) keyResult).getData();
+                    return key != null
+                            ? storageDataSource.uploadEncryptedImage(context, fileUri, message.getChatId(), key)
+                            : storageDataSource.uploadImage(context, fileUri, message.getChatId());
+                }, scheduler)
+                .thenCompose(result -> {
+                    if (!(result instanceof Result.Success)) {
+                        String errorMessage = ((Result.Error<String>) result).getErrorMessage();
+                        return CompletableFuture.completedFuture(new Result.Error<>(errorMessage));
+                    }
+                    // La URL queda en disco antes de enviar: si el envío falla, el
+                    // reintento no vuelve a subir la imagen ni deja objetos huérfanos
+                    String imageUrl = ((Result.Success<String>) result).getData();
+                    message.setImageUrl(imageUrl);
+                    return outbox.updateImageUrl(message.getMessageId(), imageUrl)
+                            .thenCompose(ignored -> firestoreDataSource.sendMessage(message));
+                });
+    }
+
+    /**
+     * Cifra el texto sellado con la clave actual del chat y lo envía. Cada
+     * intento cifra de nuevo: el id del mensaje es fijo y el envío lo sobrescribe.
+     */
+    private CompletableFuture<Result<Message>> encryptAndSend(OutboxEntry entry) {
+        Message message = entry.getMessage();
+        return keyRing.getSendKey(message.getChatId())
+                .thenApplyAsync(keyResult -> {
+                    if (!(keyResult instanceof Result.Success)) {
+                        return new Result.Error<Message>(((Result.Error<ChatKey>) keyResult).getErrorMessage());
+                    }
+                    ChatKey key = ((Result.Success<ChatKey>) keyResult).getData();
+                    try {
+                        String plainText = openSealed(entry);
+                        message.setContent(key != null
+                                ? CryptoUtils.encrypt(plainText, key.getSecretKey(), key.getKeyId(), key.getBoundChatId())
+                                : CryptoUtils.encrypt(plainText));
+                        return new Result.Success<>(message);
+                    } catch (Exception e) {
+                        return new Result.Error<Message>(e.getMessage());
+                    }
+                }, scheduler)
+                .thenCompose(result -> result instanceof Result.Success
+                        ? firestoreDataSource.sendMessage(message)
+                        : CompletableFuture.completedFuture(result));
+    }
+
+    private String openSealed(OutboxEntry entry) throws Exception {
+        byte[] plain = deviceKeyStore.openFromDisk(entry.getMessage().getSenderId(), entry.getSealedContent());
+        return new String(plain, StandardCharsets.UTF_8);
+    }
+
+    private void onDispatched(OutboxEntry entry, Result<Message> result) {
+        String messageId = entry.getMessage().getMessageId();
+        inFlight.remove(messageId);
+
+        if (result instanceof Result.Success) {
+            outbox.remove(messageId);
+            deleteLocalImage(entry);
+            complete(messageId, result);
+        } else {
+            int attempts = entry.getAttempts() + 1;
+            String errorMessage = ((Result.Error<Message>) result).getErrorMessage();
+
+            if (attempts >= MAX_ATTEMPTS) {
+                // Se conserva (con su imagen) hasta que el usuario lo reintente
+                Log.e(TAG, "Mensaje " + messageId + " fallido tras " + attempts + " intentos: " + errorMessage);
+                outbox.markFailed(messageId, attempts);
+                publishFailed(entry.getMessage().getChatId());
+                complete(messageId, result);
+            } else {
+                long delay = backoffDelay(attempts);
+                Log.w(TAG, "Envío fallido (" + attempts + "), reintento en " + delay + " ms: " + errorMessage);
+                outbox.updateAttempt(messageId, attempts, System.currentTimeMillis() + delay);
+            }
+        }
+
+        drainInternal();
+    }
+
+    private void complete(String messageId, Result<Message> result) {
+        CompletableFuture<Result<Message>> future = pendingResults.remove(messageId);
+        if (future != null) {
+            future.complete(result);
+        }
+    }
+
+    private void publishFailed(String chatId) {
+        List<Consumer<List<Message>>> listeners = failedListeners.get(chatId);
+        if (listeners == null || listeners.isEmpty()) {
+            return;
+        }
+        loadFailed(chatId).thenAccept(messages -> {
+            for (Consumer<List<Message>> listener : listeners) {
+                listener.accept(messages);
+            }
+        });
+    }
+
+    private CompletableFuture<List<Message>> loadFailed(String chatId) {
+        return outbox.getFailedEntries(chatId).thenApply(result -> {
+            List<Message> messages = new ArrayList<>();
+            if (result instanceof Result.Success) {
+                for (OutboxEntry entry : ((Result.Success<List<OutboxEntry>>) result).getData()) {
+                    Message message = entry.getMessage();
+                    message.setSendFailed(true);
+                    if (entry.getSealedContent() != null) {
+                        // Aún sin cifrar para el chat: se muestra el texto sellado
+                        try {
+                            message.setDecryptedContent(openSealed(entry));
+                        } catch (Exception e) {
+                            Log.w(TAG, "No se pudo abrir el texto de " + message.getMessageId(), e);
+                        }
+                    }
+                    messages.add(message);
+                }
+            }
+            return messages;
+        });
+    }
+
+    private void scheduleNextDrain() {
+        outbox.getNextAttemptAt().thenAccept(result -> scheduler.execute(() -> {
+            if (!(result instanceof Result.Success)) {
+                return;
+            }
+            Long nextAttemptAt = ((Result.Success<Long>) result).getData();
+            if (nextAttemptAt == null) {
+                return;
+            }
+
+            if (scheduledDrain != null) {
+                scheduledDrain.cancel(false);
+            }
+            long delay = Math.max(0, nextAttemptAt - System.currentTimeMillis());
+            if (delay > 0) {
+                scheduledDrain = scheduler.schedule(this::drainInternal, delay, TimeUnit.MILLISECONDS);
+            }
+        }));
+    }
+
+    // Backoff exponencial con jitter: 2s, 4s, 8s... hasta 5 minutos
+    private long backoffDelay(int attempts) {
+        long delay = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempts - 1, 16));
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private File copyToOutbox(Uri imageUri, String messageId) throws Exception {
+        File folder = new File(context.getFilesDir(), OUTBOX_IMAGES_FOLDER);
+        if (!folder.exists() && !folder.mkdirs()) {
+            throw new IllegalStateException("No se pudo crear la carpeta de la cola de salida");
+        }
+
+        File file = new File(folder, messageId + ".img");
+        try (InputStream in = context.getContentResolver().openInputStream(imageUri);
+             OutputStream out = new FileOutputStream(file)) {
+            if (in == null) {
+                throw new IllegalStateException("No se pudo abrir la imagen");
+            }
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+        }
+        return file;
+    }
+
+    private void deleteLocalImage(OutboxEntry entry) {
+        if (entry.getLocalImagePath() != null) {
+            File file = new File(entry.getLocalImagePath());
+            if (file.exists() && !file.delete()) {
+                Log.w(TAG, "No se pudo borrar la copia local " + file.getName());
+            }
+        }
+    }
+}
@@ -2,7 +2,18 @@ package com.example.proyectoandroid.di;
 
 import android.content.Context;
 
+import com.example.proyectoandroid.data.UserDirectory;
+import com.example.proyectoandroid.data.crypto.ChatKeyRing;
+import com.example.proyectoandroid.data.crypto.DeviceKeyStore;
+import com.example.proyectoandroid.data.local.ChatKeyLocalDataSource;
+import com.example.proyectoandroid.data.local.ThumbnailCache;
+import com.example.proyectoandroid.data.local.ChatDatabase;
+import com.example.proyectoandroid.data.local.MessageLocalDataSource;
+import com.example.proyectoandroid.data.local.OutboxLocalDataSource;
 import com.example.proyectoandroid.data.local.SessionManager;
+import com.example.proyectoandroid.data.local.UserLocalDataSource;
+import com.example.proyectoandroid.data.presence.PresenceAggregator;
+import com.example.proyectoandroid.data.presence.PresenceService;
 import com.example.proyectoandroid.data.remote.FirebaseAuthDataSource;
 import com.example.proyectoandroid.data.remote.FirebaseStorageDataSource;
 import com.example.proyectoandroid.data.remote.FirestoreDataSource;
@@ -12,11 +23,16 @@ import com.example.proyectoandroid.data.repository.MessageRepository;
 import com.example.proyectoandroid.data.repository.impl.AuthRepositoryImpl;
 import com.example.proyectoandroid.data.repository.impl.ChatRepositoryImpl;
 import com.example.proyectoandroid.data.repository.impl.MessageRepositoryImpl;
+import com.example.proyectoandroid.data.sync.MessageSyncEngine;
+import com.example.proyectoandroid.data.sync.OutboxDispatcher;
 import com.example.proyectoandroid.domain.usecase.CreateChatUseCase;
 import com.example.proyectoandroid.domain.usecase.GetCurrentUserUseCase;
 import com.example.proyectoandroid.domain.usecase.ListUserChatsUseCase;
 import com.example.proyectoandroid.domain.usecase.ListenMessagesUseCase;
+import com.example.proyectoandroid.domain.usecase.ListenUserChatsUseCase;
 import com.example.proyectoandroid.domain.usecase.LoginUserUseCase;
+import com.example.proyectoandroid.domain.usecase.ReadReceiptScheduler;
+import com.example.proyectoandroid.utils.CryptoService;
 
 public class ServiceLocator {
     private static volatile ServiceLocator INSTANCE = null;
@@ -27,11 +43,27 @@ public class ServiceLocator {
     private FirestoreDataSource firestoreDataSource;
     private FirebaseStorageDataSource storageDataSource;
     private SessionManager sessionManager;
+    private ChatDatabase chatDatabase;
+    private MessageLocalDataSource messageLocalDataSource;
+    private MessageSyncEngine messageSyncEngine;
+    private OutboxLocalDataSource outboxLocalDataSource;
+    private OutboxDispatcher outboxDispatcher;
+    private UserLocalDataSource userLocalDataSource;
+    private UserDirectory userDirectory;
+    private PresenceAggregator presenceAggregator;
+    private PresenceService presenceService;
+    private ChatKeyLocalDataSource chatKeyLocalDataSource;
+    private DeviceKeyStore deviceKeyStore;
+    private ChatKeyRing chatKeyRing;
+    private ThumbnailCache thumbnailCache;
+    private CryptoService cryptoService;
 
     private AuthRepository authRepository;
     private ChatRepository chatRepository;
     private MessageRepository messageRepository;
 
+    private ReadReceiptScheduler readReceiptScheduler;
+
     private ServiceLocator(Context applicationContext) {
         this.applicationContext = applicationContext;
     }
@@ -81,12 +113,133 @@ public class ServiceLocator {
         return sessionManager;
     }
 
+    public ChatDatabase provideChatDatabase() {
+        if (chatDatabase == null) {
+            chatDatabase = new ChatDatabase(applicationContext);
+        }
+        return chatDatabase;
+    }
+
+    public MessageLocalDataSource provideMessageLocalDataSource() {
+        if (messageLocalDataSource == null) {
+            messageLocalDataSource = new MessageLocalDataSource(provideChatDatabase());
+        }
+        return messageLocalDataSource;
+    }
+
+    public MessageSyncEngine provideMessageSyncEngine() {
+        if (messageSyncEngine == null) {
+            messageSyncEngine = new MessageSyncEngine(
+                provideFirestoreDataSource(),
+                provideMessageLocalDataSource()
+            );
+        }
+        return messageSyncEngine;
+    }
+
+    public OutboxLocalDataSource provideOutboxLocalDataSource() {
+        if (outboxLocalDataSource == null) {
+            outboxLocalDataSource = new OutboxLocalDataSource(provideChatDatabase());
+        }
+        return outboxLocalDataSource;
+    }
+
+    public OutboxDispatcher provideOutboxDispatcher() {
+        if (outboxDispatcher == null) {
+            outboxDispatcher = new OutboxDispatcher(
+                applicationContext,
+                provideFirestoreDataSource(),
+                provideFirebaseStorageDataSource(),
+                provideOutboxLocalDataSource(),
+                provideChatKeyRing(),
+                provideDeviceKeyStore()
+            );
+        }
+        return outboxDispatcher;
+    }
+
+    public UserLocalDataSource provideUserLocalDataSource() {
+        if (userLocalDataSource == null) {
+            userLocalDataSource = new UserLocalDataSource(provideChatDatabase());
+        }
+        return userLocalDataSource;
+    }
+
+    public UserDirectory provideUserDirectory() {
+        if (userDirectory == null) {
+            userDirectory = new UserDirectory(
+                provideFirestoreDataSource(),
+                provideUserLocalDataSource()
+            );
+        }
+        return userDirectory;
+    }
+
+    public PresenceAggregator providePresenceAggregator() {
+        if (presenceAggregator == null) {
+            presenceAggregator = new PresenceAggregator(provideFirestoreDataSource());
+        }
+        return presenceAggregator;
+    }
+
+    public PresenceService providePresenceService() {
+        if (presenceService == null) {
+            presenceService = new PresenceService(
+                provideFirestoreDataSource(),
+                provideFirebaseAuthDataSource()
+            );
+        }
+        return presenceService;
+    }
+
+    public ChatKeyLocalDataSource provideChatKeyLocalDataSource() {
+        if (chatKeyLocalDataSource == null) {
+            chatKeyLocalDataSource = new ChatKeyLocalDataSource(provideChatDatabase());
+        }
+        return chatKeyLocalDataSource;
+    }
+
+    public DeviceKeyStore provideDeviceKeyStore() {
+        if (deviceKeyStore == null) {
+            deviceKeyStore = new DeviceKeyStore();
+        }
+        return deviceKeyStore;
+    }
+
+    public ChatKeyRing provideChatKeyRing() {
+        if (chatKeyRing == null) {
+            chatKeyRing = new ChatKeyRing(
+                provideFirestoreDataSource(),
+                provideChatKeyLocalDataSource(),
+                provideDeviceKeyStore(),
+                provideAuthRepository(),
+                provideSessionManager()
+            );
+        }
+        return chatKeyRing;
+    }
+
+    public ThumbnailCache provideThumbnailCache() {
+        if (thumbnailCache == null) {
+            thumbnailCache = new ThumbnailCache(applicationContext, provideDeviceKeyStore());
+        }
+        return thumbnailCache;
+    }
+
+    public CryptoService provideCryptoService() {
+        if (cryptoService == null) {
+            cryptoService = new CryptoService(provideChatKeyRing());
+        }
+        return cryptoService;
+    }
+
     public AuthRepository provideAuthRepository() {
         if (authRepository == null) {
             authRepository = new AuthRepositoryImpl(
                 provideFirebaseAuthDataSource(),
                 provideFirestoreDataSource(),
-                provideSessionManager()
+                provideSessionManager(),
+                providePresenceService()
             );
         }
         return authRepository;
@@ -107,12 +260,21 @@ public class ServiceLocator {
             messageRepository = new MessageRepositoryImpl(
                 provideFirestoreDataSource(),
                 provideFirebaseStorageDataSource(),
+                provideMessageSyncEngine(),
+                provideOutboxDispatcher(),
                 provideAuthRepository()
             );
         }
         return messageRepository;
     }
 
+    public ReadReceiptScheduler provideReadReceiptScheduler() {
+        if (readReceiptScheduler == null) {
+            readReceiptScheduler = new ReadReceiptScheduler(provideMessageRepository());
+        }
+        return readReceiptScheduler;
+    }
+
     public LoginUserUseCase provideLoginUserUseCase() {
         return new LoginUserUseCase(provideAuthRepository());
     }
@@ -129,7 +291,12 @@ public class ServiceLocator {
         return new CreateChatUseCase(provideChatRepository());
     }
 
+    public ListenUserChatsUseCase provideListenUserChatsUseCase() {
+        return new ListenUserChatsUseCase(provideChatRepository(), provideCryptoService());
+    }
+
     public ListenMessagesUseCase provideListenMessagesUseCase() {
-        return new ListenMessagesUseCase(provideMessageRepository());
+        return new ListenMessagesUseCase(provideMessageRepository(), provideReadReceiptScheduler(),
+                provideCryptoService());
     }
 }
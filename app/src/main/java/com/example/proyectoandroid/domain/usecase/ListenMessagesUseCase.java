@@ -5,7 +5,7 @@ import android.net.Uri;
 
 import com.example.proyectoandroid.data.model.Message;
 import com.example.proyectoandroid.data.repository.MessageRepository;
-import com.example.proyectoandroid.utils.CryptoUtils;
+import com.example.proyectoandroid.utils.CryptoService;
 import com.example.proyectoandroid.utils.Result;
 import com.google.firebase.firestore.ListenerRegistration;
 
@@ -13,17 +13,28 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
 public class ListenMessagesUseCase {
 
     private final MessageRepository messageRepository;
+    private final ReadReceiptScheduler readReceiptScheduler;
+    private final CryptoService cryptoService;
     private static final int DEFAULT_MESSAGE_LIMIT = 50;
     private final Map<String, ListenerRegistration> activeListeners = new HashMap<>();
+    // Solo los chats en pantalla generan marcas de lectura; del resto se recuerda
+    // el mensaje más nuevo recibido para marcarlo cuando vuelvan a verse
+    private final Set<String> visibleChats = ConcurrentHashMap.newKeySet();
+    private final Map<String, Date> newestReceived = new ConcurrentHashMap<>();
 
-    public ListenMessagesUseCase(MessageRepository messageRepository) {
+    public ListenMessagesUseCase(MessageRepository messageRepository, ReadReceiptScheduler readReceiptScheduler,
+                                 CryptoService cryptoService) {
         this.messageRepository = messageRepository;
+        this.readReceiptScheduler = readReceiptScheduler;
+        this.cryptoService = cryptoService;
     }
 
     public CompletableFuture<Result<List<Message>>> execute(String chatId) {
@@ -31,11 +42,14 @@ public class ListenMessagesUseCase {
     }
 
     public CompletableFuture<Result<List<Message>>> execute(String chatId, int limit) {
-        CompletableFuture<Result<List<Message>>> resultFuture = messageRepository.getChatMessages(chatId, limit);
-
-        messageRepository.markMessagesAsRead(chatId);
-
-        return resultFuture;
+        return messageRepository.getChatMessages(chatId, limit).thenApply(result -> {
+            if (result instanceof Result.Success) {
+                List<Message> messages = ((Result.Success<List<Message>>) result).getData();
+                decryptAll(messages);
+                requestReadReceipt(chatId, newestTimestamp(messages));
+            }
+            return result;
+        });
     }
 
     public ListenerRegistration listenForMessages(
@@ -43,32 +57,39 @@ public class ListenMessagesUseCase {
             int limit,
             Consumer<List<Message>> onInitialMessages,
             Consumer<Message> onNewMessage,
-            Consumer<Message> onMessageUpdated) {
+            Consumer<Message> onMessageUpdated,
+            Consumer<String> onMessageDeleted) {
 
         stopListeningForMessages(chatId);
 
         ListenerRegistration registration = messageRepository.addChatMessagesListener(
                 chatId,
                 limit,
+                // Las marcas de lectura se agrupan: una ráfaga de mensajes produce una sola escritura
                 messages -> {
-                    messageRepository.markMessagesAsRead(chatId);
+                    requestReadReceipt(chatId, newestTimestamp(messages));
+                    decryptAll(messages);
 
                     if (onInitialMessages != null) {
                         onInitialMessages.accept(messages);
                     }
                 },
                 message -> {
-                    messageRepository.markMessagesAsRead(chatId);
+                    // Sin timestamp es una escritura local pendiente (propia): no hay nada que marcar
+                    requestReadReceipt(chatId, message.getTimestamp());
+                    decrypt(message);
 
                     if (onNewMessage != null) {
                         onNewMessage.accept(message);
                     }
                 },
                 message -> {
+                    decrypt(message);
                     if (onMessageUpdated != null) {
                         onMessageUpdated.accept(message);
                     }
-                }
+                },
+                onMessageDeleted
         );
 
         activeListeners.put(chatId, registration);
@@ -76,12 +97,36 @@ public class ListenMessagesUseCase {
         return registration;
     }
 
+    /**
+     * Abre una ventana paginada del chat: la página más reciente llega en vivo
+     * (con las mismas marcas de lectura que {@link #listenForMessages}) y las
+     * anteriores se piden con {@link MessagePager#loadOlder()}. Los mensajes
+     * propios que no se pudieron enviar aparecen arriba del todo.
+     */
+    public MessagePager openPager(String chatId, int pageSize, Consumer<MessagePager.Window> onWindow) {
+        MessagePager pager = new MessagePager(chatId, pageSize, messageRepository, this::decryptAll, onWindow);
+        pager.attach(messageRepository.addFailedMessagesListener(chatId, messages -> {
+            decryptAll(messages);
+            pager.onFailedMessages(messages);
+        }));
+        // La clave del chat se carga antes de escuchar: el primer snapshot ya se descifra con ella
+        cryptoService.loadChatKey(chatId).whenComplete((key, error) -> pager.attach(listenForMessages(
+                chatId,
+                pageSize,
+                pager::onLiveWindow,
+                pager::onLiveMessage,
+                pager::onLiveMessage,
+                pager::onLiveDeleted)));
+        return pager;
+    }
+
     public com.google.firebase.firestore.ListenerRegistration listenForMessagesWithoutMarkingAsRead(
             String chatId,
             int limit,
             java.util.function.Consumer<java.util.List<com.example.proyectoandroid.data.model.Message>> onInitialMessages,
             java.util.function.Consumer<com.example.proyectoandroid.data.model.Message> onNewMessage,
-            java.util.function.Consumer<com.example.proyectoandroid.data.model.Message> onMessageUpdated) {
+            java.util.function.Consumer<com.example.proyectoandroid.data.model.Message> onMessageUpdated,
+            java.util.function.Consumer<String> onMessageDeleted) {
 
         stopListeningForMessages(chatId);
 
@@ -89,21 +134,42 @@ public class ListenMessagesUseCase {
                 chatId,
                 limit,
                 messages -> {
+                    decryptAll(messages);
                     if (onInitialMessages != null) onInitialMessages.accept(messages);
                 },
                 message -> {
+                    decrypt(message);
                     if (onNewMessage != null) onNewMessage.accept(message);
                 },
                 message -> {
+                    decrypt(message);
                     if (onMessageUpdated != null) onMessageUpdated.accept(message);
-                }
+                },
+                onMessageDeleted
         );
 
         activeListeners.put(chatId, registration);
         return registration;
     }
 
+    /**
+     * La pantalla del chat avisa cuando se ve (onStart) y cuando deja de verse
+     * (onStop). Mientras no se ve, lo que llega no se marca como leído.
+     */
+    public void setChatVisible(String chatId, boolean visible) {
+        if (visible) {
+            visibleChats.add(chatId);
+            requestReadReceipt(chatId, newestReceived.get(chatId));
+        } else {
+            visibleChats.remove(chatId);
+            readReceiptScheduler.flush(chatId);
+        }
+    }
+
     public void stopListeningForMessages(String chatId) {
+        readReceiptScheduler.flush(chatId);
+        newestReceived.remove(chatId);
+
         ListenerRegistration registration = activeListeners.get(chatId);
         if (registration != null) {
             registration.remove();
@@ -111,24 +177,9 @@ public class ListenMessagesUseCase {
         }
     }
 
-    public CompletableFuture<Result<List<Message>>> loadMoreMessages(
-            String chatId,
-            Date lastMessageTimestamp,
-            int pageSize) {
-
-        return messageRepository.getChatMessagesPaginated(chatId, lastMessageTimestamp, pageSize);
-    }
-
-
+    // El texto se cifra al enviarlo desde la cola de salida, con la clave del chat de ese momento
     public CompletableFuture<Result<Message>> sendTextMessage(String chatId, String content) {
-        try {
-            String encryptedContent = CryptoUtils.encrypt(content);
-            return messageRepository.sendTextMessage(chatId, encryptedContent);
-        } catch (Exception e) {
-            CompletableFuture<Result<Message>> future = new CompletableFuture<>();
-            future.complete(new Result.Error<>(e.getMessage()));
-            return future;
-        }
+        return messageRepository.sendTextMessage(chatId, content);
     }
 
     public CompletableFuture<Result<Message>> sendImageMessage(String chatId, String imageUrl) {
@@ -139,11 +190,18 @@ public class ListenMessagesUseCase {
         return messageRepository.uploadAndSendImageMessage(context, chatId, imageUri);
     }
 
+    public void retryMessage(String chatId, String messageId) {
+        messageRepository.retryMessage(chatId, messageId);
+    }
+
     public CompletableFuture<Result<Void>> markChatAsRead(String chatId) {
-        return messageRepository.markMessagesAsRead(chatId);
+        return readReceiptScheduler.request(chatId, new Date());
     }
 
     public void cleanup() {
+        readReceiptScheduler.flushAll();
+        newestReceived.clear();
+
         for (ListenerRegistration registration : activeListeners.values()) {
             registration.remove();
         }
@@ -151,4 +209,35 @@ public class ListenMessagesUseCase {
 
         messageRepository.removeAllListeners();
     }
+
+    // Los callbacks llegan en el hilo de fondo de los listeners: se descifra ahí
+    // para que el adapter solo tenga que pintar texto plano
+    private void decryptAll(List<Message> messages) {
+        cryptoService.decryptMessages(messages);
+    }
+
+    private void decrypt(Message message) {
+        cryptoService.decryptMessage(message);
+    }
+
+    private void requestReadReceipt(String chatId, Date timestamp) {
+        if (timestamp == null) {
+            return;
+        }
+        newestReceived.merge(chatId, timestamp, (current, received) -> received.after(current) ? received : current);
+        if (visibleChats.contains(chatId)) {
+            readReceiptScheduler.request(chatId, timestamp);
+        }
+    }
+
+    private Date newestTimestamp(List<Message> messages) {
+        Date newest = null;
+        for (Message message : messages) {
+            Date timestamp = message.getTimestamp();
+            if (timestamp != null && (newest == null || timestamp.after(newest))) {
+                newest = timestamp;
+            }
+        }
+        return newest;
+    }
 }
@@ -3,37 +3,214 @@ package com.example.proyectoandroid.domain.usecase;
 import com.example.proyectoandroid.data.model.Chat;
 import com.example.proyectoandroid.data.model.User;
 import com.example.proyectoandroid.data.repository.ChatRepository;
+import com.example.proyectoandroid.utils.CryptoService;
 import com.example.proyectoandroid.utils.Result;
 import com.google.firebase.firestore.ListenerRegistration;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 public class ListenUserChatsUseCase {
 
+    // Tope de chats antiguos en memoria; al volver arriba se descartan con trimToLivePage()
+    private static final int MAX_OLDER_CHATS = 500;
+
     private final ChatRepository chatRepository;
+    private final CryptoService cryptoService;
     private ListenerRegistration chatsListener;
+    private volatile Consumer<List<Chat>> onChatsChanged;
+    private final List<Chat> liveChats = new ArrayList<>();
+    private final List<Chat> olderChats = new ArrayList<>();
+    private int pageSize;
+    private boolean hasMoreChats;
+    private boolean loadingMore;
     private final Map<String, ListenerRegistration> userStatusListeners = new HashMap<>();
 
-    public ListenUserChatsUseCase(ChatRepository chatRepository) {
+    public ListenUserChatsUseCase(ChatRepository chatRepository, CryptoService cryptoService) {
         this.chatRepository = chatRepository;
+        this.cryptoService = cryptoService;
     }
 
-    public ListenerRegistration listenForUserChats(Consumer<List<Chat>> onChatsChanged) {
+    /**
+     * Lista de chats paginada: los {@code pageSize} más recientes llegan en vivo
+     * y los anteriores se cargan con {@link #loadMoreChats()}. Cada cambio entrega
+     * la ventana completa (en vivo + páginas cargadas), ya ordenada.
+     */
+    public ListenerRegistration listenForUserChats(int pageSize, Consumer<List<Chat>> onChatsChanged) {
         stopListeningForUserChats();
 
-        chatsListener = chatRepository.addUserChatsListener(onChatsChanged);
+        synchronized (this) {
+            this.pageSize = pageSize;
+            this.onChatsChanged = onChatsChanged;
+            liveChats.clear();
+            olderChats.clear();
+            hasMoreChats = true;
+        }
+
+        // El callback llega en el hilo de fondo del listener: las vistas previas se descifran ahí
+        chatsListener = chatRepository.addUserChatsListener(pageSize, chats -> {
+            decryptPreviews(chats);
+            onLiveChats(chats);
+        });
         return chatsListener;
     }
 
+    private void onLiveChats(List<Chat> chats) {
+        List<Chat> window;
+        synchronized (this) {
+            Set<String> liveIds = new HashSet<>();
+            for (Chat chat : chats) {
+                liveIds.add(chat.getChatId());
+            }
+
+            // Si la página en vivo está llena, lo que sale de ella es porque otros
+            // chats más recientes lo empujaron: pasa a encabezar las páginas antiguas
+            if (chats.size() >= pageSize) {
+                List<Chat> pushedOut = new ArrayList<>();
+                for (Chat previous : liveChats) {
+                    if (!liveIds.contains(previous.getChatId())) {
+                        pushedOut.add(previous);
+                    }
+                }
+                olderChats.addAll(0, pushedOut);
+            }
+            olderChats.removeIf(chat -> liveIds.contains(chat.getChatId()));
+
+            liveChats.clear();
+            liveChats.addAll(chats);
+            if (chats.size() < pageSize && olderChats.isEmpty()) {
+                hasMoreChats = false;
+            }
+            window = buildWindow();
+        }
+        emit(window);
+    }
+
+    /**
+     * Pide la siguiente página de chats antiguos. Completa con {@code true} si
+     * añadió alguno; no hace nada si ya hay una carga en curso o no quedan más.
+     */
+    public CompletableFuture<Boolean> loadMoreChats() {
+        Date cursor;
+        String cursorChatId;
+        int size;
+        synchronized (this) {
+            if (loadingMore || !hasMoreChats || onChatsChanged == null
+                    || olderChats.size() >= MAX_OLDER_CHATS) {
+                return CompletableFuture.completedFuture(false);
+            }
+            Chat last = !olderChats.isEmpty()
+                    ? olderChats.get(olderChats.size() - 1)
+                    : (!liveChats.isEmpty() ? liveChats.get(liveChats.size() - 1) : null);
+            if (last == null || last.getLastMessageTimestamp() == null) {
+                return CompletableFuture.completedFuture(false);
+            }
+            cursor = last.getLastMessageTimestamp();
+            cursorChatId = last.getChatId();
+            size = pageSize;
+            loadingMore = true;
+        }
+
+        return chatRepository.getCurrentUserChatsPage(cursor, cursorChatId, size).thenApply(result -> {
+            List<Chat> window;
+            boolean added = false;
+            // Fuera del bloque sincronizado: el descifrado no retiene el estado de la ventana
+            if (result instanceof Result.Success) {
+                decryptPreviews(((Result.Success<List<Chat>>) result).getData());
+            }
+            synchronized (this) {
+                loadingMore = false;
+                if (!(result instanceof Result.Success)) {
+                    return false;
+                }
+                List<Chat> page = ((Result.Success<List<Chat>>) result).getData();
+                hasMoreChats = page.size() == size;
+
+                Set<String> known = new HashSet<>();
+                for (Chat chat : liveChats) {
+                    known.add(chat.getChatId());
+                }
+                for (Chat chat : olderChats) {
+                    known.add(chat.getChatId());
+                }
+                for (Chat chat : page) {
+                    if (known.add(chat.getChatId())) {
+                        olderChats.add(chat);
+                        added = true;
+                    }
+                }
+                window = buildWindow();
+            }
+            emit(window);
+            return added;
+        });
+    }
+
+    /**
+     * Suelta las páginas antiguas (al volver arriba de la lista) para que la
+     * ventana en memoria no crezca sin límite; se vuelven a pedir al bajar.
+     */
+    public void trimToLivePage() {
+        List<Chat> window;
+        synchronized (this) {
+            if (olderChats.isEmpty() || loadingMore) {
+                return;
+            }
+            olderChats.clear();
+            hasMoreChats = true;
+            window = buildWindow();
+        }
+        emit(window);
+    }
+
+    private List<Chat> buildWindow() {
+        List<Chat> window = new ArrayList<>(liveChats.size() + olderChats.size());
+        window.addAll(liveChats);
+        window.addAll(olderChats);
+        return window;
+    }
+
+    // Las vistas previas cifradas con una clave de chat que aún no está en memoria
+    // se quedan sin descifrar; al llegar la clave se emite de nuevo la ventana
+    private void decryptPreviews(List<Chat> chats) {
+        for (String chatId : cryptoService.decryptPreviews(chats)) {
+            cryptoService.loadChatKey(chatId).thenAccept(key -> {
+                if (key != null) {
+                    onChatKeyLoaded();
+                }
+            });
+        }
+    }
+
+    private void onChatKeyLoaded() {
+        List<Chat> window;
+        synchronized (this) {
+            window = buildWindow();
+        }
+        cryptoService.decryptPreviews(window);
+        emit(window);
+    }
+
+    private void emit(List<Chat> window) {
+        Consumer<List<Chat>> callback = onChatsChanged;
+        if (callback != null) {
+            callback.accept(window);
+        }
+    }
+
     public void stopListeningForUserChats() {
         if (chatsListener != null) {
-            chatRepository.removeUserChatsListener();
+            chatsListener.remove();
             chatsListener = null;
         }
+        onChatsChanged = null;
     }
 
     public ListenerRegistration listenForUserStatus(String userId, Consumer<User> onUserStatusChanged) {
@@ -45,10 +222,10 @@ public class ListenUserChatsUseCase {
     }
 
     public void stopListeningForUserStatus(String userId) {
-        ListenerRegistration registration = userStatusListeners.get(userId);
+        // Solo se quita la suscripción propia; otras pantallas pueden seguir escuchando
+        ListenerRegistration registration = userStatusListeners.remove(userId);
         if (registration != null) {
-            chatRepository.removeUserStatusListener(userId);
-            userStatusListeners.remove(userId);
+            registration.remove();
         }
     }
 
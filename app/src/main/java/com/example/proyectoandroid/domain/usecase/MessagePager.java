@@ -0,0 +1,432 @@
+package com.example.proyectoandroid.domain.usecase;
+
+import android.util.Log;
+
+import com.example.proyectoandroid.data.model.Message;
+import com.example.proyectoandroid.data.model.MessagePage;
+import com.example.proyectoandroid.data.repository.MessageRepository;
+import com.example.proyectoandroid.utils.Result;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Ventana paginada de los mensajes de un chat.
+ *
+ * Solo la página más reciente tiene listener en vivo; las anteriores se piden
+ * con cursores {@link DocumentSnapshot} al subir por la conversación. Como
+ * mucho se mantienen {@link #MAX_OLDER_PAGES} páginas antiguas: al pasarse se
+ * descartan las más cercanas al presente y la ventana queda "separada" de la
+ * página en vivo hasta que se vuelven a cargar con {@link #loadNewer()}.
+ *
+ * En memoria, de la página en vivo solo quedan sus {@code pageSize} mensajes
+ * más recientes y los pendientes de enviar. Lo que sale de ella mientras hay
+ * páginas antiguas cargadas pasa a un "puente" acotado que las mantiene
+ * contiguas; si el puente se llena, la ventana se separa.
+ *
+ * Los callbacks del listener y de las consultas llegan en hilos de fondo; cada
+ * cambio entrega la ventana completa con {@link Window}, numerada: una ventana
+ * que llega después de otra más nueva se descarta. Los mensajes que no se
+ * pudieron enviar van delante de la página en vivo.
+ */
+public class MessagePager {
+
+    private static final String TAG = "MessagePager";
+    private static final int MAX_OLDER_PAGES = 6;
+
+    private final String chatId;
+    private final int pageSize;
+    private final MessageRepository messageRepository;
+    private final Consumer<List<Message>> decryptor;
+    private final Consumer<Window> onWindow;
+
+    private final Map<String, Message> live = new LinkedHashMap<>();
+    // Salidos de la página en vivo, más nuevos que la primera página antigua
+    private final Map<String, Message> bridge = new LinkedHashMap<>();
+    // Más reciente primero
+    private List<Message> failed = Collections.emptyList();
+    // Primera = la más cercana al presente
+    private final Deque<MessagePage> olderPages = new ArrayDeque<>();
+    private final List<ListenerRegistration> registrations = new ArrayList<>();
+    private boolean liveLoaded;
+    private boolean detached;
+    private boolean olderExhausted;
+    private boolean loadingOlder;
+    private boolean loadingNewer;
+    private boolean closed;
+    // Invalida las cargas en curso cuando la ventana se recorta
+    private long generation;
+    // Número de la última ventana construida
+    private long windowSequence;
+
+    private final Object deliveryLock = new Object();
+    // Número de la última ventana entregada; solo con deliveryLock
+    private long deliveredSequence;
+
+    MessagePager(String chatId, int pageSize, MessageRepository messageRepository,
+                 Consumer<List<Message>> decryptor, Consumer<Window> onWindow) {
+        this.chatId = chatId;
+        this.pageSize = pageSize;
+        this.messageRepository = messageRepository;
+        this.decryptor = decryptor;
+        this.onWindow = onWindow;
+    }
+
+    synchronized void attach(ListenerRegistration registration) {
+        if (closed) {
+            registration.remove();
+        } else {
+            registrations.add(registration);
+        }
+    }
+
+    void onLiveWindow(List<Message> messages) {
+        synchronized (this) {
+            // Se fusiona en lugar de reemplazar: lo que llegó suelto y el listener ya
+            // no incluye sigue siendo contiguo con las páginas antiguas
+            for (Message message : messages) {
+                putLive(message);
+            }
+            trimLive();
+            liveLoaded = true;
+        }
+        emit();
+    }
+
+    void onLiveMessage(Message message) {
+        synchronized (this) {
+            putLive(message);
+            trimLive();
+        }
+        emit();
+    }
+
+    void onFailedMessages(List<Message> oldestFirst) {
+        synchronized (this) {
+            List<Message> newestFirst = new ArrayList<>(oldestFirst);
+            Collections.reverse(newestFirst);
+            failed = newestFirst;
+        }
+        emit();
+    }
+
+    void onLiveDeleted(String messageId) {
+        synchronized (this) {
+            if (live.remove(messageId) == null && bridge.remove(messageId) == null) {
+                return;
+            }
+        }
+        emit();
+    }
+
+    /**
+     * Pide la página anterior a la más antigua cargada. Se ignora si ya hay una
+     * carga en curso o no quedan mensajes.
+     */
+    public void loadOlder() {
+        long requestGeneration;
+        CompletableFuture<Result<DocumentSnapshot>> cursorFuture;
+        synchronized (this) {
+            if (closed || loadingOlder || olderExhausted || !liveLoaded) {
+                return;
+            }
+            if (olderPages.isEmpty()) {
+                Message boundary = oldestLiveMessage();
+                if (boundary == null) {
+                    olderExhausted = live.isEmpty();
+                    return;
+                }
+                cursorFuture = messageRepository.getMessageCursor(chatId, boundary.getMessageId());
+            } else {
+                cursorFuture = CompletableFuture.completedFuture(
+                        new Result.Success<>(olderPages.peekLast().getOldest()));
+            }
+            loadingOlder = true;
+            requestGeneration = generation;
+        }
+
+        cursorFuture.thenCompose(cursorResult -> {
+            if (!(cursorResult instanceof Result.Success)) {
+                return CompletableFuture.completedFuture(
+                        new Result.Error<MessagePage>(((Result.Error<DocumentSnapshot>) cursorResult).getErrorMessage()));
+            }
+            DocumentSnapshot cursor = ((Result.Success<DocumentSnapshot>) cursorResult).getData();
+            return messageRepository.getOlderMessages(chatId, cursor, pageSize);
+        }).thenAccept(result -> onOlderPage(requestGeneration, result));
+    }
+
+    /**
+     * Vuelve a cargar, hacia el presente, páginas que se descartaron al subir.
+     * Solo hace algo mientras la ventana está separada de la página en vivo.
+     */
+    public void loadNewer() {
+        long requestGeneration;
+        DocumentSnapshot cursor;
+        synchronized (this) {
+            if (closed || loadingNewer || !detached || olderPages.isEmpty()) {
+                return;
+            }
+            loadingNewer = true;
+            requestGeneration = generation;
+            cursor = olderPages.peekFirst().getNewest();
+        }
+
+        messageRepository.getNewerMessages(chatId, cursor, pageSize)
+                .thenAccept(result -> onNewerPage(requestGeneration, result));
+    }
+
+    /**
+     * Descarta las páginas antiguas y deja solo la página en vivo. Se llama al
+     * volver al final de la conversación.
+     */
+    public void trimToLivePage() {
+        synchronized (this) {
+            if (closed || (olderPages.isEmpty() && !detached)) {
+                return;
+            }
+            olderPages.clear();
+            bridge.clear();
+            detached = false;
+            olderExhausted = false;
+            loadingOlder = false;
+            loadingNewer = false;
+            generation++;
+        }
+        emit();
+    }
+
+    public void close() {
+        List<ListenerRegistration> attached;
+        synchronized (this) {
+            closed = true;
+            attached = new ArrayList<>(registrations);
+            registrations.clear();
+            olderPages.clear();
+            bridge.clear();
+            live.clear();
+        }
+        for (ListenerRegistration registration : attached) {
+            registration.remove();
+        }
+    }
+
+    private void onOlderPage(long requestGeneration, Result<MessagePage> result) {
+        MessagePage page = pageOrNull(result);
+        synchronized (this) {
+            if (closed || requestGeneration != generation) {
+                return;
+            }
+            loadingOlder = false;
+            if (page == null) {
+                return;
+            }
+            olderExhausted = page.isEndReached();
+            if (!page.isEmpty()) {
+                olderPages.addLast(page);
+            }
+            while (olderPages.size() > MAX_OLDER_PAGES) {
+                olderPages.removeFirst();
+                bridge.clear();
+                detached = true;
+            }
+        }
+        emit();
+    }
+
+    private void onNewerPage(long requestGeneration, Result<MessagePage> result) {
+        MessagePage page = pageOrNull(result);
+        synchronized (this) {
+            if (closed || requestGeneration != generation) {
+                return;
+            }
+            loadingNewer = false;
+            if (page == null) {
+                return;
+            }
+            if (!page.isEmpty()) {
+                olderPages.addFirst(page);
+            }
+            // Se alcanzó la página en vivo (o no hay nada más nuevo): vuelve a ser contigua
+            if (page.isEndReached() || overlapsLive(page)) {
+                detached = false;
+            }
+            while (olderPages.size() > MAX_OLDER_PAGES) {
+                olderPages.removeLast();
+                olderExhausted = false;
+            }
+        }
+        emit();
+    }
+
+    private MessagePage pageOrNull(Result<MessagePage> result) {
+        if (result instanceof Result.Success) {
+            MessagePage page = ((Result.Success<MessagePage>) result).getData();
+            decryptor.accept(page.getMessages());
+            return page;
+        }
+        Log.w(TAG, "No se pudo cargar la página de " + chatId + ": "
+                + ((Result.Error<MessagePage>) result).getErrorMessage());
+        return null;
+    }
+
+    private void emit() {
+        Window window;
+        long sequence;
+        synchronized (this) {
+            if (closed || !liveLoaded) {
+                return;
+            }
+            List<Message> messages = new ArrayList<>();
+            Set<String> seen = new HashSet<>();
+            if (!detached) {
+                for (Message message : failed) {
+                    if (seen.add(message.getMessageId())) {
+                        messages.add(message);
+                    }
+                }
+                for (Message message : newestFirst(live.values())) {
+                    if (message.getMessageId() == null || seen.add(message.getMessageId())) {
+                        messages.add(message);
+                    }
+                }
+                for (Message message : newestFirst(bridge.values())) {
+                    if (seen.add(message.getMessageId())) {
+                        messages.add(message);
+                    }
+                }
+            }
+            for (MessagePage page : olderPages) {
+                for (Message message : page.getMessages()) {
+                    if (message.getMessageId() == null || seen.add(message.getMessageId())) {
+                        messages.add(message);
+                    }
+                }
+            }
+            window = new Window(messages, !olderExhausted, !detached);
+            sequence = ++windowSequence;
+        }
+        // Los hilos que emiten pueden adelantarse entre sí: nunca se entrega una
+        // ventana anterior a la última entregada
+        synchronized (deliveryLock) {
+            if (sequence < deliveredSequence) {
+                return;
+            }
+            deliveredSequence = sequence;
+            onWindow.accept(window);
+        }
+    }
+
+    private void putLive(Message message) {
+        if (message.getMessageId() != null) {
+            live.put(message.getMessageId(), message);
+        }
+    }
+
+    /**
+     * Deja en {@code live} los {@code pageSize} mensajes más recientes (lo que
+     * cubre el listener) y los pendientes. Lo que sobra va al puente si hay
+     * páginas antiguas contiguas (o va a llegar la primera); sin ellas se
+     * descarta y loadOlder() lo vuelve a pedir. Si el puente pasa de una
+     * página, la ventana se separa.
+     */
+    private void trimLive() {
+        List<Message> sorted = newestFirst(live.values());
+        int kept = 0;
+        for (Message message : sorted) {
+            if (message.getTimestamp() == null || kept++ < pageSize) {
+                continue;
+            }
+            live.remove(message.getMessageId());
+            // También con la primera página antigua en camino: su cursor es anterior a esto
+            if (!detached && (!olderPages.isEmpty() || loadingOlder)) {
+                bridge.put(message.getMessageId(), message);
+            }
+        }
+        if (bridge.size() > pageSize) {
+            bridge.clear();
+            if (olderPages.isEmpty()) {
+                // La primera página antigua aún no llegó: se cancela y se vuelve a pedir
+                loadingOlder = false;
+                generation++;
+            } else {
+                detached = true;
+            }
+        }
+    }
+
+    private boolean overlapsLive(MessagePage page) {
+        for (Message message : page.getMessages()) {
+            if (live.containsKey(message.getMessageId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Los pendientes (sin timestamp del servidor) no sirven de cursor
+    private Message oldestLiveMessage() {
+        Message oldest = null;
+        List<Message> candidates = new ArrayList<>(live.values());
+        candidates.addAll(bridge.values());
+        for (Message message : candidates) {
+            Date timestamp = message.getTimestamp();
+            if (timestamp != null && (oldest == null || timestamp.before(oldest.getTimestamp()))) {
+                oldest = message;
+            }
+        }
+        return oldest;
+    }
+
+    private static List<Message> newestFirst(Collection<Message> messages) {
+        List<Message> sorted = new ArrayList<>(messages);
+        // Más reciente primero; los pendientes (sin timestamp) van arriba
+        Collections.sort(sorted, (a, b) -> {
+            Date ta = a.getTimestamp();
+            Date tb = b.getTimestamp();
+            if (ta == null && tb == null) return 0;
+            if (ta == null) return -1;
+            if (tb == null) return 1;
+            return tb.compareTo(ta);
+        });
+        return sorted;
+    }
+
+    /**
+     * Estado de la ventana tras un cambio.
+     */
+    public static class Window {
+        private final List<Message> messages;
+        private final boolean hasOlder;
+        private final boolean showingNewest;
+
+        Window(List<Message> messages, boolean hasOlder, boolean showingNewest) {
+            this.messages = Collections.unmodifiableList(messages);
+            this.hasOlder = hasOlder;
+            this.showingNewest = showingNewest;
+        }
+
+        /** Del más reciente al más antiguo. */
+        public List<Message> getMessages() { return messages; }
+
+        public boolean hasOlder() { return hasOlder; }
+
+        /**
+         * false mientras hay páginas descartadas entre la ventana y la página en
+         * vivo; en ese caso los mensajes en vivo no se incluyen.
+         */
+        public boolean isShowingNewest() { return showingNewest; }
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.proyectoandroid.domain.usecase;
+
+import android.util.Log;
+
+import com.example.proyectoandroid.data.repository.MessageRepository;
+import com.example.proyectoandroid.utils.Result;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Agrupa las marcas de lectura por chat. Las peticiones que llegan dentro de
+ * {@link #COALESCE_WINDOW_MS} se resuelven con una sola escritura, y si no llegó
+ * nada más nuevo que lo ya marcado no se escribe nada. Una escritura que falla
+ * se reintenta con backoff exponencial.
+ *
+ * El estado solo se toca desde el hilo {@link #scheduler}.
+ */
+public class ReadReceiptScheduler {
+
+    private static final String TAG = "ReadReceiptScheduler";
+    private static final long COALESCE_WINDOW_MS = 1500;
+    private static final long MAX_RETRY_DELAY_MS = 60 * 1000;
+
+    private final MessageRepository messageRepository;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Map<String, ChatState> states = new HashMap<>();
+
+    public ReadReceiptScheduler(MessageRepository messageRepository) {
+        this.messageRepository = messageRepository;
+    }
+
+    /**
+     * Pide marcar el chat como leído hasta {@code newestTimestamp}. Sin
+     * timestamp (mensaje aún sin confirmar por el servidor) no hay nada que
+     * marcar y no se escribe.
+     */
+    public CompletableFuture<Result<Void>> request(String chatId, Date newestTimestamp) {
+        CompletableFuture<Result<Void>> resultFuture = new CompletableFuture<>();
+        if (newestTimestamp == null) {
+            resultFuture.complete(new Result.Success<>(null));
+            return resultFuture;
+        }
+
+        scheduler.execute(() -> {
+            ChatState state = stateFor(chatId);
+            long newest = newestTimestamp.getTime();
+
+            if (!state.dirty && newest <= state.markedUpTo) {
+                resultFuture.complete(new Result.Success<>(null));
+                return;
+            }
+
+            state.dirty = true;
+            state.pendingUpTo = Math.max(state.pendingUpTo, newest);
+            state.waiters.add(resultFuture);
+
+            if (state.scheduledFlush == null) {
+                state.scheduledFlush = scheduler.schedule(
+                        () -> flushInternal(chatId), COALESCE_WINDOW_MS, TimeUnit.MILLISECONDS);
+            }
+        });
+
+        return resultFuture;
+    }
+
+    /**
+     * Escribe de inmediato lo pendiente del chat (p. ej. al cerrarlo).
+     */
+    public void flush(String chatId) {
+        scheduler.execute(() -> flushInternal(chatId));
+    }
+
+    public void flushAll() {
+        scheduler.execute(() -> {
+            for (String chatId : new ArrayList<>(states.keySet())) {
+                flushInternal(chatId);
+            }
+        });
+    }
+
+    private void flushInternal(String chatId) {
+        ChatState state = states.get(chatId);
+        if (state == null) {
+            return;
+        }
+        if (state.scheduledFlush != null) {
+            state.scheduledFlush.cancel(false);
+            state.scheduledFlush = null;
+        }
+        if (!state.dirty || state.inFlight) {
+            return;
+        }
+
+        state.dirty = false;
+        state.inFlight = true;
+        long flushingUpTo = state.pendingUpTo;
+        List<CompletableFuture<Result<Void>>> waiters = new ArrayList<>(state.waiters);
+        state.waiters.clear();
+
+        messageRepository.markMessagesAsRead(chatId)
+                .exceptionally(e -> new Result.Error<>(e.getMessage()))
+                .thenAccept(result -> scheduler.execute(() -> {
+                    state.inFlight = false;
+
+                    long delay = COALESCE_WINDOW_MS;
+                    if (result instanceof Result.Success) {
+                        state.markedUpTo = Math.max(state.markedUpTo, flushingUpTo);
+                        state.failures = 0;
+                    } else {
+                        // Sigue pendiente y se reintenta aunque no llegue nada más
+                        state.dirty = true;
+                        state.failures++;
+                        delay = retryDelay(state.failures);
+                        Log.w(TAG, "No se pudo marcar " + chatId + " como leído, reintento en " + delay + " ms: "
+                                + ((Result.Error<Void>) result).getErrorMessage());
+                    }
+
+                    for (CompletableFuture<Result<Void>> waiter : waiters) {
+                        waiter.complete(result);
+                    }
+
+                    // Lo que llegó mientras se escribía (o lo que falló) sale en la siguiente ventana
+                    if (state.dirty && state.scheduledFlush == null) {
+                        state.scheduledFlush = scheduler.schedule(
+                                () -> flushInternal(chatId), delay, TimeUnit.MILLISECONDS);
+                    }
+                }));
+    }
+
+    // 3s, 6s, 12s... hasta un minuto
+    private static long retryDelay(int failures) {
+        return Math.min(MAX_RETRY_DELAY_MS, COALESCE_WINDOW_MS << Math.min(failures, 16));
+    }
+
+    private ChatState stateFor(String chatId) {
+        ChatState state = states.get(chatId);
+        if (state == null) {
+            state = new ChatState();
+            states.put(chatId, state);
+        }
+        return state;
+    }
+
+    private static class ChatState {
+        long markedUpTo = Long.MIN_VALUE;
+        long pendingUpTo = Long.MIN_VALUE;
+        boolean dirty;
+        boolean inFlight;
+        int failures;
+        ScheduledFuture<?> scheduledFlush;
+        final List<CompletableFuture<Result<Void>>> waiters = new ArrayList<>();
+    }
+}
@@ -7,11 +7,13 @@ import android.content.Intent;
 import android.media.RingtoneManager;
 import android.net.Uri;
 import android.os.Build;
+import android.util.Log;
 import androidx.annotation.NonNull;
 import androidx.core.app.NotificationCompat;
 
 import com.example.proyectoandroid.R;
 import com.example.proyectoandroid.chat.ChatActivity;
+import com.example.proyectoandroid.data.UserDirectory;
 import com.example.proyectoandroid.data.model.User;
 import com.example.proyectoandroid.data.repository.AuthRepository;
 import com.example.proyectoandroid.di.ServiceLocator;
@@ -19,10 +21,12 @@ import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
 
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 public class ChatMessagingService extends FirebaseMessagingService {
 
     private static final String TAG = "ChatMessagingService";
+    private static final long SENDER_LOOKUP_TIMEOUT_MS = 3000;
 
     @Override
     public void onMessageReceived(@NonNull RemoteMessage remoteMessage) {
@@ -51,12 +55,32 @@ public class ChatMessagingService extends FirebaseMessagingService {
             return;
         }
 
+        if (title == null && senderId != null) {
+            title = resolveSenderName(senderId);
+        }
         if (title == null) title = getString(R.string.new_message_notification_title);
         if (body == null) body = getString(R.string.new_message_notification_text);
 
         sendNotification(title, body, chatId);
     }
 
+    // onMessageReceived corre en un hilo de fondo: se puede esperar un momento al directorio
+    private String resolveSenderName(String senderId) {
+        UserDirectory userDirectory = ServiceLocator.getInstance(this).provideUserDirectory();
+        User sender = userDirectory.peek(senderId);
+        if (sender == null) {
+            try {
+                sender = userDirectory.getUser(senderId).get(SENDER_LOOKUP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                Log.w(TAG, "No se pudo resolver el remitente " + senderId, e);
+                return null;
+            }
+        }
+        return sender != null && sender.getDisplayName() != null && !sender.getDisplayName().isEmpty()
+                ? sender.getDisplayName()
+                : null;
+    }
+
     @Override
     public void onNewToken(@NonNull String token) {
         AuthRepository authRepository = ServiceLocator.getInstance(this).provideAuthRepository();
@@ -5,6 +5,7 @@ import android.util.Log;
 
 import com.example.proyectoandroid.data.model.User;
 import com.example.proyectoandroid.utils.FirebaseCollections;
+import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.messaging.FirebaseMessaging;
 
@@ -64,7 +65,7 @@ public class NotificationManager {
         Map<String, Object> updates = new HashMap<>();
         updates.put("fcmToken", "");
         updates.put("online", false);
-        updates.put("lastSeen", System.currentTimeMillis());
+        updates.put("lastSeen", FieldValue.serverTimestamp());
 
         firestore.collection(FirebaseCollections.USERS)
             .document(userId)
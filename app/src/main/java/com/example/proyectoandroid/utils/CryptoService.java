@@ -0,0 +1,137 @@
+package com.example.proyectoandroid.utils;
+
+import android.util.LruCache;
+
+import com.example.proyectoandroid.data.crypto.ChatKey;
+import com.example.proyectoandroid.data.crypto.ChatKeyRing;
+import com.example.proyectoandroid.data.model.Chat;
+import com.example.proyectoandroid.data.model.Message;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Descifrado para mostrar con memoria: guarda el texto plano por messageId (y
+ * la vista previa por chatId) en un LRU acotado, de modo que cada snapshot que
+ * repite mensajes ya vistos no vuelve a descifrarlos. La entrada guarda también
+ * el cifrado del que salió; si el mensaje se edita se descifra de nuevo.
+ *
+ * Los chats con clave propia ({@link ChatKeyRing}) se descifran con la clave
+ * en memoria; quien abre un chat la carga antes con {@link #loadChatKey}.
+ *
+ * Los métodos por lotes corren en el hilo que los llama; los listeners los
+ * invocan desde su hilo de fondo.
+ */
+public class CryptoService {
+
+    public static final String DECRYPT_ERROR_TEXT = "[Error al descifrar]";
+    // Cifrado con una clave de chat que este usuario (todavía) no tiene
+    public static final String MISSING_KEY_TEXT = "[Mensaje cifrado]";
+
+    private static final int CACHE_SIZE = 2000;
+    private static final String CHAT_KEY_PREFIX = "chat/";
+
+    private final ChatKeyRing keyRing;
+    private final LruCache<String, Decrypted> cache = new LruCache<>(CACHE_SIZE);
+
+    public CryptoService(ChatKeyRing keyRing) {
+        this.keyRing = keyRing;
+    }
+
+    /**
+     * Carga (memoria → disco → red) la clave del chat, si tiene.
+     */
+    public CompletableFuture<ChatKey> loadChatKey(String chatId) {
+        return keyRing.getKey(chatId);
+    }
+
+    /**
+     * Descifra el contenido de cada mensaje de texto que aún no lo tenga. Si no
+     * se puede descifrar se deja {@link #DECRYPT_ERROR_TEXT}.
+     */
+    public void decryptMessages(List<Message> messages) {
+        for (int i = 0; i < messages.size(); i++) {
+            decryptMessage(messages.get(i));
+        }
+    }
+
+    public void decryptMessage(Message message) {
+        String content = message.getContent();
+        if (message.getDecryptedContent() != null || content == null || content.isEmpty()) {
+            return;
+        }
+        int keyId = CryptoUtils.chatKeyId(content);
+        if (keyId >= 0 && keyRing.peek(message.getChatId(), keyId) == null) {
+            message.setDecryptedContent(MISSING_KEY_TEXT);
+            return;
+        }
+        String text = decrypt(message.getMessageId(), content, message.getChatId(), keyId);
+        message.setDecryptedContent(text != null ? text : DECRYPT_ERROR_TEXT);
+    }
+
+    /**
+     * Descifra la vista previa de cada chat. Si falla se deja sin descifrar y
+     * la lista muestra el contenido original.
+     *
+     * @return chats cuya clave aún no está en memoria; se piden con
+     *         {@link #loadChatKey} y se vuelve a llamar cuando lleguen
+     */
+    public Set<String> decryptPreviews(List<Chat> chats) {
+        Set<String> missingKeys = new HashSet<>();
+        for (int i = 0; i < chats.size(); i++) {
+            Chat chat = chats.get(i);
+            String content = chat.getLastMessageContent();
+            if (chat.getDecryptedLastMessage() != null || chat.getLastMessageType() != 0
+                    || content == null || content.isEmpty()) {
+                continue;
+            }
+            int keyId = CryptoUtils.chatKeyId(content);
+            if (keyId >= 0 && keyRing.peek(chat.getChatId(), keyId) == null) {
+                missingKeys.add(chat.getChatId());
+                continue;
+            }
+            String key = chat.getChatId() != null ? CHAT_KEY_PREFIX + chat.getChatId() : null;
+            chat.setDecryptedLastMessage(decrypt(key, content, chat.getChatId(), keyId));
+        }
+        return missingKeys;
+    }
+
+    /**
+     * @param key clave del LRU; sin clave no se guarda
+     * @return texto plano, o null si no se pudo descifrar
+     */
+    private String decrypt(String key, String ciphertext, String chatId, int chatKeyId) {
+        if (key != null) {
+            Decrypted cached = cache.get(key);
+            if (cached != null && cached.ciphertext.equals(ciphertext)) {
+                return cached.plainText;
+            }
+        }
+        String plainText;
+        try {
+            ChatKey chatKey = chatKeyId >= 0 ? keyRing.peek(chatId, chatKeyId) : null;
+            plainText = chatKey != null
+                    ? CryptoUtils.decryptForDisplay(ciphertext, chatKey.getSecretKey(), chatKey.getBoundChatId())
+                    : CryptoUtils.decryptForDisplay(ciphertext);
+        } catch (Exception e) {
+            // Los fallos no se guardan: puede ser un mensaje a medio escribir
+            return null;
+        }
+        if (key != null) {
+            cache.put(key, new Decrypted(ciphertext, plainText));
+        }
+        return plainText;
+    }
+
+    private static class Decrypted {
+        final String ciphertext;
+        final String plainText;
+
+        Decrypted(String ciphertext, String plainText) {
+            this.ciphertext = ciphertext;
+            this.plainText = plainText;
+        }
+    }
+}
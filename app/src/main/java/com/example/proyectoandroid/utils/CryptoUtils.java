@@ -1,27 +1,251 @@
 package com.example.proyectoandroid.utils;
 
 import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
 import android.util.Base64;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * Cifrado del contenido de los mensajes.
+ *
+ * Formato actual (sobre): "~" + Base64([versión][esquema][capas][cifrado]).
+ * '~' no es un carácter de Base64, así que no se confunde con el formato
+ * antiguo (Base64 sin cabecera, a veces cifrado dos veces). El mismo formato
+ * lo lee la Cloud Function de notificaciones (functions/index.js).
+ *
+ * Esquemas: 1 = AES/ECB con la clave compartida (chats sin clave propia);
+ * 2 = AES-256-GCM con la clave del chat, cifrado de extremo a extremo. En el
+ * esquema 2 tras la cabecera van [keyId (4 bytes)][IV (12)][cifrado + etiqueta]
+ * y la cabecera completa y el chatId se autentican como datos asociados
+ * (el de {@link com.example.proyectoandroid.data.crypto.ChatKey#getBoundChatId()}).
+ */
 public class CryptoUtils {
     private static final String ALGORITHM = "AES";
     private static final String KEY = "MySuperSecretKey"; // Debe ser de 16 bytes
+    private static final int BLOCK_SIZE = 16;
+
+    private static final String ENVELOPE_PREFIX = "~";
+    private static final byte ENVELOPE_VERSION = 1;
+    // AES-128/ECB/PKCS5 con la clave compartida
+    private static final byte SCHEME_AES_ECB = 1;
+    private static final byte SCHEME_CHAT_KEY = 2;
+    private static final int HEADER_SIZE = 3;
+    private static final int KEY_ID_SIZE = 4;
+    private static final int CHAT_KEY_HEADER_SIZE = HEADER_SIZE + KEY_ID_SIZE;
+    // Base64 de los primeros 9 bytes: alcanza para leer la cabecera del esquema 2
+    private static final int CHAT_KEY_HEADER_CHARS = 12;
+
+    private static final String GCM_TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int GCM_IV_SIZE = 12;
+    private static final int GCM_TAG_BITS = 128;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final SecretKeySpec KEY_SPEC = new SecretKeySpec(KEY.getBytes(StandardCharsets.UTF_8), ALGORITHM);
 
+    // Un Cipher no es thread-safe: cada hilo guarda los suyos ya inicializados.
+    // Tras doFinal el Cipher vuelve al estado de init y se puede reutilizar.
+    private static final ThreadLocal<Cipher> ENCRYPT_CIPHER = new ThreadLocal<>();
+    private static final ThreadLocal<Cipher> DECRYPT_CIPHER = new ThreadLocal<>();
+    // GCM necesita un IV nuevo en cada init; solo se reutiliza la instancia
+    private static final ThreadLocal<Cipher> GCM_CIPHER = new ThreadLocal<>();
+
+    /**
+     * Cifra en una sola capa y devuelve el sobre.
+     */
     public static String encrypt(String plainText) throws Exception {
-        SecretKeySpec keySpec = new SecretKeySpec(KEY.getBytes(), ALGORITHM);
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        cipher.init(Cipher.ENCRYPT_MODE, keySpec);
-        byte[] encrypted = cipher.doFinal(plainText.getBytes("UTF-8"));
-        return Base64.encodeToString(encrypted, Base64.DEFAULT);
+        byte[] encrypted = run(ENCRYPT_CIPHER, Cipher.ENCRYPT_MODE, plainText.getBytes(StandardCharsets.UTF_8));
+        byte[] envelope = new byte[HEADER_SIZE + encrypted.length];
+        envelope[0] = ENVELOPE_VERSION;
+        envelope[1] = SCHEME_AES_ECB;
+        envelope[2] = 1;
+        System.arraycopy(encrypted, 0, envelope, HEADER_SIZE, encrypted.length);
+        return ENVELOPE_PREFIX + Base64.encodeToString(envelope, Base64.NO_WRAP);
+    }
+
+    /**
+     * Cifra con la clave del chat (esquema 2): una sola operación AES-GCM.
+     */
+    public static String encrypt(String plainText, SecretKey chatKey, int keyId, String chatId)
+            throws GeneralSecurityException {
+        byte[] iv = new byte[GCM_IV_SIZE];
+        RANDOM.nextBytes(iv);
+        byte[] header = chatKeyHeader(keyId);
+
+        Cipher cipher = gcmCipher();
+        cipher.init(Cipher.ENCRYPT_MODE, chatKey, new GCMParameterSpec(GCM_TAG_BITS, iv));
+        cipher.updateAAD(header);
+        cipher.updateAAD(chatId.getBytes(StandardCharsets.UTF_8));
+        byte[] encrypted = cipher.doFinal(plainText.getBytes(StandardCharsets.UTF_8));
+
+        ByteBuffer envelope = ByteBuffer.allocate(header.length + iv.length + encrypted.length);
+        envelope.put(header).put(iv).put(encrypted);
+        return ENVELOPE_PREFIX + Base64.encodeToString(envelope.array(), Base64.NO_WRAP);
+    }
+
+    /**
+     * Descifra contenido para mostrarlo. Un sobre dice cuántas capas tiene y se
+     * descifra en una sola pasada determinista; el contenido antiguo sin
+     * cabecera (pendiente de migrar) sigue el camino heredado. El esquema 2
+     * necesita la clave del chat: ver {@link #decryptForDisplay(String, SecretKey, String)}.
+     */
+    public static String decryptForDisplay(String content) throws Exception {
+        if (isEnvelope(content)) {
+            return openEnvelope(content);
+        }
+        return decryptLegacy(content);
+    }
+
+    public static String decryptForDisplay(String content, SecretKey chatKey, String chatId)
+            throws GeneralSecurityException {
+        byte[] envelope = decodeEnvelope(content);
+        if (envelope.length <= CHAT_KEY_HEADER_SIZE + GCM_IV_SIZE || envelope[1] != SCHEME_CHAT_KEY) {
+            throw new GeneralSecurityException("No es un sobre con clave de chat");
+        }
+        Cipher cipher = gcmCipher();
+        cipher.init(Cipher.DECRYPT_MODE, chatKey,
+                new GCMParameterSpec(GCM_TAG_BITS, envelope, CHAT_KEY_HEADER_SIZE, GCM_IV_SIZE));
+        cipher.updateAAD(envelope, 0, CHAT_KEY_HEADER_SIZE);
+        cipher.updateAAD(chatId.getBytes(StandardCharsets.UTF_8));
+        int offset = CHAT_KEY_HEADER_SIZE + GCM_IV_SIZE;
+        return new String(cipher.doFinal(envelope, offset, envelope.length - offset), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * keyId de un sobre del esquema 2, o -1 si el contenido no usa clave de chat.
+     * Solo decodifica la cabecera.
+     */
+    public static int chatKeyId(String content) {
+        if (!isEnvelope(content) || content.length() < ENVELOPE_PREFIX.length() + CHAT_KEY_HEADER_CHARS) {
+            return -1;
+        }
+        byte[] header;
+        try {
+            header = Base64.decode(content.substring(ENVELOPE_PREFIX.length(),
+                    ENVELOPE_PREFIX.length() + CHAT_KEY_HEADER_CHARS), Base64.NO_WRAP);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+        if (header[0] != ENVELOPE_VERSION || header[1] != SCHEME_CHAT_KEY) {
+            return -1;
+        }
+        return ByteBuffer.wrap(header, HEADER_SIZE, KEY_ID_SIZE).getInt();
+    }
+
+    public static boolean isEnvelope(String content) {
+        return content != null && content.startsWith(ENVELOPE_PREFIX);
+    }
+
+    private static String openEnvelope(String content) throws GeneralSecurityException {
+        byte[] envelope = decodeEnvelope(content);
+        if (envelope[1] == SCHEME_CHAT_KEY) {
+            throw new GeneralSecurityException("Hace falta la clave del chat");
+        }
+        if (envelope[1] != SCHEME_AES_ECB) {
+            throw new GeneralSecurityException("Esquema no soportado: " + envelope[1]);
+        }
+        int layers = envelope[2];
+        if (layers < 1) {
+            throw new GeneralSecurityException("Número de capas no válido: " + layers);
+        }
+
+        byte[] data = Arrays.copyOfRange(envelope, HEADER_SIZE, envelope.length);
+        for (int i = 0; i < layers; i++) {
+            data = run(DECRYPT_CIPHER, Cipher.DECRYPT_MODE, data);
+            // Las capas internas son el Base64 del cifrado anterior
+            if (i < layers - 1) {
+                data = Base64.decode(data, Base64.DEFAULT);
+            }
+        }
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] decodeEnvelope(String content) throws GeneralSecurityException {
+        byte[] envelope;
+        try {
+            envelope = Base64.decode(content.substring(ENVELOPE_PREFIX.length()), Base64.NO_WRAP);
+        } catch (IllegalArgumentException e) {
+            throw new GeneralSecurityException("Sobre mal formado", e);
+        }
+        if (envelope.length <= HEADER_SIZE) {
+            throw new GeneralSecurityException("Sobre mal formado");
+        }
+        if (envelope[0] != ENVELOPE_VERSION) {
+            throw new GeneralSecurityException("Versión de sobre no soportada: " + envelope[0]);
+        }
+        return envelope;
+    }
+
+    private static byte[] chatKeyHeader(int keyId) {
+        return ByteBuffer.allocate(CHAT_KEY_HEADER_SIZE)
+                .put(ENVELOPE_VERSION)
+                .put(SCHEME_CHAT_KEY)
+                .put((byte) 1)
+                .putInt(keyId)
+                .array();
     }
 
-    public static String decrypt(String encryptedText) throws Exception {
-        SecretKeySpec keySpec = new SecretKeySpec(KEY.getBytes(), ALGORITHM);
-        Cipher cipher = Cipher.getInstance(ALGORITHM);
-        cipher.init(Cipher.DECRYPT_MODE, keySpec);
+    private static Cipher gcmCipher() throws GeneralSecurityException {
+        Cipher cipher = GCM_CIPHER.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(GCM_TRANSFORMATION);
+            GCM_CIPHER.set(cipher);
+        }
+        return cipher;
+    }
+
+    // Formato antiguo: se desconoce si hay una o dos capas y se prueba la segunda
+    // solo si el resultado parece otro cifrado
+    private static String decryptLegacy(String encryptedText) throws Exception {
+        String text = decrypt(encryptedText);
+        if (!looksEncrypted(text)) {
+            return text;
+        }
+        try {
+            text = decrypt(text);
+        } catch (Exception ignored) {
+            // Una sola pasada fue suficiente
+        }
+        return text;
+    }
+
+    private static String decrypt(String encryptedText) throws Exception {
         byte[] decoded = Base64.decode(encryptedText, Base64.DEFAULT);
-        byte[] decrypted = cipher.doFinal(decoded);
-        return new String(decrypted, "UTF-8");
+        byte[] decrypted = run(DECRYPT_CIPHER, Cipher.DECRYPT_MODE, decoded);
+        return new String(decrypted, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] run(ThreadLocal<Cipher> pool, int mode, byte[] input) throws GeneralSecurityException {
+        Cipher cipher = pool.get();
+        if (cipher == null) {
+            cipher = Cipher.getInstance(ALGORITHM);
+            cipher.init(mode, KEY_SPEC);
+            pool.set(cipher);
+        }
+        try {
+            return cipher.doFinal(input);
+        } catch (GeneralSecurityException e) {
+            // Tras un fallo el estado del Cipher no está garantizado: se reinicia
+            cipher.init(mode, KEY_SPEC);
+            throw e;
+        }
+    }
+
+    private static boolean looksEncrypted(String text) {
+        if (text == null || text.isEmpty()) {
+            return false;
+        }
+        try {
+            byte[] decoded = Base64.decode(text, Base64.DEFAULT);
+            return decoded.length > 0 && decoded.length % BLOCK_SIZE == 0;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
     }
-}
\ No newline at end of file
+}
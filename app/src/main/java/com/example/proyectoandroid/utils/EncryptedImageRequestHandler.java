@@ -0,0 +1,168 @@
+package com.example.proyectoandroid.utils;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+
+import com.example.proyectoandroid.data.crypto.AttachmentCipher;
+import com.example.proyectoandroid.data.crypto.ChatKey;
+import com.example.proyectoandroid.data.crypto.ChatKeyRing;
+import com.example.proyectoandroid.data.local.ThumbnailCache;
+import com.example.proyectoandroid.data.model.User;
+import com.example.proyectoandroid.data.repository.AuthRepository;
+import com.squareup.picasso.NetworkPolicy;
+import com.squareup.picasso.Picasso;
+import com.squareup.picasso.Request;
+import com.squareup.picasso.RequestHandler;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.CacheControl;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+
+/**
+ * Carga en Picasso los adjuntos cifrados ({@link AttachmentCipher}): descarga
+ * y descifra como flujo y decodifica ya reducido, así que la memoria no
+ * depende del tamaño del archivo. Las peticiones con tamaño (miniaturas de la
+ * conversación) se guardan en {@link ThumbnailCache}; la imagen completa no
+ * se escribe nunca en claro en disco.
+ */
+public class EncryptedImageRequestHandler extends RequestHandler {
+
+    // Límite de la imagen completa en el visor
+    private static final int FULL_MAX_DIMENSION = 2048;
+    private static final long KEY_TIMEOUT_SECONDS = 15;
+
+    private final OkHttpClient httpClient;
+    private final ChatKeyRing keyRing;
+    private final ThumbnailCache thumbnailCache;
+    private final AuthRepository authRepository;
+
+    public EncryptedImageRequestHandler(OkHttpClient httpClient, ChatKeyRing keyRing,
+                                        ThumbnailCache thumbnailCache, AuthRepository authRepository) {
+        this.httpClient = httpClient;
+        this.keyRing = keyRing;
+        this.thumbnailCache = thumbnailCache;
+        this.authRepository = authRepository;
+    }
+
+    @Override
+    public boolean canHandleRequest(Request data) {
+        return data.uri != null && AttachmentCipher.isEncryptedUrl(data.uri);
+    }
+
+    @Override
+    public RequestHandler.Result load(@NonNull Request request, int networkPolicy) throws IOException {
+        User user = authRepository.getCurrentUser();
+        String chatId = AttachmentCipher.chatIdFromUrl(request.uri);
+        if (user == null || chatId == null) {
+            throw new IOException("Adjunto cifrado sin sesión o sin chat: " + request.uri);
+        }
+
+        boolean thumbnail = request.hasSize();
+        String cacheKey = request.uri + "#" + request.targetWidth + "x" + request.targetHeight;
+        if (thumbnail) {
+            Bitmap cached = thumbnailCache.get(user.getUid(), cacheKey);
+            if (cached != null) {
+                return new RequestHandler.Result(cached, Picasso.LoadedFrom.DISK);
+            }
+        }
+
+        int targetWidth = thumbnail ? request.targetWidth : FULL_MAX_DIMENSION;
+        int targetHeight = thumbnail ? request.targetHeight : FULL_MAX_DIMENSION;
+        Bitmap bitmap = decode(request.uri, chatId, networkPolicy, targetWidth, targetHeight);
+        if (bitmap == null) {
+            throw new IOException("No se pudo decodificar el adjunto: " + request.uri);
+        }
+        if (thumbnail) {
+            thumbnailCache.put(user.getUid(), cacheKey, bitmap);
+        }
+        return new RequestHandler.Result(bitmap, Picasso.LoadedFrom.NETWORK);
+    }
+
+    // Dos pasadas sobre el mismo flujo: medidas (vuelve atrás con mark/reset,
+    // dentro del primer bloque) y después la imagen reducida
+    private Bitmap decode(Uri uri, String chatId, int networkPolicy, int targetWidth, int targetHeight)
+            throws IOException {
+        InputStream in = open(uri, chatId, networkPolicy);
+        try {
+            in.mark(AttachmentCipher.CHUNK_SIZE);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeStream(in, null, options);
+            try {
+                in.reset();
+            } catch (IOException e) {
+                // La cabecera de la imagen no cabía en la marca: se vuelve a abrir
+                in.close();
+                in = open(uri, chatId, networkPolicy);
+            }
+
+            options.inSampleSize = sampleSize(options.outWidth, options.outHeight, targetWidth, targetHeight);
+            options.inJustDecodeBounds = false;
+            return BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+    }
+
+    private InputStream open(Uri uri, String chatId, int networkPolicy) throws IOException {
+        okhttp3.Request.Builder builder = new okhttp3.Request.Builder().url(uri.toString());
+        if (NetworkPolicy.isOfflineOnly(networkPolicy)) {
+            builder.cacheControl(CacheControl.FORCE_CACHE);
+        }
+        Response response = httpClient.newCall(builder.build()).execute();
+        if (!response.isSuccessful() || response.body() == null) {
+            response.close();
+            throw new IOException("HTTP " + response.code() + " descargando adjunto");
+        }
+
+        InputStream raw = response.body().byteStream();
+        try {
+            AttachmentCipher.Header header = AttachmentCipher.readHeader(raw);
+            ChatKey key = chatKey(chatId, header.getKeyId());
+            return new BufferedInputStream(AttachmentCipher.decrypt(raw, header, key), AttachmentCipher.CHUNK_SIZE);
+        } catch (IOException | GeneralSecurityException e) {
+            raw.close();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    private ChatKey chatKey(String chatId, int keyId) throws IOException {
+        ChatKey key = keyRing.peek(chatId, keyId);
+        if (key != null) {
+            return key;
+        }
+        try {
+            // Carga todas las claves del chat; el adjunto puede ser de una anterior
+            keyRing.getKey(chatId).get(KEY_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (Exception e) {
+            throw new IOException("No se pudo cargar la clave del chat", e);
+        }
+        key = keyRing.peek(chatId, keyId);
+        if (key == null) {
+            throw new IOException("Sin clave " + keyId + " para el chat " + chatId);
+        }
+        return key;
+    }
+
+    private static int sampleSize(int width, int height, int targetWidth, int targetHeight) {
+        int sample = 1;
+        if (width <= 0 || height <= 0) {
+            return sample;
+        }
+        // Se reduce mientras la mitad siga cubriendo el destino
+        while (width / (sample * 2) >= Math.max(targetWidth, 1)
+                && height / (sample * 2) >= Math.max(targetHeight, 1)) {
+            sample *= 2;
+        }
+        return sample;
+    }
+}
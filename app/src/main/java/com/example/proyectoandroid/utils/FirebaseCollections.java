@@ -5,4 +5,9 @@ public class FirebaseCollections {
     public static final String CHATS = "chats";
     public static final String MESSAGES = "messages";
     public static final String USER_CHATS = "user_chats";
+    // Subcolección de user_chats/{uid} con una copia de cada chat del usuario
+    public static final String USER_CHAT_ENTRIES = "chats";
+    // Subcolección de chats/{chatId} con la clave del chat cifrada para cada participante
+    public static final String CHAT_KEYS = "keys";
+    public static final String CURRENT_CHAT_KEY = "current";
 }
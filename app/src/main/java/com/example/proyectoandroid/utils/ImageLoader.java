@@ -4,6 +4,7 @@ import android.content.Context;
 import android.util.Log;
 import androidx.annotation.NonNull;
 
+import com.example.proyectoandroid.di.ServiceLocator;
 import com.squareup.picasso.OkHttp3Downloader;
 import com.squareup.picasso.Picasso;
 
@@ -31,6 +32,10 @@ public class ImageLoader {
 
             Picasso.Builder builder = new Picasso.Builder(context);
             builder.downloader(new OkHttp3Downloader(okHttpClient));
+            // Adjuntos cifrados: mismo cliente, así la caché HTTP guarda el cifrado y no el claro
+            ServiceLocator locator = ServiceLocator.getInstance(context);
+            builder.addRequestHandler(new EncryptedImageRequestHandler(okHttpClient,
+                    locator.provideChatKeyRing(), locator.provideThumbnailCache(), locator.provideAuthRepository()));
             builder.indicatorsEnabled(false); // Deshabilitar indicadores en producción
 
             builder.listener((picasso, uri, exception) ->
@@ -0,0 +1,151 @@
+package com.example.proyectoandroid.data.mapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.proyectoandroid.data.model.Chat;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.FieldValue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+public class ChatMapperTest {
+
+    private static final Date LAST_MESSAGE = new Date(1_700_000_000_123L);
+    private static final Date READ = new Date(1_700_000_000_000L);
+
+    private static Map<String, Object> storedChat() {
+        Map<String, Object> lastRead = new HashMap<>();
+        lastRead.put("u1", new Timestamp(READ));
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("participantIds", Arrays.asList("u1", "u2"));
+        data.put("lastMessageContent", "hola");
+        data.put("lastMessageSenderId", "u2");
+        data.put("lastMessageTimestamp", new Timestamp(LAST_MESSAGE));
+        data.put("groupChat", true);
+        data.put("chatName", "Grupo");
+        data.put("lastMessageRead", false);
+        data.put("lastMessageType", 1L);
+        data.put(Chat.LAST_READ_TIMESTAMPS, lastRead);
+        return data;
+    }
+
+    private static Chat newChat() {
+        Chat chat = new Chat(Arrays.asList("u1", "u2"), "Grupo");
+        chat.setChatId("c1");
+        chat.setLastMessageContent("hola");
+        chat.setLastMessageSenderId("u2");
+        chat.setLastMessageTimestamp(LAST_MESSAGE);
+        chat.setLastMessageType(1);
+        chat.setLastReadTimestamps(Collections.singletonMap("u1", READ));
+        return chat;
+    }
+
+    private static void assertSameChat(Chat expected, Chat actual) {
+        assertEquals(expected.getChatId(), actual.getChatId());
+        ReflectiveMapping.assertSameProperties(expected, actual);
+    }
+
+    @Test
+    public void fromMap_matchesReflectiveMapping() {
+        Map<String, Object> data = storedChat();
+
+        Chat chat = ChatMapper.fromMap("c1", data);
+
+        assertTrue(chat.isGroupChat());
+        assertEquals(READ, chat.getLastReadTimestamp("u1"));
+        assertSameChat(ReflectiveMapping.toObject("c1", data, Chat.class), chat);
+    }
+
+    @Test
+    public void fromMap_acceptsDoubleNumbers() {
+        Map<String, Object> data = storedChat();
+        data.put("lastMessageType", 1.0);
+
+        Chat chat = ChatMapper.fromMap("c1", data);
+
+        assertEquals(1, chat.getLastMessageType());
+        assertSameChat(ReflectiveMapping.toObject("c1", data, Chat.class), chat);
+    }
+
+    @Test
+    public void fromMap_convertsTimestampToDate() {
+        assertEquals(LAST_MESSAGE, ChatMapper.fromMap("c1", storedChat()).getLastMessageTimestamp());
+    }
+
+    @Test
+    public void fromMap_readsLegacyFields() {
+        Map<String, Object> data = storedChat();
+        data.put("lastMessageSenderName", "Ana");
+        data.put("lastMessageSenderEmail", "ana@example.com");
+
+        Chat chat = ChatMapper.fromMap("c1", data);
+
+        assertEquals("Ana", chat.getLastMessageSenderName());
+        assertEquals("ana@example.com", chat.getLastMessageSenderEmail());
+        assertSameChat(ReflectiveMapping.toObject("c1", data, Chat.class), chat);
+    }
+
+    @Test
+    public void fromMap_missingFieldsUseDefaults() {
+        Map<String, Object> data = new HashMap<>();
+
+        assertSameChat(ReflectiveMapping.toObject("c1", data, Chat.class), ChatMapper.fromMap("c1", data));
+    }
+
+    @Test
+    public void fromMap_skipsPendingReadTimestamps() {
+        Map<String, Object> lastRead = new HashMap<>();
+        lastRead.put("u1", new Timestamp(READ));
+        lastRead.put("u2", null);
+        Map<String, Object> data = storedChat();
+        data.put(Chat.LAST_READ_TIMESTAMPS, lastRead);
+
+        Chat chat = ChatMapper.fromMap("c1", data);
+
+        assertEquals(READ, chat.getLastReadTimestamp("u1"));
+        assertFalse(chat.getLastReadTimestamps().containsKey("u2"));
+    }
+
+    @Test
+    public void toMap_nullTimestampIsServerTimestamp() {
+        Chat chat = newChat();
+        chat.setLastMessageTimestamp(null);
+
+        assertEquals(FieldValue.serverTimestamp(), ChatMapper.toMap(chat).get("lastMessageTimestamp"));
+        assertEquals(ReflectiveMapping.toMap(chat).get("lastMessageTimestamp"),
+                ChatMapper.toMap(chat).get("lastMessageTimestamp"));
+    }
+
+    @Test
+    public void toMap_matchesReflectiveMappingWithoutLegacyFields() {
+        Chat chat = newChat();
+        chat.setLastMessageSenderName("Ana");
+        chat.setLastMessageSenderEmail("ana@example.com");
+
+        // El remitente se resuelve por lastMessageSenderId; los duplicados ya no se escriben
+        Map<String, Object> expected = ReflectiveMapping.toMap(chat);
+        expected.remove("lastMessageSenderName");
+        expected.remove("lastMessageSenderEmail");
+
+        Map<String, Object> actual = ChatMapper.toMap(chat);
+        assertEquals(expected, actual);
+        assertEquals(true, actual.get("groupChat"));
+        assertFalse(actual.containsKey("chatId"));
+    }
+
+    @Test
+    public void roundTrip_preservesChat() {
+        Chat chat = newChat();
+
+        assertSameChat(chat, ChatMapper.fromMap("c1", ChatMapper.toMap(chat)));
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.proyectoandroid.data.mapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import com.example.proyectoandroid.data.model.Message;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.DocumentReference;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Tiempo por mensaje del mapper escrito a mano frente al mapeo por reflexión
+ * del SDK, en las dos direcciones. Es una medida orientativa en la JVM del
+ * equipo (no en el dispositivo): solo imprime los resultados. Fuera de la
+ * suite normal; se lanza con {@code ./gradlew testDebugUnitTest -PmapperBenchmark
+ * --tests '*MapperBenchmarkTest'}.
+ */
+public class MapperBenchmarkTest {
+
+    private static final int WARMUP = 20_000;
+    private static final int ITERATIONS = 200_000;
+
+    // Lo lee el JIT como efecto visible: así no descarta el trabajo medido
+    private static volatile int sink;
+
+    @Test
+    public void benchmark_messageMapping() {
+        assumeTrue(Boolean.getBoolean("mapperBenchmark"));
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("chatId", "chat1");
+        data.put("senderId", "u1");
+        data.put("senderProfileVersion", 3L);
+        data.put("content", "AQAAAAEAAAAMdGV4dG8gY2lmcmFkbyBkZSBwcnVlYmE=");
+        data.put("messageType", 0L);
+        data.put("timestamp", new Timestamp(new Date(1_700_000_000_123L)));
+        DocumentReference ref = ReflectiveMapping.documentRef("m1");
+        Message message = MessageMapper.fromMap("m1", data);
+
+        // Los dos caminos piden el id a la referencia, como fromSnapshot() con snapshot.getId()
+        double manualRead = nanosPerOp(() -> MessageMapper.fromMap(ref.getId(), data));
+        double reflectiveRead = nanosPerOp(() -> ReflectiveMapping.toObject(ref, data, Message.class));
+        double manualWrite = nanosPerOp(() -> MessageMapper.toMap(message));
+        double reflectiveWrite = nanosPerOp(() -> ReflectiveMapping.toMap(message));
+
+        System.out.println(String.format(Locale.ROOT,
+                "Message lectura: a mano %.0f ns, reflexión %.0f ns (x%.1f)",
+                manualRead, reflectiveRead, reflectiveRead / manualRead));
+        System.out.println(String.format(Locale.ROOT,
+                "Message escritura: a mano %.0f ns, reflexión %.0f ns (x%.1f)",
+                manualWrite, reflectiveWrite, reflectiveWrite / manualWrite));
+        assertEquals("m1", MessageMapper.fromMap("m1", data).getMessageId());
+    }
+
+    private static double nanosPerOp(Supplier<Object> mapping) {
+        int hash = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            hash += System.identityHashCode(mapping.get());
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            hash += System.identityHashCode(mapping.get());
+        }
+        long elapsed = System.nanoTime() - start;
+        sink = hash;
+        return (double) elapsed / ITERATIONS;
+    }
+}
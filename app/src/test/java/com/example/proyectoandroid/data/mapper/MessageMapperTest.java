@@ -0,0 +1,127 @@
+package com.example.proyectoandroid.data.mapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.proyectoandroid.data.model.Message;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.FieldValue;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+public class MessageMapperTest {
+
+    private static final Date SENT = new Date(1_700_000_000_123L);
+
+    // Documento tal como lo entrega getData(): números Long y fechas Timestamp
+    private static Map<String, Object> storedMessage() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("chatId", "chat1");
+        data.put("senderId", "u1");
+        data.put("senderProfileVersion", 3L);
+        data.put("content", "hola");
+        data.put("messageType", 1L);
+        data.put("imageUrl", "https://example.com/a.jpg");
+        data.put("timestamp", new Timestamp(SENT));
+        return data;
+    }
+
+    private static Message newMessage() {
+        Message message = new Message("chat1", "u1", null, null, "hola", 0, null);
+        message.setMessageId("m1");
+        message.setSenderProfileVersion(7L);
+        message.setTimestamp(SENT);
+        return message;
+    }
+
+    private static void assertSameMessage(Message expected, Message actual) {
+        assertEquals(expected.getMessageId(), actual.getMessageId());
+        ReflectiveMapping.assertSameProperties(expected, actual);
+    }
+
+    @Test
+    public void fromMap_matchesReflectiveMapping() {
+        Map<String, Object> data = storedMessage();
+
+        assertSameMessage(ReflectiveMapping.toObject("m1", data, Message.class), MessageMapper.fromMap("m1", data));
+    }
+
+    @Test
+    public void fromMap_acceptsDoubleNumbers() {
+        Map<String, Object> data = storedMessage();
+        data.put("senderProfileVersion", 3.0);
+        data.put("messageType", 1.0);
+
+        Message message = MessageMapper.fromMap("m1", data);
+
+        assertEquals(3L, message.getSenderProfileVersion());
+        assertEquals(1, message.getMessageType());
+        assertSameMessage(ReflectiveMapping.toObject("m1", data, Message.class), message);
+    }
+
+    @Test
+    public void fromMap_convertsTimestampToDate() {
+        assertEquals(SENT, MessageMapper.fromMap("m1", storedMessage()).getTimestamp());
+    }
+
+    @Test
+    public void fromMap_readsLegacyFields() {
+        Map<String, Object> data = storedMessage();
+        data.put("senderName", "Ana");
+        data.put("senderEmail", "ana@example.com");
+        data.put("read", true);
+
+        Message message = MessageMapper.fromMap("m1", data);
+
+        assertEquals("Ana", message.getSenderName());
+        assertEquals("ana@example.com", message.getSenderEmail());
+        assertTrue(message.isRead());
+        assertSameMessage(ReflectiveMapping.toObject("m1", data, Message.class), message);
+    }
+
+    @Test
+    public void fromMap_missingFieldsUseDefaults() {
+        Map<String, Object> data = new HashMap<>();
+
+        assertSameMessage(ReflectiveMapping.toObject("m1", data, Message.class), MessageMapper.fromMap("m1", data));
+    }
+
+    @Test
+    public void toMap_nullTimestampIsServerTimestamp() {
+        Message message = newMessage();
+        message.setTimestamp(null);
+
+        assertEquals(FieldValue.serverTimestamp(), MessageMapper.toMap(message).get("timestamp"));
+        assertEquals(ReflectiveMapping.toMap(message).get("timestamp"), MessageMapper.toMap(message).get("timestamp"));
+    }
+
+    @Test
+    public void toMap_matchesReflectiveMappingWithoutLegacyFields() {
+        Message message = newMessage();
+        message.setSenderName("Ana");
+        message.setSenderEmail("ana@example.com");
+        message.setRead(true);
+
+        // El esquema compacto deja de escribir estos tres campos a propósito
+        Map<String, Object> expected = ReflectiveMapping.toMap(message);
+        expected.remove("senderName");
+        expected.remove("senderEmail");
+        expected.remove("read");
+
+        Map<String, Object> actual = MessageMapper.toMap(message);
+        assertEquals(expected, actual);
+        assertFalse(actual.containsKey("messageId"));
+    }
+
+    @Test
+    public void roundTrip_preservesMessage() {
+        Message message = newMessage();
+
+        assertSameMessage(message, MessageMapper.fromMap("m1", MessageMapper.toMap(message)));
+    }
+}
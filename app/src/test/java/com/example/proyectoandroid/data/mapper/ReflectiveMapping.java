@@ -0,0 +1,43 @@
+package com.example.proyectoandroid.data.mapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.util.CustomClassMapper;
+
+import java.util.Map;
+
+/**
+ * Mapeo por reflexión del SDK, el mismo que usan {@code toObject()} y
+ * {@code set(objeto)}: es la referencia con la que se comparan los mappers.
+ */
+final class ReflectiveMapping {
+
+    private ReflectiveMapping() {}
+
+    static DocumentReference documentRef(String id) {
+        DocumentReference ref = mock(DocumentReference.class);
+        when(ref.getId()).thenReturn(id);
+        return ref;
+    }
+
+    static <T> T toObject(String id, Map<String, Object> data, Class<T> type) {
+        return toObject(documentRef(id), data, type);
+    }
+
+    static <T> T toObject(DocumentReference ref, Map<String, Object> data, Class<T> type) {
+        return CustomClassMapper.convertToCustomClass(data, type, ref);
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> toMap(Object object) {
+        return (Map<String, Object>) CustomClassMapper.convertToPlainJavaTypes(object);
+    }
+
+    // Compara todas las propiedades que el SDK escribiría de cada objeto
+    static void assertSameProperties(Object expected, Object actual) {
+        assertEquals(toMap(expected), toMap(actual));
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.proyectoandroid.data.mapper;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.proyectoandroid.data.model.User;
+import com.google.firebase.Timestamp;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+public class UserMapperTest {
+
+    private static Map<String, Object> storedUser() {
+        Map<String, Object> data = new HashMap<>();
+        data.put("uid", "u1");
+        data.put("email", "ana@example.com");
+        data.put("displayName", "Ana");
+        data.put("photoUrl", "");
+        data.put("profileImageUrl", "https://example.com/ana.jpg");
+        data.put("online", true);
+        data.put("lastOnline", 1_700_000_000_000L);
+        data.put("lastSeen", 1_700_000_000_500L);
+        data.put("fcmToken", "token");
+        data.put("tokenUpdatedAt", 1_699_000_000_000L);
+        data.put("publicKey", "cHVibGlj");
+        data.put("profileVersion", 4L);
+        return data;
+    }
+
+    private static User newUser() {
+        User user = new User("u1", "ana@example.com", "Ana");
+        user.setDocumentId("u1");
+        user.setOnline(true);
+        user.setLastOnline(1_700_000_000_000L);
+        user.setLastSeen(1_700_000_000_500L);
+        user.setPublicKey("cHVibGlj");
+        user.setProfileVersion(4L);
+        return user;
+    }
+
+    private static void assertSameUser(User expected, User actual) {
+        assertEquals(expected.getDocumentId(), actual.getDocumentId());
+        ReflectiveMapping.assertSameProperties(expected, actual);
+    }
+
+    @Test
+    public void fromMap_matchesReflectiveMapping() {
+        Map<String, Object> data = storedUser();
+
+        assertSameUser(ReflectiveMapping.toObject("u1", data, User.class), UserMapper.fromMap("u1", data));
+    }
+
+    @Test
+    public void fromMap_acceptsDoubleNumbers() {
+        Map<String, Object> data = storedUser();
+        data.put("lastOnline", 1.7e12);
+        data.put("profileVersion", 4.0);
+
+        User user = UserMapper.fromMap("u1", data);
+
+        assertEquals(1_700_000_000_000L, user.getLastOnline());
+        assertEquals(4L, user.getProfileVersion());
+        assertSameUser(ReflectiveMapping.toObject("u1", data, User.class), user);
+    }
+
+    @Test
+    public void fromMap_readsServerTimestampsAsMillis() {
+        Map<String, Object> data = storedUser();
+        data.put("lastOnline", new Timestamp(new Date(1_700_000_000_000L)));
+        data.put("lastSeen", new Timestamp(new Date(1_700_000_000_500L)));
+
+        User user = UserMapper.fromMap("u1", data);
+
+        // El mapeo por reflexión no convierte Timestamp a long: aquí no hay referencia
+        assertEquals(1_700_000_000_000L, user.getLastOnline());
+        assertEquals(1_700_000_000_500L, user.getLastSeen());
+    }
+
+    @Test
+    public void fromMap_missingFieldsUseDefaults() {
+        Map<String, Object> data = new HashMap<>();
+
+        User user = UserMapper.fromMap("u1", data);
+
+        assertFalse(user.isOnline());
+        assertSameUser(ReflectiveMapping.toObject("u1", data, User.class), user);
+    }
+
+    @Test
+    public void toMap_matchesReflectiveMapping() {
+        User user = newUser();
+
+        Map<String, Object> actual = UserMapper.toMap(user);
+
+        assertEquals(ReflectiveMapping.toMap(user), actual);
+        assertFalse(actual.containsKey("documentId"));
+    }
+
+    @Test
+    public void roundTrip_preservesUser() {
+        User user = newUser();
+
+        assertSameUser(user, UserMapper.fromMap("u1", UserMapper.toMap(user)));
+    }
+
+    @Test
+    public void jsonRoundTrip_preservesSession() {
+        User user = newUser();
+
+        User restored = UserMapper.fromJson(UserMapper.toJson(user));
+
+        assertTrue(restored.isOnline());
+        assertSameUser(user, restored);
+    }
+}